@@ -0,0 +1,5 @@
+#!/bin/sh
+# Lets the users database replica (docker compose profile "replica") stream the WAL of this primary.
+# Like every init script, it only runs when the data directory is created.
+set -e
+echo "host replication all all scram-sha-256" >> "$PGDATA/pg_hba.conf"
@@ -0,0 +1,30 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.cache.HotKeyReplicaCache;
+import com.mspoc.users_service.cache.HotKeyReplicaLayer;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code /actuator/hotkeys}: per cache with {@code hot-keys.enabled}, the keys this instance
+ * currently considers hot, their estimated reads and whether they are replicated locally.
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class CacheHotKeysEndpoint {
+
+    private final HotKeyReplicaLayer hotKeyReplicaLayer;
+
+    public CacheHotKeysEndpoint(HotKeyReplicaLayer hotKeyReplicaLayer) {
+        this.hotKeyReplicaLayer = hotKeyReplicaLayer;
+    }
+
+    @ReadOperation
+    public Map<String, List<HotKeyReplicaCache.HotKeyStatus>> hotKeys() {
+        return hotKeyReplicaLayer.hotKeys();
+    }
+}
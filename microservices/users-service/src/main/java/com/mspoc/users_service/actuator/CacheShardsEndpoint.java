@@ -0,0 +1,61 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.cache.RedisShardRegistry;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@code /actuator/cacheshards} (only with {@code users-service.cache.sharding.enabled=true}):
+ * GET lists the shard nodes and their health, POST adds a node, DELETE {@code /{name}} removes one.
+ * Changes apply to every instance (see {@link RedisShardRegistry}).
+ */
+@Component
+@Endpoint(id = "cacheshards")
+@ConditionalOnProperty(name = "users-service.cache.sharding.enabled", havingValue = "true")
+public class CacheShardsEndpoint {
+
+    private final RedisShardRegistry shardRegistry;
+
+    public CacheShardsEndpoint(RedisShardRegistry shardRegistry) {
+        this.shardRegistry = shardRegistry;
+    }
+
+    @ReadOperation
+    public List<RedisShardRegistry.NodeStatus> nodes() {
+        return shardRegistry.status();
+    }
+
+    @WriteOperation
+    public List<RedisShardRegistry.NodeStatus> add(String name, String host, int port, @Nullable String password) {
+        UsersCacheProperties.ShardNode node = new UsersCacheProperties.ShardNode();
+        node.setName(name);
+        node.setHost(host);
+        node.setPort(port);
+        node.setPassword(password);
+        try {
+            shardRegistry.addNode(node);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidEndpointRequestException(ex.getMessage(), "Invalid shard node");
+        }
+        return shardRegistry.status();
+    }
+
+    /**
+     * @return {@code null} (404) for an unknown node
+     */
+    @DeleteOperation
+    @Nullable
+    public List<RedisShardRegistry.NodeStatus> remove(@Selector String name) {
+        return shardRegistry.removeNode(name) ? shardRegistry.status() : null;
+    }
+}
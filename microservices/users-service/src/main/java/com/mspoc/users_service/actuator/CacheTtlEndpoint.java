@@ -0,0 +1,28 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.cache.CacheTtlStatistics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code /actuator/cachettl}: per cache, the distribution of the TTLs given to Redis entries
+ * and the estimated memory the TTL policy saved.
+ */
+@Component
+@Endpoint(id = "cachettl")
+public class CacheTtlEndpoint {
+
+    private final CacheTtlStatistics ttlStatistics;
+
+    public CacheTtlEndpoint(CacheTtlStatistics ttlStatistics) {
+        this.ttlStatistics = ttlStatistics;
+    }
+
+    @ReadOperation
+    public Map<String, CacheTtlStatistics.Report> report() {
+        return ttlStatistics.report();
+    }
+}
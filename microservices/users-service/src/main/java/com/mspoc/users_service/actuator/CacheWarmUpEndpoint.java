@@ -0,0 +1,32 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.service.UserPreferencesCacheWarmer;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/cachewarmup}: GET reports the progress of the current or last warm-up,
+ * POST starts one (or returns the running one).
+ */
+@Component
+@Endpoint(id = "cachewarmup")
+public class CacheWarmUpEndpoint {
+
+    private final UserPreferencesCacheWarmer cacheWarmer;
+
+    public CacheWarmUpEndpoint(UserPreferencesCacheWarmer cacheWarmer) {
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    @ReadOperation
+    public UserPreferencesCacheWarmer.Status status() {
+        return cacheWarmer.status();
+    }
+
+    @WriteOperation
+    public UserPreferencesCacheWarmer.Status start() {
+        return cacheWarmer.start();
+    }
+}
@@ -0,0 +1,29 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/readreplicas} (only with {@code users-service.datasource.read-replicas.enabled=true}):
+ * the lag and eligibility of every read replica, and how many read-only connections each pool,
+ * the primary included, has served.
+ */
+@Component
+@Endpoint(id = "readreplicas")
+@ConditionalOnProperty(name = "users-service.datasource.read-replicas.enabled", havingValue = "true")
+public class ReadReplicasEndpoint {
+
+    private final ReadReplicaDataSource readReplicas;
+
+    public ReadReplicasEndpoint(ReadReplicaDataSource readReplicas) {
+        this.readReplicas = readReplicas;
+    }
+
+    @ReadOperation
+    public ReadReplicaDataSource.Status status() {
+        return readReplicas.status();
+    }
+}
@@ -0,0 +1,34 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.cache.RedisCircuitBreaker;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the Redis circuit breaker as {@code redisCircuitBreaker} in {@code /actuator/health}:
+ * {@code UP} while closed, {@code DEGRADED} while open or half-open (the service keeps answering
+ * from the database, so the status maps to HTTP 200).
+ */
+@Component
+public class RedisCircuitBreakerHealthIndicator implements HealthIndicator {
+
+    static final Status DEGRADED = new Status("DEGRADED", "Redis cache bypassed, serving from the database");
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    public RedisCircuitBreakerHealthIndicator(RedisCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Health health() {
+        RedisCircuitBreaker.State state = circuitBreaker.getState();
+        return Health.status(state == RedisCircuitBreaker.State.CLOSED ? Status.UP : DEGRADED)
+                .withDetail("enabled", circuitBreaker.isEnabled())
+                .withDetail("state", state)
+                .withDetail("since", circuitBreaker.getStateSince())
+                .build();
+    }
+}
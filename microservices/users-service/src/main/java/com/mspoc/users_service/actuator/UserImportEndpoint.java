@@ -0,0 +1,26 @@
+package com.mspoc.users_service.actuator;
+
+import com.mspoc.users_service.service.UserBulkImporter;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/userimport}: progress of the running bulk user import (rows read, imported,
+ * skipped, rows per second), or the report of the last one.
+ */
+@Component
+@Endpoint(id = "userimport")
+public class UserImportEndpoint {
+
+    private final UserBulkImporter bulkImporter;
+
+    public UserImportEndpoint(UserBulkImporter bulkImporter) {
+        this.bulkImporter = bulkImporter;
+    }
+
+    @ReadOperation
+    public UserBulkImporter.Status status() {
+        return bulkImporter.status();
+    }
+}
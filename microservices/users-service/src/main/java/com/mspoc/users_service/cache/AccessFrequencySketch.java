@@ -0,0 +1,71 @@
+package com.mspoc.users_service.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count-min sketch of recent key reads: four rows of {@code width} counters, a read increments
+ * one counter per row and the estimate is the smallest of them (never below the true count,
+ * above it only on hash collisions).
+ * <p>
+ * Counters are halved every {@code 10 * width} reads, so the estimate follows recent popularity
+ * instead of growing forever. Updates are lock-free; a halving racing with increments may lose
+ * a few of them, which only makes the estimate slightly lower.
+ */
+public class AccessFrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    private final long resetAfter;
+    private final AtomicLong additions = new AtomicLong();
+
+    public AccessFrequencySketch(int width) {
+        int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+        this.counters = new AtomicIntegerArray(DEPTH * size);
+        this.mask = size - 1;
+        this.resetAfter = 10L * size;
+    }
+
+    public void increment(Object key) {
+        long hash = spread(key.hashCode());
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(hash, row);
+            if (counters.get(index) < Integer.MAX_VALUE) {
+                counters.incrementAndGet(index);
+            }
+        }
+        if (additions.incrementAndGet() % resetAfter == 0) {
+            halve();
+        }
+    }
+
+    public int estimate(Object key) {
+        long hash = spread(key.hashCode());
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters.get(index(hash, row)));
+        }
+        return min;
+    }
+
+    private void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, count -> count >>> 1);
+        }
+    }
+
+    private int index(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return row * (mask + 1) + (int) ((h ^ (h >>> 32)) & mask);
+    }
+
+    private static long spread(int hashCode) {
+        long h = hashCode * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
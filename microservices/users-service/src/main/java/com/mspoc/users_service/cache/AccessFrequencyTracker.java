@@ -0,0 +1,37 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recent read frequency of the keys of every cache with {@code ttl-policy.adaptive=true},
+ * one {@link AccessFrequencySketch} per cache and instance.
+ * <p>
+ * Fed by the {@link AccessTrackingLayer}, read by the {@link AdaptiveTtlFunction} when an entry is written.
+ */
+@Component
+public class AccessFrequencyTracker {
+
+    private final UsersCacheProperties cacheProperties;
+    private final Map<String, AccessFrequencySketch> sketches = new ConcurrentHashMap<>();
+
+    public AccessFrequencyTracker(UsersCacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+    }
+
+    public void recordRead(String cacheName, Object key) {
+        sketch(cacheName).increment(key);
+    }
+
+    public int frequency(String cacheName, Object key) {
+        return sketch(cacheName).estimate(key);
+    }
+
+    private AccessFrequencySketch sketch(String cacheName) {
+        return sketches.computeIfAbsent(cacheName, name ->
+                new AccessFrequencySketch(cacheProperties.getSpec(name).getTtlPolicy().getSketchWidth()));
+    }
+}
@@ -0,0 +1,45 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Counts every read of a key in the {@link AccessFrequencyTracker}, hits and misses alike,
+ * so the {@link AdaptiveTtlFunction} knows how popular a key is when it is written.
+ */
+public class AccessTrackingCache extends ForwardingCache {
+
+    private final AccessFrequencyTracker accessTracker;
+
+    public AccessTrackingCache(Cache delegate, AccessFrequencyTracker accessTracker) {
+        super(delegate);
+        this.accessTracker = accessTracker;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        accessTracker.recordRead(getName(), key);
+        return delegate.get(key);
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        accessTracker.recordRead(getName(), key);
+        return delegate.get(key, valueLoader);
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        accessTracker.recordRead(getName(), key);
+        return delegate.retrieve(key);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        accessTracker.recordRead(getName(), key);
+        return delegate.retrieve(key, valueLoader);
+    }
+}
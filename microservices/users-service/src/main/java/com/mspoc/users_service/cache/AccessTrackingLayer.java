@@ -0,0 +1,38 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps caches with {@code ttl-policy.adaptive=true} in an {@link AccessTrackingCache}.
+ * <p>
+ * Sits above the near cache so reads answered by the L1 count as well.
+ */
+@Component
+@Order(350)
+@Slf4j
+public class AccessTrackingLayer implements CacheLayer {
+
+    private final UsersCacheProperties cacheProperties;
+    private final AccessFrequencyTracker accessTracker;
+
+    public AccessTrackingLayer(UsersCacheProperties cacheProperties, AccessFrequencyTracker accessTracker) {
+        this.cacheProperties = cacheProperties;
+        this.accessTracker = accessTracker;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        UsersCacheProperties.TtlPolicy policy = cacheProperties.getSpec(cache.getName()).getTtlPolicy();
+        if (!policy.isAdaptive()) {
+            return cache;
+        }
+
+        log.info("Adaptive TTL enabled for '{}' (factors {}..{}, hot at {} reads, jitter={})", cache.getName(),
+                policy.getMinFactor(), policy.getMaxFactor(), policy.getHotAccessCount(), policy.getJitter());
+        return new AccessTrackingCache(cache, accessTracker);
+    }
+}
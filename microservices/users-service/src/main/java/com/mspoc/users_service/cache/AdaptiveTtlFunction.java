@@ -0,0 +1,68 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.time.Duration;
+
+/**
+ * TTL of a cache entry computed from the cache's base TTL and its {@code ttl-policy}.
+ * <p>
+ * With {@code adaptive}, the base TTL is scaled between {@code min-factor} (key not read
+ * recently) and {@code max-factor} (read {@code hot-access-count} times or more), on a log
+ * scale of the read count. With {@code jitter}, the result is moved by up to that fraction
+ * in either direction.
+ * <p>
+ * The jitter is derived from the key hash rather than drawn at random, so the same key always
+ * gets the same jitter while keys written in the same burst still get different TTLs. The adaptive
+ * factor changes as the key is read, so the TTL of an entry is only known at write time; the
+ * {@link CacheTtlStatistics} record it there.
+ */
+public class AdaptiveTtlFunction implements RedisCacheWriter.TtlFunction {
+
+    private final String cacheName;
+    private final Duration baseTtl;
+    private final UsersCacheProperties.TtlPolicy policy;
+    private final AccessFrequencyTracker accessTracker;
+
+    public AdaptiveTtlFunction(String cacheName, Duration baseTtl, UsersCacheProperties.TtlPolicy policy,
+                               AccessFrequencyTracker accessTracker) {
+        this.cacheName = cacheName;
+        this.baseTtl = baseTtl;
+        this.policy = policy;
+        this.accessTracker = accessTracker;
+    }
+
+    public Duration getBaseTtl() {
+        return baseTtl;
+    }
+
+    @Override
+    public Duration getTimeToLive(Object key, Object value) {
+        double factor = policy.isAdaptive() ? frequencyFactor(accessTracker.frequency(cacheName, key)) : 1.0;
+        if (policy.getJitter() > 0) {
+            factor *= 1 + policy.getJitter() * unitJitter(key);
+        }
+        return Duration.ofMillis(Math.max(1, Math.round(baseTtl.toMillis() * factor)));
+    }
+
+    private double frequencyFactor(int reads) {
+        double min = policy.getMinFactor();
+        double max = policy.getMaxFactor();
+        int hot = Math.max(1, policy.getHotAccessCount());
+        if (reads >= hot) {
+            return max;
+        }
+        double position = Math.log1p(reads) / Math.log1p(hot);
+        return min * Math.pow(max / min, position);
+    }
+
+    // Uniform in [-1, 1), fixed per key
+    private static double unitJitter(Object key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 27;
+        return (h >>> 11) * 0x1.0p-52 - 1.0;
+    }
+}
@@ -0,0 +1,336 @@
+package com.mspoc.users_service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.cache.CacheStatistics;
+import org.springframework.data.redis.cache.CacheStatisticsCollector;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * {@link RedisCacheWriter} that defers the writes issued while a {@link CacheMutationBatch} is open
+ * and sends them as one Lua script when the batch closes.
+ * <p>
+ * All cache operations triggered by a single {@code @CachePut}/{@code @CacheEvict}/{@code @Caching}
+ * invocation therefore reach Redis in one round-trip (one per node when the cache is sharded) and are
+ * applied atomically, in invocation order. With sharding, each mutated key is also deleted on the
+ * other live nodes (see {@link RedisKeyRouter#otherNodes}). Each mutated key has a version entry on the same node
+ * ({@code <prefix>cache-version:<key>}, kept for {@code version-retention}); a mutation is skipped
+ * when the key was last written by a batch of a later commit, so a slow flush cannot overwrite the
+ * result of a newer commit. Skipped mutations are counted in {@code cache.batch.stale_writes}.
+ * <p>
+ * Reads and {@code putIfAbsent} of a key with a pending mutation, and clears, flush the batch first.
+ * Outside a batch every call goes straight to the delegate. A failed flush is logged, counted and
+ * reported to the batch, which hands the affected keys to the missed-eviction replay of the
+ * {@link CircuitBreakerCache}.
+ */
+@Slf4j
+public class BatchingRedisCacheWriter implements RedisCacheWriter {
+
+    /**
+     * KEYS: (cache key, version key) per mutation. ARGV: version, version retention (ms),
+     * then (operation, ttl ms, value) per mutation. Returns the number of stale mutations.
+     */
+    private static final RedisScript<Long> APPLY_MUTATIONS = RedisScript.of("""
+            local version = tonumber(ARGV[1])
+            local stale = 0
+            for i = 1, #KEYS, 2 do
+              local arg = 3 + (i - 1) / 2 * 3
+              local current = tonumber(redis.call('GET', KEYS[i + 1]) or '0')
+              if version < current then
+                stale = stale + 1
+              else
+                if ARGV[arg] == 'SET' then
+                  local ttl = tonumber(ARGV[arg + 1])
+                  if ttl > 0 then
+                    redis.call('SET', KEYS[i], ARGV[arg + 2], 'PX', ttl)
+                  else
+                    redis.call('SET', KEYS[i], ARGV[arg + 2])
+                  end
+                else
+                  redis.call('DEL', KEYS[i])
+                end
+                redis.call('SET', KEYS[i + 1], ARGV[1], 'PX', ARGV[2])
+              end
+            end
+            return stale
+            """, Long.class);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final RedisCacheWriter delegate;
+    private final RedisKeyRouter keyRouter;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final CacheStatisticsCollector statistics;
+    private final CacheTtlStatistics ttlStatistics;
+    private final byte[] versionKeyPrefix;
+    private final Duration versionRetention;
+    private final MeterRegistry meterRegistry;
+
+    private final Timer flushed;
+    private final Timer failed;
+    private final DistributionSummary batchSize;
+    private final Counter staleWrites;
+
+    public BatchingRedisCacheWriter(RedisCacheWriter delegate,
+                                    RedisKeyRouter keyRouter,
+                                    RedisCircuitBreaker circuitBreaker,
+                                    String versionKeyPrefix,
+                                    Duration versionRetention,
+                                    CacheTtlStatistics ttlStatistics,
+                                    MeterRegistry meterRegistry) {
+        this(delegate, keyRouter, circuitBreaker, CacheStatisticsCollector.none(), ttlStatistics,
+                versionKeyPrefix.getBytes(StandardCharsets.UTF_8), versionRetention, meterRegistry);
+    }
+
+    private BatchingRedisCacheWriter(RedisCacheWriter delegate,
+                                     RedisKeyRouter keyRouter,
+                                     RedisCircuitBreaker circuitBreaker,
+                                     CacheStatisticsCollector statistics,
+                                     CacheTtlStatistics ttlStatistics,
+                                     byte[] versionKeyPrefix,
+                                     Duration versionRetention,
+                                     MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.keyRouter = keyRouter;
+        this.circuitBreaker = circuitBreaker;
+        this.statistics = statistics;
+        this.ttlStatistics = ttlStatistics;
+        this.versionKeyPrefix = versionKeyPrefix;
+        this.versionRetention = versionRetention;
+        this.meterRegistry = meterRegistry;
+        this.flushed = flushTimer("success");
+        this.failed = flushTimer("failure");
+        this.batchSize = DistributionSummary.builder("cache.batch.size")
+                .description("Cache mutations sent per batched script")
+                .register(meterRegistry);
+        this.staleWrites = Counter.builder("cache.batch.stale_writes")
+                .description("Batched cache mutations skipped because a newer version was already written")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key) {
+        flushIfPending(key);
+        return delegate.get(name, key);
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key, Duration ttl) {
+        flushIfPending(key);
+        return delegate.get(name, key, ttl);
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key, Supplier<byte[]> valueLoader, Duration ttl, boolean timeToIdleEnabled) {
+        // Goes through get(..) and put(..) above
+        return RedisCacheWriter.super.get(name, key, valueLoader, ttl, timeToIdleEnabled);
+    }
+
+    @Override
+    public boolean supportsAsyncRetrieve() {
+        return delegate.supportsAsyncRetrieve();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> retrieve(String name, byte[] key, Duration ttl) {
+        flushIfPending(key);
+        return delegate.retrieve(name, key, ttl);
+    }
+
+    @Override
+    public void put(String name, byte[] key, byte[] value, Duration ttl) {
+        if (!enqueue(name, CacheMutationBatch.Operation.SET, key, value, ttl)) {
+            delegate.put(name, key, value, ttl);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> store(String name, byte[] key, byte[] value, Duration ttl) {
+        if (enqueue(name, CacheMutationBatch.Operation.SET, key, value, ttl)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return delegate.store(name, key, value, ttl);
+    }
+
+    @Override
+    public byte[] putIfAbsent(String name, byte[] key, byte[] value, Duration ttl) {
+        flushIfPending(key);
+        return delegate.putIfAbsent(name, key, value, ttl);
+    }
+
+    @Override
+    public void remove(String name, byte[] key) {
+        if (!enqueue(name, CacheMutationBatch.Operation.DEL, key, EMPTY, null)) {
+            delegate.remove(name, key);
+        }
+    }
+
+    @Override
+    public void clean(String name, byte[] pattern) {
+        CacheMutationBatch.current().ifPresent(CacheMutationBatch::flush);
+        delegate.clean(name, pattern);
+    }
+
+    @Override
+    public void clearStatistics(String name) {
+        delegate.clearStatistics(name);
+    }
+
+    @Override
+    public RedisCacheWriter withStatisticsCollector(CacheStatisticsCollector cacheStatisticsCollector) {
+        return new BatchingRedisCacheWriter(delegate.withStatisticsCollector(cacheStatisticsCollector), keyRouter,
+                circuitBreaker, cacheStatisticsCollector, ttlStatistics, versionKeyPrefix, versionRetention, meterRegistry);
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics(String cacheName) {
+        return delegate.getCacheStatistics(cacheName);
+    }
+
+    /**
+     * Applies the mutations of a closed or flushed batch, in one script per Redis node.
+     *
+     * @return whether every node applied its script
+     */
+    boolean flush(long version, List<CacheMutationBatch.Mutation> mutations) {
+        Map<RedisConnectionFactory, List<CacheMutationBatch.Mutation>> byNode = new LinkedHashMap<>();
+        try {
+            mutations.forEach(mutation -> {
+                byNode.computeIfAbsent(keyRouter.route(mutation.key()), node -> new ArrayList<>()).add(mutation);
+                // Sharded: another instance whose ring differs may read the key from another node
+                keyRouter.otherNodes(mutation.key()).forEach(node ->
+                        byNode.computeIfAbsent(node, ignored -> new ArrayList<>()).add(mutation.elsewhere()));
+            });
+        } catch (RuntimeException ex) {
+            failed.record(Duration.ZERO);
+            log.warn("Could not apply {} batched cache mutations: {}", mutations.size(), ex.getMessage());
+            return false;
+        }
+        boolean applied = true;
+        for (Map.Entry<RedisConnectionFactory, List<CacheMutationBatch.Mutation>> entry : byNode.entrySet()) {
+            applied &= flush(version, entry.getKey(), entry.getValue());
+        }
+        return applied;
+    }
+
+    private boolean flush(long version, RedisConnectionFactory node, List<CacheMutationBatch.Mutation> mutations) {
+        List<byte[]> keysAndArgs = new ArrayList<>(mutations.size() * 5 + 2);
+        for (CacheMutationBatch.Mutation mutation : mutations) {
+            keysAndArgs.add(mutation.key());
+            keysAndArgs.add(versionKey(mutation.key()));
+        }
+        keysAndArgs.add(bytes(version));
+        keysAndArgs.add(bytes(versionRetention.toMillis()));
+        for (CacheMutationBatch.Mutation mutation : mutations) {
+            keysAndArgs.add(mutation.operation().name().getBytes(StandardCharsets.UTF_8));
+            keysAndArgs.add(bytes(mutation.ttlMillis()));
+            keysAndArgs.add(mutation.value());
+        }
+        byte[][] scriptArgs = keysAndArgs.toArray(byte[][]::new);
+        int numKeys = mutations.size() * 2;
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            Long stale = circuitBreaker.execute(() -> eval(node, numKeys, scriptArgs));
+            sample.stop(flushed);
+            batchSize.record(mutations.size());
+            if (stale != null && stale > 0) {
+                staleWrites.increment(stale);
+                log.debug("{} cache mutations of version {} skipped, a newer version was already written", stale, version);
+            }
+            mutations.forEach(mutation -> {
+                if (mutation.operation() == CacheMutationBatch.Operation.SET) {
+                    statistics.incPuts(mutation.cacheName());
+                    ttlStatistics.record(mutation.cacheName(), mutation.key(),
+                            Duration.ofMillis(mutation.ttlMillis()), mutation.value().length);
+                } else if (mutation.operation() == CacheMutationBatch.Operation.DEL) {
+                    statistics.incDeletes(mutation.cacheName());
+                }
+            });
+            return true;
+        } catch (RuntimeException ex) {
+            // Never fail the annotated method because of the cache; the batch reports it to the replay
+            sample.stop(failed);
+            log.warn("Could not apply {} batched cache mutations: {}", mutations.size(), ex.getMessage());
+            return false;
+        }
+    }
+
+    private Long eval(RedisConnectionFactory node, int numKeys, byte[][] keysAndArgs) {
+        try (RedisConnection connection = node.getConnection()) {
+            try {
+                return connection.scriptingCommands()
+                        .evalSha(APPLY_MUTATIONS.getSha1(), ReturnType.INTEGER, numKeys, keysAndArgs);
+            } catch (DataAccessException ex) {
+                if (!isNoScript(ex)) {
+                    throw ex;
+                }
+                return connection.scriptingCommands()
+                        .eval(APPLY_MUTATIONS.getScriptAsString().getBytes(StandardCharsets.UTF_8),
+                                ReturnType.INTEGER, numKeys, keysAndArgs);
+            }
+        }
+    }
+
+    private boolean enqueue(String name, CacheMutationBatch.Operation operation, byte[] key, byte[] value, Duration ttl) {
+        Optional<CacheMutationBatch> batch = CacheMutationBatch.current();
+        if (batch.isEmpty()) {
+            return false;
+        }
+        long ttlMillis = ttl == null || ttl.isZero() || ttl.isNegative() ? 0 : ttl.toMillis();
+        batch.get().versionOnCommit();
+        return batch.get().offer(new CacheMutationBatch.Mutation(this, name, operation, key, value, ttlMillis));
+    }
+
+    private void flushIfPending(byte[] key) {
+        CacheMutationBatch.current()
+                .filter(batch -> batch.hasPending(this, key))
+                .ifPresent(CacheMutationBatch::flush);
+    }
+
+    private byte[] versionKey(byte[] key) {
+        byte[] versionKey = new byte[versionKeyPrefix.length + key.length];
+        System.arraycopy(versionKeyPrefix, 0, versionKey, 0, versionKeyPrefix.length);
+        System.arraycopy(key, 0, versionKey, versionKeyPrefix.length, key.length);
+        return versionKey;
+    }
+
+    private Timer flushTimer(String result) {
+        return Timer.builder("cache.batch.flush")
+                .description("Round-trip of the script applying the cache mutations of one invocation")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static boolean isNoScript(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(long number) {
+        return Long.toString(number).getBytes(StandardCharsets.UTF_8);
+    }
+}
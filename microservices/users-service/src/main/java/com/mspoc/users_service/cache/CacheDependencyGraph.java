@@ -0,0 +1,76 @@
+package com.mspoc.users_service.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which caches hold values derived from the entries of another cache under the same key, e.g.
+ * {@code user-details} (user plus preferences) from {@code user-profiles} and {@code user-preferences}.
+ * <p>
+ * Built from the {@code depends-on} lists of the cache specs. {@link #dependentsOf(String)} is
+ * transitive and lists every dependent once, nearest first. Cycles are rejected.
+ */
+public class CacheDependencyGraph {
+
+    private final Map<String, List<String>> dependents;
+
+    /**
+     * @param dependsOn for each cache, the caches it is derived from
+     * @throws IllegalStateException if the dependencies contain a cycle
+     */
+    public CacheDependencyGraph(Map<String, List<String>> dependsOn) {
+        Map<String, Set<String>> direct = new LinkedHashMap<>();
+        dependsOn.forEach((dependent, sources) -> sources.forEach(source ->
+                direct.computeIfAbsent(source, name -> new LinkedHashSet<>()).add(dependent)));
+
+        Map<String, List<String>> closure = new LinkedHashMap<>();
+        direct.keySet().forEach(source -> closure.put(source, List.copyOf(reachable(source, direct))));
+        this.dependents = Map.copyOf(closure);
+    }
+
+    /**
+     * The caches derived, directly or not, from the given one; empty if there are none.
+     */
+    public List<String> dependentsOf(String cacheName) {
+        return dependents.getOrDefault(cacheName, List.of());
+    }
+
+    public boolean hasDependents(String cacheName) {
+        return dependents.containsKey(cacheName);
+    }
+
+    public boolean isEmpty() {
+        return dependents.isEmpty();
+    }
+
+    /**
+     * Breadth-first walk from the source, so nearer dependents come first.
+     */
+    private static Set<String> reachable(String source, Map<String, Set<String>> direct) {
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>(direct.getOrDefault(source, Set.of()));
+        while (!pending.isEmpty()) {
+            String next = pending.poll();
+            if (next.equals(source)) {
+                throw new IllegalStateException("Cache dependency cycle through '" + source + "'");
+            }
+            if (reached.add(next)) {
+                pending.addAll(direct.getOrDefault(next, Set.of()));
+            }
+        }
+        return reached;
+    }
+
+    @Override
+    public String toString() {
+        List<String> edges = new ArrayList<>();
+        dependents.forEach((source, derived) -> edges.add(source + " -> " + derived));
+        return String.join(", ", edges);
+    }
+}
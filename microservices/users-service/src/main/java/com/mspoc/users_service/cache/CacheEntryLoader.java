@@ -0,0 +1,30 @@
+package com.mspoc.users_service.cache;
+
+/**
+ * Loads a single cache entry from its source of truth, outside of the annotated method
+ * that normally fills it. Used by layers that refresh entries in the background.
+ */
+public interface CacheEntryLoader {
+
+    /**
+     * @return the name of the cache this loader fills
+     */
+    String getCacheName();
+
+    /**
+     * @param key the cache key
+     * @return the current value, or {@code null} if the entry no longer exists
+     */
+    Object load(Object key);
+
+    /**
+     * Whether a background refresh may reload the entry now. Loaders whose source can lag
+     * behind the cached value (e.g. an update not written yet) return {@code false} meanwhile.
+     *
+     * @param key the cache key
+     * @return {@code true} by default
+     */
+    default boolean canRefresh(Object key) {
+        return true;
+    }
+}
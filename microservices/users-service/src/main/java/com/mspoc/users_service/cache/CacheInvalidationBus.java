@@ -0,0 +1,102 @@
+package com.mspoc.users_service.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Broadcasts local cache invalidations to every users-service instance over Redis pub/sub.
+ * <p>
+ * Each instance tags its messages with a random instance id and ignores its own
+ * messages, since the local copies were already updated by the write that triggered them.
+ * Pub/sub is fire-and-forget: a lost message is bounded by the TTL of the local copy.
+ */
+@Component
+@Slf4j
+public class CacheInvalidationBus implements MessageListener {
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, List<LocalCacheCopy>> localCopies = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String channel;
+
+    public CacheInvalidationBus(StringRedisTemplate redisTemplate,
+                                RedisMessageListenerContainer listenerContainer,
+                                UsersCacheProperties cacheProperties,
+                                RedisCircuitBreaker circuitBreaker) {
+        this.redisTemplate = redisTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.channel = cacheProperties.getInvalidationChannel();
+        listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+    }
+
+    void register(LocalCacheCopy localCopy) {
+        localCopies.computeIfAbsent(localCopy.getName(), name -> new CopyOnWriteArrayList<>()).add(localCopy);
+    }
+
+    public void publishEvict(String cacheName, String key) {
+        publish(new InvalidationMessage(instanceId, cacheName, key));
+    }
+
+    public void publishClear(String cacheName) {
+        publish(new InvalidationMessage(instanceId, cacheName, null));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        InvalidationMessage invalidation;
+        try {
+            invalidation = objectMapper.readValue(message.getBody(), InvalidationMessage.class);
+        } catch (Exception ex) {
+            log.warn("Ignoring malformed cache invalidation message: {}",
+                    new String(message.getBody(), StandardCharsets.UTF_8));
+            return;
+        }
+
+        if (instanceId.equals(invalidation.origin())) {
+            return;
+        }
+
+        List<LocalCacheCopy> copies = localCopies.getOrDefault(invalidation.cache(), List.of());
+        if (invalidation.key() == null) {
+            log.debug("Remote clear of local copies of '{}'", invalidation.cache());
+            copies.forEach(LocalCacheCopy::clearLocal);
+        } else {
+            log.debug("Remote eviction of local entry '{}::{}'", invalidation.cache(), invalidation.key());
+            copies.forEach(copy -> copy.evictLocal(invalidation.key()));
+        }
+    }
+
+    private void publish(InvalidationMessage invalidation) {
+        try {
+            String message = objectMapper.writeValueAsString(invalidation);
+            // A lost invalidation is bounded by the ttl of the local copies
+            circuitBreaker.executeQuietly("invalidation broadcast", () -> redisTemplate.convertAndSend(channel, message));
+        } catch (JsonProcessingException ex) {
+            log.error("Could not serialize cache invalidation for cache '{}'", invalidation.cache(), ex);
+        }
+    }
+
+    /**
+     * Wire format of an invalidation. A {@code null} key means "clear the whole cache".
+     */
+    record InvalidationMessage(String origin, String cache, String key) {
+    }
+}
@@ -0,0 +1,27 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.cache.Cache;
+
+/**
+ * A decorator applied by the {@link LayeredCacheManager} to every cache it hands out.
+ * <p>
+ * Layers are applied in {@link org.springframework.core.annotation.Order} order, lowest
+ * first, so a lower order sits closer to Redis. Current orders:
+ * <ul>
+ *   <li>100 - circuit breaker (time-boxed Redis calls, degraded mode when Redis is down)</li>
+ *   <li>150 - single-flight (collapses concurrent loads of a key)</li>
+ *   <li>200 - near cache (in-heap L1)</li>
+ *   <li>250 - hot-key replica (local copies of the top-K read keys)</li>
+ *   <li>300 - refresh-ahead (async reload of hot entries close to expiry)</li>
+ *   <li>350 - access tracking (read frequencies for the adaptive TTL)</li>
+ *   <li>400 - negative caching (tombstones for not-found loads)</li>
+ *   <li>900 - dependency invalidation (evicts derived entries when their sources change)</li>
+ *   <li>1000 - metrics (operations as issued by the cache annotations)</li>
+ * </ul>
+ * A layer that does not apply to a cache returns it unchanged.
+ */
+@FunctionalInterface
+public interface CacheLayer {
+
+    Cache decorate(Cache cache);
+}
@@ -0,0 +1,226 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache mutations collected during one invocation of a method annotated with {@code @CachePut},
+ * {@code @CacheEvict} or {@code @Caching}.
+ * <p>
+ * Opened and flushed by the {@link CacheMutationBatchInterceptor}; filled by the
+ * {@link BatchingRedisCacheWriter}. The mutations are versioned with the wall-clock time
+ * (microseconds) at which the transaction that produced them committed, taken in an
+ * {@code afterCommit} hook, so the last commit wins even when its batch reaches Redis first.
+ * Mutations issued outside a transaction, or flushed before it commits, are versioned when they
+ * are sent. Versions never go backwards within one instance.
+ * <p>
+ * The batch is held in a thread local of the invoking thread. The {@link RedisCircuitBreaker} runs
+ * Redis calls on its own virtual threads and hands the batch over with {@link #propagate}; other
+ * threads started during the invocation (e.g. the cache warmer) never see it. A closed batch refuses
+ * new mutations.
+ * <p>
+ * Callers that reported a deferred write as done register a failure callback with
+ * {@link #onFailure}; it runs if a flush of the batch could not be applied.
+ */
+public final class CacheMutationBatch {
+
+    private static final ThreadLocal<CacheMutationBatch> CURRENT = new ThreadLocal<>();
+    private static final AtomicLong LAST_VERSION = new AtomicLong();
+
+    private final List<Mutation> mutations = new ArrayList<>();
+    private final List<Runnable> failureCallbacks = new ArrayList<>();
+    private int depth;
+    private boolean closed;
+    private boolean commitHookRegistered;
+    private long committedVersion;
+
+    private CacheMutationBatch() {
+    }
+
+    static Optional<CacheMutationBatch> current() {
+        return Optional.ofNullable(CURRENT.get()).filter(batch -> !batch.isClosed());
+    }
+
+    /**
+     * Opens a batch on the current thread, or joins the one already open (nested annotated calls).
+     */
+    static CacheMutationBatch open() {
+        CacheMutationBatch batch = current().orElse(null);
+        if (batch == null) {
+            batch = new CacheMutationBatch();
+            CURRENT.set(batch);
+        }
+        batch.depth++;
+        batch.versionOnCommit();
+        return batch;
+    }
+
+    /**
+     * Leaves the batch; the outermost caller flushes it.
+     */
+    void close() {
+        if (--depth > 0) {
+            return;
+        }
+        CURRENT.remove();
+        List<Mutation> pending;
+        synchronized (this) {
+            closed = true;
+            pending = drain();
+        }
+        send(pending);
+    }
+
+    /**
+     * Wraps a call so that it runs with the batch of the current thread, if one is open.
+     */
+    static <T> Supplier<T> propagate(Supplier<T> call) {
+        CacheMutationBatch batch = current().orElse(null);
+        if (batch == null) {
+            return call;
+        }
+        batch.versionOnCommit();
+        return () -> {
+            CacheMutationBatch previous = CURRENT.get();
+            CURRENT.set(batch);
+            try {
+                return call.get();
+            } finally {
+                if (previous != null) {
+                    CURRENT.set(previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Takes the version of the batch when the transaction active on the calling thread commits.
+     * Called from the invoking thread, where the transaction is bound; a no-op without one.
+     */
+    synchronized void versionOnCommit() {
+        if (commitHookRegistered || closed || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        commitHookRegistered = true;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                long version = nextVersion();
+                synchronized (CacheMutationBatch.this) {
+                    committedVersion = version;
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers a callback run when a flush of this batch fails.
+     */
+    synchronized void onFailure(Runnable callback) {
+        if (!closed) {
+            failureCallbacks.add(callback);
+        }
+    }
+
+    /**
+     * Adds a mutation; returns {@code false} if the batch was already closed.
+     */
+    synchronized boolean offer(Mutation mutation) {
+        if (closed) {
+            return false;
+        }
+        mutations.add(mutation);
+        return true;
+    }
+
+    synchronized boolean hasPending(BatchingRedisCacheWriter writer, byte[] key) {
+        return mutations.stream().anyMatch(mutation -> mutation.writer() == writer && mutation.isFor(key));
+    }
+
+    /**
+     * Sends what is pending now, before a read or a clear that must see it.
+     */
+    void flush() {
+        List<Mutation> pending;
+        synchronized (this) {
+            pending = drain();
+        }
+        send(pending);
+    }
+
+    private List<Mutation> drain() {
+        List<Mutation> pending = List.copyOf(mutations);
+        mutations.clear();
+        return pending;
+    }
+
+    // One script per writer (in practice there is a single Redis cache writer)
+    private void send(List<Mutation> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long version;
+        synchronized (this) {
+            version = committedVersion > 0 ? committedVersion : nextVersion();
+        }
+        Map<BatchingRedisCacheWriter, List<Mutation>> byWriter = new LinkedHashMap<>();
+        pending.forEach(mutation -> byWriter.computeIfAbsent(mutation.writer(), ignored -> new ArrayList<>()).add(mutation));
+        boolean applied = true;
+        for (Map.Entry<BatchingRedisCacheWriter, List<Mutation>> entry : byWriter.entrySet()) {
+            applied &= entry.getKey().flush(version, entry.getValue());
+        }
+        if (!applied) {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = List.copyOf(failureCallbacks);
+            }
+            callbacks.forEach(Runnable::run);
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private static long nextVersion() {
+        long now = currentTimeMicros();
+        return LAST_VERSION.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
+    private static long currentTimeMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+
+    /**
+     * {@code DEL_ELSEWHERE} deletes a stale copy of the key on a shard that does not own it.
+     */
+    enum Operation { SET, DEL, DEL_ELSEWHERE }
+
+    /**
+     * One pending write. {@code ttlMillis} is 0 for entries without expiry.
+     */
+    record Mutation(BatchingRedisCacheWriter writer, String cacheName, Operation operation,
+                    byte[] key, byte[] value, long ttlMillis) {
+
+        boolean isFor(byte[] otherKey) {
+            return Arrays.equals(key, otherKey);
+        }
+
+        Mutation elsewhere() {
+            return new Mutation(writer, cacheName, Operation.DEL_ELSEWHERE, key, new byte[0], 0);
+        }
+    }
+}
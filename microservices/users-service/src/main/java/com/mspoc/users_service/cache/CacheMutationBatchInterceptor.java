@@ -0,0 +1,25 @@
+package com.mspoc.users_service.cache;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Opens a {@link CacheMutationBatch} around a method with cache write annotations and flushes it
+ * when the outermost annotated method returns (or throws, so {@code beforeInvocation} evictions
+ * are still applied).
+ * <p>
+ * Must run outside the cache interceptor; ordered before the transaction interceptor, the batch is
+ * only sent once the transaction has committed.
+ */
+public class CacheMutationBatchInterceptor implements MethodInterceptor {
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        CacheMutationBatch batch = CacheMutationBatch.open();
+        try {
+            return invocation.proceed();
+        } finally {
+            batch.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.mspoc.users_service.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TTLs actually given to the entries written to Redis, per cache, and the Redis memory this
+ * saved compared to writing every entry with the cache's base TTL.
+ * <p>
+ * Every write adds {@code size * ttl} byte-seconds of residency (and {@code size * base TTL}
+ * for the comparison). Divided by the time since the statistics started, the difference is the
+ * average number of bytes Redis did not have to hold. It is an estimate: entries overwritten or
+ * evicted before they expire are counted for their full TTL. Negative savings mean that
+ * stretching hot keys cost more memory than shrinking cold ones saved.
+ * <p>
+ * Meters: {@code cache.ttl.assigned{cache}} (seconds) and {@code cache.ttl.memory_saved{cache}} (bytes).
+ * <p>
+ * For the caches registered with {@link #trackExpiries}, it also remembers when the last entry
+ * written under each key expires, so the refresh-ahead layer works with the TTL that was actually
+ * written instead of asking the (adaptive, access-dependent) TTL function again.
+ */
+@Component
+public class CacheTtlStatistics {
+
+    private static final double[] BUCKET_LIMITS = {0.5, 0.9, 1.1, 2.0};
+    private static final String[] BUCKET_NAMES = {"<0.5x", "0.5x-0.9x", "0.9x-1.1x", "1.1x-2x", ">=2x"};
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Duration> baseTtls = new ConcurrentHashMap<>();
+    private final Map<String, CacheStats> stats = new ConcurrentHashMap<>();
+    private final Map<String, com.github.benmanes.caffeine.cache.Cache<ByteBuffer, Long>> expiries =
+            new ConcurrentHashMap<>();
+    private final Instant startedAt = Instant.now();
+
+    public CacheTtlStatistics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * TTL the entries of a cache would get without a TTL policy.
+     */
+    public void registerBaseTtl(String cacheName, Duration baseTtl) {
+        baseTtls.put(cacheName, baseTtl);
+    }
+
+    /**
+     * Starts remembering the expiry of the entries written to a cache, for at most {@code maxKeys}
+     * keys (the least recently written are forgotten first).
+     */
+    public void trackExpiries(String cacheName, long maxKeys) {
+        expiries.computeIfAbsent(cacheName, name -> Caffeine.newBuilder().maximumSize(maxKeys).build());
+    }
+
+    /**
+     * Records an entry written to Redis with the given TTL ({@code null} or non-positive: no expiry).
+     *
+     * @param key the Redis key written
+     */
+    public void record(String cacheName, byte[] key, Duration ttl, int sizeBytes) {
+        com.github.benmanes.caffeine.cache.Cache<ByteBuffer, Long> cacheExpiries = expiries.get(cacheName);
+        if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+            if (cacheExpiries != null) {
+                cacheExpiries.invalidate(ByteBuffer.wrap(key));
+            }
+            return;
+        }
+        if (cacheExpiries != null) {
+            cacheExpiries.put(ByteBuffer.wrap(key), System.nanoTime() + ttl.toNanos());
+        }
+        stats.computeIfAbsent(cacheName, this::newStats).record(ttl, sizeBytes);
+    }
+
+    /**
+     * {@link System#nanoTime()} at which the last entry written under {@code key} expires, if the
+     * cache is tracked and the write was recorded here.
+     */
+    public OptionalLong expiresAtNanos(String cacheName, byte[] key) {
+        com.github.benmanes.caffeine.cache.Cache<ByteBuffer, Long> cacheExpiries = expiries.get(cacheName);
+        Long expiresAt = cacheExpiries != null ? cacheExpiries.getIfPresent(ByteBuffer.wrap(key)) : null;
+        return expiresAt != null ? OptionalLong.of(expiresAt) : OptionalLong.empty();
+    }
+
+    public Map<String, Report> report() {
+        Map<String, Report> reports = new TreeMap<>();
+        stats.forEach((cacheName, cacheStats) -> reports.put(cacheName, cacheStats.report()));
+        return reports;
+    }
+
+    private CacheStats newStats(String cacheName) {
+        CacheStats cacheStats = new CacheStats(cacheName, baseTtls.get(cacheName));
+        Gauge.builder("cache.ttl.memory_saved", cacheStats, CacheStats::estimatedSavedBytes)
+                .description("Estimated Redis memory saved by the TTL policy compared to the base TTL")
+                .baseUnit("bytes")
+                .tag("cache", cacheName)
+                .register(meterRegistry);
+        return cacheStats;
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1, Duration.between(startedAt, Instant.now()).toMillis() / 1000.0);
+    }
+
+    /**
+     * TTL distribution of one cache. {@code ttlDistribution} counts writes by TTL relative to the base TTL.
+     */
+    public record Report(Duration baseTtl,
+                         long writes,
+                         Duration minTtl,
+                         Duration meanTtl,
+                         Duration maxTtl,
+                         Map<String, Long> ttlDistribution,
+                         Double estimatedSavedPercent,
+                         Long estimatedMemorySavedBytes) {
+    }
+
+    private final class CacheStats {
+
+        private final Duration baseTtl;
+        private final DistributionSummary assigned;
+        private final LongAdder writes = new LongAdder();
+        private final DoubleAdder ttlMillis = new DoubleAdder();
+        private final AtomicLong minTtlMillis = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxTtlMillis = new AtomicLong();
+        private final LongAdder[] buckets = new LongAdder[BUCKET_NAMES.length];
+        private final DoubleAdder assignedByteSeconds = new DoubleAdder();
+        private final DoubleAdder baseByteSeconds = new DoubleAdder();
+
+        private CacheStats(String cacheName, Duration baseTtl) {
+            this.baseTtl = baseTtl;
+            this.assigned = DistributionSummary.builder("cache.ttl.assigned")
+                    .description("TTL given to the entries written to Redis")
+                    .baseUnit("seconds")
+                    .tag("cache", cacheName)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(Duration ttl, int sizeBytes) {
+            long millis = ttl.toMillis();
+            assigned.record(millis / 1000.0);
+            writes.increment();
+            ttlMillis.add(millis);
+            minTtlMillis.accumulateAndGet(millis, Math::min);
+            maxTtlMillis.accumulateAndGet(millis, Math::max);
+            assignedByteSeconds.add(sizeBytes * (millis / 1000.0));
+            if (baseTtl != null) {
+                baseByteSeconds.add(sizeBytes * (baseTtl.toMillis() / 1000.0));
+                buckets[bucket((double) millis / baseTtl.toMillis())].increment();
+            }
+        }
+
+        private double estimatedSavedBytes() {
+            return baseTtl == null ? 0 : (baseByteSeconds.sum() - assignedByteSeconds.sum()) / elapsedSeconds();
+        }
+
+        private Report report() {
+            long count = writes.sum();
+            Map<String, Long> distribution = new LinkedHashMap<>();
+            if (baseTtl != null) {
+                for (int i = 0; i < buckets.length; i++) {
+                    distribution.put(BUCKET_NAMES[i], buckets[i].sum());
+                }
+            }
+            double baseTotal = baseByteSeconds.sum();
+            Double savedPercent = baseTtl == null || baseTotal == 0
+                    ? null
+                    : 100 * (baseTotal - assignedByteSeconds.sum()) / baseTotal;
+            return new Report(
+                    baseTtl,
+                    count,
+                    count == 0 ? null : Duration.ofMillis(minTtlMillis.get()),
+                    count == 0 ? null : Duration.ofMillis(Math.round(ttlMillis.sum() / count)),
+                    count == 0 ? null : Duration.ofMillis(maxTtlMillis.get()),
+                    distribution,
+                    savedPercent,
+                    baseTtl == null ? null : Math.round(estimatedSavedBytes()));
+        }
+
+        private int bucket(double ratio) {
+            for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+                if (ratio < BUCKET_LIMITS[i]) {
+                    return i;
+                }
+            }
+            return BUCKET_LIMITS.length;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.mspoc.users_service.cache;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+/**
+ * Encodings a Redis cache value can be written with, see {@link VersionedCacheValueSerializer}.
+ * <p>
+ * The id is stored in the header of every binary entry, so it must never change once released.
+ */
+public enum CacheValueFormat {
+
+    /**
+     * Plain JSON without header, byte-compatible with the entries written before binary formats existed.
+     */
+    JSON((byte) 0),
+
+    /**
+     * Binary JSON with back-references for repeated property names.
+     */
+    SMILE((byte) 1),
+
+    CBOR((byte) 2);
+
+    private final byte id;
+
+    CacheValueFormat(byte id) {
+        this.id = id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public static CacheValueFormat fromId(byte id) {
+        for (CacheValueFormat format : values()) {
+            if (format.id == id) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cache value format id: " + id);
+    }
+
+    JsonFactory newFactory() {
+        return switch (this) {
+            case JSON -> new JsonFactory();
+            // The serializer header already identifies the payload, so the 4-byte Smile header is dropped
+            case SMILE -> SmileFactory.builder()
+                    .disable(SmileGenerator.Feature.WRITE_HEADER)
+                    .disable(SmileParser.Feature.REQUIRE_HEADER)
+                    .build();
+            case CBOR -> new CBORFactory();
+        };
+    }
+}
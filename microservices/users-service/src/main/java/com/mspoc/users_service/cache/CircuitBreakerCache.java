@@ -0,0 +1,252 @@
+package com.mspoc.users_service.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs every operation on the Redis cache through the {@link RedisCircuitBreaker}.
+ * <p>
+ * When Redis is unavailable (circuit open, error or timeout) the cache degrades instead of failing:
+ * <ul>
+ *   <li>lookups are misses, so {@code @Cacheable} methods load from the database</li>
+ *   <li>loaded and written values go to a small in-heap fallback cache, read only while degraded</li>
+ *   <li>evictions that could not reach Redis are remembered and replayed when the circuit closes
+ *       (a whole-cache clear once more than {@code max-missed-evictions} keys are pending), so
+ *       values changed during the outage are not served stale afterwards; so are the writes of a
+ *       {@link CacheMutationBatch} whose flush failed</li>
+ * </ul>
+ */
+@Slf4j
+public class CircuitBreakerCache extends ForwardingCache {
+
+    private final RedisCircuitBreaker circuitBreaker;
+    private final UsersCacheProperties.CircuitBreaker settings;
+    private final com.github.benmanes.caffeine.cache.Cache<Object, Object> fallback;
+    private final Set<Object> missedEvictions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean missedClear = new AtomicBoolean();
+    private final Counter fallbackLoads;
+    private final Counter replayedEvictions;
+
+    public CircuitBreakerCache(Cache delegate,
+                               RedisCircuitBreaker circuitBreaker,
+                               UsersCacheProperties.CircuitBreaker settings,
+                               MeterRegistry meterRegistry) {
+        super(delegate);
+        this.circuitBreaker = circuitBreaker;
+        this.settings = settings;
+        this.fallback = Caffeine.newBuilder()
+                .maximumSize(settings.getFallbackCache().getMaxSize())
+                .expireAfterWrite(settings.getFallbackCache().getTtl())
+                .build();
+        this.fallbackLoads = Counter.builder("cache.circuit_breaker.fallback_loads")
+                .description("Cache loads served without Redis while it was unavailable")
+                .tag("cache", getName())
+                .register(meterRegistry);
+        this.replayedEvictions = Counter.builder("cache.circuit_breaker.replayed_evictions")
+                .description("Evictions missed while Redis was unavailable and replayed on recovery")
+                .tag("cache", getName())
+                .register(meterRegistry);
+        circuitBreaker.onClose(this::replayMissedEvictions);
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        try {
+            return circuitBreaker.execute(() -> delegate.get(key));
+        } catch (RedisUnavailableException ex) {
+            return fallbackGet(key);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper hit;
+        try {
+            hit = circuitBreaker.execute(() -> delegate.get(key));
+        } catch (RedisUnavailableException ex) {
+            fallbackLoads.increment();
+            return (T) fallback.get(key, ignored -> call(key, valueLoader));
+        }
+        if (hit != null) {
+            return (T) hit.get();
+        }
+
+        T value = call(key, valueLoader);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        CompletableFuture<Object> lookup = circuitBreaker.executeAsync(() -> delegate.retrieve(key).thenApply(hit -> hit));
+        return lookup.exceptionallyCompose(ex -> {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            return cause instanceof RedisUnavailableException
+                    ? CompletableFuture.completedFuture(fallbackGet(key))
+                    : CompletableFuture.failedFuture(cause);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return retrieve(key).thenCompose(hit -> {
+            if (hit != null) {
+                Object value = hit instanceof ValueWrapper wrapper ? wrapper.get() : hit;
+                return CompletableFuture.completedFuture((T) value);
+            }
+            return valueLoader.get().thenApply(value -> {
+                if (value != null) {
+                    put(key, value);
+                }
+                return value;
+            });
+        });
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        try {
+            circuitBreaker.execute(() -> {
+                delegate.put(key, value);
+                return null;
+            });
+            fallback.invalidate(key);
+            rememberEvictionIfDeferredWriteFails(key);
+        } catch (RedisUnavailableException ex) {
+            // Redis may still hold an older value
+            rememberEviction(key);
+            fallback.put(key, value);
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        try {
+            ValueWrapper existing = circuitBreaker.execute(() -> delegate.putIfAbsent(key, value));
+            fallback.invalidate(key);
+            return existing;
+        } catch (RedisUnavailableException ex) {
+            return fallbackGet(key);
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+        evictIfPresent(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        fallback.invalidate(key);
+        try {
+            boolean evicted = circuitBreaker.execute(() -> delegate.evictIfPresent(key));
+            rememberEvictionIfDeferredWriteFails(key);
+            return evicted;
+        } catch (RedisUnavailableException ex) {
+            rememberEviction(key);
+            return false;
+        }
+    }
+
+    @Override
+    public void clear() {
+        invalidate();
+    }
+
+    @Override
+    public boolean invalidate() {
+        fallback.invalidateAll();
+        try {
+            return circuitBreaker.execute(delegate::invalidate);
+        } catch (RedisUnavailableException ex) {
+            missedClear.set(true);
+            missedEvictions.clear();
+            return false;
+        }
+    }
+
+    private ValueWrapper fallbackGet(Object key) {
+        Object value = fallback.getIfPresent(key);
+        return value != null ? new SimpleValueWrapper(value) : null;
+    }
+
+    private void rememberEviction(Object key) {
+        if (missedClear.get()) {
+            return;
+        }
+        if (missedEvictions.size() >= settings.getMaxMissedEvictions()) {
+            missedClear.set(true);
+            missedEvictions.clear();
+            return;
+        }
+        missedEvictions.add(key);
+    }
+
+    // Inside a mutation batch the write above was only queued; if the batch later fails to reach
+    // Redis the old value may still be there, so the key joins the missed evictions
+    private void rememberEvictionIfDeferredWriteFails(Object key) {
+        CacheMutationBatch.current().ifPresent(batch -> batch.onFailure(() -> {
+            rememberEviction(key);
+            if (circuitBreaker.isCallPermitted() && CacheMutationBatch.current().isEmpty()) {
+                // The circuit may never open for a single failure, so do not wait for it to close
+                replayMissedEvictions();
+            }
+        }));
+    }
+
+    private void replayMissedEvictions() {
+        fallback.invalidateAll();
+        boolean clearNeeded = missedClear.getAndSet(false);
+        try {
+            if (clearNeeded) {
+                log.info("Clearing cache '{}' after Redis recovered (evictions were missed)", getName());
+                circuitBreaker.execute(delegate::invalidate);
+                replayedEvictions.increment();
+                return;
+            }
+
+            List<Object> keys = new ArrayList<>(missedEvictions);
+            for (Object key : keys) {
+                circuitBreaker.execute(() -> delegate.evictIfPresent(key));
+                missedEvictions.remove(key);
+                replayedEvictions.increment();
+            }
+            if (!keys.isEmpty()) {
+                log.info("Replayed {} missed evictions on cache '{}'", keys.size(), getName());
+            }
+        } catch (RedisUnavailableException ex) {
+            // Redis went away again; what is left is replayed on the next recovery
+            if (clearNeeded) {
+                missedClear.set(true);
+            }
+            log.warn("Replay of missed evictions on cache '{}' interrupted: {}", getName(), ex.getMessage());
+        }
+    }
+
+    private static <T> T call(Object key, Callable<T> valueLoader) {
+        try {
+            return valueLoader.call();
+        } catch (Exception ex) {
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps every cache in a {@link CircuitBreakerCache}. Innermost layer, so every Redis call of
+ * the layers above goes through the {@link RedisCircuitBreaker}.
+ */
+@Component
+@Order(100)
+public class CircuitBreakerLayer implements CacheLayer {
+
+    private final RedisCircuitBreaker circuitBreaker;
+    private final UsersCacheProperties cacheProperties;
+    private final MeterRegistry meterRegistry;
+
+    public CircuitBreakerLayer(RedisCircuitBreaker circuitBreaker,
+                               UsersCacheProperties cacheProperties,
+                               MeterRegistry meterRegistry) {
+        this.circuitBreaker = circuitBreaker;
+        this.cacheProperties = cacheProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!circuitBreaker.isEnabled()) {
+            return cache;
+        }
+        return new CircuitBreakerCache(cache, circuitBreaker, cacheProperties.getCircuitBreaker(), meterRegistry);
+    }
+}
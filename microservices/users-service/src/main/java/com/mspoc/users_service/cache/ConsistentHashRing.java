@@ -0,0 +1,87 @@
+package com.mspoc.users_service.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent hash ring: each node is placed at {@code virtualNodes} points derived
+ * from its name, and a key belongs to the first node point at or after the key's hash (wrapping
+ * around). Adding or removing a node only moves the keys of the ranges it gains or loses,
+ * about {@code 1/N} of the keyspace.
+ */
+public final class ConsistentHashRing<N> {
+
+    private final long[] points;
+    private final Object[] owners;
+
+    private ConsistentHashRing(long[] points, Object[] owners) {
+        this.points = points;
+        this.owners = owners;
+    }
+
+    /**
+     * @param nodes nodes keyed by their stable name
+     */
+    public static <N> ConsistentHashRing<N> of(Map<String, N> nodes, int virtualNodes) {
+        TreeMap<Long, N> ring = new TreeMap<>();
+        new TreeMap<>(nodes).forEach((name, node) -> {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                // On the (unlikely) collision of two points the node with the smaller name keeps it
+                ring.merge(hash((name + "#" + replica).getBytes(StandardCharsets.UTF_8)), node,
+                        (existing, candidate) -> existing);
+            }
+        });
+
+        long[] points = new long[ring.size()];
+        Object[] owners = new Object[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, N> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+        return new ConsistentHashRing<>(points, owners);
+    }
+
+    public boolean isEmpty() {
+        return points.length == 0;
+    }
+
+    /**
+     * @throws IllegalStateException if the ring has no nodes
+     */
+    @SuppressWarnings("unchecked")
+    public N nodeFor(byte[] key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("No cache shard available");
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return (N) owners[index == points.length ? 0 : index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection<N> nodes() {
+        return Arrays.stream(owners).map(owner -> (N) owner).distinct().toList();
+    }
+
+    // FNV-1a followed by the MurmurHash3 finalizer, so close keys land far apart on the ring
+    static long hash(byte[] data) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : data) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,55 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.cache.Cache;
+
+/**
+ * A cache whose entries other caches derive values from (see {@link CacheDependencyGraph}).
+ * <p>
+ * Every write that replaces or removes an entry ({@code put}, {@code evict}, {@code evictIfPresent})
+ * evicts the entries under the same key in the dependent caches; {@code clear} and
+ * {@code invalidate} clear them. {@code putIfAbsent} does not, it never replaces a value.
+ * The dependents are invalidated by the {@link DependencyInvalidationLayer}, after the commit
+ * of the current transaction.
+ */
+public class DependencyInvalidatingCache extends ForwardingCache {
+
+    private final DependencyInvalidationLayer dependencies;
+
+    public DependencyInvalidatingCache(Cache delegate, DependencyInvalidationLayer dependencies) {
+        super(delegate);
+        this.dependencies = dependencies;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        dependencies.evictDependents(getName(), key);
+    }
+
+    @Override
+    public void evict(Object key) {
+        delegate.evict(key);
+        dependencies.evictDependents(getName(), key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = delegate.evictIfPresent(key);
+        // Dependents may outlive the entry (other TTL), so they go whether it was present or not
+        dependencies.evictDependents(getName(), key);
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        dependencies.clearDependents(getName());
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = delegate.invalidate();
+        dependencies.clearDependents(getName());
+        return invalidated;
+    }
+}
@@ -0,0 +1,126 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Invalidates derived cache entries when the entries they were computed from change, following
+ * the {@link CacheDependencyGraph} of the {@code depends-on} cache settings.
+ * <p>
+ * Caches other caches depend on are wrapped in a {@link DependencyInvalidatingCache}. Their
+ * dependents are evicted (or cleared) through the layers below this one, so the near cache
+ * and hot-key replicas drop them too, on every instance. A dependent is not evicted again by
+ * the dependents it has itself: the graph already lists every cache reachable from the source.
+ * <p>
+ * Inside a transaction the dependents go after the commit, so a concurrent read cannot load
+ * and cache the derived value from rows that are about to change.
+ */
+@Component
+@Order(900)
+@Slf4j
+public class DependencyInvalidationLayer implements CacheLayer {
+
+    private final CacheDependencyGraph graph;
+    private final ObjectProvider<CacheManager> cacheManager;
+    private final MeterRegistry meterRegistry;
+    // Each cache of the graph as this layer received it, i.e. with the layers below applied
+    private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+    private final Map<String, Counter> evictions = new ConcurrentHashMap<>();
+
+    public DependencyInvalidationLayer(UsersCacheProperties cacheProperties,
+                                       ObjectProvider<CacheManager> cacheManager,
+                                       MeterRegistry meterRegistry) {
+        Map<String, List<String>> dependsOn = new LinkedHashMap<>();
+        cacheProperties.getCaches().forEach((cacheName, spec) -> {
+            if (!spec.getDependsOn().isEmpty()) {
+                dependsOn.put(cacheName, spec.getDependsOn());
+            }
+        });
+        this.graph = new CacheDependencyGraph(dependsOn);
+        this.cacheManager = cacheManager;
+        this.meterRegistry = meterRegistry;
+        if (!graph.isEmpty()) {
+            log.info("Cache dependencies: {}", graph);
+        }
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        caches.put(cache.getName(), cache);
+        if (!graph.hasDependents(cache.getName())) {
+            return cache;
+        }
+        return new DependencyInvalidatingCache(cache, this);
+    }
+
+    /**
+     * Evicts the key from every cache derived from the source cache.
+     */
+    void evictDependents(String cacheName, Object key) {
+        List<String> dependents = graph.dependentsOf(cacheName);
+        afterCommit(() -> dependents.forEach(dependent -> {
+            dependentCache(dependent).evict(key);
+            evictions.computeIfAbsent(dependent, this::evictionCounter).increment();
+        }));
+    }
+
+    /**
+     * Clears every cache derived from the source cache.
+     */
+    void clearDependents(String cacheName) {
+        List<String> dependents = graph.dependentsOf(cacheName);
+        afterCommit(() -> dependents.forEach(dependent -> dependentCache(dependent).clear()));
+    }
+
+    private Cache dependentCache(String cacheName) {
+        Cache cache = caches.get(cacheName);
+        if (cache == null) {
+            // Not used yet: having the manager create it runs it through this layer
+            cacheManager.getObject().getCache(cacheName);
+            cache = caches.get(cacheName);
+        }
+        return cache;
+    }
+
+    private Counter evictionCounter(String cacheName) {
+        return Counter.builder("cache.dependency.evictions")
+                .description("Entries evicted because an entry they were derived from changed")
+                .tag("cache", cacheName)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the action once the current transaction committed, or right away outside one.
+     * It is hooked on {@code afterCompletion}: a write made from another synchronization's
+     * {@code afterCommit} (like the after-commit evictions of the services) registers too late
+     * for the {@code afterCommit} callbacks, but still gets {@code afterCompletion}.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+}
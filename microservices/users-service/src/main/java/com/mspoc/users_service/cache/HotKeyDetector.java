@@ -0,0 +1,100 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the top-K most read keys of one cache.
+ * <p>
+ * A sample of the reads ({@code sample-rate}) is counted in an {@link AccessFrequencySketch}.
+ * A key whose estimate reaches {@code min-reads} joins the hot set while there is room, or
+ * replaces the coldest member if it is read more often. Members are re-estimated before such a
+ * replacement, so keys that cooled down (the sketch halves its counters periodically) are the
+ * first to go. Membership checks are a plain set lookup; only promotions take the lock.
+ */
+public class HotKeyDetector {
+
+    private final AccessFrequencySketch sketch;
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+    private final int topK;
+    private final int minSampledReads;
+    private final double sampleRate;
+    private final Consumer<String> onDemoted;
+
+    /**
+     * @param onDemoted called with the key that left the hot set
+     */
+    public HotKeyDetector(UsersCacheProperties.HotKeys settings, Consumer<String> onDemoted) {
+        this.sketch = new AccessFrequencySketch(settings.getSketchWidth());
+        this.topK = settings.getTopK();
+        this.sampleRate = Math.min(1.0, Math.max(0.001, settings.getSampleRate()));
+        this.minSampledReads = Math.max(1, (int) Math.ceil(settings.getMinReads() * sampleRate));
+        this.onDemoted = onDemoted;
+    }
+
+    public void recordRead(String key) {
+        if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        sketch.increment(key);
+        int estimate = sketch.estimate(key);
+        if (estimate < minSampledReads) {
+            return;
+        }
+        if (!hotKeys.contains(key)) {
+            promote(key, estimate);
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * @return the hot keys, hottest first, with their estimated reads in the current sketch window
+     */
+    public List<HotKey> hotKeys() {
+        return hotKeys.stream()
+                .map(key -> new HotKey(key, Math.round(sketch.estimate(key) / sampleRate)))
+                .sorted(Comparator.comparingLong(HotKey::estimatedReads).reversed())
+                .toList();
+    }
+
+    public int size() {
+        return hotKeys.size();
+    }
+
+    private synchronized void promote(String key, int estimate) {
+        if (hotKeys.contains(key)) {
+            return;
+        }
+        if (hotKeys.size() < topK) {
+            hotKeys.add(key);
+            return;
+        }
+
+        String coldest = null;
+        int coldestEstimate = Integer.MAX_VALUE;
+        for (String member : hotKeys) {
+            int current = sketch.estimate(member);
+            if (current < coldestEstimate) {
+                coldest = member;
+                coldestEstimate = current;
+            }
+        }
+        if (coldest != null && estimate > coldestEstimate) {
+            hotKeys.remove(coldest);
+            hotKeys.add(key);
+            onDemoted.accept(coldest);
+        }
+    }
+
+    public record HotKey(String key, long estimatedReads) {
+    }
+}
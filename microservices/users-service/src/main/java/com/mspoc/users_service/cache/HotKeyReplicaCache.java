@@ -0,0 +1,226 @@
+package com.mspoc.users_service.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Serves the hottest keys of a cache from a small in-process replica.
+ * <p>
+ * Every read is offered to a {@link HotKeyDetector}. Values read for a key in the hot set are
+ * copied into the replica and answered from it until {@code replica-ttl} passes, so a handful
+ * of very popular keys stop hitting a single Redis connection and slot. A key that leaves the
+ * hot set is dropped from the replica.
+ * <p>
+ * Writes drop the local copy and, unless a near cache below already does it, broadcast the
+ * eviction through the {@link CacheInvalidationBus}. A read racing with a write may put the old
+ * value back; that is bounded by {@code replica-ttl}. Replica values are shared object
+ * references: callers must not mutate what they get back.
+ */
+public class HotKeyReplicaCache extends ForwardingCache implements LocalCacheCopy {
+
+    private final com.github.benmanes.caffeine.cache.Cache<String, Object> replica;
+    private final HotKeyDetector detector;
+    private final CacheInvalidationBus invalidationBus;
+    private final boolean broadcast;
+
+    private final Counter replicaHits;
+    private final Counter replicaMisses;
+
+    /**
+     * @param broadcast whether writes must be broadcast by this layer, i.e. no near cache below does it
+     */
+    public HotKeyReplicaCache(Cache delegate,
+                              UsersCacheProperties.HotKeys settings,
+                              CacheInvalidationBus invalidationBus,
+                              boolean broadcast,
+                              MeterRegistry meterRegistry) {
+        super(delegate);
+        this.replica = Caffeine.newBuilder()
+                .maximumSize(settings.getTopK())
+                .expireAfterWrite(settings.getReplicaTtl())
+                .build();
+        this.detector = new HotKeyDetector(settings, replica::invalidate);
+        this.invalidationBus = invalidationBus;
+        this.broadcast = broadcast;
+
+        this.replicaHits = replicaCounter(meterRegistry, "hit");
+        this.replicaMisses = replicaCounter(meterRegistry, "miss");
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = NearCache.localKey(key);
+        Object value = lookup(localKey);
+        if (value != null) {
+            return new SimpleValueWrapper(value);
+        }
+
+        ValueWrapper wrapper = delegate.get(key);
+        if (wrapper != null) {
+            replicate(localKey, wrapper.get());
+        }
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = NearCache.localKey(key);
+        Object value = lookup(localKey);
+        if (value != null) {
+            return (T) value;
+        }
+
+        T loaded = delegate.get(key, valueLoader);
+        replicate(localKey, loaded);
+        return loaded;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        String localKey = NearCache.localKey(key);
+        Object value = lookup(localKey);
+        if (value != null) {
+            return CompletableFuture.completedFuture(new SimpleValueWrapper(value));
+        }
+
+        return delegate.retrieve(key).thenApply(result -> {
+            replicate(localKey, result instanceof ValueWrapper wrapper ? wrapper.get() : result);
+            return result;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        String localKey = NearCache.localKey(key);
+        Object value = lookup(localKey);
+        if (value != null) {
+            return CompletableFuture.completedFuture((T) value);
+        }
+
+        return delegate.retrieve(key, valueLoader).thenApply(loaded -> {
+            replicate(localKey, loaded);
+            return loaded;
+        });
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        dropAndBroadcast(NearCache.localKey(key));
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = delegate.putIfAbsent(key, value);
+        if (existing == null) {
+            dropAndBroadcast(NearCache.localKey(key));
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        delegate.evict(key);
+        dropAndBroadcast(NearCache.localKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = delegate.evictIfPresent(key);
+        dropAndBroadcast(NearCache.localKey(key));
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        replica.invalidateAll();
+        if (broadcast) {
+            invalidationBus.publishClear(getName());
+        }
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = delegate.invalidate();
+        replica.invalidateAll();
+        if (broadcast) {
+            invalidationBus.publishClear(getName());
+        }
+        return invalidated;
+    }
+
+    @Override
+    public void evictLocal(String localKey) {
+        replica.invalidate(localKey);
+    }
+
+    @Override
+    public void clearLocal() {
+        replica.invalidateAll();
+    }
+
+    /**
+     * @return the current hot keys, hottest first, and whether each one is replicated right now
+     */
+    public List<HotKeyStatus> hotKeys() {
+        return detector.hotKeys().stream()
+                .map(hotKey -> new HotKeyStatus(hotKey.key(), hotKey.estimatedReads(),
+                        replica.getIfPresent(hotKey.key()) != null))
+                .toList();
+    }
+
+    int hotKeyCount() {
+        return detector.size();
+    }
+
+    long replicaSize() {
+        return replica.estimatedSize();
+    }
+
+    private Object lookup(String localKey) {
+        detector.recordRead(localKey);
+        Object value = replica.getIfPresent(localKey);
+        if (value != null) {
+            replicaHits.increment();
+        } else if (detector.isHot(localKey)) {
+            replicaMisses.increment();
+        }
+        return value;
+    }
+
+    private void replicate(String localKey, Object value) {
+        if (value != null && detector.isHot(localKey)) {
+            replica.put(localKey, value);
+        }
+    }
+
+    private void dropAndBroadcast(String localKey) {
+        replica.invalidate(localKey);
+        if (broadcast) {
+            invalidationBus.publishEvict(getName(), localKey);
+        }
+    }
+
+    private Counter replicaCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("cache.hotkey.replica.gets")
+                .description("Reads of hot keys answered by the local replica (hit) or passed on (miss)")
+                .tag("cache", getName())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public record HotKeyStatus(String key, long estimatedReads, boolean replicated) {
+    }
+}
@@ -0,0 +1,78 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Puts a {@link HotKeyReplicaCache} in front of every cache that has
+ * {@code users-service.cache.caches.<name>.hot-keys.enabled=true}.
+ * <p>
+ * Sits above the near cache, so hot keys are answered before the L1 and stay local even
+ * when no near cache is configured.
+ */
+@Component
+@Order(250)
+@Slf4j
+public class HotKeyReplicaLayer implements CacheLayer {
+
+    private final UsersCacheProperties cacheProperties;
+    private final CacheInvalidationBus invalidationBus;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, HotKeyReplicaCache> replicas = new ConcurrentHashMap<>();
+
+    public HotKeyReplicaLayer(UsersCacheProperties cacheProperties,
+                              CacheInvalidationBus invalidationBus,
+                              MeterRegistry meterRegistry) {
+        this.cacheProperties = cacheProperties;
+        this.invalidationBus = invalidationBus;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        UsersCacheProperties.CacheSpec spec = cacheProperties.getSpec(cache.getName());
+        UsersCacheProperties.HotKeys settings = spec.getHotKeys();
+        if (!settings.isEnabled()) {
+            return cache;
+        }
+
+        // The near cache below already broadcasts every write of this cache
+        boolean broadcast = !spec.getNearCache().isEnabled();
+        HotKeyReplicaCache replica = new HotKeyReplicaCache(cache, settings, invalidationBus, broadcast, meterRegistry);
+        invalidationBus.register(replica);
+        replicas.put(cache.getName(), replica);
+
+        Gauge.builder("cache.hotkey.count", replica, HotKeyReplicaCache::hotKeyCount)
+                .description("Keys currently in the hot set")
+                .tag("cache", cache.getName())
+                .register(meterRegistry);
+        Gauge.builder("cache.hotkey.replica.size", replica, HotKeyReplicaCache::replicaSize)
+                .description("Hot keys currently held in the local replica")
+                .tag("cache", cache.getName())
+                .register(meterRegistry);
+
+        log.info("Hot-key replica enabled for '{}' (top-k={}, min-reads={}, sample-rate={}, replica-ttl={})",
+                cache.getName(), settings.getTopK(), settings.getMinReads(), settings.getSampleRate(),
+                settings.getReplicaTtl());
+        return replica;
+    }
+
+    /**
+     * @return per cache, its current hot keys, hottest first
+     */
+    public Map<String, List<HotKeyReplicaCache.HotKeyStatus>> hotKeys() {
+        Map<String, List<HotKeyReplicaCache.HotKeyStatus>> hotKeys = new TreeMap<>();
+        replicas.forEach((name, replica) -> hotKeys.put(name, replica.hotKeys()));
+        return hotKeys;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link CacheManager} that wraps each cache of a delegate manager (the {@code RedisCacheManager})
+ * with the configured {@link CacheLayer}s.
+ * <p>
+ * Decorated caches are created once per name and reused, so stateful layers
+ * (L1 maps, counters, in-flight loads) are shared by every caller of the same cache.
+ */
+public class LayeredCacheManager implements CacheManager {
+
+    private final CacheManager delegate;
+    private final List<CacheLayer> layers;
+    private final Map<String, Cache> decoratedCaches = new ConcurrentHashMap<>();
+
+    public LayeredCacheManager(CacheManager delegate, List<CacheLayer> layers) {
+        this.delegate = delegate;
+        this.layers = List.copyOf(layers);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        Cache cached = decoratedCaches.get(name);
+        if (cached != null) {
+            return cached;
+        }
+
+        Cache target = delegate.getCache(name);
+        if (target == null) {
+            return null;
+        }
+        return decoratedCaches.computeIfAbsent(name, cacheName -> decorate(target));
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return delegate.getCacheNames();
+    }
+
+    public CacheManager getDelegate() {
+        return delegate;
+    }
+
+    private Cache decorate(Cache cache) {
+        Cache decorated = cache;
+        for (CacheLayer layer : layers) {
+            decorated = layer.decorate(decorated);
+        }
+        return decorated;
+    }
+}
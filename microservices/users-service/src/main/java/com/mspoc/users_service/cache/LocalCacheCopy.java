@@ -0,0 +1,14 @@
+package com.mspoc.users_service.cache;
+
+/**
+ * An in-process copy of cache entries that must drop them when another instance changes
+ * the cache. Registered with the {@link CacheInvalidationBus}.
+ */
+interface LocalCacheCopy {
+
+    String getName();
+
+    void evictLocal(String localKey);
+
+    void clearLocal();
+}
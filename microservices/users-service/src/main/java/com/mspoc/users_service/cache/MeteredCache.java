@@ -0,0 +1,186 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Records every cache operation as issued by the cache annotations, before any layer
+ * (near cache, single-flight, ...) handles it.
+ * <p>
+ * Meters:
+ * <ul>
+ *   <li>{@code cache.operations{cache, operation=cacheable, result=hit|miss|not_found|error}} - lookups; a
+ *       miss is a lookup whose loader ran (on this caller), {@code not_found} one answered by a tombstone
+ *       and {@code error} one that failed otherwise without running the loader (Redis timeout, breaker
+ *       rejection, a failed load awaited from another caller)</li>
+ *   <li>{@code cache.operations{cache, operation=cache_put|cache_evict|cache_clear, result=success}}</li>
+ *   <li>{@code cache.load{cache, result=success|failure}} - duration of the loader (the database query)</li>
+ * </ul>
+ * All are timers with percentile histograms, so counts, rates and latencies come from the same meter.
+ */
+public class MeteredCache extends ForwardingCache {
+
+    private final Timer hits;
+    private final Timer misses;
+    private final Timer notFound;
+    private final Timer errors;
+    private final Timer puts;
+    private final Timer evictions;
+    private final Timer clears;
+    private final Timer loadSuccess;
+    private final Timer loadFailure;
+
+    public MeteredCache(Cache delegate, MeterRegistry meterRegistry) {
+        super(delegate);
+        this.hits = operationTimer(meterRegistry, "cacheable", "hit");
+        this.misses = operationTimer(meterRegistry, "cacheable", "miss");
+        this.notFound = operationTimer(meterRegistry, "cacheable", "not_found");
+        this.errors = operationTimer(meterRegistry, "cacheable", "error");
+        this.puts = operationTimer(meterRegistry, "cache_put", "success");
+        this.evictions = operationTimer(meterRegistry, "cache_evict", "success");
+        this.clears = operationTimer(meterRegistry, "cache_clear", "success");
+        this.loadSuccess = loadTimer(meterRegistry, "success");
+        this.loadFailure = loadTimer(meterRegistry, "failure");
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        long start = System.nanoTime();
+        ValueWrapper wrapper = delegate.get(key);
+        (wrapper != null ? hits : misses).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return wrapper;
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        AtomicBoolean loaded = new AtomicBoolean();
+        long start = System.nanoTime();
+        Timer outcome = hits;
+        try {
+            return delegate.get(key, () -> {
+                loaded.set(true);
+                return timedLoad(valueLoader);
+            });
+        } catch (RuntimeException ex) {
+            outcome = failure(ex);
+            throw ex;
+        } finally {
+            (loaded.get() ? misses : outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        long start = System.nanoTime();
+        return delegate.retrieve(key).whenComplete((value, ex) ->
+                (value != null ? hits : misses).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        AtomicBoolean loaded = new AtomicBoolean();
+        long start = System.nanoTime();
+        return delegate.retrieve(key, () -> {
+            loaded.set(true);
+            long loadStart = System.nanoTime();
+            return valueLoader.get().whenComplete((value, ex) ->
+                    (ex == null ? loadSuccess : loadFailure).record(System.nanoTime() - loadStart, TimeUnit.NANOSECONDS));
+        }).whenComplete((value, ex) ->
+                (loaded.get() ? misses : ex != null ? failure(ex) : hits)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        puts.record(() -> delegate.put(key, value));
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        return puts.record(() -> delegate.putIfAbsent(key, value));
+    }
+
+    @Override
+    public void evict(Object key) {
+        evictions.record(() -> delegate.evict(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.evictIfPresent(key);
+        } finally {
+            evictions.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void clear() {
+        clears.record(delegate::clear);
+    }
+
+    @Override
+    public boolean invalidate() {
+        long start = System.nanoTime();
+        try {
+            return delegate.invalidate();
+        } finally {
+            clears.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * {@code not_found} only for a {@link ResourceNotFoundException}, possibly wrapped by the cache
+     * or a future; anything else is an error.
+     */
+    private Timer failure(Throwable ex) {
+        Throwable cause = ex;
+        while ((cause instanceof ValueRetrievalException || cause instanceof CompletionException
+                || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ResourceNotFoundException ? notFound : errors;
+    }
+
+    private <T> T timedLoad(Callable<T> valueLoader) throws Exception {
+        long start = System.nanoTime();
+        try {
+            T value = valueLoader.call();
+            loadSuccess.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return value;
+        } catch (Exception ex) {
+            loadFailure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw ex;
+        }
+    }
+
+    private Timer operationTimer(MeterRegistry meterRegistry, String operation, String result) {
+        return Timer.builder("cache.operations")
+                .description("Cache operations issued by the cache annotations")
+                .tag("cache", getName())
+                .tag("operation", operation)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Timer loadTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("cache.load")
+                .description("Duration of the cache loader (the source-of-truth query) on a miss")
+                .tag("cache", getName())
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
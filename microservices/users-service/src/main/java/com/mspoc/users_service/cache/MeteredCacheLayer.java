@@ -0,0 +1,27 @@
+package com.mspoc.users_service.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps every cache in a {@link MeteredCache}. Outermost layer, so it sees operations exactly
+ * as the cache annotations issue them, including near-cache hits and tombstone answers.
+ * Redis-level latency and value sizes come from the {@link MeteredRedisCacheWriter}.
+ */
+@Component
+@Order(1000)
+public class MeteredCacheLayer implements CacheLayer {
+
+    private final MeterRegistry meterRegistry;
+
+    public MeteredCacheLayer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        return new MeteredCache(cache, meterRegistry);
+    }
+}
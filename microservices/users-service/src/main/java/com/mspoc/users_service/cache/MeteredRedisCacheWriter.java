@@ -0,0 +1,143 @@
+package com.mspoc.users_service.cache;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.data.redis.cache.CacheStatistics;
+import org.springframework.data.redis.cache.CacheStatisticsCollector;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * {@link RedisCacheWriter} that times every Redis command per cache and records the size of
+ * the serialized values written.
+ * <p>
+ * Meters:
+ * <ul>
+ *   <li>{@code cache.redis.commands{cache, command=get|set|setnx|del|clear}} - Redis round-trip latency</li>
+ *   <li>{@code cache.value.size{cache}} - serialized value size in bytes, per write</li>
+ * </ul>
+ * The synchronized {@code get(key, loader)} path is split into its GET and SET, so the
+ * loader time is not counted as Redis latency. The TTL and size of every write also go to the
+ * {@link CacheTtlStatistics}.
+ */
+public class MeteredRedisCacheWriter implements RedisCacheWriter {
+
+    private final RedisCacheWriter delegate;
+    private final MeterRegistry meterRegistry;
+    private final CacheTtlStatistics ttlStatistics;
+    private final Map<String, Timer> commandTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> valueSizes = new ConcurrentHashMap<>();
+
+    public MeteredRedisCacheWriter(RedisCacheWriter delegate, MeterRegistry meterRegistry,
+                                   CacheTtlStatistics ttlStatistics) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+        this.ttlStatistics = ttlStatistics;
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key) {
+        return commandTimer(name, "get").record(() -> delegate.get(name, key));
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key, Duration ttl) {
+        return commandTimer(name, "get").record(() -> delegate.get(name, key, ttl));
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key, Supplier<byte[]> valueLoader, Duration ttl, boolean timeToIdleEnabled) {
+        // The default implementation goes through get(..) and put(..) above, timing each command on its own
+        return RedisCacheWriter.super.get(name, key, valueLoader, ttl, timeToIdleEnabled);
+    }
+
+    @Override
+    public boolean supportsAsyncRetrieve() {
+        return delegate.supportsAsyncRetrieve();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> retrieve(String name, byte[] key, Duration ttl) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return delegate.retrieve(name, key, ttl)
+                .whenComplete((value, ex) -> sample.stop(commandTimer(name, "get")));
+    }
+
+    @Override
+    public void put(String name, byte[] key, byte[] value, Duration ttl) {
+        recordWrite(name, key, value, ttl);
+        commandTimer(name, "set").record(() -> delegate.put(name, key, value, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Void> store(String name, byte[] key, byte[] value, Duration ttl) {
+        recordWrite(name, key, value, ttl);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return delegate.store(name, key, value, ttl)
+                .whenComplete((result, ex) -> sample.stop(commandTimer(name, "set")));
+    }
+
+    @Override
+    public byte[] putIfAbsent(String name, byte[] key, byte[] value, Duration ttl) {
+        byte[] existing = commandTimer(name, "setnx").record(() -> delegate.putIfAbsent(name, key, value, ttl));
+        if (existing == null) {
+            recordWrite(name, key, value, ttl);
+        }
+        return existing;
+    }
+
+    @Override
+    public void remove(String name, byte[] key) {
+        commandTimer(name, "del").record(() -> delegate.remove(name, key));
+    }
+
+    @Override
+    public void clean(String name, byte[] pattern) {
+        commandTimer(name, "clear").record(() -> delegate.clean(name, pattern));
+    }
+
+    @Override
+    public void clearStatistics(String name) {
+        delegate.clearStatistics(name);
+    }
+
+    @Override
+    public RedisCacheWriter withStatisticsCollector(CacheStatisticsCollector cacheStatisticsCollector) {
+        return new MeteredRedisCacheWriter(delegate.withStatisticsCollector(cacheStatisticsCollector), meterRegistry,
+                ttlStatistics);
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics(String cacheName) {
+        return delegate.getCacheStatistics(cacheName);
+    }
+
+    private void recordWrite(String cacheName, byte[] key, byte[] value, Duration ttl) {
+        valueSize(cacheName).record(value.length);
+        ttlStatistics.record(cacheName, key, ttl, value.length);
+    }
+
+    private Timer commandTimer(String cacheName, String command) {
+        return commandTimers.computeIfAbsent(cacheName + "::" + command, ignored -> Timer.builder("cache.redis.commands")
+                .description("Latency of the Redis commands issued by the cache")
+                .tag("cache", cacheName)
+                .tag("command", command)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private DistributionSummary valueSize(String cacheName) {
+        return valueSizes.computeIfAbsent(cacheName, ignored -> DistributionSummary.builder("cache.value.size")
+                .description("Size of the serialized values written to Redis")
+                .baseUnit("bytes")
+                .tag("cache", cacheName)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
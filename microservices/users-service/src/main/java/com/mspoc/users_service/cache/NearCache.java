@@ -0,0 +1,281 @@
+package com.mspoc.users_service.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Two-tier cache: a bounded in-heap L1 (Caffeine) in front of the Redis cache (L2).
+ * <p>
+ * Reads are served from the L1 when possible and fall through to Redis otherwise.
+ * Writes go to Redis first and then update the local L1; every put, evict and clear
+ * is broadcast through the {@link CacheInvalidationBus} so other instances drop their
+ * copy of the entry.
+ * <p>
+ * An L1 fill after an L2 read is dropped when the key was put, evicted or invalidated by another
+ * instance while the read ran: every such change bumps an invalidation generation (per stripe of
+ * keys, plus one for clears), and a fill that sees a different generation afterwards removes
+ * itself again. Otherwise the value read before the change could stay in the L1 until it expires.
+ * <p>
+ * L1 values are shared object references: callers must not mutate what they get back.
+ */
+public class NearCache extends ForwardingCache implements LocalCacheCopy {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final com.github.benmanes.caffeine.cache.Cache<String, Object> local;
+    private final CacheInvalidationBus invalidationBus;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final AtomicLong clearGeneration = new AtomicLong();
+
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+
+    public NearCache(Cache delegate,
+                     UsersCacheProperties.NearCache settings,
+                     CacheInvalidationBus invalidationBus,
+                     MeterRegistry meterRegistry) {
+        super(delegate);
+        this.local = Caffeine.newBuilder()
+                .maximumSize(settings.getMaxSize())
+                .expireAfterWrite(settings.getTtl())
+                .build();
+        this.invalidationBus = invalidationBus;
+
+        this.l1Hits = tierCounter(meterRegistry, "l1", "hit");
+        this.l1Misses = tierCounter(meterRegistry, "l1", "miss");
+        this.l2Hits = tierCounter(meterRegistry, "l2", "hit");
+        this.l2Misses = tierCounter(meterRegistry, "l2", "miss");
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            l1Hits.increment();
+            return new SimpleValueWrapper(value);
+        }
+        l1Misses.increment();
+
+        long generation = generation(localKey);
+        ValueWrapper wrapper = delegate.get(key);
+        if (wrapper != null && wrapper.get() != null) {
+            l2Hits.increment();
+            fill(localKey, wrapper.get(), generation);
+        } else {
+            l2Misses.increment();
+        }
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = localKey(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            l1Hits.increment();
+            return (T) value;
+        }
+        l1Misses.increment();
+
+        long generation = generation(localKey);
+        AtomicBoolean loaderRan = new AtomicBoolean();
+        T loaded = delegate.get(key, () -> {
+            loaderRan.set(true);
+            return valueLoader.call();
+        });
+        (loaderRan.get() ? l2Misses : l2Hits).increment();
+        if (loaded != null) {
+            fill(localKey, loaded, generation);
+        }
+        return loaded;
+    }
+
+    @Override
+    public CompletableFuture<?> retrieve(Object key) {
+        String localKey = localKey(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            l1Hits.increment();
+            return CompletableFuture.completedFuture(new SimpleValueWrapper(value));
+        }
+        l1Misses.increment();
+
+        long generation = generation(localKey);
+        return delegate.retrieve(key).thenApply(result -> {
+            Object unwrapped = result instanceof ValueWrapper wrapper ? wrapper.get() : result;
+            if (unwrapped != null) {
+                l2Hits.increment();
+                fill(localKey, unwrapped, generation);
+            } else {
+                l2Misses.increment();
+            }
+            return result;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        String localKey = localKey(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            l1Hits.increment();
+            return CompletableFuture.completedFuture((T) value);
+        }
+        l1Misses.increment();
+
+        long generation = generation(localKey);
+        AtomicBoolean loaderRan = new AtomicBoolean();
+        return delegate.retrieve(key, () -> {
+            loaderRan.set(true);
+            return valueLoader.get();
+        }).thenApply(loaded -> {
+            (loaderRan.get() ? l2Misses : l2Hits).increment();
+            if (loaded != null) {
+                fill(localKey, loaded, generation);
+            }
+            return loaded;
+        });
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        String localKey = localKey(key);
+        bumpGeneration(localKey);
+        if (value != null) {
+            local.put(localKey, value);
+        } else {
+            local.invalidate(localKey);
+        }
+        invalidationBus.publishEvict(getName(), localKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = delegate.putIfAbsent(key, value);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        if (existing == null) {
+            invalidationBus.publishEvict(getName(), localKey);
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        delegate.evict(key);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        invalidationBus.publishEvict(getName(), localKey);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean evicted = delegate.evictIfPresent(key);
+        String localKey = localKey(key);
+        invalidateLocal(localKey);
+        invalidationBus.publishEvict(getName(), localKey);
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        clearLocal();
+        invalidationBus.publishClear(getName());
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = delegate.invalidate();
+        clearLocal();
+        invalidationBus.publishClear(getName());
+        return invalidated;
+    }
+
+    /**
+     * Drops an entry from the L1 only. Called when another instance changed the entry.
+     */
+    @Override
+    public void evictLocal(String localKey) {
+        invalidateLocal(localKey);
+    }
+
+    /**
+     * Drops the whole L1 only. Called when another instance cleared the cache.
+     */
+    @Override
+    public void clearLocal() {
+        clearGeneration.incrementAndGet();
+        local.invalidateAll();
+    }
+
+    private void invalidateLocal(String localKey) {
+        bumpGeneration(localKey);
+        local.invalidate(localKey);
+    }
+
+    private void bumpGeneration(String localKey) {
+        generations.incrementAndGet(stripe(localKey));
+    }
+
+    /**
+     * Both counters only grow, so the sum is unchanged only if neither moved.
+     */
+    private long generation(String localKey) {
+        return clearGeneration.get() + generations.get(stripe(localKey));
+    }
+
+    /**
+     * Puts a value read from L2 into the L1, then takes it out again if the key changed since
+     * {@code generationBeforeRead}. Checking after the put leaves no window for an invalidation
+     * to land between the check and the put.
+     */
+    private void fill(String localKey, Object value, long generationBeforeRead) {
+        local.put(localKey, value);
+        if (generation(localKey) != generationBeforeRead) {
+            local.invalidate(localKey);
+        }
+    }
+
+    private static int stripe(String localKey) {
+        return Math.floorMod(localKey.hashCode(), GENERATION_STRIPES);
+    }
+
+    long localSize() {
+        return local.estimatedSize();
+    }
+
+    /**
+     * L1 keys use the same string form Redis uses, so invalidation messages match
+     * regardless of whether the original key was a {@code Long} or a {@code String}.
+     */
+    static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+
+    private Counter tierCounter(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("cache.tier.gets")
+                .description("Near cache lookups per tier")
+                .tag("cache", getName())
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,50 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Puts a {@link NearCache} in front of every cache that has
+ * {@code users-service.cache.caches.<name>.near-cache.enabled=true}.
+ */
+@Component
+@Order(200)
+@Slf4j
+public class NearCacheLayer implements CacheLayer {
+
+    private final UsersCacheProperties cacheProperties;
+    private final CacheInvalidationBus invalidationBus;
+    private final MeterRegistry meterRegistry;
+
+    public NearCacheLayer(UsersCacheProperties cacheProperties,
+                          CacheInvalidationBus invalidationBus,
+                          MeterRegistry meterRegistry) {
+        this.cacheProperties = cacheProperties;
+        this.invalidationBus = invalidationBus;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        UsersCacheProperties.NearCache settings = cacheProperties.getSpec(cache.getName()).getNearCache();
+        if (!settings.isEnabled()) {
+            return cache;
+        }
+
+        NearCache nearCache = new NearCache(cache, settings, invalidationBus, meterRegistry);
+        invalidationBus.register(nearCache);
+        Gauge.builder("cache.near.size", nearCache, NearCache::localSize)
+                .description("Entries currently held in the in-heap L1")
+                .tag("cache", cache.getName())
+                .register(meterRegistry);
+
+        log.info("Near cache enabled for '{}' (max-size={}, ttl={})",
+                cache.getName(), settings.getMaxSize(), settings.getTtl());
+        return nearCache;
+    }
+}
@@ -0,0 +1,83 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.exception.ResourceNotFoundException;
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Negative caching for loaders that signal "not found" with a {@link ResourceNotFoundException}.
+ * <p>
+ * The loader passed to {@link #get(Object, Callable)} is wrapped, so the tombstone is only
+ * checked on a real miss (after the near cache and Redis) and inside single-flight: a key
+ * that is tombstoned fails without running the loader, and a loader that throws
+ * {@code ResourceNotFoundException} leaves a tombstone behind. Puts clear the tombstone.
+ */
+public class NegativeCachingCache extends ForwardingCache {
+
+    private final NegativeLookupCache negativeLookups;
+
+    public NegativeCachingCache(Cache delegate, NegativeLookupCache negativeLookups) {
+        super(delegate);
+        this.negativeLookups = negativeLookups;
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        return delegate.get(key, () -> {
+            negativeLookups.checkMissing(getName(), key);
+            try {
+                return valueLoader.call();
+            } catch (ResourceNotFoundException ex) {
+                negativeLookups.markMissing(getName(), key, ex);
+                throw ex;
+            }
+        });
+    }
+
+    @Override
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return delegate.retrieve(key, () -> {
+            try {
+                negativeLookups.checkMissing(getName(), key);
+            } catch (ResourceNotFoundException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+            return valueLoader.get().whenComplete((value, ex) -> {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                if (cause instanceof ResourceNotFoundException notFound) {
+                    negativeLookups.markMissing(getName(), key, notFound);
+                }
+            });
+        });
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        negativeLookups.clear(getName(), key);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = delegate.putIfAbsent(key, value);
+        negativeLookups.clear(getName(), key);
+        return existing;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        negativeLookups.clearAll(getName());
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean invalidated = delegate.invalidate();
+        negativeLookups.clearAll(getName());
+        return invalidated;
+    }
+}
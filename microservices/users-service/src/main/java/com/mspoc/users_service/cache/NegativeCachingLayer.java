@@ -0,0 +1,34 @@
+package com.mspoc.users_service.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps caches with {@code negative-cache.enabled=true} in a {@link NegativeCachingCache}.
+ * <p>
+ * Outermost so it wraps the loader before any other layer sees it; the wrapped loader
+ * still runs inside single-flight.
+ */
+@Component
+@Order(400)
+@Slf4j
+public class NegativeCachingLayer implements CacheLayer {
+
+    private final NegativeLookupCache negativeLookups;
+
+    public NegativeCachingLayer(NegativeLookupCache negativeLookups) {
+        this.negativeLookups = negativeLookups;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        if (!negativeLookups.isEnabled(cache.getName())) {
+            return cache;
+        }
+
+        log.info("Negative caching enabled for '{}'", cache.getName());
+        return new NegativeCachingCache(cache, negativeLookups);
+    }
+}
@@ -0,0 +1,160 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import com.mspoc.users_service.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redis tombstones for lookups that found nothing in the database.
+ * <p>
+ * A tombstone lives at {@code <prefix>tombstone:<cache>::<key>}, holds the not-found message
+ * and expires after the cache's {@code negative-cache.ttl}. While it exists, lookups of the key
+ * fail fast with a {@link ResourceNotFoundException} instead of querying the database. Writes
+ * of the key must {@link #clear(String, Object) clear} it.
+ * <p>
+ * Caches without {@code negative-cache.enabled=true} never create or read tombstones.
+ * Tombstone reads and writes go through the {@link RedisCircuitBreaker}; while Redis is
+ * unavailable they are skipped and lookups go to the database.
+ */
+@Component
+@Slf4j
+public class NegativeLookupCache {
+
+    private static final int CLEAR_BATCH_SIZE = 500;
+
+    private final StringRedisTemplate redisTemplate;
+    private final UsersCacheProperties cacheProperties;
+    private final MeterRegistry meterRegistry;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final String tombstonePrefix;
+
+    public NegativeLookupCache(StringRedisTemplate redisTemplate,
+                               UsersCacheProperties cacheProperties,
+                               MeterRegistry meterRegistry,
+                               RedisCircuitBreaker circuitBreaker,
+                               @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.redisTemplate = redisTemplate;
+        this.cacheProperties = cacheProperties;
+        this.meterRegistry = meterRegistry;
+        this.circuitBreaker = circuitBreaker;
+        this.tombstonePrefix = cacheKeyPrefix + "tombstone:";
+    }
+
+    public boolean isEnabled(String cacheName) {
+        return cacheProperties.getSpec(cacheName).getNegativeCache().isEnabled();
+    }
+
+    /**
+     * Throws the recorded {@link ResourceNotFoundException} if the key has a live tombstone.
+     */
+    public void checkMissing(String cacheName, Object key) {
+        if (!isEnabled(cacheName)) {
+            return;
+        }
+
+        String message;
+        try {
+            message = circuitBreaker.execute(() -> redisTemplate.opsForValue().get(tombstoneKey(cacheName, key)));
+        } catch (RedisUnavailableException ex) {
+            return;
+        }
+        if (message != null) {
+            counter("cache.negative.hits", "Database lookups answered by a tombstone", cacheName).increment();
+            throw new ResourceNotFoundException(message);
+        }
+    }
+
+    /**
+     * Records that the key was not found in the database.
+     */
+    public void markMissing(String cacheName, Object key, ResourceNotFoundException notFound) {
+        if (!isEnabled(cacheName)) {
+            return;
+        }
+
+        circuitBreaker.executeQuietly("tombstone store", () ->
+                redisTemplate.opsForValue().set(tombstoneKey(cacheName, key), String.valueOf(notFound.getMessage()),
+                        cacheProperties.getSpec(cacheName).getNegativeCache().getTtl()));
+        counter("cache.negative.stores", "Tombstones written for not-found lookups", cacheName).increment();
+        log.debug("Tombstone stored for '{}::{}'", cacheName, key);
+    }
+
+    public void clear(String cacheName, Object key) {
+        if (!isEnabled(cacheName)) {
+            return;
+        }
+        // A missed clear leaves the tombstone until it expires (negative-cache.ttl)
+        circuitBreaker.executeQuietly("tombstone clear", () -> redisTemplate.delete(tombstoneKey(cacheName, key)));
+    }
+
+    /**
+     * Clears the tombstone once the current transaction commits, so a concurrent lookup
+     * cannot recreate it from a database state that does not contain the new row yet.
+     */
+    public void clearAfterCommit(String cacheName, Object key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            clear(cacheName, key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                clear(cacheName, key);
+            }
+        });
+    }
+
+    /**
+     * Removes every tombstone of a cache (SCAN + batched DEL).
+     */
+    public void clearAll(String cacheName) {
+        if (!isEnabled(cacheName)) {
+            return;
+        }
+        if (!circuitBreaker.isCallPermitted()) {
+            log.warn("Redis unavailable, tombstones of '{}' are left to expire", cacheName);
+            return;
+        }
+
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(tombstonePrefix + cacheName + "::*")
+                .count(CLEAR_BATCH_SIZE)
+                .build();
+        List<String> batch = new ArrayList<>(CLEAR_BATCH_SIZE);
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == CLEAR_BATCH_SIZE) {
+                    redisTemplate.delete(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            redisTemplate.delete(batch);
+        }
+    }
+
+    private String tombstoneKey(String cacheName, Object key) {
+        return tombstonePrefix + cacheName + "::" + key;
+    }
+
+    private Counter counter(String name, String description, String cacheName) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("cache", cacheName)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,200 @@
+package com.mspoc.users_service.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-key reads and writes against the Redis caches of the {@link RedisCacheManager},
+ * bypassing the one-command-per-key path of the cache abstraction.
+ * <p>
+ * Keys and values are encoded with the cache's own {@link RedisCacheConfiguration}
+ * (prefix, key conversion, value serializer and TTL), so entries written here are read
+ * back normally by {@code @Cacheable} and vice versa.
+ * <p>
+ * Each per-node MGET and pipeline is one call of the {@link RedisCircuitBreaker}: while the
+ * circuit is open nothing is sent, and a slow node fails within the operation timeout. Either
+ * way the caller gets a {@link RedisUnavailableException} and works without the cache.
+ */
+@Component
+@Slf4j
+public class RedisCacheBulkOperations {
+
+    private final RedisCacheManager redisCacheManager;
+    private final RedisKeyRouter keyRouter;
+    private final CacheTtlStatistics ttlStatistics;
+    private final RedisCircuitBreaker circuitBreaker;
+
+    public RedisCacheBulkOperations(RedisCacheManager redisCacheManager, RedisKeyRouter keyRouter,
+                                    CacheTtlStatistics ttlStatistics, RedisCircuitBreaker circuitBreaker) {
+        this.redisCacheManager = redisCacheManager;
+        this.keyRouter = keyRouter;
+        this.ttlStatistics = ttlStatistics;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Reads several entries of a cache with a single MGET (one per node when the cache is sharded).
+     *
+     * @return the entries that were found, keyed by the original cache key
+     * @throws RedisUnavailableException if the breaker refused a node's MGET, or it failed or timed out
+     */
+    public <K, V> Map<K, V> multiGet(String cacheName, Collection<K> keys, Class<V> valueType) {
+        Map<K, V> found = new LinkedHashMap<>();
+        if (keys.isEmpty()) {
+            return found;
+        }
+
+        RedisCacheConfiguration config = configurationFor(cacheName);
+        List<K> orderedKeys = new ArrayList<>(keys);
+        byte[][] redisKeys = orderedKeys.stream()
+                .map(key -> redisKey(cacheName, config, key))
+                .toArray(byte[][]::new);
+
+        // One MGET per node holding some of the keys
+        byte[][] values = new byte[redisKeys.length][];
+        Map<RedisConnectionFactory, List<Integer>> positionsByNode = new LinkedHashMap<>();
+        for (int i = 0; i < redisKeys.length; i++) {
+            positionsByNode.computeIfAbsent(keyRouter.route(redisKeys[i]), node -> new ArrayList<>()).add(i);
+        }
+        positionsByNode.forEach((node, positions) -> {
+            byte[][] nodeKeys = positions.stream()
+                    .map(position -> redisKeys[position])
+                    .toArray(byte[][]::new);
+            List<byte[]> nodeValues = circuitBreaker.execute(() -> {
+                try (RedisConnection connection = node.getConnection()) {
+                    return connection.stringCommands().mGet(nodeKeys);
+                }
+            });
+            if (nodeValues != null) {
+                for (int i = 0; i < positions.size(); i++) {
+                    values[positions.get(i)] = nodeValues.get(i);
+                }
+            }
+        });
+
+        for (int i = 0; i < orderedKeys.size(); i++) {
+            byte[] raw = values[i];
+            if (raw == null) {
+                continue;
+            }
+            Object value = config.getValueSerializationPair().read(ByteBuffer.wrap(raw));
+            if (valueType.isInstance(value)) {
+                found.put(orderedKeys.get(i), valueType.cast(value));
+            }
+        }
+
+        log.debug("MGET on cache '{}': {} of {} keys found", cacheName, found.size(), orderedKeys.size());
+        return found;
+    }
+
+    /**
+     * Writes several entries of a cache in one pipeline (one per node when the cache is sharded),
+     * applying the cache TTL to each entry.
+     */
+    public void multiPut(String cacheName, Map<?, ?> entries) {
+        multiPut(cacheName, entries, false);
+    }
+
+    /**
+     * Same as {@link #multiPut(String, Map)}; with {@code onlyIfAbsent} existing entries are
+     * kept (SET NX), so a bulk fill never overwrites a value written by a concurrent update.
+     *
+     * @throws RedisUnavailableException if the breaker refused a node's pipeline, or it failed or timed out
+     */
+    public void multiPut(String cacheName, Map<?, ?> entries, boolean onlyIfAbsent) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        RedisCacheConfiguration config = configurationFor(cacheName);
+        Map<RedisConnectionFactory, Map<Object, Object>> entriesByNode = new LinkedHashMap<>();
+        entries.forEach((key, value) -> {
+            if (value != null) {
+                entriesByNode.computeIfAbsent(keyRouter.route(redisKey(cacheName, config, key)), node -> new LinkedHashMap<>())
+                        .put(key, value);
+            }
+        });
+
+        // One pipeline per node holding some of the keys
+        entriesByNode.forEach((node, nodeEntries) -> {
+            List<Write> writes = new ArrayList<>(nodeEntries.size());
+            nodeEntries.forEach((key, value) -> writes.add(new Write(redisKey(cacheName, config, key),
+                    config.getTtlFunction().getTimeToLive(key, value),
+                    toBytes(config.getValueSerializationPair().write(value)))));
+            List<Object> results = circuitBreaker.execute(() -> {
+                try (RedisConnection connection = node.getConnection()) {
+                    List<Object> pipelined;
+                    connection.openPipeline();
+                    try {
+                        for (Write write : writes) {
+                            Duration ttl = write.ttl();
+                            Expiration expiration = ttl == null || ttl.isZero() || ttl.isNegative()
+                                    ? Expiration.persistent()
+                                    : Expiration.from(ttl);
+                            connection.stringCommands().set(
+                                    write.key(),
+                                    write.value(),
+                                    expiration,
+                                    onlyIfAbsent ? RedisStringCommands.SetOption.ifAbsent() : RedisStringCommands.SetOption.upsert());
+                        }
+                    } finally {
+                        pipelined = connection.closePipeline();
+                    }
+                    return pipelined;
+                }
+            });
+            // With SET NX, only the entries that were absent got this TTL
+            for (int i = 0; i < writes.size(); i++) {
+                if (!onlyIfAbsent || (i < results.size() && Boolean.TRUE.equals(results.get(i)))) {
+                    Write write = writes.get(i);
+                    ttlStatistics.record(cacheName, write.key(), write.ttl(), write.value().length);
+                }
+            }
+        });
+
+        log.debug("Pipelined SET on cache '{}': {} entries", cacheName, entries.size());
+    }
+
+    private RedisCacheConfiguration configurationFor(String cacheName) {
+        RedisCacheConfiguration config = redisCacheManager.getCacheConfigurations().get(cacheName);
+        if (config == null) {
+            throw new IllegalArgumentException("Unknown cache: " + cacheName);
+        }
+        return config;
+    }
+
+    /**
+     * Same key layout as {@code RedisCache}: {@code <prefix><cacheName>::<key>}.
+     */
+    static byte[] redisKey(String cacheName, RedisCacheConfiguration config, Object key) {
+        String cacheKey = config.getKeyPrefixFor(cacheName) + config.getConversionService().convert(key, String.class);
+        return toBytes(config.getKeySerializationPair().write(cacheKey));
+    }
+
+    private record Write(byte[] key, Duration ttl, byte[] value) {
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
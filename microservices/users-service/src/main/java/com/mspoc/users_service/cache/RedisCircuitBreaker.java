@@ -0,0 +1,344 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker shared by every cache-path Redis call ({@code users-service.cache.circuit-breaker}).
+ * <p>
+ * Each call runs on a virtual thread and is abandoned after {@code operation-timeout}, far below
+ * the Lettuce command timeout, so a slow Redis costs callers milliseconds instead of seconds.
+ * Outcomes are kept in a count-based sliding window; once at least {@code minimum-calls} were
+ * seen and the failure rate reaches {@code failure-rate-threshold}, the circuit opens and calls
+ * are refused without touching Redis. After {@code open-duration} up to {@code half-open-probes}
+ * calls are let through: all succeeding closes the circuit, any failure opens it again.
+ * <p>
+ * Only {@link DataAccessException}s (connection, command and timeout errors), timeouts and calls
+ * whose outcome is unknown (the caller was interrupted) count as failures; other exceptions
+ * (e.g. serialization) are rethrown as they are. Every permitted call reports an outcome, so a
+ * half-open probe never holds its permit forever.
+ * <p>
+ * Meters:
+ * <ul>
+ *   <li>{@code cache.circuit_breaker.state{state}} - 1 for the current state</li>
+ *   <li>{@code cache.circuit_breaker.transitions{from, to}}</li>
+ *   <li>{@code cache.circuit_breaker.calls{result=success|failure|timeout|not_permitted}}</li>
+ *   <li>{@code cache.circuit_breaker.failure_rate} - percent, over the sliding window</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class RedisCircuitBreaker implements DisposableBean {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final UsersCacheProperties.CircuitBreaker settings;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("redis-call-", 0).factory());
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCalls;
+    private int windowFailures;
+
+    private volatile State state = State.CLOSED;
+    private volatile Instant stateSince = Instant.now();
+    private long openUntilNanos;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private final Counter successes;
+    private final Counter failures;
+    private final Counter timeouts;
+    private final Counter notPermitted;
+
+    public RedisCircuitBreaker(UsersCacheProperties cacheProperties, MeterRegistry meterRegistry) {
+        this.settings = cacheProperties.getCircuitBreaker();
+        this.meterRegistry = meterRegistry;
+        this.window = new boolean[settings.getSlidingWindowSize()];
+
+        this.successes = callCounter("success");
+        this.failures = callCounter("failure");
+        this.timeouts = callCounter("timeout");
+        this.notPermitted = callCounter("not_permitted");
+        for (State candidate : State.values()) {
+            Gauge.builder("cache.circuit_breaker.state", this, breaker -> breaker.state == candidate ? 1 : 0)
+                    .description("Current state of the Redis circuit breaker")
+                    .tag("state", candidate.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        Gauge.builder("cache.circuit_breaker.failure_rate", this, RedisCircuitBreaker::failureRate)
+                .description("Failure rate of Redis calls over the sliding window")
+                .baseUnit("percent")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getStateSince() {
+        return stateSince;
+    }
+
+    /**
+     * Whether a call would currently be attempted. Does not take a half-open probe.
+     */
+    public boolean isCallPermitted() {
+        return !settings.isEnabled() || state == State.CLOSED;
+    }
+
+    /**
+     * Runs a Redis call under the breaker.
+     *
+     * @throws RedisUnavailableException if the circuit refused the call, or it failed or timed out
+     */
+    public <T> T execute(Supplier<T> call) {
+        if (!settings.isEnabled()) {
+            return call.get();
+        }
+        if (!tryAcquirePermission()) {
+            notPermitted.increment();
+            throw new RedisUnavailableException("Redis circuit breaker is " + state);
+        }
+
+        Future<T> future;
+        try {
+            // Writes issued inside a cache mutation batch must join it on the worker thread
+            Supplier<T> bound = CacheMutationBatch.propagate(call);
+            future = executor.submit(bound::get);
+        } catch (RuntimeException ex) {
+            onResult(false);
+            failures.increment();
+            throw new RedisUnavailableException("Redis call could not be started: " + ex.getMessage(), ex);
+        }
+        try {
+            T result = future.get(settings.getOperationTimeout().toNanos(), TimeUnit.NANOSECONDS);
+            onResult(true);
+            successes.increment();
+            return result;
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            onResult(false);
+            timeouts.increment();
+            throw new RedisUnavailableException("Redis call timed out after " + settings.getOperationTimeout(), ex);
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            // Outcome unknown: counted as a failure so a half-open probe always reports back
+            onResult(false);
+            failures.increment();
+            Thread.currentThread().interrupt();
+            throw new RedisUnavailableException("Interrupted while waiting for Redis", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof DataAccessException) {
+                onResult(false);
+                failures.increment();
+                throw new RedisUnavailableException("Redis call failed: " + cause.getMessage(), cause);
+            }
+            // Redis answered; the error is ours (serialization, ...)
+            onResult(true);
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute}: the returned future fails with a
+     * {@link RedisUnavailableException} if the call was refused, failed or did not complete in time.
+     * It completes on a virtual thread, never on the Redis client's I/O thread.
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call) {
+        if (!settings.isEnabled()) {
+            return call.get().whenCompleteAsync((value, ex) -> { }, executor);
+        }
+        if (!tryAcquirePermission()) {
+            notPermitted.increment();
+            return CompletableFuture.failedFuture(new RedisUnavailableException("Redis circuit breaker is " + state));
+        }
+
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException ex) {
+            pending = CompletableFuture.failedFuture(ex);
+        }
+
+        // Completed on a virtual thread, not on the Lettuce event loop: callers chain blocking
+        // work (tombstone checks, cache puts, database loads) on the returned future
+        CompletableFuture<T> result = new CompletableFuture<>();
+        pending.orTimeout(settings.getOperationTimeout().toNanos(), TimeUnit.NANOSECONDS)
+                .whenCompleteAsync((value, ex) -> {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause == null) {
+                        onResult(true);
+                        successes.increment();
+                        result.complete(value);
+                    } else if (cause instanceof TimeoutException) {
+                        onResult(false);
+                        timeouts.increment();
+                        result.completeExceptionally(new RedisUnavailableException(
+                                "Redis call timed out after " + settings.getOperationTimeout(), cause));
+                    } else if (cause instanceof DataAccessException) {
+                        onResult(false);
+                        failures.increment();
+                        result.completeExceptionally(new RedisUnavailableException("Redis call failed: " + cause.getMessage(), cause));
+                    } else {
+                        onResult(true);
+                        result.completeExceptionally(cause);
+                    }
+                }, executor);
+        return result;
+    }
+
+    /**
+     * Runs a Redis call, logging instead of throwing when Redis is unavailable.
+     */
+    public void executeQuietly(String description, Runnable call) {
+        try {
+            execute(() -> {
+                call.run();
+                return null;
+            });
+        } catch (RedisUnavailableException ex) {
+            log.debug("Skipped {}: {}", description, ex.getMessage());
+        }
+    }
+
+    /**
+     * Registers a callback run (asynchronously) every time the circuit closes again.
+     */
+    public void onClose(Runnable listener) {
+        closeListeners.add(listener);
+    }
+
+    private synchronized boolean tryAcquirePermission() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> {
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    yield false;
+                }
+                transitionTo(State.HALF_OPEN);
+                halfOpenPermits = settings.getHalfOpenProbes() - 1;
+                halfOpenSuccesses = 0;
+                yield true;
+            }
+            case HALF_OPEN -> {
+                if (halfOpenPermits == 0) {
+                    yield false;
+                }
+                halfOpenPermits--;
+                yield true;
+            }
+        };
+    }
+
+    private synchronized void onResult(boolean success) {
+        switch (state) {
+            case CLOSED -> {
+                if (windowCalls == window.length) {
+                    windowFailures -= window[windowIndex] ? 0 : 1;
+                } else {
+                    windowCalls++;
+                }
+                window[windowIndex] = success;
+                windowFailures += success ? 0 : 1;
+                windowIndex = (windowIndex + 1) % window.length;
+
+                if (windowCalls >= settings.getMinimumCalls()
+                        && windowFailures * 100.0 / windowCalls >= settings.getFailureRateThreshold()) {
+                    open();
+                }
+            }
+            case HALF_OPEN -> {
+                if (!success) {
+                    open();
+                } else if (++halfOpenSuccesses >= settings.getHalfOpenProbes()) {
+                    transitionTo(State.CLOSED);
+                    resetWindow();
+                    closeListeners.forEach(executor::execute);
+                }
+            }
+            case OPEN -> {
+                // Late result of a call started before the circuit opened
+            }
+        }
+    }
+
+    private void open() {
+        transitionTo(State.OPEN);
+        openUntilNanos = System.nanoTime() + settings.getOpenDuration().toNanos();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+
+    private void transitionTo(State target) {
+        State previous = state;
+        state = target;
+        stateSince = Instant.now();
+        Counter.builder("cache.circuit_breaker.transitions")
+                .description("State transitions of the Redis circuit breaker")
+                .tag("from", previous.name().toLowerCase())
+                .tag("to", target.name().toLowerCase())
+                .register(meterRegistry)
+                .increment();
+
+        if (target == State.OPEN) {
+            log.warn("Redis circuit breaker {} -> OPEN, serving from the database for {}", previous, settings.getOpenDuration());
+        } else {
+            log.info("Redis circuit breaker {} -> {}", previous, target);
+        }
+    }
+
+    private synchronized double failureRate() {
+        return windowCalls == 0 ? 0.0 : windowFailures * 100.0 / windowCalls;
+    }
+
+    private Counter callCounter(String result) {
+        return Counter.builder("cache.circuit_breaker.calls")
+                .description("Redis calls made through the circuit breaker")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,28 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Redis node holding a cache key: the single {@code spring.data.redis} node, or one of the
+ * shards of the {@link RedisShardRegistry} when {@code users-service.cache.sharding.enabled=true}.
+ */
+public interface RedisKeyRouter {
+
+    RedisConnectionFactory route(byte[] key);
+
+    /**
+     * Every node currently taking keys, e.g. for clears.
+     */
+    Collection<RedisConnectionFactory> nodes();
+
+    /**
+     * Live nodes other than the one {@link #route} picks. Another instance may still route the key
+     * to one of them (its health checks disagree), so writes delete the key there too.
+     */
+    default Collection<RedisConnectionFactory> otherNodes(byte[] key) {
+        return List.of();
+    }
+}
@@ -0,0 +1,523 @@
+package com.mspoc.users_service.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.lettuce.core.api.StatefulConnection;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The Redis nodes the cache entries are sharded over, and the consistent hash ring that maps
+ * each cache key to one of them.
+ * <p>
+ * Every node has its own pooled {@link LettuceConnectionFactory}. Configured nodes that answer a
+ * PING at startup join the ring with their keys, so a deploy does not wipe the cache. A health check
+ * PINGs all nodes every {@code health-check-interval}:
+ * <ul>
+ *   <li>a live node failing {@code failure-threshold} checks in a row is ejected: it leaves the ring,
+ *       its keys move to the next nodes on the ring and are loaded from the database there</li>
+ *   <li>an ejected node (or one unreachable at startup) passing {@code recovery-threshold} checks in
+ *       a row gets its cache keys cleared (they may be stale) and rejoins the ring, taking its keys
+ *       back. The clear runs outside the registry lock</li>
+ * </ul>
+ * Nodes can be added and removed at runtime ({@code /actuator/cacheshards}); thanks to the ring
+ * only the keys of the ranges that change owner move. A node added at runtime is cleared first.
+ * Runtime changes are stored on {@code spring.data.redis} ({@code <prefix>cache-shards:added},
+ * {@code <prefix>cache-shards:removed}) and announced on {@code <prefix>cache-shards:changes}; every
+ * instance applies them on the message and re-reads them on each health check round, so the rings
+ * of all instances agree on membership.
+ * <p>
+ * Ejections stay per instance. Writes therefore also delete the key on the other live nodes
+ * ({@link #otherNodes}), so a copy another instance still routes to is not served stale.
+ */
+@Component
+@ConditionalOnProperty(name = "users-service.cache.sharding.enabled", havingValue = "true")
+@Slf4j
+public class RedisShardRegistry implements RedisKeyRouter, MessageListener, DisposableBean {
+
+    public enum State { LIVE, EJECTED }
+
+    private static final int CLEAR_BATCH_SIZE = 1_000;
+
+    private final UsersCacheProperties.Sharding settings;
+    private final MeterRegistry meterRegistry;
+    private final Duration commandTimeout;
+    private final String cacheKeyPattern;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String addedKey;
+    private final String removedKey;
+    private final String changesChannel;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private volatile ConsistentHashRing<Node> ring = ConsistentHashRing.of(Map.of(), 0);
+
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("cache-shard-health").daemon(true).factory());
+    private final ExecutorService pings = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("cache-shard-ping-", 0).factory());
+
+    public RedisShardRegistry(UsersCacheProperties cacheProperties,
+                              MeterRegistry meterRegistry,
+                              StringRedisTemplate redisTemplate,
+                              RedisMessageListenerContainer listenerContainer,
+                              @Value("${spring.data.redis.timeout:2s}") Duration commandTimeout,
+                              @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.settings = cacheProperties.getSharding();
+        this.meterRegistry = meterRegistry;
+        this.redisTemplate = redisTemplate;
+        this.commandTimeout = commandTimeout;
+        this.cacheKeyPattern = cacheKeyPrefix + "*";
+        this.addedKey = cacheKeyPrefix + "cache-shards:added";
+        this.removedKey = cacheKeyPrefix + "cache-shards:removed";
+        this.changesChannel = cacheKeyPrefix + "cache-shards:changes";
+
+        if (settings.getNodes().isEmpty()) {
+            throw new IllegalStateException("users-service.cache.sharding.enabled=true requires at least one node");
+        }
+        Map<String, UsersCacheProperties.ShardNode> membership = sharedMembership();
+        if (membership == null) {
+            log.warn("Could not read the shared cache shard membership, starting with the configured nodes");
+            membership = configuredNodes(Set.of());
+        }
+        // No clear here: every instance boot would otherwise wipe the whole sharded cache
+        membership.values().forEach(node -> join(node, false));
+        listenerContainer.addMessageListener(this, new ChannelTopic(changesChannel));
+        for (State state : State.values()) {
+            Gauge.builder("cache.shard.nodes", this, registry -> registry.count(state))
+                    .description("Cache shard nodes by state")
+                    .tag("state", state.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+
+        long intervalMillis = settings.getHealthCheckInterval().toMillis();
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public RedisConnectionFactory route(byte[] key) {
+        ConsistentHashRing<Node> current = ring;
+        if (current.isEmpty()) {
+            // Counted as a Redis failure by the circuit breaker, like an unreachable single node
+            throw new RedisConnectionFailureException("No live cache shard");
+        }
+        return current.nodeFor(key).connectionFactory;
+    }
+
+    @Override
+    public Collection<RedisConnectionFactory> nodes() {
+        return ring.nodes().stream().map(node -> (RedisConnectionFactory) node.connectionFactory).toList();
+    }
+
+    @Override
+    public Collection<RedisConnectionFactory> otherNodes(byte[] key) {
+        ConsistentHashRing<Node> current = ring;
+        if (current.isEmpty()) {
+            return List.of();
+        }
+        Node owner = current.nodeFor(key);
+        return current.nodes().stream()
+                .filter(node -> node != owner)
+                .map(node -> (RedisConnectionFactory) node.connectionFactory)
+                .toList();
+    }
+
+    /**
+     * Adds a node on every instance. Its cache keys are cleared before it takes traffic; if it
+     * cannot be reached it starts ejected and joins once the health check sees it recover.
+     *
+     * @throws IllegalArgumentException if a node with the same name exists
+     * @throws DataAccessException if the change could not be stored on the primary Redis (the node
+     *         is not added)
+     */
+    public void addNode(UsersCacheProperties.ShardNode settings) {
+        String json;
+        synchronized (this) {
+            if (settings.getName() == null || nodes.containsKey(settings.getName())) {
+                throw new IllegalArgumentException("Shard node name missing or already used: " + settings.getName());
+            }
+        }
+        try {
+            json = objectMapper.writeValueAsString(settings);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Invalid shard node: " + ex.getOriginalMessage(), ex);
+        }
+        // Cleared here before the other instances learn about it and join it without a clear
+        join(settings, true);
+        try {
+            redisTemplate.opsForHash().put(addedKey, settings.getName(), json);
+            redisTemplate.opsForSet().remove(removedKey, settings.getName());
+        } catch (DataAccessException ex) {
+            leave(settings.getName());
+            throw ex;
+        }
+        announceChange();
+    }
+
+    /**
+     * Removes a node on every instance; its keys move to the remaining nodes.
+     *
+     * @return {@code false} if there is no node with that name
+     * @throws DataAccessException if the change could not be stored on the primary Redis (the node
+     *         is kept)
+     */
+    public boolean removeNode(String name) {
+        synchronized (this) {
+            if (!nodes.containsKey(name)) {
+                return false;
+            }
+        }
+        redisTemplate.opsForHash().delete(addedKey, name);
+        if (settings.getNodes().stream().anyMatch(node -> name.equals(node.getName()))) {
+            redisTemplate.opsForSet().add(removedKey, name);
+        }
+        leave(name);
+        announceChange();
+        return true;
+    }
+
+    /**
+     * Another instance changed the membership.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!instanceId.equals(new String(message.getBody(), StandardCharsets.UTF_8))) {
+            healthChecker.execute(this::syncMembership);
+        }
+    }
+
+    public synchronized List<NodeStatus> status() {
+        return nodes.values().stream()
+                .map(node -> new NodeStatus(node.settings.getName(), node.settings.getHost() + ":" + node.settings.getPort(),
+                        node.state, node.stateSince, node.consecutiveFailures, (long) node.ejections.count()))
+                .toList();
+    }
+
+    private void checkHealth() {
+        syncMembership();
+        List<Node> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(nodes.values());
+        }
+        for (Node node : snapshot) {
+            try {
+                onHealthCheck(node, ping(node));
+            } catch (RuntimeException ex) {
+                log.warn("Health check of cache shard '{}' failed: {}", node.settings.getName(), ex.getMessage());
+            }
+        }
+    }
+
+    private void onHealthCheck(Node node, boolean healthy) {
+        if (readyToRejoin(node, healthy)) {
+            readmit(node);
+        }
+    }
+
+    /**
+     * Counts the check; returns whether an ejected node passed enough checks to rejoin.
+     */
+    private synchronized boolean readyToRejoin(Node node, boolean healthy) {
+        if (nodes.get(node.settings.getName()) != node) {
+            return false; // removed meanwhile
+        }
+        if (!healthy) {
+            node.consecutiveSuccesses = 0;
+            node.consecutiveFailures++;
+            if (node.state == State.LIVE && node.consecutiveFailures >= settings.getFailureThreshold()) {
+                setState(node, State.EJECTED);
+                node.ejections.increment();
+                rebuildRing();
+                log.warn("Cache shard '{}' ejected after {} failed health checks",
+                        node.settings.getName(), node.consecutiveFailures);
+            }
+            return false;
+        }
+
+        node.consecutiveFailures = 0;
+        return node.state == State.EJECTED && ++node.consecutiveSuccesses >= settings.getRecoveryThreshold();
+    }
+
+    /**
+     * Clears an ejected node (outside the lock, it may take a while) and puts it back on the ring.
+     */
+    private void readmit(Node node) {
+        try {
+            clearCacheKeys(node);
+        } catch (RuntimeException ex) {
+            synchronized (this) {
+                node.consecutiveSuccesses = 0;
+            }
+            log.warn("Could not clear cache shard '{}' before admitting it: {}", node.settings.getName(), ex.getMessage());
+            return;
+        }
+        if (admit(node)) {
+            log.info("Cache shard '{}' healthy, cleared and admitted", node.settings.getName());
+        }
+    }
+
+    private synchronized boolean admit(Node node) {
+        if (nodes.get(node.settings.getName()) != node || node.state != State.EJECTED) {
+            return false;
+        }
+        setState(node, State.LIVE);
+        rebuildRing();
+        return true;
+    }
+
+    /**
+     * Registers a node as ejected and admits it if it answers; {@code clear} first removes the keys
+     * it may hold from an earlier membership.
+     */
+    private void join(UsersCacheProperties.ShardNode settings, boolean clear) {
+        Node node;
+        synchronized (this) {
+            if (nodes.containsKey(settings.getName())) {
+                return;
+            }
+            node = new Node(settings, connect(settings));
+            node.state = State.EJECTED;
+            nodes.put(settings.getName(), node);
+        }
+        if (!ping(node)) {
+            log.warn("Cache shard '{}' ({}:{}) unreachable, it joins once healthy",
+                    settings.getName(), settings.getHost(), settings.getPort());
+            return;
+        }
+        if (clear) {
+            readmit(node);
+        } else if (admit(node)) {
+            log.info("Cache shard '{}' ({}:{}) joined", settings.getName(), settings.getHost(), settings.getPort());
+        }
+    }
+
+    private boolean leave(String name) {
+        Node node;
+        synchronized (this) {
+            node = nodes.remove(name);
+            if (node == null) {
+                return false;
+            }
+            rebuildRing();
+        }
+        node.connectionFactory.destroy();
+        log.info("Cache shard '{}' removed", name);
+        return true;
+    }
+
+    /**
+     * Applies the membership stored on the primary Redis. Nodes another instance added join without
+     * a clear (that instance cleared them and may already write to them).
+     */
+    private void syncMembership() {
+        Map<String, UsersCacheProperties.ShardNode> membership = sharedMembership();
+        if (membership == null) {
+            return; // keep the current membership until the primary Redis answers again
+        }
+        List<String> gone;
+        synchronized (this) {
+            gone = nodes.keySet().stream().filter(name -> !membership.containsKey(name)).toList();
+        }
+        gone.forEach(this::leave);
+        membership.values().forEach(node -> join(node, false));
+    }
+
+    /**
+     * Configured nodes plus those added at runtime, minus those removed at runtime; {@code null}
+     * if the primary Redis cannot be read.
+     */
+    private Map<String, UsersCacheProperties.ShardNode> sharedMembership() {
+        try {
+            Set<String> removed = redisTemplate.opsForSet().members(removedKey);
+            Map<Object, Object> added = redisTemplate.opsForHash().entries(addedKey);
+            Map<String, UsersCacheProperties.ShardNode> membership = configuredNodes(removed != null ? removed : Set.of());
+            for (Object json : added.values()) {
+                UsersCacheProperties.ShardNode node = objectMapper.readValue((String) json, UsersCacheProperties.ShardNode.class);
+                membership.putIfAbsent(node.getName(), node);
+            }
+            return membership;
+        } catch (JsonProcessingException | DataAccessException ex) {
+            log.debug("Could not read the cache shard membership: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, UsersCacheProperties.ShardNode> configuredNodes(Set<String> removed) {
+        Map<String, UsersCacheProperties.ShardNode> configured = new LinkedHashMap<>();
+        settings.getNodes().stream()
+                .filter(node -> !removed.contains(node.getName()))
+                .forEach(node -> configured.put(node.getName(), node));
+        return configured;
+    }
+
+    // The other instances also pick the change up on their next health check round
+    private void announceChange() {
+        try {
+            redisTemplate.convertAndSend(changesChannel, instanceId);
+        } catch (DataAccessException ex) {
+            log.debug("Could not announce the cache shard membership change: {}", ex.getMessage());
+        }
+    }
+
+    private boolean ping(Node node) {
+        Future<String> reply = pings.submit(() -> {
+            try (RedisConnection connection = node.connectionFactory.getConnection()) {
+                return connection.ping();
+            }
+        });
+        try {
+            return "PONG".equalsIgnoreCase(reply.get(settings.getHealthCheckTimeout().toMillis(), TimeUnit.MILLISECONDS));
+        } catch (TimeoutException | ExecutionException ex) {
+            reply.cancel(true);
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the cache keys held by a node (SCAN + batched DEL).
+     */
+    private void clearCacheKeys(Node node) {
+        ScanOptions options = ScanOptions.scanOptions().match(cacheKeyPattern).count(CLEAR_BATCH_SIZE).build();
+        int cleared = 0;
+        try (RedisConnection connection = node.connectionFactory.getConnection();
+             Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+            List<byte[]> batch = new ArrayList<>(CLEAR_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == CLEAR_BATCH_SIZE) {
+                    connection.keyCommands().del(batch.toArray(byte[][]::new));
+                    cleared += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                connection.keyCommands().del(batch.toArray(byte[][]::new));
+                cleared += batch.size();
+            }
+        }
+        if (cleared > 0) {
+            log.info("Cleared {} cache keys on shard '{}'", cleared, node.settings.getName());
+        }
+    }
+
+    private void rebuildRing() {
+        Map<String, Node> live = new LinkedHashMap<>();
+        nodes.forEach((name, node) -> {
+            if (node.state == State.LIVE) {
+                live.put(name, node);
+            }
+        });
+        ring = ConsistentHashRing.of(live, settings.getVirtualNodes());
+    }
+
+    private void setState(Node node, State state) {
+        node.state = state;
+        node.stateSince = Instant.now();
+        node.consecutiveSuccesses = 0;
+    }
+
+    private synchronized int count(State state) {
+        return (int) nodes.values().stream().filter(node -> node.state == state).count();
+    }
+
+    private LettuceConnectionFactory connect(UsersCacheProperties.ShardNode node) {
+        RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(node.getHost(), node.getPort());
+        if (node.getPassword() != null) {
+            standalone.setPassword(RedisPassword.of(node.getPassword()));
+        }
+
+        UsersCacheProperties.ShardPool pool = settings.getPool();
+        GenericObjectPoolConfig<StatefulConnection<?, ?>> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(pool.getMaxActive());
+        poolConfig.setMaxIdle(pool.getMaxIdle());
+        poolConfig.setMinIdle(pool.getMinIdle());
+        poolConfig.setMaxWait(pool.getMaxWait());
+
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(standalone,
+                LettucePoolingClientConfiguration.builder()
+                        .poolConfig(poolConfig)
+                        .commandTimeout(commandTimeout)
+                        .build());
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        return connectionFactory;
+    }
+
+    @Override
+    public void destroy() {
+        healthChecker.shutdownNow();
+        pings.shutdownNow();
+        synchronized (this) {
+            nodes.values().forEach(node -> node.connectionFactory.destroy());
+            nodes.clear();
+        }
+    }
+
+    public record NodeStatus(String name, String address, State state, Instant stateSince,
+                             int consecutiveFailures, long ejections) {
+    }
+
+    private final class Node {
+
+        private final UsersCacheProperties.ShardNode settings;
+        private final LettuceConnectionFactory connectionFactory;
+        private final Counter ejections;
+        private volatile State state = State.LIVE;
+        private volatile Instant stateSince = Instant.now();
+        private int consecutiveFailures;
+        private int consecutiveSuccesses;
+
+        private Node(UsersCacheProperties.ShardNode settings, LettuceConnectionFactory connectionFactory) {
+            this.settings = settings;
+            this.connectionFactory = connectionFactory;
+            this.ejections = Counter.builder("cache.shard.ejections")
+                    .description("Times a cache shard was taken off the ring by the health check")
+                    .tag("node", settings.getName())
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.mspoc.users_service.cache;
+
+/**
+ * A Redis call was not attempted (circuit open) or failed / timed out. Callers fall back to
+ * working without the cache.
+ */
+public class RedisUnavailableException extends RuntimeException {
+
+    public RedisUnavailableException(String message) {
+        super(message);
+    }
+
+    public RedisUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,237 @@
+package com.mspoc.users_service.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Refresh-ahead using probabilistic early expiration (XFetch).
+ * <p>
+ * For every key this instance wrote or loaded, the layer remembers how long the last load took
+ * ({@code delta}); when the entry expires in Redis comes from the {@link CacheTtlStatistics}, which
+ * saw the TTL actually written (the adaptive TTL function would give a different one if asked
+ * again, since the key has been read since). On each hit it refreshes the
+ * entry in the background when {@code now - delta * beta * ln(rand()) >= expiry}: the
+ * closer to expiry and the costlier the load, the more likely. The caller always gets
+ * the current value. Keys that are not read simply expire.
+ * <p>
+ * A refresh only writes if the entry did not change while the row was being loaded: no put,
+ * evict or clear went through this layer for the key, and the value in Redis is still the one
+ * seen before the load. Otherwise a refresh that started before a {@code @CachePut} would put
+ * the older row back. When the reloaded value equals the cached one, the write only extends
+ * the TTL and goes below the local copies, so no near-cache eviction is broadcast. Keys the
+ * loader cannot reload yet ({@link CacheEntryLoader#canRefresh}) are not refreshed.
+ */
+@Slf4j
+public class RefreshAheadCache extends ForwardingCache {
+
+    private final com.github.benmanes.caffeine.cache.Cache<String, EntryTimings> timings;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final UsersCacheProperties.RefreshAhead settings;
+    private final CacheTtlStatistics ttlStatistics;
+    private final Function<Object, byte[]> redisKey;
+    private final CacheEntryLoader loader;
+    private final Executor executor;
+    private final Cache belowLocalCopies;
+
+    private final Counter refreshed;
+    private final Counter failed;
+    private final Counter rejected;
+    private final Counter superseded;
+
+    public RefreshAheadCache(Cache delegate,
+                             UsersCacheProperties.RefreshAhead settings,
+                             CacheTtlStatistics ttlStatistics,
+                             Function<Object, byte[]> redisKey,
+                             CacheEntryLoader loader,
+                             Executor executor,
+                             MeterRegistry meterRegistry) {
+        super(delegate);
+        this.settings = settings;
+        this.ttlStatistics = ttlStatistics;
+        this.redisKey = redisKey;
+        this.loader = loader;
+        this.executor = executor;
+        this.timings = Caffeine.newBuilder()
+                .maximumSize(settings.getTrackedKeys())
+                .build();
+        this.belowLocalCopies = belowLocalCopies(delegate);
+
+        this.refreshed = refreshCounter(meterRegistry, "success");
+        this.failed = refreshCounter(meterRegistry, "failure");
+        this.rejected = refreshCounter(meterRegistry, "rejected");
+        this.superseded = refreshCounter(meterRegistry, "superseded");
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper wrapper = delegate.get(key);
+        if (wrapper != null) {
+            maybeRefresh(key);
+        }
+        return wrapper;
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        long[] loadNanos = {-1};
+        T value = delegate.get(key, () -> {
+            long start = System.nanoTime();
+            T result = valueLoader.call();
+            loadNanos[0] = System.nanoTime() - start;
+            return result;
+        });
+
+        if (loadNanos[0] >= 0) {
+            record(key, value, loadNanos[0]);
+        } else {
+            maybeRefresh(key);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        EntryTimings previous = timings.getIfPresent(String.valueOf(key));
+        long delta = previous != null ? previous.deltaNanos() : settings.getDefaultRecomputeCost().toNanos();
+        record(key, value, delta);
+    }
+
+    @Override
+    public void evict(Object key) {
+        delegate.evict(key);
+        timings.invalidate(String.valueOf(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        timings.invalidate(String.valueOf(key));
+        return delegate.evictIfPresent(key);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        timings.invalidateAll();
+    }
+
+    @Override
+    public boolean invalidate() {
+        timings.invalidateAll();
+        return delegate.invalidate();
+    }
+
+    private void maybeRefresh(Object key) {
+        String timingKey = String.valueOf(key);
+        EntryTimings entry = timings.getIfPresent(timingKey);
+        if (entry == null) {
+            return;
+        }
+        OptionalLong expiresAt = ttlStatistics.expiresAtNanos(getName(), redisKey.apply(key));
+        if (expiresAt.isEmpty()) {
+            return;
+        }
+
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+        long earlyBy = (long) (entry.deltaNanos() * settings.getBeta() * -Math.log(random));
+        if (System.nanoTime() + earlyBy < expiresAt.getAsLong() || !loader.canRefresh(key)) {
+            return;
+        }
+
+        if (!refreshing.add(timingKey)) {
+            return;
+        }
+        try {
+            executor.execute(() -> refresh(key, timingKey, entry));
+        } catch (RejectedExecutionException ex) {
+            refreshing.remove(timingKey);
+            rejected.increment();
+        }
+    }
+
+    private void refresh(Object key, String timingKey, EntryTimings seen) {
+        try {
+            Object before = value(belowLocalCopies.get(key));
+            long start = System.nanoTime();
+            Object value = loader.load(key);
+            long delta = System.nanoTime() - start;
+
+            // put/evict/clear replace or drop the timings, so the same instance means no local write
+            Object current = value(belowLocalCopies.get(key));
+            if (timings.getIfPresent(timingKey) != seen || !Objects.equals(before, current)) {
+                superseded.increment();
+                log.debug("Refresh of '{}::{}' superseded by a concurrent write", getName(), key);
+                return;
+            }
+            if (value == null) {
+                evict(key);
+                return;
+            }
+            if (value.equals(current)) {
+                belowLocalCopies.put(key, value);
+            } else {
+                delegate.put(key, value);
+            }
+            record(key, value, delta);
+            refreshed.increment();
+            log.debug("Refreshed '{}::{}' ahead of expiry", getName(), key);
+        } catch (Exception ex) {
+            failed.increment();
+            log.warn("Refresh-ahead failed for '{}::{}': {}", getName(), key, ex.getMessage());
+        } finally {
+            refreshing.remove(timingKey);
+        }
+    }
+
+    private static Object value(ValueWrapper wrapper) {
+        return wrapper != null ? wrapper.get() : null;
+    }
+
+    /**
+     * The part of the stack under the near cache and the hot-key replica: a write there reaches
+     * Redis without invalidating the local copies of other instances.
+     */
+    private static Cache belowLocalCopies(Cache cache) {
+        Cache below = cache;
+        for (Cache current = cache; current instanceof ForwardingCache forwarding; current = forwarding.getDelegate()) {
+            if (current instanceof LocalCacheCopy) {
+                below = forwarding.getDelegate();
+            }
+        }
+        return below;
+    }
+
+    private void record(Object key, Object value, long deltaNanos) {
+        if (value == null) {
+            return;
+        }
+        timings.put(String.valueOf(key), new EntryTimings(deltaNanos));
+    }
+
+    private Counter refreshCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("cache.refresh_ahead.refreshes")
+                .description("Background refreshes triggered before expiry")
+                .tag("cache", getName())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    // A new instance per write, so refresh() can tell whether the entry changed while it loaded
+    private record EntryTimings(long deltaNanos) {
+    }
+}
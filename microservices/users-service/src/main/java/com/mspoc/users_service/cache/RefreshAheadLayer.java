@@ -0,0 +1,84 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Wraps caches with {@code refresh-ahead.enabled=true} in a {@link RefreshAheadCache}.
+ * <p>
+ * Requires a {@link CacheEntryLoader} bean for the cache. Refreshes run on a small
+ * bounded pool; when it is saturated, refreshes are skipped and the entry just expires.
+ * Sits above the near cache so L1 hits also count as reads of the entry.
+ */
+@Component
+@Order(300)
+@Slf4j
+public class RefreshAheadLayer implements CacheLayer, DisposableBean {
+
+    private final UsersCacheProperties cacheProperties;
+    private final RedisCacheManager redisCacheManager;
+    private final Map<String, CacheEntryLoader> loaders;
+    private final CacheTtlStatistics ttlStatistics;
+    private final MeterRegistry meterRegistry;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            2, 2, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1_000),
+            Thread.ofPlatform().name("cache-refresh-", 0).daemon(true).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    public RefreshAheadLayer(UsersCacheProperties cacheProperties,
+                             RedisCacheManager redisCacheManager,
+                             List<CacheEntryLoader> loaders,
+                             CacheTtlStatistics ttlStatistics,
+                             MeterRegistry meterRegistry) {
+        this.cacheProperties = cacheProperties;
+        this.redisCacheManager = redisCacheManager;
+        this.loaders = loaders.stream()
+                .collect(Collectors.toMap(CacheEntryLoader::getCacheName, Function.identity()));
+        this.ttlStatistics = ttlStatistics;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        UsersCacheProperties.RefreshAhead settings = cacheProperties.getSpec(cache.getName()).getRefreshAhead();
+        if (!settings.isEnabled()) {
+            return cache;
+        }
+
+        CacheEntryLoader loader = loaders.get(cache.getName());
+        RedisCacheConfiguration config = redisCacheManager.getCacheConfigurations().get(cache.getName());
+        if (loader == null || config == null) {
+            log.warn("Refresh-ahead requested for '{}' but no CacheEntryLoader/Redis configuration exists; skipping",
+                    cache.getName());
+            return cache;
+        }
+
+        log.info("Refresh-ahead enabled for '{}' (beta={})", cache.getName(), settings.getBeta());
+        String cacheName = cache.getName();
+        ttlStatistics.trackExpiries(cacheName, settings.getTrackedKeys());
+        return new RefreshAheadCache(cache, settings, ttlStatistics,
+                key -> RedisCacheBulkOperations.redisKey(cacheName, config, key), loader, executor, meterRegistry);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
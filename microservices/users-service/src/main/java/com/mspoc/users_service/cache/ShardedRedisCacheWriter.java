@@ -0,0 +1,121 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.data.redis.cache.CacheStatistics;
+import org.springframework.data.redis.cache.CacheStatisticsCollector;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link RedisCacheWriter} that sends every key to the node chosen by the {@link RedisKeyRouter}
+ * (one non-locking writer per node) and fans clears out to all nodes. Puts and removes also delete
+ * the key on the {@linkplain RedisKeyRouter#otherNodes other live nodes}, where another instance
+ * whose ring differs may still read it.
+ * <p>
+ * All node writers share one {@link CacheStatisticsCollector}, so the cache statistics stay per
+ * cache, not per node.
+ */
+public class ShardedRedisCacheWriter implements RedisCacheWriter {
+
+    private final RedisKeyRouter keyRouter;
+    private final CacheStatisticsCollector statistics;
+    // Weak keys: writers of removed nodes go away with their connection factory
+    private final Map<RedisConnectionFactory, RedisCacheWriter> nodeWriters =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    public ShardedRedisCacheWriter(RedisKeyRouter keyRouter) {
+        this(keyRouter, CacheStatisticsCollector.none());
+    }
+
+    private ShardedRedisCacheWriter(RedisKeyRouter keyRouter, CacheStatisticsCollector statistics) {
+        this.keyRouter = keyRouter;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key) {
+        return writerFor(key).get(name, key);
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key, Duration ttl) {
+        return writerFor(key).get(name, key, ttl);
+    }
+
+    @Override
+    public boolean supportsAsyncRetrieve() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> retrieve(String name, byte[] key, Duration ttl) {
+        return writerFor(key).retrieve(name, key, ttl);
+    }
+
+    @Override
+    public void put(String name, byte[] key, byte[] value, Duration ttl) {
+        writerFor(key).put(name, key, value, ttl);
+        deleteOnOtherNodes(key);
+    }
+
+    @Override
+    public CompletableFuture<Void> store(String name, byte[] key, byte[] value, Duration ttl) {
+        deleteOnOtherNodes(key);
+        return writerFor(key).store(name, key, value, ttl);
+    }
+
+    @Override
+    public byte[] putIfAbsent(String name, byte[] key, byte[] value, Duration ttl) {
+        return writerFor(key).putIfAbsent(name, key, value, ttl);
+    }
+
+    @Override
+    public void remove(String name, byte[] key) {
+        writerFor(key).remove(name, key);
+        deleteOnOtherNodes(key);
+    }
+
+    @Override
+    public void clean(String name, byte[] pattern) {
+        keyRouter.nodes().forEach(node -> writerFor(node).clean(name, pattern));
+    }
+
+    @Override
+    public void clearStatistics(String name) {
+        statistics.reset(name);
+    }
+
+    @Override
+    public RedisCacheWriter withStatisticsCollector(CacheStatisticsCollector cacheStatisticsCollector) {
+        return new ShardedRedisCacheWriter(keyRouter, cacheStatisticsCollector);
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics(String cacheName) {
+        return statistics.getCacheStatistics(cacheName);
+    }
+
+    // Plain DEL, not through the node writers: these are not cache evictions for the statistics
+    private void deleteOnOtherNodes(byte[] key) {
+        for (RedisConnectionFactory node : keyRouter.otherNodes(key)) {
+            try (RedisConnection connection = node.getConnection()) {
+                connection.keyCommands().del(key);
+            }
+        }
+    }
+
+    private RedisCacheWriter writerFor(byte[] key) {
+        return writerFor(keyRouter.route(key));
+    }
+
+    private RedisCacheWriter writerFor(RedisConnectionFactory node) {
+        return nodeWriters.computeIfAbsent(node, factory ->
+                RedisCacheWriter.nonLockingRedisCacheWriter(factory).withStatisticsCollector(statistics));
+    }
+}
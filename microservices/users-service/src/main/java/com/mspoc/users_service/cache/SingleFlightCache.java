@@ -0,0 +1,212 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent loads of the same missing key: one loader per key per instance,
+ * every other caller waits on the same future.
+ * <p>
+ * Used through {@code @Cacheable(sync = true)}, which calls {@link #get(Object, Callable)},
+ * and through the async {@link #retrieve(Object, Supplier)} path. With
+ * {@code distributed-lock} enabled the leader also takes a short {@code SET NX PX} lock in
+ * Redis; instances that lose it poll Redis for the winner's value before loading themselves.
+ * While the {@link RedisCircuitBreaker} is not closed the lock is skipped (collapsing stays per instance).
+ */
+@Slf4j
+public class SingleFlightCache extends ForwardingCache {
+
+    private static final RedisScript<Long> RELEASE_LOCK = RedisScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final UsersCacheProperties.SingleFlight settings;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final String lockKeyPrefix;
+
+    private final Counter loads;
+    private final Counter collapsedLocal;
+    private final Counter collapsedCluster;
+
+    public SingleFlightCache(Cache delegate,
+                             UsersCacheProperties.SingleFlight settings,
+                             StringRedisTemplate redisTemplate,
+                             RedisCircuitBreaker circuitBreaker,
+                             String lockKeyPrefix,
+                             MeterRegistry meterRegistry) {
+        super(delegate);
+        this.settings = settings;
+        this.redisTemplate = redisTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.lockKeyPrefix = lockKeyPrefix;
+
+        this.loads = Counter.builder("cache.single_flight.loads")
+                .description("Loader invocations that actually ran")
+                .tag("cache", getName())
+                .register(meterRegistry);
+        this.collapsedLocal = collapsedCounter(meterRegistry, "instance");
+        this.collapsedCluster = collapsedCounter(meterRegistry, "cluster");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper hit = delegate.get(key);
+        if (hit != null) {
+            return (T) hit.get();
+        }
+
+        String flightKey = String.valueOf(key);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, flight);
+        if (existing != null) {
+            collapsedLocal.increment();
+            return (T) await(key, valueLoader, existing);
+        }
+
+        try {
+            Object value = settings.isDistributedLock() && circuitBreaker.isCallPermitted()
+                    ? loadWithClusterLock(key, valueLoader)
+                    : loadAndStore(key, valueLoader);
+            flight.complete(value);
+            return (T) value;
+        } catch (Exception ex) {
+            flight.completeExceptionally(ex);
+            throw ex instanceof ValueRetrievalException retrievalException
+                    ? retrievalException
+                    : new ValueRetrievalException(key, valueLoader, ex);
+        } finally {
+            inFlight.remove(flightKey, flight);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+        return delegate.retrieve(key).thenCompose(hit -> {
+            if (hit != null) {
+                Object value = hit instanceof ValueWrapper wrapper ? wrapper.get() : hit;
+                return CompletableFuture.completedFuture((T) value);
+            }
+
+            String flightKey = String.valueOf(key);
+            CompletableFuture<Object> flight = new CompletableFuture<>();
+            CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, flight);
+            if (existing != null) {
+                collapsedLocal.increment();
+                return (CompletableFuture<T>) existing;
+            }
+
+            loads.increment();
+            CompletableFuture<T> load;
+            try {
+                load = valueLoader.get();
+            } catch (RuntimeException ex) {
+                // A loader that fails before returning its future must not leave the key in flight forever
+                inFlight.remove(flightKey, flight);
+                flight.completeExceptionally(ex);
+                return (CompletableFuture<T>) flight;
+            }
+            load.whenComplete((value, ex) -> {
+                try {
+                    if (ex == null && value != null) {
+                        delegate.put(key, value);
+                    }
+                } catch (RuntimeException putFailure) {
+                    log.warn("Could not cache the loaded value of '{}::{}': {}", getName(), key, putFailure.getMessage());
+                } finally {
+                    inFlight.remove(flightKey, flight);
+                    if (ex != null) {
+                        flight.completeExceptionally(ex);
+                    } else {
+                        flight.complete(value);
+                    }
+                }
+            });
+            return (CompletableFuture<T>) flight;
+        });
+    }
+
+    private Object loadAndStore(Object key, Callable<?> valueLoader) throws Exception {
+        loads.increment();
+        Object value = valueLoader.call();
+        if (value != null) {
+            delegate.put(key, value);
+        }
+        return value;
+    }
+
+    private Object loadWithClusterLock(Object key, Callable<?> valueLoader) throws Exception {
+        String lockKey = lockKeyPrefix + getName() + "::" + key;
+        String token = UUID.randomUUID().toString();
+
+        Boolean acquired;
+        try {
+            acquired = circuitBreaker.execute(() ->
+                    redisTemplate.opsForValue().setIfAbsent(lockKey, token, settings.getLockTtl()));
+        } catch (RedisUnavailableException ex) {
+            return loadAndStore(key, valueLoader);
+        }
+        if (Boolean.TRUE.equals(acquired)) {
+            try {
+                return loadAndStore(key, valueLoader);
+            } finally {
+                circuitBreaker.executeQuietly("lock release of " + lockKey,
+                        () -> redisTemplate.execute(RELEASE_LOCK, List.of(lockKey), token));
+            }
+        }
+
+        long deadline = System.nanoTime() + settings.getLockWait().toNanos();
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(settings.getLockPollInterval().toMillis());
+            ValueWrapper loadedElsewhere = delegate.get(key);
+            if (loadedElsewhere != null) {
+                collapsedCluster.increment();
+                return loadedElsewhere.get();
+            }
+        }
+
+        log.debug("Lock wait expired for '{}::{}', loading locally", getName(), key);
+        return loadAndStore(key, valueLoader);
+    }
+
+    private Object await(Object key, Callable<?> valueLoader, CompletableFuture<Object> flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        } catch (ExecutionException | CompletionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof ValueRetrievalException retrievalException) {
+                throw retrievalException;
+            }
+            throw new ValueRetrievalException(key, valueLoader, cause);
+        }
+    }
+
+    private Counter collapsedCounter(MeterRegistry meterRegistry, String scope) {
+        return Counter.builder("cache.single_flight.collapsed")
+                .description("Loads avoided because another caller was already loading the key")
+                .tag("cache", getName())
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+}
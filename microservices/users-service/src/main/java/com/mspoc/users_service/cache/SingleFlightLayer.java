@@ -0,0 +1,52 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps caches with {@code single-flight.enabled=true} in a {@link SingleFlightCache}.
+ * <p>
+ * Sits below the near cache so L1 hits never reach it, and so loaded values are stored
+ * in Redis without broadcasting an invalidation.
+ */
+@Component
+@Order(150)
+@Slf4j
+public class SingleFlightLayer implements CacheLayer {
+
+    private final UsersCacheProperties cacheProperties;
+    private final StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final String lockKeyPrefix;
+
+    public SingleFlightLayer(UsersCacheProperties cacheProperties,
+                             StringRedisTemplate redisTemplate,
+                             MeterRegistry meterRegistry,
+                             RedisCircuitBreaker circuitBreaker,
+                             @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.cacheProperties = cacheProperties;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.circuitBreaker = circuitBreaker;
+        this.lockKeyPrefix = cacheKeyPrefix + "lock:";
+    }
+
+    @Override
+    public Cache decorate(Cache cache) {
+        UsersCacheProperties.SingleFlight settings = cacheProperties.getSpec(cache.getName()).getSingleFlight();
+        if (!settings.isEnabled()) {
+            return cache;
+        }
+
+        log.info("Single-flight loading enabled for '{}' (distributed-lock={})",
+                cache.getName(), settings.isDistributedLock());
+        return new SingleFlightCache(cache, settings, redisTemplate, circuitBreaker, lockKeyPrefix, meterRegistry);
+    }
+}
@@ -0,0 +1,32 @@
+package com.mspoc.users_service.cache;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Routes every cache key to the {@code spring.data.redis} node (sharding disabled).
+ */
+@Component
+@ConditionalOnProperty(name = "users-service.cache.sharding.enabled", havingValue = "false", matchIfMissing = true)
+public class SingleNodeKeyRouter implements RedisKeyRouter {
+
+    private final RedisConnectionFactory connectionFactory;
+
+    public SingleNodeKeyRouter(RedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public RedisConnectionFactory route(byte[] key) {
+        return connectionFactory;
+    }
+
+    @Override
+    public Collection<RedisConnectionFactory> nodes() {
+        return List.of(connectionFactory);
+    }
+}
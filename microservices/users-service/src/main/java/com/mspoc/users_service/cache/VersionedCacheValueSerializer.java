@@ -0,0 +1,118 @@
+package com.mspoc.users_service.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Schema-aware value serializer for a cache that holds a single value type.
+ * <p>
+ * Values are written without type metadata, in the configured {@link CacheValueFormat}.
+ * Binary formats are prefixed with a 3-byte header: {@code 0x00} (never the first byte of a
+ * JSON document), the header version and the format id. Reads accept every format, and bytes
+ * without the header are decoded as JSON, so a cache can switch format while entries written
+ * in the previous one are still alive.
+ * <p>
+ * Binary formats write dates as numeric arrays instead of ISO strings; JSON keeps the ISO
+ * strings of the original entries.
+ */
+public class VersionedCacheValueSerializer implements RedisSerializer<Object> {
+
+    static final byte MAGIC = 0x00;
+    static final byte HEADER_VERSION = 1;
+    static final int HEADER_LENGTH = 3;
+
+    private final Class<?> valueType;
+    private final CacheValueFormat writeFormat;
+    private final Map<CacheValueFormat, ObjectReader> readers = new EnumMap<>(CacheValueFormat.class);
+    private final ObjectWriter writer;
+
+    public VersionedCacheValueSerializer(Class<?> valueType, CacheValueFormat writeFormat) {
+        this.valueType = valueType;
+        this.writeFormat = writeFormat;
+        for (CacheValueFormat format : CacheValueFormat.values()) {
+            readers.put(format, mapperFor(format).readerFor(valueType));
+        }
+        this.writer = mapperFor(writeFormat).writerFor(valueType);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            byte[] payload = writer.writeValueAsBytes(value);
+            if (writeFormat == CacheValueFormat.JSON) {
+                return payload;
+            }
+
+            byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+            bytes[0] = MAGIC;
+            bytes[1] = HEADER_VERSION;
+            bytes[2] = writeFormat.id();
+            System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+            return bytes;
+        } catch (IOException ex) {
+            throw new SerializationException("Could not write " + valueType.getSimpleName() + " as " + writeFormat, ex);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+
+        if (bytes[0] != MAGIC) {
+            return read(CacheValueFormat.JSON, bytes, 0);
+        }
+
+        if (bytes.length < HEADER_LENGTH || bytes[1] > HEADER_VERSION) {
+            throw new SerializationException("Unsupported cache value header (version " + bytes[1] + ")");
+        }
+        CacheValueFormat format;
+        try {
+            format = CacheValueFormat.fromId(bytes[2]);
+        } catch (IllegalArgumentException ex) {
+            throw new SerializationException(ex.getMessage(), ex);
+        }
+        return read(format, bytes, HEADER_LENGTH);
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return valueType;
+    }
+
+    public CacheValueFormat getWriteFormat() {
+        return writeFormat;
+    }
+
+    private Object read(CacheValueFormat format, byte[] bytes, int offset) {
+        try {
+            return readers.get(format).readValue(bytes, offset, bytes.length - offset);
+        } catch (IOException ex) {
+            throw new SerializationException("Could not read " + valueType.getSimpleName() + " from " + format, ex);
+        }
+    }
+
+    private static ObjectMapper mapperFor(CacheValueFormat format) {
+        ObjectMapper mapper = new ObjectMapper(format.newFactory());
+        mapper.registerModule(new JavaTimeModule());
+        mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, format != CacheValueFormat.JSON);
+        // Entries outlive deployments: a field removed from the DTO must not break old entries
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+}
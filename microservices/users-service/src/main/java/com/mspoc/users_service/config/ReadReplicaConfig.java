@@ -0,0 +1,130 @@
+package com.mspoc.users_service.config;
+
+import com.mspoc.users_service.datasource.PrimaryReadInterceptor;
+import com.mspoc.users_service.datasource.ReadFromPrimary;
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replaces the auto-configured {@code DataSource} (only with
+ * {@code users-service.datasource.read-replicas.enabled=true}): read-only transactions get their
+ * connections from the {@link ReadReplicaDataSource}, all others from the primary pool. Methods
+ * that fill a cache ({@code @Cacheable} or {@link ReadFromPrimary}) read from the primary.
+ * <p>
+ * The Hikari pools are named {@code users-primary} and {@code users-<replica>}, so the
+ * {@code hikaricp.*} meters carry the target in their {@code pool} tag.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users-service.datasource.read-replicas.enabled", havingValue = "true")
+@EnableConfigurationProperties(UsersDataSourceProperties.class)
+public class ReadReplicaConfig {
+
+    private static final Duration MIN_CONNECTION_TIMEOUT = Duration.ofMillis(250);
+
+    /**
+     * The primary pool, built from {@code spring.datasource} like the auto-configured one.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        dataSource.setPoolName("users-primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReadReplicaDataSource readReplicaDataSource(HikariDataSource primaryDataSource,
+                                                       DataSourceProperties dataSourceProperties,
+                                                       UsersDataSourceProperties properties,
+                                                       MeterRegistry meterRegistry) {
+        UsersDataSourceProperties.ReadReplicas settings = properties.getReadReplicas();
+        if (settings.getNodes().isEmpty()) {
+            throw new IllegalStateException("users-service.datasource.read-replicas.enabled=true requires at least one node");
+        }
+
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (UsersDataSourceProperties.ReplicaNode node : settings.getNodes()) {
+            if (node.getName() == null || replicas.containsKey(node.getName())) {
+                throw new IllegalStateException("Read replica name missing or already used: " + node.getName());
+            }
+            replicas.put(node.getName(), replicaPool(node, settings, dataSourceProperties, meterRegistry));
+        }
+        return new ReadReplicaDataSource(primaryDataSource, replicas, settings,
+                ReadReplicaDataSource.POSTGRES_REPLAY_LAG, meterRegistry);
+    }
+
+    /**
+     * The data source used by JPA, Flyway and the {@code JdbcTemplate}s. The physical connection is
+     * fetched on the first statement, from the replicas if the transaction is read-only by then.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReadReplicaDataSource readReplicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(readReplicaDataSource);
+        return dataSource;
+    }
+
+    /**
+     * Pins {@code @Cacheable} and {@link ReadFromPrimary} methods to the primary. Ordered first,
+     * so it wraps the transaction and the connection it fetches.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor primaryReadAdvisor() {
+        ComposablePointcut pointcut = new ComposablePointcut(AnnotationMatchingPointcut.forMethodAnnotation(Cacheable.class))
+                .union(AnnotationMatchingPointcut.forMethodAnnotation(ReadFromPrimary.class));
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(pointcut, new PrimaryReadInterceptor());
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+
+    /**
+     * A read-only pool for one replica. It waits at most the lag check timeout for a connection:
+     * a read that cannot get one in time is served by another pool.
+     */
+    private HikariDataSource replicaPool(UsersDataSourceProperties.ReplicaNode node,
+                                         UsersDataSourceProperties.ReadReplicas settings,
+                                         DataSourceProperties dataSourceProperties,
+                                         MeterRegistry meterRegistry) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName("users-" + node.getName());
+        pool.setDriverClassName(dataSourceProperties.determineDriverClassName());
+        pool.setJdbcUrl(node.getUrl());
+        pool.setUsername(node.getUsername() != null ? node.getUsername() : dataSourceProperties.determineUsername());
+        pool.setPassword(node.getPassword() != null ? node.getPassword() : dataSourceProperties.determinePassword());
+        pool.setMaximumPoolSize(node.getMaximumPoolSize());
+        pool.setMinimumIdle(node.getMinimumIdle());
+        pool.setReadOnly(true);
+        pool.setConnectionTimeout(Math.max(MIN_CONNECTION_TIMEOUT.toMillis(), settings.getLagCheckTimeout().toMillis()));
+        // Start even if the replica is unreachable; the lag check keeps it out until it answers
+        pool.setInitializationFailTimeout(-1);
+        pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return pool;
+    }
+}
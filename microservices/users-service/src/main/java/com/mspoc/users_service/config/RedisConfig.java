@@ -3,22 +3,57 @@ package com.mspoc.users_service.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mspoc.users_service.cache.AccessFrequencyTracker;
+import com.mspoc.users_service.cache.AdaptiveTtlFunction;
+import com.mspoc.users_service.cache.BatchingRedisCacheWriter;
+import com.mspoc.users_service.cache.CacheLayer;
+import com.mspoc.users_service.cache.CacheMutationBatchInterceptor;
+import com.mspoc.users_service.cache.CacheTtlStatistics;
+import com.mspoc.users_service.cache.CacheValueFormat;
+import com.mspoc.users_service.cache.LayeredCacheManager;
+import com.mspoc.users_service.cache.MeteredRedisCacheWriter;
+import com.mspoc.users_service.cache.RedisCircuitBreaker;
+import com.mspoc.users_service.cache.RedisKeyRouter;
+import com.mspoc.users_service.cache.RedisShardRegistry;
+import com.mspoc.users_service.cache.ShardedRedisCacheWriter;
+import com.mspoc.users_service.cache.VersionedCacheValueSerializer;
+import com.mspoc.users_service.service.KeysetPageCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Configuration
 @EnableCaching
+@EnableConfigurationProperties(UsersCacheProperties.class)
 public class RedisConfig {
 
     @Value("${spring.cache.redis.time-to-live}")
@@ -27,8 +62,32 @@ public class RedisConfig {
     @Value("${spring.cache.redis.key-prefix}")
     private String cacheKeyPrefix;
 
+    /**
+     * Cache manager used by the cache annotations: the Redis caches wrapped with the
+     * configured {@link CacheLayer}s (near cache, ...).
+     */
     @Bean
-    public CacheManager cacheManager(RedisConnectionFactory redisConnectionFactory) {
+    @Primary
+    public CacheManager cacheManager(RedisCacheManager redisCacheManager, ObjectProvider<CacheLayer> cacheLayers) {
+        return new LayeredCacheManager(redisCacheManager, cacheLayers.orderedStream().toList());
+    }
+
+    /**
+     * Redis caches. Statistics are enabled so Spring Boot binds the native {@code cache.gets},
+     * {@code cache.puts} and {@code cache.evictions} meters, and every Redis command is timed by
+     * the {@link MeteredRedisCacheWriter}. With {@code mutation-batch.enabled} the writes of one
+     * annotated method invocation are sent together by the {@link BatchingRedisCacheWriter}.
+     * Caches with a {@code ttl-policy} compute the TTL per entry with an {@link AdaptiveTtlFunction}.
+     * With {@code sharding.enabled} the entries are spread over the nodes of the {@link RedisShardRegistry}.
+     */
+    @Bean
+    public RedisCacheManager redisCacheManager(RedisConnectionFactory redisConnectionFactory,
+                                               UsersCacheProperties cacheProperties,
+                                               RedisKeyRouter keyRouter,
+                                               RedisCircuitBreaker circuitBreaker,
+                                               AccessFrequencyTracker accessTracker,
+                                               CacheTtlStatistics ttlStatistics,
+                                               MeterRegistry meterRegistry) {
 
         //Default configuration for all caches, can be overridden per cache name
         RedisCacheConfiguration defaultConfig = RedisCacheConfiguration.defaultCacheConfig()
@@ -38,18 +97,102 @@ public class RedisConfig {
                 .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()))
                 .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(new GenericJackson2JsonRedisSerializer(objectMapper())));
 
-        // Specific cache configurations for different cache names
-        return RedisCacheManager.builder(redisConnectionFactory)
+        RedisCacheWriter redisWriter = cacheProperties.getSharding().isEnabled()
+                ? new ShardedRedisCacheWriter(keyRouter)
+                : RedisCacheWriter.nonLockingRedisCacheWriter(redisConnectionFactory);
+        RedisCacheWriter cacheWriter = new MeteredRedisCacheWriter(redisWriter, meterRegistry, ttlStatistics);
+        UsersCacheProperties.MutationBatch mutationBatch = cacheProperties.getMutationBatch();
+        if (mutationBatch.isEnabled()) {
+            cacheWriter = new BatchingRedisCacheWriter(cacheWriter, keyRouter, circuitBreaker,
+                    cacheKeyPrefix + "cache-version:", mutationBatch.getVersionRetention(), ttlStatistics, meterRegistry);
+        }
+
+        // Specific cache configurations for different cache names.
+        // user-preferences holds only raw data (quiet hours are evaluated when served), so it can live for hours
+        Map<String, Duration> baseTtls = new LinkedHashMap<>();
+        baseTtls.put("user-preferences", Duration.ofHours(6));
+        baseTtls.put("user-profiles", Duration.ofMinutes(30));
+        baseTtls.put("user-emails", Duration.ofMinutes(30));
+        baseTtls.put("user-details", Duration.ofMinutes(30));
+        baseTtls.put("notification-settings", Duration.ofMinutes(20));
+        // Only the ids of list pages are cached, rows are resolved per request; the TTL bounds how late a page sees inserts
+        baseTtls.put(KeysetPageCache.PAGES_CACHE, Duration.ofSeconds(30));
+        // Other caches get the default TTL, and their own configuration only if they have a TTL policy
+        cacheProperties.getCaches().forEach((cacheName, spec) -> {
+            if (spec.getTtlPolicy().isActive()) {
+                baseTtls.putIfAbsent(cacheName, Duration.ofMinutes(redisTtlInMinutes));
+            }
+        });
+
+        Map<String, RedisCacheConfiguration> cacheConfigurations = new LinkedHashMap<>();
+        baseTtls.forEach((cacheName, baseTtl) -> {
+            ttlStatistics.registerBaseTtl(cacheName, baseTtl);
+            RedisCacheConfiguration config = withValueSerializer(defaultConfig.entryTtl(baseTtl), cacheName, cacheProperties);
+            cacheConfigurations.put(cacheName, withTtlPolicy(config, cacheName, baseTtl, cacheProperties, accessTracker));
+        });
+        return RedisCacheManager.builder(cacheWriter)
                 .cacheDefaults(defaultConfig)
-                .withCacheConfiguration("user-preferences",
-                        defaultConfig.entryTtl(Duration.ofMinutes(5)))
-                .withCacheConfiguration("user-profiles",
-                        defaultConfig.entryTtl(Duration.ofMinutes(30)))
-                .withCacheConfiguration("notification-settings",
-                        defaultConfig.entryTtl(Duration.ofMinutes(20)))
+                .enableStatistics()
+                .withInitialCacheConfigurations(cacheConfigurations)
                 .build();
     }
 
+    /**
+     * Collects the cache writes of every {@code @CachePut}, {@code @CacheEvict} and {@code @Caching}
+     * method into one batch. Runs before the cache and transaction interceptors.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnProperty(name = "users-service.cache.mutation-batch.enabled", havingValue = "true", matchIfMissing = true)
+    public static Advisor cacheMutationBatchAdvisor() {
+        ComposablePointcut pointcut = new ComposablePointcut(AnnotationMatchingPointcut.forMethodAnnotation(CachePut.class))
+                .union(AnnotationMatchingPointcut.forMethodAnnotation(CacheEvict.class))
+                .union(AnnotationMatchingPointcut.forMethodAnnotation(Caching.class));
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(pointcut, new CacheMutationBatchInterceptor());
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+
+    /**
+     * Replaces the fixed TTL of a cache with an {@link AdaptiveTtlFunction} when
+     * {@code users-service.cache.caches.<name>.ttl-policy} is adaptive or has a jitter.
+     */
+    private RedisCacheConfiguration withTtlPolicy(RedisCacheConfiguration config, String cacheName, Duration baseTtl,
+                                                  UsersCacheProperties cacheProperties,
+                                                  AccessFrequencyTracker accessTracker) {
+        UsersCacheProperties.TtlPolicy policy = cacheProperties.getSpec(cacheName).getTtlPolicy();
+        if (!policy.isActive()) {
+            return config;
+        }
+        return config.entryTtl(new AdaptiveTtlFunction(cacheName, baseTtl, policy, accessTracker));
+    }
+
+    /**
+     * Switches a cache to the typed {@link VersionedCacheValueSerializer} when
+     * {@code users-service.cache.caches.<name>.serializer.value-type} is set.
+     */
+    private RedisCacheConfiguration withValueSerializer(RedisCacheConfiguration config, String cacheName,
+                                                       UsersCacheProperties cacheProperties) {
+        UsersCacheProperties.Serializer settings = cacheProperties.getSpec(cacheName).getSerializer();
+        if (settings.getValueType() == null) {
+            if (settings.getFormat() != CacheValueFormat.JSON) {
+                throw new IllegalStateException("Cache '" + cacheName + "' uses the " + settings.getFormat()
+                        + " serializer format, which requires serializer.value-type");
+            }
+            return config;
+        }
+
+        return config.serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(
+                new VersionedCacheValueSerializer(settings.getValueType(), settings.getFormat())));
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
     private ObjectMapper objectMapper() {
         ObjectMapper mapper = new ObjectMapper();
         mapper.registerModule(new JavaTimeModule());
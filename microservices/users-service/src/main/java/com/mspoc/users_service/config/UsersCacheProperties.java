@@ -0,0 +1,493 @@
+package com.mspoc.users_service.config;
+
+import com.mspoc.users_service.cache.CacheValueFormat;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tuning options for the cache layers that sit in front of the {@code RedisCacheManager}.
+ * <p>
+ * Settings are bound from {@code users-service.cache.*}. Every cache name gets its own
+ * {@link CacheSpec}; caches without an entry use the defaults (all optional layers disabled).
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "users-service.cache")
+public class UsersCacheProperties {
+
+    /**
+     * Redis pub/sub channel used to broadcast local cache invalidations between instances.
+     */
+    private String invalidationChannel = "users-service:cache-invalidation";
+
+    /**
+     * Per-cache settings, keyed by cache name (e.g. {@code user-preferences}).
+     */
+    private Map<String, CacheSpec> caches = new HashMap<>();
+
+    private PreferencesView preferencesView = new PreferencesView();
+
+    private WarmUp warmUp = new WarmUp();
+
+    private WriteBehind writeBehind = new WriteBehind();
+
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    private MutationBatch mutationBatch = new MutationBatch();
+
+    private Sharding sharding = new Sharding();
+
+    public CacheSpec getSpec(String cacheName) {
+        return caches.getOrDefault(cacheName, CacheSpec.DEFAULT);
+    }
+
+    /**
+     * The all-preferences Redis hash maintained field by field.
+     */
+    @Getter
+    @Setter
+    public static class PreferencesView {
+
+        /**
+         * Expiry of the whole hash, refreshed on every rebuild.
+         */
+        private Duration ttl = Duration.ofHours(1);
+    }
+
+    /**
+     * Bulk load of the {@code user-preferences} cache from the database.
+     */
+    @Getter
+    @Setter
+    public static class WarmUp {
+
+        /**
+         * Start a warm-up once the application is ready.
+         */
+        private boolean runOnStartup = false;
+
+        /**
+         * Start a warm-up after {@code DELETE /preferences/cache}.
+         */
+        private boolean runAfterClear = false;
+
+        /**
+         * Rows per keyset query and per Redis pipeline.
+         */
+        private int batchSize = 1_000;
+
+        /**
+         * JDBC fetch size of the keyset queries.
+         */
+        private int fetchSize = 1_000;
+
+        /**
+         * Id ranges read concurrently (one database connection each).
+         */
+        private int parallelism = 4;
+
+        /**
+         * Upper bound on rows read per second, shared by all workers. 0 disables the limit.
+         */
+        private int maxRowsPerSecond = 20_000;
+    }
+
+    /**
+     * Deferred, coalesced database writes of preference updates.
+     */
+    @Getter
+    @Setter
+    public static class WriteBehind {
+
+        private boolean enabled = false;
+
+        /**
+         * Delay between flush rounds. Also the usual window in which updates of one user are coalesced.
+         */
+        private Duration flushInterval = Duration.ofMillis(500);
+
+        /**
+         * Users written per batched {@code UPDATE}.
+         */
+        private int maxBatchSize = 500;
+
+        /**
+         * Users with unflushed updates kept in memory. Beyond it updates are written synchronously.
+         */
+        private int maxPendingUsers = 10_000;
+
+        /**
+         * Expiry of an instance's owner key, refreshed by its flusher. Once it lapses, another
+         * instance adopts and flushes the instance's log.
+         */
+        private Duration ownerTtl = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Client-side sharding of the cache entries over several Redis nodes. Tombstones, locks,
+     * the hash view, the segment index and the write-behind stream stay on {@code spring.data.redis}.
+     */
+    @Getter
+    @Setter
+    public static class Sharding {
+
+        private boolean enabled = false;
+
+        /**
+         * Points per node on the hash ring. More points spread the keys more evenly.
+         */
+        private int virtualNodes = 160;
+
+        private List<ShardNode> nodes = new ArrayList<>();
+
+        private ShardPool pool = new ShardPool();
+
+        private Duration healthCheckInterval = Duration.ofSeconds(2);
+
+        private Duration healthCheckTimeout = Duration.ofMillis(500);
+
+        /**
+         * Consecutive failed health checks after which a node is taken off the ring.
+         */
+        private int failureThreshold = 3;
+
+        /**
+         * Consecutive successful health checks after which an ejected node is put back
+         * (after its cache keys were cleared).
+         */
+        private int recoveryThreshold = 3;
+    }
+
+    @Getter
+    @Setter
+    public static class ShardNode {
+
+        /**
+         * Stable node id; the ring position of the node derives from it, not from its address.
+         */
+        private String name;
+
+        private String host = "localhost";
+
+        private int port = 6379;
+
+        private String password;
+    }
+
+    /**
+     * Connection pool of each shard node.
+     */
+    @Getter
+    @Setter
+    public static class ShardPool {
+
+        private int maxActive = 8;
+
+        private int maxIdle = 8;
+
+        private int minIdle = 0;
+
+        private Duration maxWait = Duration.ofSeconds(2);
+    }
+
+    /**
+     * Single-script application of the cache writes of one annotated method invocation.
+     */
+    @Getter
+    @Setter
+    public static class MutationBatch {
+
+        private boolean enabled = true;
+
+        /**
+         * How long the version of a mutated key is kept. Writes older than the kept version are skipped.
+         */
+        private Duration versionRetention = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Circuit breaker around the Redis calls of the cache path.
+     */
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+
+        private boolean enabled = true;
+
+        /**
+         * Time budget of a single cache operation. A call still running after it counts as a failure.
+         */
+        private Duration operationTimeout = Duration.ofMillis(150);
+
+        /**
+         * Number of most recent calls the failure rate is computed over.
+         */
+        private int slidingWindowSize = 50;
+
+        /**
+         * Calls needed in the window before the failure rate can open the circuit.
+         */
+        private int minimumCalls = 20;
+
+        /**
+         * Failure rate (percent) that opens the circuit.
+         */
+        private int failureRateThreshold = 50;
+
+        /**
+         * How long the circuit stays open before probing Redis again.
+         */
+        private Duration openDuration = Duration.ofSeconds(10);
+
+        /**
+         * Calls let through while half-open; all must succeed to close the circuit.
+         */
+        private int halfOpenProbes = 5;
+
+        /**
+         * Keys whose eviction is remembered per cache while Redis is unavailable.
+         * Beyond it the whole cache is cleared on recovery.
+         */
+        private int maxMissedEvictions = 10_000;
+
+        private FallbackCache fallbackCache = new FallbackCache();
+    }
+
+    /**
+     * In-heap cache serving values loaded while Redis is unavailable.
+     */
+    @Getter
+    @Setter
+    public static class FallbackCache {
+
+        private long maxSize = 1_000;
+
+        private Duration ttl = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class CacheSpec {
+
+        static final CacheSpec DEFAULT = new CacheSpec();
+
+        private NearCache nearCache = new NearCache();
+
+        private SingleFlight singleFlight = new SingleFlight();
+
+        private RefreshAhead refreshAhead = new RefreshAhead();
+
+        private Serializer serializer = new Serializer();
+
+        private NegativeCache negativeCache = new NegativeCache();
+
+        private TtlPolicy ttlPolicy = new TtlPolicy();
+
+        private HotKeys hotKeys = new HotKeys();
+
+        /**
+         * Caches this cache derives its values from, under the same key (e.g. {@code user-details}
+         * from {@code user-profiles} and {@code user-preferences}). Writing or evicting an entry
+         * there evicts the entry here.
+         */
+        private List<String> dependsOn = new ArrayList<>();
+    }
+
+    /**
+     * Detection of the most read keys of a cache and a small local replica that serves them
+     * without a Redis round-trip.
+     */
+    @Getter
+    @Setter
+    public static class HotKeys {
+
+        private boolean enabled = false;
+
+        /**
+         * Number of hottest keys replicated locally.
+         */
+        private int topK = 32;
+
+        /**
+         * Estimated reads (in the current sketch window) a key needs before it can be replicated.
+         */
+        private int minReads = 100;
+
+        /**
+         * Fraction of reads counted in the access sketch.
+         */
+        private double sampleRate = 0.1;
+
+        /**
+         * Counters per row of the access sketch.
+         */
+        private int sketchWidth = 4_096;
+
+        /**
+         * How long a replicated entry is served before it is read from Redis again. Bounds the
+         * staleness if an invalidation message is lost.
+         */
+        private Duration replicaTtl = Duration.ofSeconds(2);
+    }
+
+    /**
+     * Per-entry TTL derived from the cache TTL: stretched for frequently read keys, shrunk for
+     * cold ones, and spread by a jitter so entries written together do not expire together. The
+     * jitter is a deterministic hash of the key, not a random draw: the same key always gets the same
+     * offset.
+     */
+    @Getter
+    @Setter
+    public static class TtlPolicy {
+
+        /**
+         * Scale the TTL by the read frequency of the key (estimated with a count-min sketch).
+         */
+        private boolean adaptive = false;
+
+        /**
+         * TTL factor of keys not read recently.
+         */
+        private double minFactor = 0.25;
+
+        /**
+         * TTL factor of keys read at least {@code hot-access-count} times recently.
+         */
+        private double maxFactor = 4.0;
+
+        private int hotAccessCount = 16;
+
+        /**
+         * Counters per row of the access sketch. Roughly the number of distinct hot keys tracked.
+         */
+        private int sketchWidth = 16_384;
+
+        /**
+         * Maximum relative deviation applied to every TTL, e.g. {@code 0.1} for +/-10%, fixed per key.
+         * 0 disables it.
+         */
+        private double jitter = 0.0;
+
+        public boolean isActive() {
+            return adaptive || jitter > 0;
+        }
+    }
+
+    /**
+     * Short-lived tombstones for lookups that found nothing in the database.
+     */
+    @Getter
+    @Setter
+    public static class NegativeCache {
+
+        private boolean enabled = false;
+
+        /**
+         * How long a not-found answer is reused. Keep it short: it is also how long a row
+         * created behind the service's back stays invisible.
+         */
+        private Duration ttl = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Value encoding of the Redis entries. Without a {@code value-type} the cache keeps the
+     * untyped JSON serializer shared by all caches.
+     */
+    @Getter
+    @Setter
+    public static class Serializer {
+
+        /**
+         * Format used for new entries. Entries in any other format are still read.
+         */
+        private CacheValueFormat format = CacheValueFormat.JSON;
+
+        /**
+         * The single type stored in the cache (e.g. {@code UserPreferencesResponse}).
+         */
+        private Class<?> valueType;
+    }
+
+    /**
+     * In-heap L1 kept in front of Redis (L2).
+     */
+    @Getter
+    @Setter
+    public static class NearCache {
+
+        private boolean enabled = false;
+
+        /**
+         * Maximum number of entries kept in the L1 per instance.
+         */
+        private long maxSize = 10_000;
+
+        /**
+         * Upper bound for how long an L1 entry can be served without going back to Redis.
+         * Keeps the staleness window small if an invalidation message is lost.
+         */
+        private Duration ttl = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Collapses concurrent loads of the same missing key into a single loader call.
+     */
+    @Getter
+    @Setter
+    public static class SingleFlight {
+
+        private boolean enabled = false;
+
+        /**
+         * Also take a short Redis lock per key, so only one instance of the cluster runs the loader.
+         */
+        private boolean distributedLock = false;
+
+        /**
+         * Expiry of the Redis lock. Must cover a normal load; a crashed loader releases it on expiry.
+         */
+        private Duration lockTtl = Duration.ofSeconds(5);
+
+        /**
+         * How long an instance that lost the lock polls Redis for the winner's value
+         * before loading on its own.
+         */
+        private Duration lockWait = Duration.ofSeconds(2);
+
+        private Duration lockPollInterval = Duration.ofMillis(50);
+    }
+
+    /**
+     * Probabilistic early refresh (XFetch): reads close to expiry trigger an async reload,
+     * with a probability that grows with the recompute cost of the entry.
+     */
+    @Getter
+    @Setter
+    public static class RefreshAhead {
+
+        private boolean enabled = false;
+
+        /**
+         * XFetch beta. Values above 1 refresh earlier, values below 1 refresh later.
+         */
+        private double beta = 1.0;
+
+        /**
+         * Recompute cost assumed for entries that were written by {@code @CachePut}
+         * and never loaded (so their real cost was not measured).
+         */
+        private Duration defaultRecomputeCost = Duration.ofMillis(50);
+
+        /**
+         * Maximum number of keys whose expiry and recompute cost are tracked per instance.
+         */
+        private long trackedKeys = 50_000;
+    }
+}
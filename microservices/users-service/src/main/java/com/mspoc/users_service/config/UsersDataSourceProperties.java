@@ -0,0 +1,81 @@
+package com.mspoc.users_service.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Options for the connections behind the JPA and JDBC data access, bound from
+ * {@code users-service.datasource.*}. The primary itself is configured with {@code spring.datasource}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "users-service.datasource")
+public class UsersDataSourceProperties {
+
+    private ReadReplicas readReplicas = new ReadReplicas();
+
+    public enum Selection { ROUND_ROBIN, LEAST_CONNECTIONS }
+
+    /**
+     * Streaming replicas of the primary that serve the read-only transactions.
+     */
+    @Getter
+    @Setter
+    public static class ReadReplicas {
+
+        private boolean enabled = false;
+
+        /**
+         * How a read-only connection picks one of the eligible replicas.
+         */
+        private Selection selection = Selection.ROUND_ROBIN;
+
+        /**
+         * Replay lag above which a replica stops serving reads until it catches up.
+         */
+        private Duration maxLag = Duration.ofSeconds(5);
+
+        /**
+         * How often the replay lag of every replica is measured.
+         */
+        private Duration lagCheckInterval = Duration.ofSeconds(2);
+
+        /**
+         * Query timeout of the lag check; a replica that does not answer in time is not eligible.
+         */
+        private Duration lagCheckTimeout = Duration.ofSeconds(1);
+
+        private List<ReplicaNode> nodes = new ArrayList<>();
+    }
+
+    @Getter
+    @Setter
+    public static class ReplicaNode {
+
+        /**
+         * Replica id; names its Hikari pool ({@code users-<name>}) and tags its metrics.
+         */
+        private String name;
+
+        private String url;
+
+        /**
+         * Defaults to {@code spring.datasource.username}.
+         */
+        private String username;
+
+        /**
+         * Defaults to {@code spring.datasource.password}.
+         */
+        private String password;
+
+        private int maximumPoolSize = 10;
+
+        private int minimumIdle = 2;
+    }
+}
@@ -1,18 +1,49 @@
 package com.mspoc.users_service.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mspoc.users_service.dto.request.BatchPreferencesRequest;
 import com.mspoc.users_service.dto.request.UpdateUserPreferencesRequest;
 import com.mspoc.users_service.dto.request.UserPreferencesRequest;
 import com.mspoc.users_service.dto.response.ApiResponse;
+import com.mspoc.users_service.dto.response.KeysetPage;
+import com.mspoc.users_service.dto.response.NotificationStatisticsResponse;
 import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.service.QuietHoursEvaluator;
 import com.mspoc.users_service.service.UserPreferencesService;
+import com.mspoc.users_service.service.UserSegmentIndex.Segment;
+import com.mspoc.users_service.service.UserSegmentIndex.SegmentQuery;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * Controller para gestión de preferencias de usuario.
@@ -21,9 +52,20 @@ import java.util.List;
 @RequestMapping("/preferences")
 @RequiredArgsConstructor
 @Slf4j
-public class UserPreferencesController {
+public class UserPreferencesController implements DisposableBean {
+
+    private static final String DEFAULT_PAGE_LIMIT = "100";
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int EXPORT_CHUNK_BYTES = 64 * 1024;
 
     private final UserPreferencesService preferencesService;
+    private final QuietHoursEvaluator quietHoursEvaluator;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService segmentExports = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("segment-export-", 0).factory());
+
+    @Value("${users-service.segment-export.timeout:10m}")
+    private Duration segmentExportTimeout;
 
     /**
      * Crea nuevas preferencias para un usuario.
@@ -32,7 +74,8 @@ public class UserPreferencesController {
     public ResponseEntity<ApiResponse<UserPreferencesResponse>> createPreferences(@Valid @RequestBody UserPreferencesRequest request) {
         log.info("REST: Creating preferences for user ID: {}", request.getUserId());
 
-        UserPreferencesResponse preferences = preferencesService.createPreferences(request);
+        UserPreferencesResponse preferences = quietHoursEvaluator.withQuietHours(
+                preferencesService.createPreferences(request));
         ApiResponse<UserPreferencesResponse> response = ApiResponse.success(
                 "Preferences created successfully",
                 preferences);
@@ -43,13 +86,32 @@ public class UserPreferencesController {
     /**
      * Obtiene preferencias de un usuario por su ID.
      * Implementa Cache-Aside para optimizar rendimiento.
+     * <p>
+     * No bloquea el hilo de Tomcat: la consulta a Redis es asíncrona y solo un miss
+     * consulta la base de datos, en un hilo virtual.
      */
     @GetMapping("/user/{userId}")
-    public ResponseEntity<ApiResponse<UserPreferencesResponse>> getPreferencesByUserId(@PathVariable Long userId) {
+    public CompletableFuture<ResponseEntity<ApiResponse<UserPreferencesResponse>>> getPreferencesByUserId(@PathVariable Long userId) {
         log.info("REST: Fetching preferences for user ID: {}", userId);
 
-        UserPreferencesResponse preferences = preferencesService.getPreferencesByUserId(userId);
-        ApiResponse<UserPreferencesResponse> response = ApiResponse.success(preferences);
+        return preferencesService.getPreferencesByUserIdAsync(userId)
+                .thenApply(preferences -> ResponseEntity.ok(ApiResponse.success(quietHoursEvaluator.withQuietHours(preferences))));
+    }
+
+    /**
+     * Obtiene las preferencias de varios usuarios en una sola llamada.
+     * Pensado para el fan-out de notificaciones: un MGET a Redis y una sola query para los faltantes.
+     * <p>
+     * POST /preferences/users/batch
+     */
+    @PostMapping("/users/batch")
+    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getPreferencesByUserIds(
+            @Valid @RequestBody BatchPreferencesRequest request) {
+        log.info("REST: Fetching preferences for {} users in batch", request.getUserIds().size());
+
+        List<UserPreferencesResponse> preferences = quietHoursEvaluator.withQuietHours(
+                preferencesService.getPreferencesByUserIds(request.getUserIds()));
+        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.success(preferences);
 
         return ResponseEntity.ok(response);
     }
@@ -61,25 +123,63 @@ public class UserPreferencesController {
     public ResponseEntity<ApiResponse<UserPreferencesResponse>> getPreferencesById(@PathVariable Long id) {
         log.debug("REST: Fetching preferences with ID: {}", id);
 
-        UserPreferencesResponse preferences = preferencesService.getPreferencesById(id);
+        UserPreferencesResponse preferences = quietHoursEvaluator.withQuietHours(
+                preferencesService.getPreferencesById(id));
         ApiResponse<UserPreferencesResponse> response = ApiResponse.success(preferences);
 
         return ResponseEntity.ok(response);
     }
 
     /**
-     * Obtiene todas las preferencias.
+     * Obtiene una página de preferencias ordenada por ID de usuario.
+     * <p>
+     * GET /preferences?after={nextCursor}&limit={limit}
      */
     @GetMapping
-    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getAllPreferences() {
-        log.debug("REST: Fetching all preferences");
+    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getAllPreferences(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
+        log.debug("REST: Fetching preferences page");
 
-        List<UserPreferencesResponse> preferences = preferencesService.getAllPreferences();
-        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.success(preferences);
+        KeysetPage<UserPreferencesResponse> page = preferencesService.getPreferencesPage(after, limit);
+        page.setItems(quietHoursEvaluator.withQuietHours(page.getItems()));
+        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.page(page);
 
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Devuelve las preferencias de todos los usuarios en streaming (NDJSON, un objeto por línea, sin orden).
+     * Se leen de la vista en Redis con HSCAN, que create/update/delete mantienen campo a campo.
+     * <p>
+     * GET /preferences/all
+     */
+    @GetMapping(value = "/all", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllPreferences() {
+        log.debug("REST: Streaming all preferences");
+
+        StreamingResponseBody body = outputStream -> {
+            ObjectWriter rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                preferencesService.streamAllPreferences(preferences -> {
+                    try {
+                        rowWriter.writeValue(generator, quietHoursEvaluator.withQuietHours(preferences));
+                        generator.writeRaw('\n');
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(body);
+    }
+
     /**
      * Actualiza preferencias de un usuario.
      */
@@ -90,7 +190,8 @@ public class UserPreferencesController {
         log.info("REST: Updating preferences for user ID: {}", userId);
 
 
-        UserPreferencesResponse preferences = preferencesService.updatePreferencesV2(userId, request);
+        UserPreferencesResponse preferences = quietHoursEvaluator.withQuietHours(
+                preferencesService.updatePreferencesV2(userId, request));
         ApiResponse<UserPreferencesResponse> response = ApiResponse.success(
                 "Preferences updated successfully",
                 preferences);
@@ -112,44 +213,208 @@ public class UserPreferencesController {
     }
 
     /**
-     * Obtiene usuarios con notificaciones por email habilitadas.
+     * Obtiene una página de usuarios con notificaciones por email habilitadas.
+     * <p>
+     * GET /preferences/email-enabled?after={nextCursor}&limit={limit}
      */
     @GetMapping("/email-enabled")
-    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getUsersWithEmailNotifications() {
+    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getUsersWithEmailNotifications(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
         log.debug("REST: Fetching users with email notifications enabled");
 
-        List<UserPreferencesResponse> preferences = preferencesService.getUsersWithEmailNotifications();
-        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.success(preferences);
+        KeysetPage<UserPreferencesResponse> page = preferencesService.getUsersWithEmailNotifications(after, limit);
+        page.setItems(quietHoursEvaluator.withQuietHours(page.getItems()));
+        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.page(page);
 
         return ResponseEntity.ok(response);
     }
 
     /**
-     * Obtiene usuarios con notificaciones push habilitadas.
+     * Obtiene una página de usuarios con notificaciones push habilitadas.
+     * <p>
+     * GET /preferences/push-enabled?after={nextCursor}&limit={limit}
      */
     @GetMapping("/push-enabled")
-    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getUsersWithPushNotifications() {
+    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getUsersWithPushNotifications(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
         log.debug("REST: Fetching users with push notifications enabled");
 
-        List<UserPreferencesResponse> preferences = preferencesService.getUsersWithPushNotifications();
-        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.success(preferences);
+        KeysetPage<UserPreferencesResponse> page = preferencesService.getUsersWithPushNotifications(after, limit);
+        page.setItems(quietHoursEvaluator.withQuietHours(page.getItems()));
+        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.page(page);
 
         return ResponseEntity.ok(response);
     }
 
     /**
-     * Obtiene usuarios con marketing habilitado.
+     * Obtiene una página de usuarios con marketing habilitado.
+     * <p>
+     * GET /preferences/marketing-enabled?after={nextCursor}&limit={limit}
      */
     @GetMapping("/marketing-enabled")
-    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getUsersWithMarketingEnabled() {
+    public ResponseEntity<ApiResponse<List<UserPreferencesResponse>>> getUsersWithMarketingEnabled(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
         log.debug("REST: Fetching users with marketing emails enabled");
 
-        List<UserPreferencesResponse> preferences = preferencesService.getUsersWithMarketingEnabled();
-        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.success(preferences);
+        KeysetPage<UserPreferencesResponse> page = preferencesService.getUsersWithMarketingEnabled(after, limit);
+        page.setItems(quietHoursEvaluator.withQuietHours(page.getItems()));
+        ApiResponse<List<UserPreferencesResponse>> response = ApiResponse.page(page);
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Estadísticas de notificaciones de usuarios activos, calculadas con BITCOUNT sobre el índice de segmentos.
+     * <p>
+     * GET /preferences/statistics
+     */
+    @GetMapping("/statistics")
+    public ResponseEntity<ApiResponse<NotificationStatisticsResponse>> getNotificationStatistics() {
+        log.debug("REST: Fetching notification statistics");
+
+        ApiResponse<NotificationStatisticsResponse> response = ApiResponse.success(preferencesService.getNotificationStatistics());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Cuenta los usuarios de un segmento: en todos los segmentos de {@code all} y en alguno de {@code any}.
+     * Segmentos: active, email, push, sms, marketing, security.
+     * <p>
+     * GET /preferences/segments/count?all=active,push
+     */
+    @GetMapping("/segments/count")
+    public ResponseEntity<ApiResponse<Long>> countSegment(
+            @RequestParam(defaultValue = "") List<String> all,
+            @RequestParam(defaultValue = "") List<String> any) {
+        log.debug("REST: Counting segment all={} any={}", all, any);
+
+        long count = preferencesService.countSegment(segmentQuery(all, any));
+        ApiResponse<Long> response = ApiResponse.success(count);
 
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Devuelve los IDs de los usuarios de un segmento en streaming (NDJSON, un ID por línea, en orden ascendente).
+     * <p>
+     * GET /preferences/segments/ids?all=active,email&amp;any=marketing,security
+     */
+    @GetMapping(value = "/segments/ids", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamSegmentIds(
+            @RequestParam(defaultValue = "") List<String> all,
+            @RequestParam(defaultValue = "") List<String> any) {
+        log.debug("REST: Streaming ids of segment all={} any={}", all, any);
+
+        SegmentQuery query = segmentQuery(all, any);
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            try {
+                preferencesService.forEachSegmentId(query, userId -> {
+                    try {
+                        writer.write(Long.toString(userId));
+                        writer.write('\n');
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            writer.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Exporta las preferencias de los usuarios de un segmento en streaming (NDJSON, un objeto por línea,
+     * sin orden). Se leen de la base de datos con un cursor, así que el uso de memoria no depende del
+     * tamaño del segmento.
+     * <p>
+     * La exportación se corta pasados {@code users-service.segment-export.timeout} (10 minutos por
+     * defecto), o si el cliente se desconecta, y se cierra el cursor. Refleja el estado confirmado en
+     * la base de datos: las actualizaciones write-behind aún pendientes no se incluyen.
+     * <p>
+     * GET /preferences/segments/export?all=active,email
+     */
+    @GetMapping(value = "/segments/export", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> exportSegment(
+            @RequestParam(defaultValue = "") List<String> all,
+            @RequestParam(defaultValue = "") List<String> any) {
+        log.debug("REST: Exporting preferences of segment all={} any={}", all, any);
+
+        SegmentQuery query = segmentQuery(all, any);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(segmentExportTimeout.toMillis());
+        AtomicBoolean stopped = new AtomicBoolean();
+        emitter.onTimeout(() -> {
+            log.warn("Export of segment {} cut off after {}", query, segmentExportTimeout);
+            stopped.set(true);
+        });
+        emitter.onError(ex -> stopped.set(true));
+        segmentExports.execute(() -> writeSegmentExport(query, emitter, stopped));
+
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(emitter);
+    }
+
+    /**
+     * Corta las exportaciones en curso al parar la aplicación.
+     */
+    @Override
+    public void destroy() {
+        segmentExports.shutdownNow();
+    }
+
+    /**
+     * Escribe la exportación en bloques de {@value #EXPORT_CHUNK_BYTES} bytes; deja de leer filas en
+     * cuanto {@code stopped} se activa.
+     */
+    private void writeSegmentExport(SegmentQuery query, ResponseBodyEmitter emitter, AtomicBoolean stopped) {
+        ObjectWriter rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(EXPORT_CHUNK_BYTES * 2);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(chunk)) {
+            generator.setRootValueSeparator(null);
+            preferencesService.exportSegment(query, preferences -> {
+                if (stopped.get() || Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("segment export stopped");
+                }
+                try {
+                    rowWriter.writeValue(generator, quietHoursEvaluator.withQuietHours(preferences));
+                    generator.writeRaw('\n');
+                    generator.flush();
+                    if (chunk.size() >= EXPORT_CHUNK_BYTES) {
+                        emitter.send(chunk.toByteArray(), NDJSON);
+                        chunk.reset();
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            generator.flush();
+            if (chunk.size() > 0) {
+                emitter.send(chunk.toByteArray(), NDJSON);
+            }
+            emitter.complete();
+        } catch (CancellationException ex) {
+            // Timed out or client gone, the response is already being completed; otherwise shutting down
+            if (!stopped.get()) {
+                emitter.completeWithError(ex);
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (!stopped.get()) {
+                log.warn("Export of segment {} failed: {}", query, ex.getMessage());
+                emitter.completeWithError(ex);
+            }
+        }
+    }
+
     /**
      * Limpia todo el caché de preferencias.
      * <p>
@@ -179,4 +444,15 @@ public class UserPreferencesController {
 
         return ResponseEntity.ok(response);
     }
+
+    private static SegmentQuery segmentQuery(List<String> all, List<String> any) {
+        return new SegmentQuery(segments(all), segments(any));
+    }
+
+    private static Set<Segment> segments(List<String> names) {
+        return names.stream()
+                .filter(name -> !name.isBlank())
+                .map(Segment::fromKey)
+                .collect(Collectors.toCollection(() -> EnumSet.noneOf(Segment.class)));
+    }
 }
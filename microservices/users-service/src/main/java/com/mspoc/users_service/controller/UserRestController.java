@@ -3,16 +3,22 @@ package com.mspoc.users_service.controller;
 import com.mspoc.users_service.dto.request.CreateUserRequest;
 import com.mspoc.users_service.dto.request.UpdateUserRequest;
 import com.mspoc.users_service.dto.response.ApiResponse;
+import com.mspoc.users_service.dto.response.KeysetPage;
 import com.mspoc.users_service.dto.response.UserResponse;
 import com.mspoc.users_service.dto.response.UserWithPreferencesResponse;
+import com.mspoc.users_service.service.QuietHoursEvaluator;
+import com.mspoc.users_service.service.UserBulkImporter;
 import com.mspoc.users_service.service.UserService;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -26,10 +32,14 @@ public class UserRestController {
 
     public static final Logger log = LoggerFactory.getLogger(UserRestController.class);
 
+    private static final String DEFAULT_PAGE_LIMIT = "100";
+
     private final UserService userService;
+    private final QuietHoursEvaluator quietHoursEvaluator;
 
-    public UserRestController(UserService userService) {
+    public UserRestController(UserService userService, QuietHoursEvaluator quietHoursEvaluator) {
         this.userService = userService;
+        this.quietHoursEvaluator = quietHoursEvaluator;
     }
 
     @GetMapping("/test/{id}")
@@ -50,6 +60,28 @@ public class UserRestController {
     }
 
 
+    /**
+     * Importa usuarios con sus preferencias desde NDJSON (un objeto por línea) o CSV con cabecera.
+     * El cuerpo se procesa en streaming; la respuesta resume filas leídas, importadas, duplicadas e inválidas.
+     * <p>
+     * POST /users/import
+     */
+    @PostMapping(value = "/import", consumes = {"application/x-ndjson", "text/csv"})
+    public ResponseEntity<ApiResponse<UserBulkImporter.Status>> importUsers(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            InputStream body) {
+        log.info("REST: Importing users ({})", contentType);
+
+        UserBulkImporter.Format format = MediaType.parseMediaType("text/csv").isCompatibleWith(contentType)
+                ? UserBulkImporter.Format.CSV
+                : UserBulkImporter.Format.NDJSON;
+        UserBulkImporter.Status report = userService.importUsers(body, format);
+        ApiResponse<UserBulkImporter.Status> response = ApiResponse.success("Users imported", report);
+
+        return ResponseEntity.ok(response);
+    }
+
+
     @GetMapping("/{id}")
     public ResponseEntity<ApiResponse<UserResponse>> getUserById(@PathVariable Long id) {
         log.debug("REST: Fetching user with ID: {}", id);
@@ -69,7 +101,8 @@ public class UserRestController {
     public ResponseEntity<ApiResponse<UserWithPreferencesResponse>> getUserWithPreferences(@PathVariable Long id) {
         log.debug("REST: Fetching user with preferences, ID: {}", id);
 
-        UserWithPreferencesResponse userWithPreferencesResponse = userService.getUserWithPreferences(id);
+        UserWithPreferencesResponse userWithPreferencesResponse =
+                quietHoursEvaluator.withQuietHours(userService.getUserWithPreferences(id));
         ApiResponse<UserWithPreferencesResponse> response = ApiResponse.success(userWithPreferencesResponse);
 
         return ResponseEntity.ok(response);
@@ -87,38 +120,54 @@ public class UserRestController {
     }
 
 
+    /**
+     * Obtiene una página de usuarios ordenada por ID.
+     * <p>
+     * GET /users?after={nextCursor}&limit={limit}
+     */
     @GetMapping
-    public ResponseEntity<ApiResponse<List<UserResponse>>> getAllUsers() {
-        log.debug("REST: Fetching all users");
+    public ResponseEntity<ApiResponse<List<UserResponse>>> getAllUsers(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
+        log.debug("REST: Fetching users page");
 
-        List<UserResponse> users = userService.getAllUsers();
-        ApiResponse<List<UserResponse>> response = ApiResponse.success(users);
+        KeysetPage<UserResponse> users = userService.getUsersPage(after, limit);
+        ApiResponse<List<UserResponse>> response = ApiResponse.page(users);
 
         return ResponseEntity.ok(response);
     }
 
-
+    /**
+     * Obtiene una página de usuarios activos ordenada por ID.
+     * <p>
+     * GET /users/active?after={nextCursor}&limit={limit}
+     */
     @GetMapping("/active")
-    public ResponseEntity<ApiResponse<List<UserResponse>>> getActiveUsers() {
-        log.debug("REST: Fetching active users");
+    public ResponseEntity<ApiResponse<List<UserResponse>>> getActiveUsers(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
+        log.debug("REST: Fetching active users page");
 
-        List<UserResponse> users = userService.getActiveUsers();
-        ApiResponse<List<UserResponse>> response = ApiResponse.success(users);
+        KeysetPage<UserResponse> users = userService.getActiveUsersPage(after, limit);
+        ApiResponse<List<UserResponse>> response = ApiResponse.page(users);
 
         return ResponseEntity.ok(response);
     }
 
     /**
-     * Busca usuarios por nombre.
+     * Busca usuarios por nombre o apellido, paginado por ID.
      * <p>
-     * GET /users/search?name={name}
+     * GET /users/search?name={name}&after={nextCursor}&limit={limit}
      */
     @GetMapping("/search")
-    public ResponseEntity<ApiResponse<List<UserResponse>>> searchUsers(@RequestParam String name) {
+    public ResponseEntity<ApiResponse<List<UserResponse>>> searchUsers(
+            @RequestParam String name,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = DEFAULT_PAGE_LIMIT) int limit) {
         log.debug("REST: Searching users with name: {}", name);
 
-        List<UserResponse> users = userService.searchUsersByName(name);
-        ApiResponse<List<UserResponse>> response = ApiResponse.success(users);
+        KeysetPage<UserResponse> users = userService.searchUsersByName(name, after, limit);
+        ApiResponse<List<UserResponse>> response = ApiResponse.page(users);
 
         return ResponseEntity.ok(response);
     }
@@ -0,0 +1,26 @@
+package com.mspoc.users_service.datasource;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Pins the connections of a cache-populating method to the primary, see
+ * {@link ReadReplicaDataSource#readFromPrimary}.
+ * <p>
+ * Must run outside the transaction interceptor, before the transaction fetches its connection.
+ */
+public class PrimaryReadInterceptor implements MethodInterceptor {
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (ReadReplicaDataSource.PINNED_TO_PRIMARY.get() != null) {
+            return invocation.proceed();
+        }
+        ReadReplicaDataSource.PINNED_TO_PRIMARY.set(Boolean.TRUE);
+        try {
+            return invocation.proceed();
+        } finally {
+            ReadReplicaDataSource.PINNED_TO_PRIMARY.remove();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.mspoc.users_service.datasource;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sends the reads of the annotated method to the primary, even in a read-only transaction, for
+ * methods that write what they read to a cache (e.g. with a multi-put). {@code @Cacheable}
+ * methods are pinned without it.
+ * <p>
+ * Applied around the transaction, so it only takes effect through the Spring proxy, like
+ * {@code @Transactional}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadFromPrimary {
+}
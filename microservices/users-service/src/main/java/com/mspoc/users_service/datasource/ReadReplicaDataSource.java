@@ -0,0 +1,294 @@
+package com.mspoc.users_service.datasource;
+
+import com.mspoc.users_service.config.UsersDataSourceProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The read side of the users database: hands the connections of the read-only transactions to one
+ * of the replica pools, and to the primary when no replica is eligible.
+ * <p>
+ * It is the {@code readOnlyDataSource} of a {@link LazyConnectionDataSourceProxy}. The proxy
+ * fetches the physical connection on the first statement, once the transaction manager has marked
+ * the connection read-only, so every {@code @Transactional(readOnly = true)} method reads from a
+ * replica and every other transaction writes to the primary.
+ * <p>
+ * A replica is eligible while its last lag check, run every {@code lag-check-interval}, measured a
+ * replay lag of at most {@code max-lag}. A replica that fails the check, or fails to hand out a
+ * connection, serves no reads until a later check succeeds. Among the eligible replicas the
+ * connection goes round-robin, or to the one with the fewest connections in use.
+ * <p>
+ * Reads whose result is cached or indexed must not come from a lagging replica: the stale row
+ * would outlive the eviction of the write that changed it. They run inside
+ * {@link #readFromPrimary}, directly or through {@link ReadFromPrimary}, and get primary
+ * connections even in a read-only transaction.
+ */
+@Slf4j
+public class ReadReplicaDataSource extends AbstractDataSource implements DisposableBean {
+
+    /**
+     * Measures how far a replica lags behind the primary.
+     */
+    @FunctionalInterface
+    public interface LagProbe {
+
+        Duration lag(DataSource replica, Duration timeout) throws SQLException;
+    }
+
+    /**
+     * Time since the last replayed transaction on a PostgreSQL standby, or zero when it has replayed
+     * everything it received (an idle primary writes nothing to replay) or is not in recovery.
+     */
+    public static final LagProbe POSTGRES_REPLAY_LAG = (replica, timeout) -> {
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1, timeout.toSeconds()));
+            try (ResultSet lag = statement.executeQuery("""
+                    SELECT CASE
+                               WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                               ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)
+                           END
+                    """)) {
+                lag.next();
+                return Duration.ofMillis(Math.round(lag.getDouble(1) * 1000));
+            }
+        }
+    };
+
+    public static final String PRIMARY = "primary";
+
+    // Set while the current thread must read from the primary
+    static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final UsersDataSourceProperties.ReadReplicas settings;
+    private final LagProbe lagProbe;
+    private final Counter primaryReads;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final ScheduledExecutorService lagChecker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("read-replica-lag").daemon(true).factory());
+
+    public ReadReplicaDataSource(DataSource primary,
+                                 Map<String, DataSource> replicas,
+                                 UsersDataSourceProperties.ReadReplicas settings,
+                                 LagProbe lagProbe,
+                                 MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.settings = settings;
+        this.lagProbe = lagProbe;
+        this.primaryReads = readCounter(PRIMARY, meterRegistry);
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource, meterRegistry)));
+        Gauge.builder("users.datasource.replicas.eligible", this,
+                        source -> source.replicas.stream().filter(replica -> replica.eligible).count())
+                .description("Read replicas currently serving read-only transactions")
+                .register(meterRegistry);
+
+        // Reads go to the primary until a replica passed its first check
+        checkLag();
+        long intervalMillis = settings.getLagCheckInterval().toMillis();
+        lagChecker.scheduleWithFixedDelay(this::checkLag, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code reads} with every connection fetched on this thread going to the primary. It
+     * must wrap the whole transaction: a connection fetched before is not moved.
+     */
+    public static <T> T readFromPrimary(Supplier<T> reads) {
+        if (PINNED_TO_PRIMARY.get() != null) {
+            return reads.get();
+        }
+        PINNED_TO_PRIMARY.set(Boolean.TRUE);
+        try {
+            return reads.get();
+        } finally {
+            PINNED_TO_PRIMARY.remove();
+        }
+    }
+
+    public static void readFromPrimary(Runnable reads) {
+        readFromPrimary(() -> {
+            reads.run();
+            return null;
+        });
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = PINNED_TO_PRIMARY.get() == null ? select() : null;
+        if (replica != null) {
+            try {
+                return replica.open();
+            } catch (SQLException ex) {
+                replica.exclude("no connection: " + ex.getMessage());
+                log.warn("Read replica '{}' handed out no connection, reading from the primary: {}",
+                        replica.name, ex.getMessage());
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("The read replicas use the credentials of their own pools");
+    }
+
+    /**
+     * Measures the lag of every replica and updates which of them are eligible.
+     */
+    public void checkLag() {
+        for (Replica replica : replicas) {
+            try {
+                Duration lag = lagProbe.lag(replica.dataSource, settings.getLagCheckTimeout());
+                replica.onLag(lag, settings.getMaxLag());
+            } catch (SQLException | RuntimeException ex) {
+                replica.onCheckFailed(ex);
+            }
+        }
+    }
+
+    public Status status() {
+        return new Status(settings.getSelection(), settings.getMaxLag(), (long) primaryReads.count(),
+                replicas.stream().map(Replica::status).toList());
+    }
+
+    private Replica select() {
+        List<Replica> eligible = replicas.stream().filter(replica -> replica.eligible).toList();
+        if (eligible.isEmpty()) {
+            return null;
+        }
+        return switch (settings.getSelection()) {
+            case ROUND_ROBIN -> eligible.get(Math.floorMod(nextReplica.getAndIncrement(), eligible.size()));
+            case LEAST_CONNECTIONS -> eligible.stream()
+                    .min(Comparator.comparingInt(replica -> replica.inUse.get()))
+                    .orElseThrow();
+        };
+    }
+
+    private static Counter readCounter(String target, MeterRegistry meterRegistry) {
+        return Counter.builder("users.datasource.reads")
+                .description("Connections handed to read-only transactions, by the pool that served them")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        lagChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable pool) {
+                pool.close();
+            }
+        }
+    }
+
+    public record Status(UsersDataSourceProperties.Selection selection, Duration maxLag, long primaryReads,
+                         List<ReplicaStatus> replicas) {
+    }
+
+    public record ReplicaStatus(String name, boolean eligible, Duration lag, Instant checkedAt, String lastError,
+                                int connectionsInUse, long reads) {
+    }
+
+    private final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final Counter reads;
+        private final AtomicInteger inUse = new AtomicInteger();
+        private volatile boolean eligible;
+        private volatile Duration lag;
+        private volatile Instant checkedAt;
+        private volatile String lastError;
+
+        private Replica(String name, DataSource dataSource, MeterRegistry meterRegistry) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.reads = readCounter(name, meterRegistry);
+            Gauge.builder("users.datasource.replica.lag", this,
+                            replica -> replica.lag == null ? Double.NaN : replica.lag.toMillis() / 1000.0)
+                    .description("Replay lag of the read replica measured by the last check, in seconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Opens a connection and counts it in use until it is closed.
+         */
+        private Connection open() throws SQLException {
+            Connection connection = dataSource.getConnection();
+            inUse.incrementAndGet();
+            reads.increment();
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                            inUse.decrementAndGet();
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getTargetException();
+                        }
+                    });
+        }
+
+        private void onLag(Duration lag, Duration maxLag) {
+            this.lag = lag;
+            this.checkedAt = Instant.now();
+            this.lastError = null;
+            boolean wasEligible = eligible;
+            eligible = lag.compareTo(maxLag) <= 0;
+            if (wasEligible && !eligible) {
+                log.warn("Read replica '{}' lags {} behind the primary, reading from the other pools", name, lag);
+            } else if (!wasEligible && eligible) {
+                log.info("Read replica '{}' serving reads (lag {})", name, lag);
+            }
+        }
+
+        private void onCheckFailed(Exception ex) {
+            this.lag = null;
+            this.checkedAt = Instant.now();
+            if (eligible || lastError == null) {
+                log.warn("Lag check of read replica '{}' failed: {}", name, ex.getMessage());
+            }
+            exclude(String.valueOf(ex.getMessage()));
+        }
+
+        private void exclude(String reason) {
+            eligible = false;
+            lastError = reason;
+        }
+
+        private ReplicaStatus status() {
+            return new ReplicaStatus(name, eligible, lag, checkedAt, lastError, inUse.get(), (long) reads.count());
+        }
+    }
+}
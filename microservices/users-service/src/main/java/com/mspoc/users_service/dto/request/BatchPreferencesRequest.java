@@ -0,0 +1,27 @@
+package com.mspoc.users_service.dto.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * DTO para consultar las preferencias de varios usuarios en una sola llamada.
+ *
+ * @author Luis Balarezo
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchPreferencesRequest {
+
+    public static final int MAX_USER_IDS = 1000;
+
+    @NotEmpty(message = "User IDs are required")
+    @Size(max = MAX_USER_IDS, message = "At most " + MAX_USER_IDS + " user IDs are allowed per request")
+    private List<@NotNull(message = "User ID must not be null") Long> userIds;
+}
@@ -0,0 +1,60 @@
+package com.mspoc.users_service.dto.request;
+
+import com.mspoc.users_service.enums.NotificationFrequency;
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+import lombok.*;
+
+import java.time.LocalTime;
+
+/**
+ * Fila de una importación masiva de usuarios: un objeto por línea (NDJSON) o una fila con
+ * cabecera (CSV), con los mismos nombres de campo en ambos formatos.
+ * <p>
+ * Los datos del usuario siguen las reglas de {@link CreateUserRequest}. Cada usuario se importa
+ * con sus preferencias; las que faltan toman los valores por defecto de {@link UserPreferencesRequest}.
+ *
+ * @author Luis Balarezo
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserImportRow {
+
+    @NotBlank(message = "Email is required")
+    @Email(message = "Email must be valid")
+    @Size(max = 255, message = "Email must not exceed 255 characters")
+    private String email;
+
+    @NotBlank(message = "First name is required")
+    @Size(min = 2, max = 100, message = "First name must be between 2 and 100 characters")
+    private String firstName;
+
+    @NotBlank(message = "Last name is required")
+    @Size(min = 2, max = 100, message = "Last name must be between 2 and 100 characters")
+    private String lastName;
+
+    @Pattern(regexp = "^\\+?[1-9]\\d{1,14}$", message = "Phone must be a valid international format")
+    @Size(max = 20, message = "Phone must not exceed 20 characters")
+    private String phone;
+
+    private Boolean active;
+
+    // Preferencias (opcionales)
+    private Boolean emailNotificationsEnabled;
+    private Boolean pushNotificationsEnabled;
+    private Boolean smsNotificationsEnabled;
+    private Boolean marketingEmailsEnabled;
+    private Boolean securityAlertsEnabled;
+    private Boolean productUpdatesEnabled;
+    private NotificationFrequency notificationFrequency;
+    private LocalTime quietHoursStart;
+    private LocalTime quietHoursEnd;
+
+    @Size(max = 50, message = "Timezone must not exceed 50 characters")
+    private String timezone;
+}
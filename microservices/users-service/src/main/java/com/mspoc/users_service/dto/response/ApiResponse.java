@@ -32,6 +32,9 @@ public class ApiResponse<T> {
     private Integer statusCode;
     private List<String> errors;
 
+    // Cursor de la página siguiente en respuestas paginadas (null en la última página)
+    private String nextCursor;
+
     /**
      * Respuesta exitosa con datos.
      */
@@ -55,6 +58,18 @@ public class ApiResponse<T> {
                 .build();
     }
 
+    /**
+     * Respuesta exitosa con una página de resultados y el cursor de la siguiente.
+     */
+    public static <T> ApiResponse<List<T>> page(KeysetPage<T> page) {
+        return ApiResponse.<List<T>>builder()
+                .success(true)
+                .data(page.getItems())
+                .nextCursor(page.getNextCursor())
+                .timestamp(LocalDateTime.now())
+                .build();
+    }
+
     /**
      * Respuesta de error.
      */
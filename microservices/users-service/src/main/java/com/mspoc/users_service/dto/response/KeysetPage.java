@@ -0,0 +1,23 @@
+package com.mspoc.users_service.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Página de resultados con paginación keyset.
+ * {@code nextCursor} es el token opaco para pedir la página siguiente ({@code ?after=}); es
+ * {@code null} en la última página.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class KeysetPage<T> {
+
+    private List<T> items;
+    private String nextCursor;
+}
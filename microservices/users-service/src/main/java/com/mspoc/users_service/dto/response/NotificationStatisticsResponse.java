@@ -0,0 +1,24 @@
+package com.mspoc.users_service.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO de respuesta con el número de usuarios activos que aceptan cada canal y tipo de notificación.
+ * Se calcula con BITCOUNT sobre el índice de segmentos en Redis.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class NotificationStatisticsResponse {
+
+    private Long activeUsers;
+    private Long emailEnabled;
+    private Long pushEnabled;
+    private Long smsEnabled;
+    private Long marketingEnabled;
+    private Long securityAlertsEnabled;
+}
@@ -21,7 +21,7 @@ import java.time.LocalTime;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class UserPreferencesResponse implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -38,8 +38,16 @@ public class UserPreferences implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Secuencia de IDs: cada {@code nextval} reserva un bloque de {@value #ID_ALLOCATION_SIZE} IDs
+     * (optimizador pooled), lo que permite agrupar los inserts en batches.
+     */
+    public static final String ID_SEQUENCE = "user_preferences_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
 
@@ -68,6 +76,7 @@ public class UserPreferences implements Serializable {
     @Column(name = "notification_frequency", nullable = false, length = 20)
     private NotificationFrequency notificationFrequency;
 
+    // El horario de silencio se evalúa en la zona del usuario con QuietHoursEvaluator
     @Column(name = "quiet_hours_start")
     private LocalTime quietHoursStart;
 
@@ -114,39 +123,4 @@ public class UserPreferences implements Serializable {
     public boolean acceptsSmsNotifications() {
         return Boolean.TRUE.equals(smsNotificationsEnabled);
     }
-
-    /**
-     * Verifica si actualmente está en horario de silencio.
-     */
-    public boolean isInQuietHours() {
-        if (quietHoursStart == null || quietHoursEnd == null) {
-            return false;
-        }
-
-        LocalTime now = LocalTime.now();
-
-        // Si el período cruza la medianoche
-        if (quietHoursStart.isAfter(quietHoursEnd)) {
-            return now.isAfter(quietHoursStart) || now.isBefore(quietHoursEnd);
-        }
-
-        // Período normal en el mismo día
-        return now.isAfter(quietHoursStart) && now.isBefore(quietHoursEnd);
-    }
-
-    /**
-     * Verifica si debe enviar la notificación basado en canales y horarios.
-     */
-    public boolean shouldSendNotification(String channel) {
-        if (isInQuietHours()) {
-            return false;
-        }
-
-        return switch (channel.toUpperCase()) {
-            case "EMAIL" -> acceptsEmailNotifications();
-            case "PUSH" -> acceptsPushNotifications();
-            case "SMS" -> acceptsSmsNotifications();
-            default -> false;
-        };
-    }
 }
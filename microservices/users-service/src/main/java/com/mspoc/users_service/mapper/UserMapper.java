@@ -5,6 +5,7 @@ import com.mspoc.users_service.dto.request.UpdateUserRequest;
 import com.mspoc.users_service.dto.response.UserResponse;
 import com.mspoc.users_service.dto.response.UserWithPreferencesResponse;
 import com.mspoc.users_service.entity.User;
+import com.mspoc.users_service.repository.UserSummary;
 import org.mapstruct.*;
 
 /**
@@ -32,6 +33,12 @@ public interface UserMapper {
     @Mapping(target = "hasPreferences", expression = "java(user.hasPreferences())")
     UserResponse toResponse(User user);
 
+    /**
+     * Convierte la fila de lectura de los listados a UserResponse DTO.
+     */
+    @Mapping(target = "fullName", expression = "java(summary.firstName() + \" \" + summary.lastName())")
+    UserResponse toResponse(UserSummary summary);
+
     @Mapping(target = "fullName", expression = "java(user.getFullName())")
     UserWithPreferencesResponse toResponseWithPreferences(User user);
 
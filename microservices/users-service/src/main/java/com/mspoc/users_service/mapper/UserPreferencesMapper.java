@@ -26,9 +26,12 @@ public interface UserPreferencesMapper {
     /**
      * Convierte UserPreferences entity a UserPreferencesResponse DTO.
      * Incluye campos calculados para ayudar al notification-service.
+     * <p>
+     * {@code isInQuietHours} no se calcula aquí: depende de la hora actual y el resultado
+     * se cachea por horas. Lo completa {@code QuietHoursEvaluator} al responder.
      */
     @Mapping(target = "userId", source = "user.id")
-    @Mapping(target = "isInQuietHours", expression = "java(preferences.isInQuietHours())")
+    @Mapping(target = "isInQuietHours", ignore = true)
     @Mapping(target = "canReceiveEmail", expression = "java(preferences.acceptsEmailNotifications())")
     @Mapping(target = "canReceivePush", expression = "java(preferences.acceptsPushNotifications())")
     @Mapping(target = "canReceiveSms", expression = "java(preferences.acceptsSmsNotifications())")
@@ -43,4 +46,28 @@ public interface UserPreferencesMapper {
     @Mapping(target = "createdAt", ignore = true)
     @Mapping(target = "updatedAt", ignore = true)
     void updateEntityFromRequest(UpdateUserPreferencesRequest request, @MappingTarget UserPreferences preferences);
+
+    /**
+     * Aplica un request de actualización sobre una copia de la respuesta cacheada (modo write-behind,
+     * donde la fila se escribe después). Mismas reglas que {@link #updateEntityFromRequest}.
+     */
+    @Mapping(target = "id", ignore = true)
+    @Mapping(target = "userId", ignore = true)
+    @Mapping(target = "createdAt", ignore = true)
+    @Mapping(target = "updatedAt", ignore = true)
+    @Mapping(target = "isInQuietHours", ignore = true)
+    @Mapping(target = "canReceiveEmail", ignore = true)
+    @Mapping(target = "canReceivePush", ignore = true)
+    @Mapping(target = "canReceiveSms", ignore = true)
+    void updateResponseFromRequest(UpdateUserPreferencesRequest request, @MappingTarget UserPreferencesResponse response);
+
+    /**
+     * Recalcula los campos derivados de los canales tras {@link #updateResponseFromRequest}.
+     */
+    @AfterMapping
+    default void refreshChannelFlags(UpdateUserPreferencesRequest request, @MappingTarget UserPreferencesResponse response) {
+        response.setCanReceiveEmail(Boolean.TRUE.equals(response.getEmailNotificationsEnabled()));
+        response.setCanReceivePush(Boolean.TRUE.equals(response.getPushNotificationsEnabled()));
+        response.setCanReceiveSms(Boolean.TRUE.equals(response.getSmsNotificationsEnabled()));
+    }
 }
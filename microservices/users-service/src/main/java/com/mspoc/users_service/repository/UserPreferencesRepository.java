@@ -1,11 +1,13 @@
 package com.mspoc.users_service.repository;
 
 import com.mspoc.users_service.entity.UserPreferences;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,6 +27,35 @@ public interface UserPreferencesRepository extends JpaRepository<UserPreferences
      */
     Optional<UserPreferences> findByUserId(Long userId);
 
+    /**
+     * Busca las preferencias de varios usuarios en una sola query ({@code WHERE user_id IN (...)}).
+     * Carga el usuario con FETCH JOIN para que el mapeo no dispare queries adicionales.
+     *
+     * @param userIds IDs de los usuarios
+     * @return Lista de preferencias encontradas (sin orden garantizado)
+     */
+    @Query("SELECT p FROM UserPreferences p JOIN FETCH p.user WHERE p.user.id IN :userIds")
+    List<UserPreferences> findAllByUserIdIn(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * Obtiene el siguiente bloque de preferencias ordenado por ID (paginación keyset).
+     *
+     * @param id último ID del bloque anterior (0 para empezar)
+     * @return Hasta 500 preferencias con ID mayor al indicado
+     */
+    List<UserPreferences> findTop500ByIdGreaterThanOrderByIdAsc(Long id);
+
+    /**
+     * IDs de usuario con preferencias mayores al indicado, en orden ascendente
+     * (paginación keyset sobre el índice único de {@code user_id}).
+     *
+     * @param afterId último ID de usuario de la página anterior (0 para empezar)
+     * @param limit   número máximo de IDs
+     * @return IDs de usuario ordenados
+     */
+    @Query("SELECT p.user.id FROM UserPreferences p WHERE p.user.id > :afterId ORDER BY p.user.id")
+    List<Long> findUserIdsAfter(@Param("afterId") long afterId, Limit limit);
+
     /**
      * Verifica si existen preferencias para un usuario.
      * 
@@ -41,22 +72,20 @@ public interface UserPreferencesRepository extends JpaRepository<UserPreferences
     void deleteByUserId(Long userId);
 
     /**
-     * Busca usuarios que aceptan notificaciones por email.
-     * Útil para envíos masivos de email.
-     * 
-     * @return Lista de preferencias
+     * Página keyset de IDs de usuarios activos con notificaciones por email.
+     * Respaldo del índice de segmentos mientras Redis no está disponible.
      */
-    @Query("SELECT p FROM UserPreferences p WHERE p.emailNotificationsEnabled = true AND p.user.active = true")
-    List<UserPreferences> findUsersWithEmailNotificationsEnabled();
+    @Query("SELECT p.user.id FROM UserPreferences p WHERE p.emailNotificationsEnabled = true " +
+            "AND p.user.active = true AND p.user.id > :afterId ORDER BY p.user.id")
+    List<Long> findUserIdsWithEmailNotificationsEnabled(@Param("afterId") long afterId, Limit limit);
 
     /**
-     * Busca usuarios que aceptan notificaciones push.
-     * Útil para envíos masivos de push.
-     * 
-     * @return Lista de preferencias
+     * Página keyset de IDs de usuarios activos con notificaciones push.
+     * Respaldo del índice de segmentos mientras Redis no está disponible.
      */
-    @Query("SELECT p FROM UserPreferences p WHERE p.pushNotificationsEnabled = true AND p.user.active = true")
-    List<UserPreferences> findUsersWithPushNotificationsEnabled();
+    @Query("SELECT p.user.id FROM UserPreferences p WHERE p.pushNotificationsEnabled = true " +
+            "AND p.user.active = true AND p.user.id > :afterId ORDER BY p.user.id")
+    List<Long> findUserIdsWithPushNotificationsEnabled(@Param("afterId") long afterId, Limit limit);
 
     /**
      * Busca usuarios que aceptan notificaciones SMS.
@@ -67,13 +96,13 @@ public interface UserPreferencesRepository extends JpaRepository<UserPreferences
     List<UserPreferences> findUsersWithSmsNotificationsEnabled();
 
     /**
-     * Busca usuarios que aceptan emails de marketing.
-     * 
-     * @return Lista de preferencias
+     * Página keyset de IDs de usuarios activos con emails de marketing.
+     * Respaldo del índice de segmentos mientras Redis no está disponible.
      */
-    @Query("SELECT p FROM UserPreferences p WHERE p.marketingEmailsEnabled = true " +
-            "AND p.emailNotificationsEnabled = true AND p.user.active = true")
-    List<UserPreferences> findUsersWithMarketingEnabled();
+    @Query("SELECT p.user.id FROM UserPreferences p WHERE p.marketingEmailsEnabled = true " +
+            "AND p.emailNotificationsEnabled = true AND p.user.active = true " +
+            "AND p.user.id > :afterId ORDER BY p.user.id")
+    List<Long> findUserIdsWithMarketingEnabled(@Param("afterId") long afterId, Limit limit);
 
     /**
      * Busca preferencias de usuario con el usuario cargado (FETCH JOIN).
@@ -1,11 +1,13 @@
 package com.mspoc.users_service.repository;
 
 import com.mspoc.users_service.entity.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,12 +20,28 @@ import java.util.Optional;
 public interface UserRepository extends JpaRepository<User, Long> {
 
     /**
-     * Busca un usuario por email.
-     * 
+     * ID del usuario con el email dado (índice email → ID de la caché de perfiles).
+     *
      * @param email Email del usuario
+     * @return Optional con el ID si existe
+     */
+    @Query("SELECT u.id FROM User u WHERE u.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
+
+    /**
+     * Fila de lectura de un usuario, con el indicador de preferencias, sin cargar la entidad.
+     *
+     * @param id ID del usuario
      * @return Optional con el usuario si existe
      */
-    Optional<User> findByEmail(String email);
+    @Query("""
+            SELECT new com.mspoc.users_service.repository.UserSummary(
+                u.id, u.email, u.firstName, u.lastName, u.phone, u.active, u.createdAt, u.updatedAt,
+                CASE WHEN p.id IS NULL THEN false ELSE true END)
+            FROM User u LEFT JOIN u.preferences p
+            WHERE u.id = :id
+            """)
+    Optional<UserSummary> findSummaryById(@Param("id") Long id);
 
     /**
      * Verifica si existe un usuario con el email dado.
@@ -34,12 +52,41 @@ public interface UserRepository extends JpaRepository<User, Long> {
     boolean existsByEmail(String email);
 
     /**
-     * Busca usuarios por estado activo.
-     * 
-     * @param active Estado activo
-     * @return Lista de usuarios
+     * IDs de usuarios mayores al indicado, en orden ascendente (paginación keyset sobre la PK).
+     *
+     * @param afterId último ID de la página anterior (0 para empezar)
+     * @param limit   número máximo de IDs
+     * @return IDs ordenados
      */
-    List<User> findByActive(Boolean active);
+    @Query("SELECT u.id FROM User u WHERE u.id > :afterId ORDER BY u.id")
+    List<Long> findIdsAfter(@Param("afterId") long afterId, Limit limit);
+
+    /**
+     * IDs de usuarios activos mayores al indicado, en orden ascendente (índice parcial {@code idx_users_active_id}).
+     *
+     * @param afterId último ID de la página anterior (0 para empezar)
+     * @param limit   número máximo de IDs
+     * @return IDs ordenados
+     */
+    @Query("SELECT u.id FROM User u WHERE u.active = true AND u.id > :afterId ORDER BY u.id")
+    List<Long> findActiveIdsAfter(@Param("afterId") long afterId, Limit limit);
+
+    /**
+     * Filas de lectura de varios usuarios por ID, con el indicador de preferencias, en una sola query.
+     * No carga entidades: leer {@code User} sin FETCH JOIN dispara una query por usuario para la
+     * relación 1:1 inversa.
+     *
+     * @param ids IDs de los usuarios
+     * @return Usuarios encontrados (sin orden garantizado)
+     */
+    @Query("""
+            SELECT new com.mspoc.users_service.repository.UserSummary(
+                u.id, u.email, u.firstName, u.lastName, u.phone, u.active, u.createdAt, u.updatedAt,
+                CASE WHEN p.id IS NULL THEN false ELSE true END)
+            FROM User u LEFT JOIN u.preferences p
+            WHERE u.id IN :ids
+            """)
+    List<UserSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
 
     /**
      * Busca usuarios activos que tengan preferencias configuradas.
@@ -61,14 +108,20 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByIdWithPreferences(@Param("id") Long id);
 
     /**
-     * Busca usuarios por nombre o apellido (búsqueda parcial, case-insensitive).
-     * 
-     * @param name Nombre a buscar
-     * @return Lista de usuarios
+     * IDs de usuarios cuyo nombre o apellido contiene el texto (búsqueda parcial, case-insensitive),
+     * mayores que {@code afterId} y en orden ascendente.
+     * Solo se usa mientras el índice en memoria no está disponible o para textos de menos de tres
+     * caracteres: ningún índice B-tree resuelve el {@code LIKE '%x%'}.
+     *
+     * @param name    Texto a buscar
+     * @param afterId Último ID de la página anterior
+     * @param limit   Número máximo de IDs
+     * @return IDs de usuarios
      */
-    @Query("SELECT u FROM User u WHERE LOWER(u.firstName) LIKE LOWER(CONCAT('%', :name, '%')) " +
-            "OR LOWER(u.lastName) LIKE LOWER(CONCAT('%', :name, '%'))")
-    List<User> searchByName(@Param("name") String name);
+    @Query("SELECT u.id FROM User u WHERE u.id > :afterId " +
+            "AND (LOWER(u.firstName) LIKE LOWER(CONCAT('%', :name, '%')) " +
+            "OR LOWER(u.lastName) LIKE LOWER(CONCAT('%', :name, '%'))) ORDER BY u.id")
+    List<Long> searchIdsByName(@Param("name") String name, @Param("afterId") long afterId, Limit limit);
 
     /**
      * Cuenta usuarios activos.
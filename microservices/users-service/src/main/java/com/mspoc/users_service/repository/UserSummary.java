@@ -0,0 +1,24 @@
+package com.mspoc.users_service.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fila de lectura de un usuario para los listados: las columnas de {@code users} más un indicador
+ * de si tiene preferencias, resuelto en la misma query con un LEFT JOIN.
+ * <p>
+ * Evita cargar la entidad {@code User}: su relación 1:1 inversa con las preferencias no se puede
+ * cargar de forma lazy, así que cada entidad leída sin FETCH JOIN dispara otra query.
+ *
+ * @author Luis Balarezo
+ */
+public record UserSummary(
+        Long id,
+        String email,
+        String firstName,
+        String lastName,
+        String phone,
+        Boolean active,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        Boolean hasPreferences) {
+}
@@ -0,0 +1,136 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.dto.response.KeysetPage;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keyset pagination over user ids for the list endpoints.
+ * <p>
+ * A page is addressed by the last user id of the previous page, handed to clients as an opaque
+ * cursor. The ids of each page ({@code view}, cursor, limit) are cached in {@value #PAGES_CACHE}
+ * for a short TTL; the rows themselves are resolved on every request (one MGET on the preferences
+ * or user profiles cache). The rows are current, but the membership of a cached page may lag writes
+ * by up to the page TTL: inserted ids are missing and deleted ones are skipped by the resolver. A
+ * list filtered on a mutable column would keep showing rows that no longer match, so such lists use
+ * the uncached {@link #page(String, int, IdQuery, Function)}.
+ */
+@Component
+public class KeysetPageCache {
+
+    public static final String PAGES_CACHE = "keyset-pages";
+    public static final int MAX_LIMIT = 1_000;
+
+    private final CacheManager cacheManager;
+
+    public KeysetPageCache(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * @param view     name of the list, part of the cache key
+     * @param after    cursor of the previous page, {@code null} for the first page
+     * @param idQuery  returns up to {@code limit} ids greater than {@code afterId}, ascending, from an index
+     * @param resolver loads the items of the given ids, keeping their order
+     * @throws IllegalArgumentException if the cursor is malformed or the limit is out of range
+     */
+    public <T> KeysetPage<T> page(String view, String after, int limit, IdQuery idQuery,
+                                  Function<List<Long>, List<T>> resolver) {
+        checkLimit(limit);
+        long afterId = decodeCursor(after);
+
+        IdPage idPage = loadIdPage(view + ":" + afterId + ":" + limit, () -> queryIdPage(idQuery, afterId, limit));
+        return toPage(idPage, resolver);
+    }
+
+    /**
+     * Same as {@link #page(String, String, int, IdQuery, Function)} without caching the ids, for
+     * id queries answered in memory, where a Redis round trip would cost more than the query, and
+     * for lists filtered on a mutable column, whose cached membership would go stale.
+     */
+    public <T> KeysetPage<T> page(String after, int limit, IdQuery idQuery, Function<List<Long>, List<T>> resolver) {
+        checkLimit(limit);
+        return toPage(queryIdPage(idQuery, decodeCursor(after), limit), resolver);
+    }
+
+    /**
+     * Drops every cached page, e.g. after {@code DELETE /preferences/cache}.
+     */
+    public void clear() {
+        Cache cache = cacheManager.getCache(PAGES_CACHE);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+    }
+
+    private static IdPage queryIdPage(IdQuery idQuery, long afterId, int limit) {
+        // One extra id tells whether there is a next page
+        List<Long> ids = idQuery.ids(afterId, limit + 1);
+        boolean hasMore = ids.size() > limit;
+        return new IdPage(hasMore ? List.copyOf(ids.subList(0, limit)) : List.copyOf(ids), hasMore);
+    }
+
+    private static <T> KeysetPage<T> toPage(IdPage idPage, Function<List<Long>, List<T>> resolver) {
+        List<Long> ids = idPage.ids();
+        String nextCursor = idPage.hasMore() ? encodeCursor(ids.get(ids.size() - 1)) : null;
+        return KeysetPage.<T>builder()
+                .items(ids.isEmpty() ? List.of() : resolver.apply(ids))
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    private IdPage loadIdPage(String key, Supplier<IdPage> loader) {
+        Cache cache = cacheManager.getCache(PAGES_CACHE);
+        return cache != null ? cache.get(key, loader::get) : loader.get();
+    }
+
+    static String encodeCursor(long lastId) {
+        byte[] bytes = ByteBuffer.allocate(Long.BYTES).putLong(lastId).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    static long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0L;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid page cursor: " + cursor);
+        }
+        if (bytes.length != Long.BYTES) {
+            throw new IllegalArgumentException("Invalid page cursor: " + cursor);
+        }
+        long afterId = ByteBuffer.wrap(bytes).getLong();
+        if (afterId < 0) {
+            throw new IllegalArgumentException("Invalid page cursor: " + cursor);
+        }
+        return afterId;
+    }
+
+    @FunctionalInterface
+    public interface IdQuery {
+
+        List<Long> ids(long afterId, int limit);
+    }
+
+    /**
+     * Cached form of a page: its ids and whether more follow.
+     */
+    public record IdPage(List<Long> ids, boolean hasMore) {
+    }
+}
@@ -0,0 +1,132 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.dto.response.UserWithPreferencesResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evaluates quiet hours at read time, in the user's own time zone.
+ * <p>
+ * Cached preferences hold only the raw quiet-hours window and time zone; the
+ * {@code isInQuietHours} flag is filled in on a copy of the DTO each time it is served
+ * (cached values are shared and must not be mutated), so it is correct to the minute
+ * whatever the cache TTL.
+ * <p>
+ * The UTC offset of each zone is computed once and reused until the zone's next transition
+ * (DST change), so evaluating a user is a map lookup plus integer arithmetic.
+ * Unknown zone ids fall back to the server zone, which was the previous behavior.
+ */
+@Component
+@Slf4j
+public class QuietHoursEvaluator {
+
+    private static final int SECONDS_PER_DAY = 86_400;
+    private static final int MAX_TRACKED_ZONES = 1_024;
+
+    private final Map<String, ZoneOffsetWindow> offsets = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public QuietHoursEvaluator() {
+        this(Clock.systemUTC());
+    }
+
+    QuietHoursEvaluator(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns a copy of the preferences with {@code isInQuietHours} evaluated for now.
+     */
+    public UserPreferencesResponse withQuietHours(UserPreferencesResponse preferences) {
+        if (preferences == null) {
+            return null;
+        }
+        return preferences.toBuilder()
+                .isInQuietHours(isInQuietHours(preferences.getQuietHoursStart(), preferences.getQuietHoursEnd(),
+                        preferences.getTimezone()))
+                .build();
+    }
+
+    public List<UserPreferencesResponse> withQuietHours(List<UserPreferencesResponse> preferences) {
+        return preferences.stream()
+                .map(this::withQuietHours)
+                .toList();
+    }
+
+    public UserWithPreferencesResponse withQuietHours(UserWithPreferencesResponse user) {
+        if (user == null || user.getPreferences() == null) {
+            return user;
+        }
+        return user.toBuilder()
+                .preferences(withQuietHours(user.getPreferences()))
+                .build();
+    }
+
+    /**
+     * Whether the current time in {@code timezone} falls in {@code [start, end)}. A window
+     * with {@code start} after {@code end} crosses midnight.
+     */
+    public boolean isInQuietHours(LocalTime start, LocalTime end, String timezone) {
+        if (start == null || end == null || start.equals(end)) {
+            return false;
+        }
+
+        long nowEpochSecond = clock.instant().getEpochSecond();
+        int offsetSeconds = offsetSeconds(timezone, nowEpochSecond);
+        LocalTime localNow = LocalTime.ofSecondOfDay(Math.floorMod(nowEpochSecond + offsetSeconds, SECONDS_PER_DAY));
+
+        if (start.isAfter(end)) {
+            return !localNow.isBefore(start) || localNow.isBefore(end);
+        }
+        return !localNow.isBefore(start) && localNow.isBefore(end);
+    }
+
+    private int offsetSeconds(String timezone, long nowEpochSecond) {
+        String zoneKey = timezone != null ? timezone : "";
+        ZoneOffsetWindow window = offsets.get(zoneKey);
+        if (window != null && nowEpochSecond < window.validUntilEpochSecond()) {
+            return window.offsetSeconds();
+        }
+
+        window = computeWindow(zoneKey, nowEpochSecond);
+        if (offsets.size() < MAX_TRACKED_ZONES || offsets.containsKey(zoneKey)) {
+            offsets.put(zoneKey, window);
+        }
+        return window.offsetSeconds();
+    }
+
+    private ZoneOffsetWindow computeWindow(String timezone, long nowEpochSecond) {
+        ZoneRules rules = resolveZone(timezone).getRules();
+        Instant now = Instant.ofEpochSecond(nowEpochSecond);
+        ZoneOffsetTransition nextTransition = rules.nextTransition(now);
+        long validUntil = nextTransition != null ? nextTransition.toEpochSecond() : Long.MAX_VALUE;
+        return new ZoneOffsetWindow(rules.getOffset(now).getTotalSeconds(), validUntil);
+    }
+
+    private ZoneId resolveZone(String timezone) {
+        try {
+            return ZoneId.of(timezone);
+        } catch (DateTimeException ex) {
+            log.warn("Unknown time zone '{}', evaluating quiet hours in the server zone", timezone);
+            return ZoneId.systemDefault();
+        }
+    }
+
+    /**
+     * A zone's UTC offset and the instant (exclusive) until which it applies.
+     */
+    private record ZoneOffsetWindow(int offsetSeconds, long validUntilEpochSecond) {
+    }
+}
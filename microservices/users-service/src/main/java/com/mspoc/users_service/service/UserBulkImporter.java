@@ -0,0 +1,489 @@
+package com.mspoc.users_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mspoc.users_service.cache.NegativeLookupCache;
+import com.mspoc.users_service.cache.RedisCacheBulkOperations;
+import com.mspoc.users_service.cache.RedisUnavailableException;
+import com.mspoc.users_service.dto.request.UserImportRow;
+import com.mspoc.users_service.dto.request.UserPreferencesRequest;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.entity.User;
+import com.mspoc.users_service.entity.UserPreferences;
+import com.mspoc.users_service.mapper.UserPreferencesMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports users with their preferences from an NDJSON or CSV stream.
+ * <p>
+ * Rows are read one at a time and written in chunks of {@value #CHUNK_SIZE}, each in its own
+ * transaction:
+ * <ul>
+ *     <li>emails already in the chunk or in {@code users} are skipped, found with one
+ *     {@code email = ANY(?)} query per chunk;</li>
+ *     <li>ids are reserved from the {@code users_seq} / {@code user_preferences_seq} pooled
+ *     sequences, one {@code nextval} per {@value User#ID_ALLOCATION_SIZE} ids, in the same ranges
+ *     Hibernate's pooled optimizer uses;</li>
+ *     <li>users and preferences go in as two JDBC batches, which the driver rewrites into
+ *     multi-row {@code INSERT}s ({@code reWriteBatchedInserts}).</li>
+ * </ul>
+ * After each commit the new preferences are written to {@code user-preferences} in one pipeline.
+ * A chunk that loses an email to a concurrent {@code createUser} is checked and written again.
+ * <p>
+ * Rows that cannot be bound or fail validation are skipped and reported. Malformed input (broken
+ * JSON or CSV) stops the import; the chunks committed before it stay. Once an import ends, the
+ * views derived from {@code users} are refreshed: the name index is rebuilt, and the segment
+ * index, all-preferences view, cached list pages and "not found" tombstones are dropped.
+ */
+@Component
+@Slf4j
+public class UserBulkImporter {
+
+    public static final int CHUNK_SIZE = 1_000;
+
+    private static final int PROGRESS_LOG_CHUNKS = 50;
+    private static final int MAX_REPORTED_REJECTIONS = 20;
+
+    private static final String EXISTING_EMAILS_SQL = "SELECT email FROM users WHERE email = ANY(?)";
+    private static final String ALLOCATE_IDS_SQL = "SELECT nextval('%s') FROM generate_series(1, ?)";
+    private static final String INSERT_USER_SQL = """
+            INSERT INTO users (id, email, first_name, last_name, phone, active, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+    private static final String INSERT_PREFERENCES_SQL = """
+            INSERT INTO user_preferences (id, user_id, email_notifications_enabled, push_notifications_enabled,
+                                          sms_notifications_enabled, marketing_emails_enabled, security_alerts_enabled,
+                                          product_updates_enabled, notification_frequency, quiet_hours_start,
+                                          quiet_hours_end, timezone, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    /**
+     * Supported input formats. CSV needs a header row naming the {@link UserImportRow} fields.
+     */
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate chunkTransaction;
+    private final ObjectReader ndjsonReader;
+    private final ObjectReader csvReader;
+    private final Validator validator;
+    private final UserPreferencesMapper preferencesMapper;
+    private final RedisCacheBulkOperations cacheBulkOperations;
+    private final UserNameSearchIndex nameIndex;
+    private final UserSegmentIndex segmentIndex;
+    private final UserPreferencesHashView preferencesView;
+    private final KeysetPageCache keysetPages;
+    private final NegativeLookupCache negativeLookups;
+
+    private final Counter importedCounter;
+    private final Counter duplicateCounter;
+    private final Counter invalidCounter;
+    private final AtomicReference<Run> currentRun = new AtomicReference<>();
+
+    public UserBulkImporter(DataSource dataSource,
+                            PlatformTransactionManager transactionManager,
+                            ObjectMapper objectMapper,
+                            Validator validator,
+                            UserPreferencesMapper preferencesMapper,
+                            RedisCacheBulkOperations cacheBulkOperations,
+                            UserNameSearchIndex nameIndex,
+                            UserSegmentIndex segmentIndex,
+                            UserPreferencesHashView preferencesView,
+                            KeysetPageCache keysetPages,
+                            NegativeLookupCache negativeLookups,
+                            MeterRegistry meterRegistry) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.chunkTransaction = new TransactionTemplate(transactionManager);
+        this.ndjsonReader = objectMapper.readerFor(UserImportRow.class);
+        this.csvReader = CsvMapper.builder()
+                .addModule(new JavaTimeModule())
+                .enable(CsvParser.Feature.TRIM_SPACES)
+                .enable(CsvParser.Feature.EMPTY_STRING_AS_NULL)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .build()
+                .readerFor(UserImportRow.class)
+                .with(CsvSchema.emptySchema().withHeader());
+        this.validator = validator;
+        this.preferencesMapper = preferencesMapper;
+        this.cacheBulkOperations = cacheBulkOperations;
+        this.nameIndex = nameIndex;
+        this.segmentIndex = segmentIndex;
+        this.preferencesView = preferencesView;
+        this.keysetPages = keysetPages;
+        this.negativeLookups = negativeLookups;
+
+        this.importedCounter = rowsCounter(meterRegistry, "imported");
+        this.duplicateCounter = rowsCounter(meterRegistry, "duplicate");
+        this.invalidCounter = rowsCounter(meterRegistry, "invalid");
+    }
+
+    /**
+     * Imports every row of {@code input}, on the calling thread.
+     *
+     * @return the final report
+     * @throws IllegalArgumentException if the input is malformed; earlier chunks stay imported
+     */
+    public Status importUsers(InputStream input, Format format) {
+        Run run = new Run();
+        currentRun.set(run);
+        log.info("Bulk user import started ({})", format);
+
+        List<UserImportRow> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (MappingIterator<UserImportRow> rows = (format == Format.CSV ? csvReader : ndjsonReader).readValues(input)) {
+            while (rows.hasNextValue()) {
+                long rowNumber = run.rowsRead.incrementAndGet();
+                UserImportRow row;
+                try {
+                    row = rows.nextValue();
+                } catch (JsonMappingException ex) {
+                    // The iterator skips the rest of the row on the next hasNextValue()
+                    reject(run, rowNumber, ex.getOriginalMessage());
+                    continue;
+                }
+
+                String violation = firstViolation(row);
+                if (violation != null) {
+                    reject(run, rowNumber, violation);
+                    continue;
+                }
+
+                chunk.add(row);
+                if (chunk.size() == CHUNK_SIZE) {
+                    importChunk(chunk, run);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importChunk(chunk, run);
+            }
+            run.finish(State.COMPLETED, null);
+        } catch (JsonProcessingException ex) {
+            run.finish(State.FAILED, ex.getOriginalMessage());
+            throw new IllegalArgumentException("Malformed " + format + " input at row " + run.rowsRead.get()
+                    + ": " + ex.getOriginalMessage());
+        } catch (IOException ex) {
+            run.finish(State.FAILED, ex.getMessage());
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            run.finish(State.FAILED, ex.getMessage());
+            throw ex;
+        } finally {
+            if (run.imported.get() > 0) {
+                refreshDerivedViews();
+            }
+            Status status = run.toStatus();
+            log.info("Bulk user import {}: {} rows read, {} imported, {} duplicates, {} invalid, {} rows/s",
+                    status.state(), status.rowsRead(), status.usersImported(), status.duplicates(),
+                    status.invalid(), status.rowsPerSecond());
+        }
+        return run.toStatus();
+    }
+
+    /**
+     * @return progress of the current import, or the report of the last one
+     */
+    public Status status() {
+        Run run = currentRun.get();
+        return run != null ? run.toStatus() : Status.idle();
+    }
+
+    private void importChunk(List<UserImportRow> rows, Run run) {
+        ChunkResult result;
+        try {
+            result = writeChunk(rows);
+        } catch (DuplicateKeyException ex) {
+            // A user created meanwhile took one of the emails; the retry skips it
+            log.debug("Import chunk hit a concurrent insert, retrying: {}", ex.getMessage());
+            result = writeChunk(rows);
+        }
+
+        cachePreferences(result.imported());
+        run.recordChunk(result);
+        importedCounter.increment(result.imported().size());
+        duplicateCounter.increment(result.duplicates());
+    }
+
+    private ChunkResult writeChunk(List<UserImportRow> rows) {
+        return chunkTransaction.execute(status -> {
+            // The first row of an email wins, later ones and emails already stored are duplicates
+            Map<String, UserImportRow> byEmail = new LinkedHashMap<>();
+            rows.forEach(row -> byEmail.putIfAbsent(row.getEmail(), row));
+            findExistingEmails(byEmail.keySet()).forEach(byEmail::remove);
+            int duplicates = rows.size() - byEmail.size();
+            if (byEmail.isEmpty()) {
+                return new ChunkResult(List.of(), duplicates);
+            }
+
+            long[] userIds = allocateIds(User.ID_SEQUENCE, byEmail.size());
+            long[] preferenceIds = allocateIds(UserPreferences.ID_SEQUENCE, byEmail.size());
+            // PostgreSQL keeps microseconds, the cached copies must match what a read returns
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+
+            List<UserPreferences> imported = new ArrayList<>(byEmail.size());
+            int i = 0;
+            for (UserImportRow row : byEmail.values()) {
+                imported.add(toPreferences(row, userIds[i], preferenceIds[i], now));
+                i++;
+            }
+
+            jdbcTemplate.batchUpdate(INSERT_USER_SQL, imported, imported.size(), (ps, preferences) -> {
+                User user = preferences.getUser();
+                ps.setLong(1, user.getId());
+                ps.setString(2, user.getEmail());
+                ps.setString(3, user.getFirstName());
+                ps.setString(4, user.getLastName());
+                ps.setString(5, user.getPhone());
+                ps.setBoolean(6, user.getActive());
+                ps.setTimestamp(7, Timestamp.valueOf(user.getCreatedAt()));
+                ps.setTimestamp(8, Timestamp.valueOf(user.getUpdatedAt()));
+            });
+            jdbcTemplate.batchUpdate(INSERT_PREFERENCES_SQL, imported, imported.size(), (ps, preferences) -> {
+                ps.setLong(1, preferences.getId());
+                ps.setLong(2, preferences.getUser().getId());
+                ps.setBoolean(3, preferences.getEmailNotificationsEnabled());
+                ps.setBoolean(4, preferences.getPushNotificationsEnabled());
+                ps.setBoolean(5, preferences.getSmsNotificationsEnabled());
+                ps.setBoolean(6, preferences.getMarketingEmailsEnabled());
+                ps.setBoolean(7, preferences.getSecurityAlertsEnabled());
+                ps.setBoolean(8, preferences.getProductUpdatesEnabled());
+                ps.setString(9, preferences.getNotificationFrequency().name());
+                ps.setObject(10, preferences.getQuietHoursStart(), Types.TIME);
+                ps.setObject(11, preferences.getQuietHoursEnd(), Types.TIME);
+                ps.setString(12, preferences.getTimezone());
+                ps.setTimestamp(13, Timestamp.valueOf(preferences.getCreatedAt()));
+                ps.setTimestamp(14, Timestamp.valueOf(preferences.getUpdatedAt()));
+            });
+            return new ChunkResult(imported, duplicates);
+        });
+    }
+
+    private List<String> findExistingEmails(Collection<String> emails) {
+        return jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement(EXISTING_EMAILS_SQL);
+            statement.setArray(1, connection.createArrayOf("varchar", emails.toArray()));
+            return statement;
+        }, (rs, rowNum) -> rs.getString(1));
+    }
+
+    /**
+     * Reserves {@code count} ids: each {@code nextval} of a pooled sequence owns the
+     * {@value User#ID_ALLOCATION_SIZE} ids ending at the returned value.
+     */
+    private long[] allocateIds(String sequence, int count) {
+        int blocks = (count + User.ID_ALLOCATION_SIZE - 1) / User.ID_ALLOCATION_SIZE;
+        List<Long> blockEnds = jdbcTemplate.queryForList(ALLOCATE_IDS_SQL.formatted(sequence), Long.class, blocks);
+
+        long[] ids = new long[count];
+        int next = 0;
+        for (long blockEnd : blockEnds) {
+            for (long id = blockEnd - User.ID_ALLOCATION_SIZE + 1; id <= blockEnd && next < count; id++) {
+                ids[next++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private static UserPreferences toPreferences(UserImportRow row, long userId, long preferencesId, LocalDateTime now) {
+        UserPreferencesRequest defaults = UserPreferencesRequest.builder().build();
+        User user = User.builder()
+                .id(userId)
+                .email(row.getEmail())
+                .firstName(row.getFirstName())
+                .lastName(row.getLastName())
+                .phone(row.getPhone())
+                .active(row.getActive() != null ? row.getActive() : Boolean.TRUE)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        return UserPreferences.builder()
+                .id(preferencesId)
+                .user(user)
+                .emailNotificationsEnabled(valueOr(row.getEmailNotificationsEnabled(), defaults.getEmailNotificationsEnabled()))
+                .pushNotificationsEnabled(valueOr(row.getPushNotificationsEnabled(), defaults.getPushNotificationsEnabled()))
+                .smsNotificationsEnabled(valueOr(row.getSmsNotificationsEnabled(), defaults.getSmsNotificationsEnabled()))
+                .marketingEmailsEnabled(valueOr(row.getMarketingEmailsEnabled(), defaults.getMarketingEmailsEnabled()))
+                .securityAlertsEnabled(valueOr(row.getSecurityAlertsEnabled(), defaults.getSecurityAlertsEnabled()))
+                .productUpdatesEnabled(valueOr(row.getProductUpdatesEnabled(), defaults.getProductUpdatesEnabled()))
+                .notificationFrequency(valueOr(row.getNotificationFrequency(), defaults.getNotificationFrequency()))
+                .quietHoursStart(row.getQuietHoursStart())
+                .quietHoursEnd(row.getQuietHoursEnd())
+                .timezone(valueOr(row.getTimezone(), defaults.getTimezone()))
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+    }
+
+    private static <T> T valueOr(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+
+    private void cachePreferences(List<UserPreferences> imported) {
+        if (imported.isEmpty()) {
+            return;
+        }
+        Map<Long, UserPreferencesResponse> entries = new LinkedHashMap<>();
+        imported.forEach(preferences -> entries.put(preferences.getUser().getId(), preferencesMapper.toResponse(preferences)));
+        try {
+            cacheBulkOperations.multiPut(UserPreferencesService.PREFERENCES_CACHE, entries, true);
+        } catch (RedisUnavailableException ex) {
+            log.warn("Could not cache {} imported preferences: {}", entries.size(), ex.getMessage());
+        }
+    }
+
+    private void refreshDerivedViews() {
+        nameIndex.rebuild();
+        try {
+            segmentIndex.clear();
+            preferencesView.clear();
+            keysetPages.clear();
+            for (String cacheName : List.of(UserService.USER_PROFILES_CACHE, UserService.USER_EMAILS_CACHE,
+                    UserService.USER_DETAILS_CACHE, UserPreferencesService.PREFERENCES_CACHE)) {
+                negativeLookups.clearAll(cacheName);
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Could not refresh the cached views after the import: {}", ex.getMessage());
+        }
+    }
+
+    private String firstViolation(UserImportRow row) {
+        Set<ConstraintViolation<UserImportRow>> violations = validator.validate(row);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        ConstraintViolation<UserImportRow> violation = violations.iterator().next();
+        return violation.getPropertyPath() + ": " + violation.getMessage();
+    }
+
+    private void reject(Run run, long rowNumber, String reason) {
+        run.recordRejection("row " + rowNumber + ": " + reason);
+        invalidCounter.increment();
+    }
+
+    private static Counter rowsCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("users.import.rows")
+                .description("Rows processed by bulk user imports")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record ChunkResult(List<UserPreferences> imported, int duplicates) {
+    }
+
+    public enum State {
+        IDLE, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * Progress of the current (or last) import.
+     *
+     * @param rowsPerSecond average rows read per second since the start
+     * @param rejections    the first rows skipped as invalid, with the reason
+     */
+    public record Status(State state,
+                         Instant startedAt,
+                         Instant finishedAt,
+                         long rowsRead,
+                         long usersImported,
+                         long duplicates,
+                         long invalid,
+                         long chunks,
+                         long rowsPerSecond,
+                         Duration elapsed,
+                         List<String> rejections,
+                         String error) {
+
+        static Status idle() {
+            return new Status(State.IDLE, null, null, 0, 0, 0, 0, 0, 0, Duration.ZERO, List.of(), null);
+        }
+    }
+
+    private static final class Run {
+
+        private final Instant startedAt = Instant.now();
+        private final long startedNanos = System.nanoTime();
+        private final AtomicLong rowsRead = new AtomicLong();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLong chunks = new AtomicLong();
+        private final List<String> rejections = Collections.synchronizedList(new ArrayList<>());
+        private volatile State state = State.RUNNING;
+        private volatile Instant finishedAt;
+        private volatile long finishedNanos;
+        private volatile String error;
+
+        void recordChunk(ChunkResult result) {
+            imported.addAndGet(result.imported().size());
+            duplicates.addAndGet(result.duplicates());
+            if (chunks.incrementAndGet() % PROGRESS_LOG_CHUNKS == 0) {
+                Status status = toStatus();
+                log.info("Bulk user import progress: {} rows read, {} imported, {} rows/s",
+                        status.rowsRead(), status.usersImported(), status.rowsPerSecond());
+            }
+        }
+
+        void recordRejection(String rejection) {
+            invalid.incrementAndGet();
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                rejections.add(rejection);
+            }
+        }
+
+        void finish(State finalState, String failure) {
+            finishedNanos = System.nanoTime();
+            finishedAt = Instant.now();
+            error = failure;
+            state = finalState;
+        }
+
+        Status toStatus() {
+            long endNanos = state == State.RUNNING ? System.nanoTime() : finishedNanos;
+            Duration elapsed = Duration.ofNanos(endNanos - startedNanos);
+            long read = rowsRead.get();
+            long rowsPerSecond = elapsed.toMillis() > 0 ? read * 1_000 / elapsed.toMillis() : 0;
+            return new Status(state, startedAt, finishedAt, read, imported.get(), duplicates.get(), invalid.get(),
+                    chunks.get(), rowsPerSecond, elapsed, List.copyOf(rejections), error);
+        }
+    }
+}
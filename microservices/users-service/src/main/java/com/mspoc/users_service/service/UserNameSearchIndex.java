@@ -0,0 +1,519 @@
+package com.mspoc.users_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mspoc.users_service.cache.RedisCircuitBreaker;
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory trigram index over the first and last names of every user, answering the
+ * case-insensitive substring search of {@code GET /users/search} without scanning {@code users}.
+ * <p>
+ * Each trigram of a lower-cased name maps to a sorted {@code int[]} of user ids (its posting
+ * list). A query is split into its distinct trigrams and their posting lists are intersected
+ * shortest first, probing the longer ones with galloping search, from the page cursor on; every
+ * candidate is then checked against the stored names, since having all trigrams of a query does
+ * not prove it is a substring of one of the two names. Ids come out ascending, so a page stops
+ * as soon as it is full.
+ * <p>
+ * The index is built in the background once the application is ready, streaming {@code users}
+ * through a server-side cursor; until then, and for queries shorter than {@value #MIN_QUERY_LENGTH}
+ * characters, {@link #canSearch} is {@code false} and callers keep using the database. User writes
+ * are applied after their transaction commits; writes that happen during a build are replayed on
+ * top of it. Posting lists are replaced, never modified in place, so searches need no lock.
+ * <p>
+ * Every instance holds its own index. Committed name writes and {@link #rebuild} requests are
+ * therefore broadcast on {@code <prefix>name-index} (Redis pub/sub, like the
+ * {@link com.mspoc.users_service.cache.CacheInvalidationBus}) and applied by the other instances.
+ * Pub/sub is fire-and-forget, so each instance also rebuilds its index every
+ * {@code users-service.name-index.rebuild-interval} (default 1h), which bounds how long a lost
+ * message leaves it out of date.
+ */
+@Component
+@Slf4j
+public class UserNameSearchIndex implements MessageListener, DisposableBean {
+
+    public static final int MIN_QUERY_LENGTH = 3;
+
+    private static final int FETCH_SIZE = 10_000;
+    private static final String SCAN_SQL = "SELECT id, first_name, last_name FROM users";
+    private static final char FIELD_SEPARATOR = '\0';
+    private static final int[] NO_IDS = new int[0];
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String channel;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Duration rebuildInterval;
+    private final ScheduledExecutorService builder = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("name-index-build").daemon(true).factory());
+
+    private final Object writeLock = new Object();
+    private volatile Index index;
+    // Writes seen while a build runs, replayed on the new index; guarded by writeLock
+    private List<Write> pendingWrites;
+    // Set once a user id does not fit an int posting list; guarded by writeLock
+    private boolean disabled;
+
+    public UserNameSearchIndex(DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               StringRedisTemplate redisTemplate,
+                               RedisMessageListenerContainer listenerContainer,
+                               RedisCircuitBreaker circuitBreaker,
+                               MeterRegistry meterRegistry,
+                               @Value("${users-service.name-index.rebuild-interval:1h}") Duration rebuildInterval,
+                               @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.redisTemplate = redisTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.rebuildInterval = rebuildInterval;
+        this.channel = cacheKeyPrefix + "name-index";
+        listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+
+        Gauge.builder("users.name-index.users", this, UserNameSearchIndex::size)
+                .description("Users held in the in-memory name search index")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        long intervalMillis = rebuildInterval.toMillis();
+        builder.scheduleWithFixedDelay(this::build, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds a new index in the background on every instance, e.g. after a bulk import; searches
+     * keep using the current one (or the database) until it is ready.
+     */
+    public void rebuild() {
+        builder.execute(this::build);
+        publish(new NameIndexMessage(instanceId, null, null, null, true));
+    }
+
+    /**
+     * Whether {@link #search} can answer this query: the index is built and the query has at
+     * least {@value #MIN_QUERY_LENGTH} characters (one trigram).
+     */
+    public boolean canSearch(String query) {
+        return index != null && query.length() >= MIN_QUERY_LENGTH;
+    }
+
+    /**
+     * Ids of the users whose first or last name contains {@code query}, ignoring case.
+     *
+     * @param afterId only ids greater than this one are returned
+     * @param limit   maximum number of ids
+     * @return ids in ascending order
+     * @throws IllegalStateException if {@link #canSearch} is {@code false} for the query
+     */
+    public List<Long> search(String query, long afterId, int limit) {
+        Index current = index;
+        if (current == null || query.length() < MIN_QUERY_LENGTH) {
+            throw new IllegalStateException("The name index cannot answer '" + query + "'");
+        }
+        String needle = normalize(query);
+        if (afterId >= Integer.MAX_VALUE || needle.indexOf(FIELD_SEPARATOR) >= 0) {
+            return List.of();
+        }
+        return current.search(needle, (int) afterId, limit);
+    }
+
+    /**
+     * Indexes the current names of a user, after the current transaction commits.
+     */
+    public void updateUser(Long userId, String firstName, String lastName) {
+        String names = names(firstName, lastName);
+        afterCommit(() -> {
+            apply(userId, names);
+            publish(new NameIndexMessage(instanceId, userId, firstName, lastName, false));
+        });
+    }
+
+    /**
+     * Drops a deleted user from the index, after the current transaction commits.
+     */
+    public void removeUser(Long userId) {
+        afterCommit(() -> {
+            apply(userId, null);
+            publish(new NameIndexMessage(instanceId, userId, null, null, false));
+        });
+    }
+
+    /**
+     * A name write or rebuild request of another instance.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        NameIndexMessage write;
+        try {
+            write = objectMapper.readValue(message.getBody(), NameIndexMessage.class);
+        } catch (Exception ex) {
+            log.warn("Ignoring malformed name index message: {}", new String(message.getBody(), StandardCharsets.UTF_8));
+            return;
+        }
+        if (instanceId.equals(write.origin())) {
+            return;
+        }
+        if (write.rebuild()) {
+            builder.execute(this::build);
+        } else if (write.userId() != null) {
+            apply(write.userId(), write.firstName() != null ? names(write.firstName(), write.lastName()) : null);
+        }
+    }
+
+    public int size() {
+        Index current = index;
+        return current != null ? current.names.size() : 0;
+    }
+
+    @Override
+    public void destroy() {
+        builder.shutdownNow();
+    }
+
+    private void build() {
+        synchronized (writeLock) {
+            pendingWrites = new ArrayList<>();
+        }
+
+        long start = System.nanoTime();
+        try {
+            Index built = new IndexBuilder().load();
+            synchronized (writeLock) {
+                if (disabled) {
+                    pendingWrites = null;
+                    return;
+                }
+                pendingWrites.forEach(built::apply);
+                log.info("Name search index built: {} users, {} trigrams, {} writes replayed, {} ms",
+                        built.names.size(), built.postings.size(), pendingWrites.size(),
+                        (System.nanoTime() - start) / 1_000_000);
+                index = built;
+                pendingWrites = null;
+            }
+        } catch (RuntimeException ex) {
+            synchronized (writeLock) {
+                pendingWrites = null;
+            }
+            log.error("Name search index build failed, name searches keep using the database", ex);
+        }
+    }
+
+    private void apply(long userId, String names) {
+        synchronized (writeLock) {
+            if (userId > Integer.MAX_VALUE) {
+                log.warn("User id {} does not fit the name index, name searches now use the database", userId);
+                disabled = true;
+                index = null;
+                return;
+            }
+            Write write = new Write((int) userId, names);
+            if (pendingWrites != null) {
+                pendingWrites.add(write);
+            }
+            Index current = index;
+            if (current != null) {
+                current.apply(write);
+            }
+        }
+    }
+
+    private void publish(NameIndexMessage message) {
+        try {
+            String json = objectMapper.writeValueAsString(message);
+            // A lost message is bounded by the periodic rebuild
+            circuitBreaker.executeQuietly("name index broadcast", () -> redisTemplate.convertAndSend(channel, json));
+        } catch (JsonProcessingException ex) {
+            log.error("Could not serialize name index message for user {}", message.userId(), ex);
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static int toIndexId(long userId) {
+        if (userId < 0 || userId > Integer.MAX_VALUE) {
+            throw new IllegalStateException("User id " + userId + " does not fit the name index");
+        }
+        return (int) userId;
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    static String names(String firstName, String lastName) {
+        return normalize(firstName) + FIELD_SEPARATOR + normalize(lastName);
+    }
+
+    /**
+     * Distinct trigrams of the normalized names, sorted; one {@code long} holds three UTF-16
+     * chars. Trigrams never span the separator between the first and the last name.
+     */
+    static long[] trigrams(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] keys = new long[text.length() - 2];
+        int count = 0;
+        for (int i = 0; i + 2 < text.length(); i++) {
+            char a = text.charAt(i);
+            char b = text.charAt(i + 1);
+            char c = text.charAt(i + 2);
+            if (a != FIELD_SEPARATOR && b != FIELD_SEPARATOR && c != FIELD_SEPARATOR) {
+                keys[count++] = ((long) a << 32) | ((long) b << 16) | c;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || keys[distinct - 1] != keys[i]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, distinct);
+    }
+
+    /**
+     * Whether {@code needle} occurs inside the first or the last name, not across both.
+     */
+    static boolean matches(String names, String needle) {
+        int separator = names.indexOf(FIELD_SEPARATOR);
+        return names.lastIndexOf(needle, separator - needle.length()) >= 0
+                || names.indexOf(needle, separator + 1) >= 0;
+    }
+
+    /**
+     * First position at or after {@code from} whose id is {@code >= target}: doubles the step
+     * until it overshoots, then binary-searches the last step.
+     */
+    static int gallop(int[] ids, int from, int target) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < ids.length && ids[high] < target) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, ids.length);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    static int[] insert(int[] ids, int id) {
+        int position = Arrays.binarySearch(ids, id);
+        if (position >= 0) {
+            return ids;
+        }
+        position = -position - 1;
+        int[] copy = new int[ids.length + 1];
+        System.arraycopy(ids, 0, copy, 0, position);
+        copy[position] = id;
+        System.arraycopy(ids, position, copy, position + 1, ids.length - position);
+        return copy;
+    }
+
+    static int[] remove(int[] ids, int id) {
+        int position = Arrays.binarySearch(ids, id);
+        if (position < 0) {
+            return ids;
+        }
+        if (ids.length == 1) {
+            return null;
+        }
+        int[] copy = new int[ids.length - 1];
+        System.arraycopy(ids, 0, copy, 0, position);
+        System.arraycopy(ids, position + 1, copy, position, ids.length - position - 1);
+        return copy;
+    }
+
+    /**
+     * A user's normalized names ({@code first + '\0' + last}), or {@code null} for a deletion.
+     */
+    record Write(int userId, String names) {
+    }
+
+    /**
+     * Wire format of the broadcast: a user's names (both {@code null} for a deletion), or a
+     * rebuild request.
+     */
+    record NameIndexMessage(String origin, Long userId, String firstName, String lastName, boolean rebuild) {
+    }
+
+    /**
+     * Posting lists by trigram and the normalized names by user id.
+     */
+    static final class Index {
+
+        final Map<Long, int[]> postings;
+        final Map<Integer, String> names;
+
+        Index(Map<Long, int[]> postings, Map<Integer, String> names) {
+            this.postings = postings;
+            this.names = names;
+        }
+
+        List<Long> search(String needle, int afterId, int limit) {
+            long[] keys = trigrams(needle);
+            if (keys.length == 0) {
+                return List.of();
+            }
+            int[][] lists = new int[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                lists[i] = postings.getOrDefault(keys[i], NO_IDS);
+            }
+            // The rarest trigram drives the scan, the others are only probed
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+            List<Long> result = new ArrayList<>(Math.min(limit, lists[0].length));
+            int[] positions = new int[lists.length];
+            int[] driver = lists[0];
+            for (int i = gallop(driver, 0, afterId + 1); i < driver.length && result.size() < limit; i++) {
+                int id = driver[i];
+                boolean inAll = true;
+                for (int j = 1; j < lists.length; j++) {
+                    positions[j] = gallop(lists[j], positions[j], id);
+                    if (positions[j] == lists[j].length) {
+                        return result;
+                    }
+                    if (lists[j][positions[j]] != id) {
+                        inAll = false;
+                        break;
+                    }
+                }
+                if (inAll) {
+                    String userNames = names.get(id);
+                    if (userNames != null && matches(userNames, needle)) {
+                        result.add((long) id);
+                    }
+                }
+            }
+            return result;
+        }
+
+        void apply(Write write) {
+            String previous = write.names() != null
+                    ? names.put(write.userId(), write.names())
+                    : names.remove(write.userId());
+            long[] removed = previous != null ? trigrams(previous) : new long[0];
+            long[] added = write.names() != null ? trigrams(write.names()) : new long[0];
+
+            for (long key : removed) {
+                if (Arrays.binarySearch(added, key) < 0) {
+                    postings.computeIfPresent(key, (trigram, ids) -> remove(ids, write.userId()));
+                }
+            }
+            for (long key : added) {
+                if (Arrays.binarySearch(removed, key) < 0) {
+                    postings.merge(key, new int[]{write.userId()}, (ids, single) -> insert(ids, write.userId()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams {@code users} into growable posting lists, then sorts and trims them.
+     */
+    private final class IndexBuilder {
+
+        private final Map<Long, PostingBuffer> buffers = new HashMap<>();
+        private final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+        Index load() {
+            // A transaction (autocommit off) is what makes the PostgreSQL driver honour the fetch size.
+            // From the primary: a lagging replica could miss a write committed before pendingWrites was set
+            ReadReplicaDataSource.readFromPrimary(() -> readOnlyTransaction.executeWithoutResult(
+                    status -> jdbcTemplate.query(SCAN_SQL, rs -> {
+                        int userId = toIndexId(rs.getLong("id"));
+                        String userNames = names(rs.getString("first_name"), rs.getString("last_name"));
+                        names.put(userId, userNames);
+                        for (long key : trigrams(userNames)) {
+                            buffers.computeIfAbsent(key, trigram -> new PostingBuffer()).add(userId);
+                        }
+                    })));
+
+            Map<Long, int[]> postings = new ConcurrentHashMap<>(buffers.size() * 2);
+            buffers.forEach((key, buffer) -> postings.put(key, buffer.toSortedArray()));
+            return new Index(postings, names);
+        }
+    }
+
+    private static final class PostingBuffer {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        int[] toSortedArray() {
+            int[] sorted = Arrays.copyOf(ids, size);
+            // Rows come in no particular order
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
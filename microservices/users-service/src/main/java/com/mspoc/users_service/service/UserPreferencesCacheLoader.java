@@ -0,0 +1,65 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.cache.CacheEntryLoader;
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.mapper.UserPreferencesMapper;
+import com.mspoc.users_service.repository.UserPreferencesRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Reloads {@code user-preferences} entries straight from {@link UserPreferencesRepository},
+ * for background refreshes that cannot go through the cached service methods.
+ * <p>
+ * A user with a write-behind update not flushed yet is not refreshed: the row is older than
+ * the cached state. If one is parked while a refresh runs, the parked state is returned
+ * instead of the row.
+ */
+@Component
+public class UserPreferencesCacheLoader implements CacheEntryLoader {
+
+    private final UserPreferencesRepository preferencesRepository;
+    private final UserPreferencesMapper preferencesMapper;
+    private final UserPreferencesWriteBehind writeBehind;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public UserPreferencesCacheLoader(UserPreferencesRepository preferencesRepository,
+                                      UserPreferencesMapper preferencesMapper,
+                                      UserPreferencesWriteBehind writeBehind,
+                                      PlatformTransactionManager transactionManager) {
+        this.preferencesRepository = preferencesRepository;
+        this.preferencesMapper = preferencesMapper;
+        this.writeBehind = writeBehind;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public String getCacheName() {
+        return "user-preferences";
+    }
+
+    @Override
+    public Object load(Object key) {
+        Long userId = userId(key);
+        UserPreferencesResponse pending = writeBehind.pendingState(userId);
+        if (pending != null) {
+            return pending;
+        }
+        return ReadReplicaDataSource.readFromPrimary(() -> readOnlyTransaction.execute(status ->
+                preferencesRepository.findByUserId(userId)
+                        .map(preferencesMapper::toResponse)
+                        .orElse(null)));
+    }
+
+    @Override
+    public boolean canRefresh(Object key) {
+        return writeBehind.pendingState(userId(key)) == null;
+    }
+
+    private static Long userId(Object key) {
+        return key instanceof Number number ? number.longValue() : Long.valueOf(key.toString());
+    }
+}
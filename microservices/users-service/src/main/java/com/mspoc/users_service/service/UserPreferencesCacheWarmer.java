@@ -0,0 +1,344 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.cache.RedisCacheBulkOperations;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.entity.User;
+import com.mspoc.users_service.entity.UserPreferences;
+import com.mspoc.users_service.enums.NotificationFrequency;
+import com.mspoc.users_service.mapper.UserPreferencesMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fills the {@code user-preferences} cache from the database, so a fresh deploy or a Redis
+ * flush does not send every first read to Postgres at once.
+ * <p>
+ * The preferences of active users are read with plain JDBC in keyset-ordered batches
+ * ({@code id > ? ORDER BY id LIMIT ?}), split into {@code parallelism} id ranges read
+ * concurrently and paced by a shared rows-per-second limit. Each batch is mapped with
+ * {@link UserPreferencesMapper} and written with one Redis pipeline using SET NX, so values
+ * written by concurrent updates are never replaced with the row read here.
+ * <p>
+ * Only one warm-up runs at a time; {@link #start()} while running returns the current status.
+ */
+@Service
+@Slf4j
+public class UserPreferencesCacheWarmer implements DisposableBean {
+
+    private static final String RANGE_SQL = """
+            SELECT MIN(p.id) AS min_id, MAX(p.id) AS max_id, COUNT(*) AS total
+            FROM user_preferences p
+            JOIN users u ON u.id = p.user_id
+            WHERE u.active = TRUE
+            """;
+
+    private static final String BATCH_SQL = """
+            SELECT p.id, p.user_id, p.email_notifications_enabled, p.push_notifications_enabled,
+                   p.sms_notifications_enabled, p.marketing_emails_enabled, p.security_alerts_enabled,
+                   p.product_updates_enabled, p.notification_frequency, p.quiet_hours_start,
+                   p.quiet_hours_end, p.timezone, p.created_at, p.updated_at
+            FROM user_preferences p
+            JOIN users u ON u.id = p.user_id
+            WHERE u.active = TRUE AND p.id > ? AND p.id <= ?
+            ORDER BY p.id
+            LIMIT ?
+            """;
+
+    private static final RowMapper<UserPreferences> PREFERENCES_ROW_MAPPER = (rs, rowNum) -> UserPreferences.builder()
+            .id(rs.getLong("id"))
+            .user(User.builder().id(rs.getLong("user_id")).build())
+            .emailNotificationsEnabled(rs.getBoolean("email_notifications_enabled"))
+            .pushNotificationsEnabled(rs.getBoolean("push_notifications_enabled"))
+            .smsNotificationsEnabled(rs.getBoolean("sms_notifications_enabled"))
+            .marketingEmailsEnabled(rs.getBoolean("marketing_emails_enabled"))
+            .securityAlertsEnabled(rs.getBoolean("security_alerts_enabled"))
+            .productUpdatesEnabled(rs.getBoolean("product_updates_enabled"))
+            .notificationFrequency(NotificationFrequency.valueOf(rs.getString("notification_frequency")))
+            .quietHoursStart(rs.getObject("quiet_hours_start", LocalTime.class))
+            .quietHoursEnd(rs.getObject("quiet_hours_end", LocalTime.class))
+            .timezone(rs.getString("timezone"))
+            .createdAt(rs.getObject("created_at", LocalDateTime.class))
+            .updatedAt(rs.getObject("updated_at", LocalDateTime.class))
+            .build();
+
+    private final DataSource dataSource;
+    private final TransactionTemplate readOnlyTransaction;
+    private final UserPreferencesMapper preferencesMapper;
+    private final RedisCacheBulkOperations cacheBulkOperations;
+    private final UsersCacheProperties.WarmUp settings;
+    private final Counter rowsCounter;
+
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("cache-warmup").daemon(true).factory());
+    private final AtomicReference<Run> currentRun = new AtomicReference<>();
+
+    public UserPreferencesCacheWarmer(DataSource dataSource,
+                                      PlatformTransactionManager transactionManager,
+                                      UserPreferencesMapper preferencesMapper,
+                                      RedisCacheBulkOperations cacheBulkOperations,
+                                      UsersCacheProperties cacheProperties,
+                                      MeterRegistry meterRegistry) {
+        this.dataSource = dataSource;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.preferencesMapper = preferencesMapper;
+        this.cacheBulkOperations = cacheBulkOperations;
+        this.settings = cacheProperties.getWarmUp();
+        this.rowsCounter = Counter.builder("cache.warmup.rows")
+                .description("Entries written to Redis by cache warm-ups")
+                .tag("cache", UserPreferencesService.PREFERENCES_CACHE)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (settings.isRunOnStartup()) {
+            start();
+        }
+    }
+
+    /**
+     * Starts a warm-up in the background unless one is already running.
+     */
+    public Status start() {
+        Run run = new Run();
+        Run running = currentRun.get();
+        if (running != null && running.state == State.RUNNING) {
+            return running.toStatus();
+        }
+        if (!currentRun.compareAndSet(running, run)) {
+            return currentRun.get().toStatus();
+        }
+
+        coordinator.submit(() -> execute(run));
+        return run.toStatus();
+    }
+
+    public Status status() {
+        Run run = currentRun.get();
+        return run != null ? run.toStatus() : Status.idle();
+    }
+
+    private void execute(Run run) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(settings.getFetchSize());
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, settings.getParallelism()),
+                Thread.ofPlatform().name("cache-warmup-", 0).daemon(true).factory());
+        try {
+            Map<String, Object> range = jdbcTemplate.queryForMap(RANGE_SQL);
+            long total = ((Number) range.get("total")).longValue();
+            run.total.set(total);
+            log.info("Cache warm-up of '{}' started: {} rows, parallelism {}, batch size {}",
+                    UserPreferencesService.PREFERENCES_CACHE, total, settings.getParallelism(), settings.getBatchSize());
+
+            if (total > 0) {
+                long minId = ((Number) range.get("min_id")).longValue();
+                long maxId = ((Number) range.get("max_id")).longValue();
+                RowRateLimiter rateLimiter = new RowRateLimiter(settings.getMaxRowsPerSecond());
+
+                List<Callable<Void>> slices = new ArrayList<>();
+                for (long[] slice : slices(minId - 1, maxId, Math.max(1, settings.getParallelism()))) {
+                    slices.add(() -> {
+                        warmSlice(jdbcTemplate, slice[0], slice[1], run, rateLimiter);
+                        return null;
+                    });
+                }
+                for (Future<Void> slice : workers.invokeAll(slices)) {
+                    slice.get();
+                }
+            }
+
+            run.finish(State.COMPLETED, null);
+            Status status = run.toStatus();
+            log.info("Cache warm-up of '{}' completed: {} rows in {} ({} rows/s)",
+                    UserPreferencesService.PREFERENCES_CACHE, status.rowsWarmed(), status.elapsed(), status.rowsPerSecond());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            run.finish(State.FAILED, "interrupted");
+        } catch (Exception ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            log.error("Cache warm-up of '{}' failed after {} rows",
+                    UserPreferencesService.PREFERENCES_CACHE, run.rowsWarmed.get(), cause);
+            run.finish(State.FAILED, cause.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Keyset loop over {@code (fromIdExclusive, toIdInclusive]}.
+     */
+    private void warmSlice(JdbcTemplate jdbcTemplate, long fromIdExclusive, long toIdInclusive,
+                           Run run, RowRateLimiter rateLimiter) throws InterruptedException {
+        long lastId = fromIdExclusive;
+        int batchSize = settings.getBatchSize();
+        List<UserPreferences> batch;
+        do {
+            long afterId = lastId;
+            // A transaction (autocommit off) is what makes the PostgreSQL driver honour the fetch size
+            batch = ReadReplicaDataSource.readFromPrimary(() -> readOnlyTransaction.execute(status ->
+                    jdbcTemplate.query(BATCH_SQL, PREFERENCES_ROW_MAPPER, afterId, toIdInclusive, batchSize)));
+            if (batch == null || batch.isEmpty()) {
+                return;
+            }
+
+            Map<Long, UserPreferencesResponse> entries = new LinkedHashMap<>();
+            for (UserPreferences preferences : batch) {
+                UserPreferencesResponse response = preferencesMapper.toResponse(preferences);
+                entries.put(response.getUserId(), response);
+            }
+            cacheBulkOperations.multiPut(UserPreferencesService.PREFERENCES_CACHE, entries, true);
+
+            lastId = batch.get(batch.size() - 1).getId();
+            rowsCounter.increment(entries.size());
+            run.recordBatch(entries.size());
+            rateLimiter.acquire(batch.size());
+        } while (batch.size() == batchSize);
+    }
+
+    private static List<long[]> slices(long fromIdExclusive, long toIdInclusive, int count) {
+        List<long[]> slices = new ArrayList<>(count);
+        long span = toIdInclusive - fromIdExclusive;
+        long step = Math.max(1, (span + count - 1) / count);
+        for (long start = fromIdExclusive; start < toIdInclusive; start += step) {
+            slices.add(new long[]{start, Math.min(start + step, toIdInclusive)});
+        }
+        return slices;
+    }
+
+    @Override
+    public void destroy() {
+        coordinator.shutdownNow();
+    }
+
+    public enum State {
+        IDLE, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * Progress of the current (or last) warm-up.
+     *
+     * @param rowsTotal     rows matching the warm-up query when it started
+     * @param rowsPerSecond average throughput since the start
+     */
+    public record Status(State state,
+                         Instant startedAt,
+                         Instant finishedAt,
+                         long rowsTotal,
+                         long rowsWarmed,
+                         long batches,
+                         double percentComplete,
+                         long rowsPerSecond,
+                         Duration elapsed,
+                         String error) {
+
+        static Status idle() {
+            return new Status(State.IDLE, null, null, 0, 0, 0, 0, 0, Duration.ZERO, null);
+        }
+    }
+
+    private static final class Run {
+
+        private final Instant startedAt = Instant.now();
+        private final long startedNanos = System.nanoTime();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong rowsWarmed = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicInteger loggedDecile = new AtomicInteger();
+        private volatile State state = State.RUNNING;
+        private volatile Instant finishedAt;
+        private volatile long finishedNanos;
+        private volatile String error;
+
+        void recordBatch(int rows) {
+            long warmed = rowsWarmed.addAndGet(rows);
+            batches.incrementAndGet();
+
+            long rowsTotal = total.get();
+            int decile = rowsTotal > 0 ? (int) (warmed * 10 / rowsTotal) : 0;
+            int logged = loggedDecile.get();
+            if (decile > logged && loggedDecile.compareAndSet(logged, decile)) {
+                Status status = toStatus();
+                log.info("Cache warm-up progress: {}/{} rows ({}%), {} rows/s",
+                        warmed, rowsTotal, Math.round(status.percentComplete()), status.rowsPerSecond());
+            }
+        }
+
+        void finish(State finalState, String failure) {
+            finishedNanos = System.nanoTime();
+            finishedAt = Instant.now();
+            error = failure;
+            state = finalState;
+        }
+
+        Status toStatus() {
+            long endNanos = state == State.RUNNING ? System.nanoTime() : finishedNanos;
+            Duration elapsed = Duration.ofNanos(endNanos - startedNanos);
+            long warmed = rowsWarmed.get();
+            long rowsTotal = total.get();
+            long rowsPerSecond = elapsed.toMillis() > 0 ? warmed * 1_000 / elapsed.toMillis() : 0;
+            double percent = rowsTotal > 0 ? Math.min(100.0, warmed * 100.0 / rowsTotal) : (state == State.COMPLETED ? 100.0 : 0.0);
+            return new Status(state, startedAt, finishedAt, rowsTotal, warmed, batches.get(),
+                    percent, rowsPerSecond, elapsed, error);
+        }
+    }
+
+    /**
+     * Paces readers to a global rows-per-second budget: each batch reserves its share of
+     * time after the previous reservation and sleeps until then.
+     */
+    private static final class RowRateLimiter {
+
+        private final double nanosPerRow;
+        private long nextFreeNanos = System.nanoTime();
+
+        RowRateLimiter(int maxRowsPerSecond) {
+            this.nanosPerRow = maxRowsPerSecond > 0 ? 1_000_000_000.0 / maxRowsPerSecond : 0;
+        }
+
+        void acquire(int rows) throws InterruptedException {
+            if (nanosPerRow == 0) {
+                return;
+            }
+
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFreeNanos);
+                nextFreeNanos = start + (long) (rows * nanosPerRow);
+                waitNanos = start - now;
+            }
+            if (waitNanos > 0) {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.enums.NotificationFrequency;
+import com.mspoc.users_service.service.UserSegmentIndex.Segment;
+import com.mspoc.users_service.service.UserSegmentIndex.SegmentQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Streams the preferences of every user in a segment straight from the database.
+ * <p>
+ * The segment query is translated to a {@code WHERE} on the channel columns and read through a
+ * server-side cursor ({@value #FETCH_SIZE} rows per round trip) inside a read-only transaction.
+ * Each row is mapped directly to a {@link UserPreferencesResponse} (no entities, no persistence
+ * context) and handed to the consumer before the next one is read, so memory use does not grow
+ * with the size of the segment. Rows come in no particular order, which lets PostgreSQL start
+ * returning them without sorting the segment first.
+ */
+@Component
+@Slf4j
+public class UserPreferencesExporter {
+
+    private static final int FETCH_SIZE = 1_000;
+
+    private static final String SELECT_SQL = """
+            SELECT p.id, p.user_id, p.email_notifications_enabled, p.push_notifications_enabled,
+                   p.sms_notifications_enabled, p.marketing_emails_enabled, p.security_alerts_enabled,
+                   p.product_updates_enabled, p.notification_frequency, p.quiet_hours_start,
+                   p.quiet_hours_end, p.timezone, p.created_at, p.updated_at
+            FROM user_preferences p
+            JOIN users u ON u.id = p.user_id
+            WHERE\s""";
+
+    private static final Map<Segment, String> SEGMENT_COLUMNS = new EnumMap<>(Map.of(
+            Segment.ACTIVE, "u.active",
+            Segment.EMAIL, "p.email_notifications_enabled",
+            Segment.PUSH, "p.push_notifications_enabled",
+            Segment.SMS, "p.sms_notifications_enabled",
+            Segment.MARKETING, "p.marketing_emails_enabled",
+            Segment.SECURITY, "p.security_alerts_enabled"));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public UserPreferencesExporter(DataSource dataSource, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Passes the preferences of every user matching {@code query} to {@code consumer}.
+     *
+     * @return number of rows exported
+     */
+    public long export(SegmentQuery query, Consumer<UserPreferencesResponse> consumer) {
+        String sql = SELECT_SQL + whereClause(query);
+        AtomicLong rows = new AtomicLong();
+        long start = System.nanoTime();
+
+        // A transaction (autocommit off) is what makes the PostgreSQL driver honour the fetch size
+        readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(sql, rs -> {
+            consumer.accept(toResponse(rs));
+            rows.incrementAndGet();
+        }));
+
+        log.info("Exported {} preferences of segment {} in {} ms",
+                rows.get(), query, (System.nanoTime() - start) / 1_000_000);
+        return rows.get();
+    }
+
+    static String whereClause(SegmentQuery query) {
+        StringJoiner where = new StringJoiner(" AND ");
+        query.all().forEach(segment -> where.add(SEGMENT_COLUMNS.get(segment) + " = TRUE"));
+        if (!query.any().isEmpty()) {
+            StringJoiner any = new StringJoiner(" OR ", "(", ")");
+            query.any().forEach(segment -> any.add(SEGMENT_COLUMNS.get(segment) + " = TRUE"));
+            where.add(any.toString());
+        }
+        return where.toString();
+    }
+
+    private static UserPreferencesResponse toResponse(ResultSet rs) throws SQLException {
+        boolean email = rs.getBoolean("email_notifications_enabled");
+        boolean push = rs.getBoolean("push_notifications_enabled");
+        boolean sms = rs.getBoolean("sms_notifications_enabled");
+        return UserPreferencesResponse.builder()
+                .id(rs.getLong("id"))
+                .userId(rs.getLong("user_id"))
+                .emailNotificationsEnabled(email)
+                .pushNotificationsEnabled(push)
+                .smsNotificationsEnabled(sms)
+                .marketingEmailsEnabled(rs.getBoolean("marketing_emails_enabled"))
+                .securityAlertsEnabled(rs.getBoolean("security_alerts_enabled"))
+                .productUpdatesEnabled(rs.getBoolean("product_updates_enabled"))
+                .notificationFrequency(NotificationFrequency.valueOf(rs.getString("notification_frequency")))
+                .quietHoursStart(rs.getObject("quiet_hours_start", LocalTime.class))
+                .quietHoursEnd(rs.getObject("quiet_hours_end", LocalTime.class))
+                .timezone(rs.getString("timezone"))
+                .createdAt(rs.getObject("created_at", LocalDateTime.class))
+                .updatedAt(rs.getObject("updated_at", LocalDateTime.class))
+                .canReceiveEmail(email)
+                .canReceivePush(push)
+                .canReceiveSms(sms)
+                .build();
+    }
+}
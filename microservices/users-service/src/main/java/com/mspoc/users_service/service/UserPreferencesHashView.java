@@ -0,0 +1,297 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.cache.RedisCircuitBreaker;
+import com.mspoc.users_service.cache.RedisUnavailableException;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.entity.UserPreferences;
+import com.mspoc.users_service.mapper.UserPreferencesMapper;
+import com.mspoc.users_service.repository.UserPreferencesRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The "all preferences" view kept as a Redis hash ({@code userId -> entry}) instead of a
+ * single cached list.
+ * <p>
+ * Create, update (including write-behind updates not yet flushed) and delete change one field
+ * each, after their transaction commits, so a single write never invalidates the whole view.
+ * Reads stream the hash with HSCAN. A {@code __built} marker field tells a complete view apart
+ * from a missing one (after a flush, an import or {@code DELETE /preferences/cache}); the first
+ * read then rebuilds it from the database in keyset-ordered chunks. Field writes are skipped
+ * unless the view is built or being rebuilt, so a write never creates a partial view.
+ * <p>
+ * Every Redis call goes through the {@link RedisCircuitBreaker}: one HSCAN page per call while
+ * reading. While Redis is unavailable, reads stream the rows from the database instead.
+ * <p>
+ * The hash expires after {@code users-service.cache.preferences-view.ttl}; that bounds any
+ * drift from deletes that raced with a rebuild.
+ */
+@Component
+@Slf4j
+public class UserPreferencesHashView {
+
+    private static final String CACHE_NAME = "user-preferences";
+    private static final byte[] BUILT_MARKER = "__built".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BUILDING_MARKER = "__building".getBytes(StandardCharsets.UTF_8);
+    private static final int REBUILD_CHUNK_SIZE = 500;
+    private static final int SCAN_COUNT = 500;
+
+    private static final byte[] HSET_IF_PRESENT = """
+            if redis.call('hexists', KEYS[1], ARGV[1]) == 1 or redis.call('hexists', KEYS[1], ARGV[2]) == 1 then
+                return redis.call('hset', KEYS[1], ARGV[3], ARGV[4])
+            end
+            return -1
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private final RedisConnectionFactory connectionFactory;
+    private final RedisCacheManager redisCacheManager;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final UserPreferencesRepository preferencesRepository;
+    private final UserPreferencesMapper preferencesMapper;
+    private final UserPreferencesWriteBehind writeBehind;
+    private final byte[] viewKey;
+    private final Duration viewTtl;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    public UserPreferencesHashView(RedisConnectionFactory connectionFactory,
+                                   RedisCacheManager redisCacheManager,
+                                   RedisCircuitBreaker circuitBreaker,
+                                   UserPreferencesRepository preferencesRepository,
+                                   UserPreferencesMapper preferencesMapper,
+                                   UserPreferencesWriteBehind writeBehind,
+                                   UsersCacheProperties cacheProperties,
+                                   @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.connectionFactory = connectionFactory;
+        this.redisCacheManager = redisCacheManager;
+        this.circuitBreaker = circuitBreaker;
+        this.preferencesRepository = preferencesRepository;
+        this.preferencesMapper = preferencesMapper;
+        this.writeBehind = writeBehind;
+        this.viewKey = (cacheKeyPrefix + CACHE_NAME + ":all").getBytes(StandardCharsets.UTF_8);
+        this.viewTtl = cacheProperties.getPreferencesView().getTtl();
+    }
+
+    /**
+     * Passes every entry of the view to {@code consumer}, in no particular order, rebuilding the
+     * view first if it does not exist. Falls back to reading the database if Redis is unavailable
+     * before the first entry was passed on.
+     *
+     * @return number of entries passed to {@code consumer}
+     * @throws RedisUnavailableException if Redis fails after entries were already passed on
+     */
+    public long forEach(Consumer<UserPreferencesResponse> consumer) {
+        long[] count = {0L};
+        if (circuitBreaker.isCallPermitted()) {
+            try {
+                scan(preferences -> {
+                    consumer.accept(preferences);
+                    count[0]++;
+                });
+                return count[0];
+            } catch (RedisUnavailableException ex) {
+                if (count[0] > 0) {
+                    throw ex;
+                }
+                log.warn("All-preferences view unavailable, reading from the database: {}", ex.getMessage());
+            }
+        }
+        return forEachInDatabase(chunk -> chunk.forEach(consumer));
+    }
+
+    /**
+     * Sets the entry of one user, after the current transaction commits.
+     */
+    public void put(UserPreferencesResponse preferences) {
+        afterCommit(() -> {
+            byte[] value = toBytes(cacheConfiguration().getValueSerializationPair().write(preferences));
+            circuitBreaker.executeQuietly("all-preferences view write", () -> redis(connection ->
+                    connection.scriptingCommands().eval(HSET_IF_PRESENT, ReturnType.INTEGER, 1,
+                            viewKey, BUILT_MARKER, BUILDING_MARKER, field(preferences.getUserId()), value)));
+        });
+    }
+
+    /**
+     * Removes the entry of one user, after the current transaction commits.
+     */
+    public void remove(Long userId) {
+        afterCommit(() -> circuitBreaker.executeQuietly("all-preferences view delete",
+                () -> redis(connection -> connection.hashCommands().hDel(viewKey, field(userId)))));
+    }
+
+    /**
+     * Drops the whole view; the next read rebuilds it.
+     */
+    public void clear() {
+        circuitBreaker.executeQuietly("all-preferences view clear",
+                () -> redis(connection -> connection.keyCommands().del(viewKey)));
+    }
+
+    private boolean isBuilt() {
+        return Boolean.TRUE.equals(circuitBreaker.execute(
+                () -> redis(connection -> connection.hashCommands().hExists(viewKey, BUILT_MARKER))));
+    }
+
+    /**
+     * Streams the hash one HSCAN page per breaker call, so a slow Redis fails the read within
+     * the breaker's operation timeout instead of blocking it.
+     */
+    private void scan(Consumer<UserPreferencesResponse> consumer) {
+        if (!isBuilt()) {
+            rebuild();
+        }
+
+        RedisCacheConfiguration config = cacheConfiguration();
+        try (RedisConnection connection = connectionFactory.getConnection();
+             Cursor<Map.Entry<byte[], byte[]>> cursor = circuitBreaker.execute(() -> connection.hashCommands()
+                     .hScan(viewKey, ScanOptions.scanOptions().count(SCAN_COUNT).build()))) {
+            List<Map.Entry<byte[], byte[]>> page;
+            do {
+                page = circuitBreaker.execute(() -> {
+                    List<Map.Entry<byte[], byte[]>> fields = new ArrayList<>(SCAN_COUNT);
+                    while (fields.size() < SCAN_COUNT && cursor.hasNext()) {
+                        fields.add(cursor.next());
+                    }
+                    return fields;
+                });
+                for (Map.Entry<byte[], byte[]> field : page) {
+                    if (Arrays.equals(field.getKey(), BUILT_MARKER) || Arrays.equals(field.getKey(), BUILDING_MARKER)) {
+                        continue;
+                    }
+                    Object value = config.getValueSerializationPair().read(ByteBuffer.wrap(field.getValue()));
+                    if (value instanceof UserPreferencesResponse preferences) {
+                        consumer.accept(preferences);
+                    }
+                }
+            } while (page.size() == SCAN_COUNT);
+        }
+    }
+
+    /**
+     * Loads every preference in id order, in chunks, and fills the hash with HSETNX so
+     * fields written concurrently by create/update are not overwritten with older data.
+     * Rows with a pending write-behind update are written with the pending state.
+     */
+    private void rebuild() {
+        rebuildLock.lock();
+        try {
+            if (isBuilt()) {
+                return;
+            }
+
+            log.info("Rebuilding all-preferences view");
+            circuitBreaker.execute(() -> redis(connection -> {
+                connection.hashCommands().hSet(viewKey, BUILDING_MARKER, "1".getBytes(StandardCharsets.UTF_8));
+                return connection.keyCommands().expire(viewKey, viewTtl);
+            }));
+
+            RedisCacheConfiguration config = cacheConfiguration();
+            long total = ReadReplicaDataSource.readFromPrimary(() -> forEachInDatabase(chunk -> {
+                Map<byte[], byte[]> fields = new LinkedHashMap<>();
+                for (UserPreferencesResponse response : chunk) {
+                    fields.put(field(response.getUserId()), toBytes(config.getValueSerializationPair().write(response)));
+                }
+                circuitBreaker.execute(() -> redis(connection -> {
+                    connection.openPipeline();
+                    fields.forEach((field, value) -> connection.hashCommands().hSetNX(viewKey, field, value));
+                    return connection.closePipeline();
+                }));
+            }));
+
+            circuitBreaker.execute(() -> redis(connection -> {
+                connection.hashCommands().hSet(viewKey, BUILT_MARKER, "1".getBytes(StandardCharsets.UTF_8));
+                connection.hashCommands().hDel(viewKey, BUILDING_MARKER);
+                return connection.keyCommands().expire(viewKey, viewTtl);
+            }));
+            log.info("All-preferences view rebuilt with {} entries", total);
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Reads every preference from the database in keyset-ordered chunks, with pending
+     * write-behind updates applied.
+     *
+     * @return number of rows read
+     */
+    private long forEachInDatabase(Consumer<List<UserPreferencesResponse>> chunkConsumer) {
+        long lastId = 0L;
+        long total = 0L;
+        List<UserPreferences> chunk;
+        do {
+            chunk = preferencesRepository.findTop500ByIdGreaterThanOrderByIdAsc(lastId);
+            if (chunk.isEmpty()) {
+                break;
+            }
+
+            List<UserPreferencesResponse> responses = new ArrayList<>(chunk.size());
+            for (UserPreferences preferences : chunk) {
+                UserPreferencesResponse response = preferencesMapper.toResponse(preferences);
+                UserPreferencesResponse pending = writeBehind.pendingState(response.getUserId());
+                responses.add(pending != null ? pending : response);
+            }
+            chunkConsumer.accept(responses);
+
+            lastId = chunk.get(chunk.size() - 1).getId();
+            total += chunk.size();
+        } while (chunk.size() == REBUILD_CHUNK_SIZE);
+        return total;
+    }
+
+    private <T> T redis(Function<RedisConnection, T> call) {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return call.apply(connection);
+        }
+    }
+
+    private RedisCacheConfiguration cacheConfiguration() {
+        return redisCacheManager.getCacheConfigurations().get(CACHE_NAME);
+    }
+
+    private static byte[] field(Long userId) {
+        return String.valueOf(userId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
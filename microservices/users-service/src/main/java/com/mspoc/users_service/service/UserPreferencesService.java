@@ -1,23 +1,52 @@
 package com.mspoc.users_service.service;
 
+import com.mspoc.users_service.cache.NegativeLookupCache;
+import com.mspoc.users_service.cache.RedisCacheBulkOperations;
+import com.mspoc.users_service.cache.RedisUnavailableException;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import com.mspoc.users_service.datasource.ReadFromPrimary;
+import com.mspoc.users_service.datasource.ReadReplicaDataSource;
 import com.mspoc.users_service.dto.request.UpdateUserPreferencesRequest;
 import com.mspoc.users_service.dto.request.UserPreferencesRequest;
+import com.mspoc.users_service.dto.response.KeysetPage;
+import com.mspoc.users_service.dto.response.NotificationStatisticsResponse;
 import com.mspoc.users_service.dto.response.UserPreferencesResponse;
 import com.mspoc.users_service.entity.User;
 import com.mspoc.users_service.entity.UserPreferences;
+import com.mspoc.users_service.exception.CacheException;
 import com.mspoc.users_service.exception.ResourceAlreadyExistsException;
 import com.mspoc.users_service.exception.ResourceNotFoundException;
 import com.mspoc.users_service.mapper.UserPreferencesMapper;
 import com.mspoc.users_service.repository.UserPreferencesRepository;
+import com.mspoc.users_service.service.UserSegmentIndex.Segment;
+import com.mspoc.users_service.service.UserSegmentIndex.SegmentQuery;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.cache.annotation.Caching;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 /**
  * Service for managing user preferences.
@@ -25,18 +54,56 @@ import java.util.List;
  */
 @Service
 @Slf4j
-public class UserPreferencesService {
+public class UserPreferencesService implements DisposableBean {
+
+    public static final String PREFERENCES_CACHE = "user-preferences";
 
     private final UserPreferencesRepository preferencesRepository;
     private final UserPreferencesMapper preferencesMapper;
     private final UserService userService;
+    private final RedisCacheBulkOperations cacheBulkOperations;
+    private final UserPreferencesHashView preferencesView;
+    private final UserPreferencesCacheWarmer cacheWarmer;
+    private final UserPreferencesWriteBehind writeBehind;
+    private final UserSegmentIndex segmentIndex;
+    private final KeysetPageCache keysetPages;
+    private final UserPreferencesExporter preferencesExporter;
+    private final CacheManager cacheManager;
+    private final NegativeLookupCache negativeLookups;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean warmUpAfterClear;
+    private final ExecutorService databaseLoads = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("preferences-db-", 0).factory());
 
     public UserPreferencesService(UserPreferencesRepository preferencesRepository,
                                   UserPreferencesMapper preferencesMapper,
-                                  UserService userService) {
+                                  UserService userService,
+                                  RedisCacheBulkOperations cacheBulkOperations,
+                                  UserPreferencesHashView preferencesView,
+                                  UserPreferencesCacheWarmer cacheWarmer,
+                                  UserPreferencesWriteBehind writeBehind,
+                                  UserSegmentIndex segmentIndex,
+                                  KeysetPageCache keysetPages,
+                                  UserPreferencesExporter preferencesExporter,
+                                  CacheManager cacheManager,
+                                  NegativeLookupCache negativeLookups,
+                                  PlatformTransactionManager transactionManager,
+                                  UsersCacheProperties cacheProperties) {
         this.preferencesRepository = preferencesRepository;
         this.preferencesMapper = preferencesMapper;
         this.userService = userService;
+        this.cacheBulkOperations = cacheBulkOperations;
+        this.preferencesView = preferencesView;
+        this.cacheWarmer = cacheWarmer;
+        this.writeBehind = writeBehind;
+        this.segmentIndex = segmentIndex;
+        this.keysetPages = keysetPages;
+        this.preferencesExporter = preferencesExporter;
+        this.cacheManager = cacheManager;
+        this.negativeLookups = negativeLookups;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.warmUpAfterClear = cacheProperties.getWarmUp().isRunAfterClear();
     }
 
     /**
@@ -44,6 +111,10 @@ public class UserPreferencesService {
      * <p>
      * {@code @CachePut} always executes the method and updates the cache with the result,
      * regardless of whether a value already exists. Used for creating or updating data.
+     * The "not found" tombstone left by earlier lookups of the user is cleared after the commit:
+     * the put may run before it, and a lookup in between would re-create the tombstone from a
+     * database state without the new row.
+     * The new entry is also added to the all-preferences view.
      *
      * @param request the user preferences request containing userId and preference settings
      * @return the created user preferences response
@@ -65,6 +136,9 @@ public class UserPreferencesService {
 
         UserPreferences savedPreferences = preferencesRepository.save(preferences);
         UserPreferencesResponse response = preferencesMapper.toResponse(savedPreferences);
+        preferencesView.put(response);
+        segmentIndex.updatePreferences(response);
+        negativeLookups.clearAfterCommit(PREFERENCES_CACHE, request.getUserId());
 
         log.info("Preferences created and cached for user ID: {}", request.getUserId());
         return response;
@@ -79,16 +153,54 @@ public class UserPreferencesService {
      * {@code @Cacheable} searches first in the cache. If a value exists, it returns it without
      * executing the method; otherwise, it executes the method, saves the result in the
      * cache, and returns it. Used for read operations.
+     * <p>
+     * {@code sync = true} routes the miss through {@code Cache.get(key, loader)}, so the
+     * single-flight layer collapses concurrent misses of the same user into one query.
+     * The method never returns {@code null} (it throws instead), so no {@code unless} is needed;
+     * the {@code ResourceNotFoundException} is remembered as a short-lived tombstone by the
+     * negative-caching layer, so users without preferences do not hit the database on every call.
+     * <p>
+     * With write-behind, an update not yet flushed is newer than the row and is returned instead.
      *
      * @param userId the ID of the user
      * @return the user preferences response
      * @throws ResourceNotFoundException if preferences are not found for the user
      */
     @Transactional(readOnly = true)
-    @Cacheable(value = "user-preferences", key = "#userId", unless = "#result == null")
+    @Cacheable(value = "user-preferences", key = "#userId", sync = true)
     public UserPreferencesResponse getPreferencesByUserId(Long userId) {
+        return loadPreferences(userId);
+    }
+
+    /**
+     * Non-blocking variant of {@link #getPreferencesByUserId(Long)} for the read API.
+     * <p>
+     * For a method returning a {@code CompletableFuture}, {@code @Cacheable(sync = true)} goes
+     * through {@code Cache.retrieve(key, loader)}: the Redis lookup uses the asynchronous Lettuce
+     * API and no thread waits for it. Only on a miss is this method invoked; the JPA query then
+     * runs on a virtual thread (database concurrency stays capped by the connection pool), in a
+     * read-only transaction of its own. Tombstones, single-flight and the near cache apply as on
+     * the blocking path.
+     *
+     * @param userId the ID of the user
+     * @return the user preferences; fails with {@link ResourceNotFoundException} if there are none
+     */
+    @Cacheable(value = "user-preferences", key = "#userId", sync = true)
+    public CompletableFuture<UserPreferencesResponse> getPreferencesByUserIdAsync(Long userId) {
+        return CompletableFuture.supplyAsync(
+                () -> ReadReplicaDataSource.readFromPrimary(
+                        () -> readOnlyTransaction.execute(status -> loadPreferences(userId))),
+                databaseLoads);
+    }
+
+    private UserPreferencesResponse loadPreferences(Long userId) {
         log.debug("Fetching preferences for user ID: {}", userId);
 
+        UserPreferencesResponse pending = writeBehind.pendingState(userId);
+        if (pending != null) {
+            return pending;
+        }
+
         UserPreferences preferences = preferencesRepository.findByUserId(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("UserPreferences", "userId", userId));
 
@@ -98,6 +210,75 @@ public class UserPreferencesService {
         return response;
     }
 
+    /**
+     * Retrieves the preferences of several users at once.
+     * <p>
+     * All ids are first resolved against the {@code user-preferences} cache with a single
+     * MGET. Only the misses are loaded from the database, with one {@code WHERE user_id IN (...)}
+     * query, and written back to Redis in one pipeline. The write-back only adds missing entries
+     * (SET NX), so a row read before a concurrent update commits cannot replace the value its
+     * {@code @CachePut} wrote. Users without preferences are skipped; the result keeps the order
+     * of the requested ids.
+     * <p>
+     * While Redis is unavailable (circuit open, MGET failed or timed out) every id is treated as a
+     * miss and nothing is written back, so the rows come straight from the database.
+     *
+     * @param userIds the IDs of the users (duplicates are ignored)
+     * @return the preferences that exist for the requested users
+     */
+    @ReadFromPrimary
+    @Transactional(readOnly = true)
+    public List<UserPreferencesResponse> getPreferencesByUserIds(List<Long> userIds) {
+        Set<Long> uniqueIds = new LinkedHashSet<>(userIds);
+        log.debug("Fetching preferences for {} users in batch", uniqueIds.size());
+
+        Map<Long, UserPreferencesResponse> found = new LinkedHashMap<>();
+        boolean cacheAvailable = true;
+        try {
+            found.putAll(cacheBulkOperations.multiGet(PREFERENCES_CACHE, uniqueIds, UserPreferencesResponse.class));
+        } catch (RedisUnavailableException ex) {
+            log.warn("Batch preferences read from the database, cache unavailable: {}", ex.getMessage());
+            cacheAvailable = false;
+        }
+
+        List<Long> misses = uniqueIds.stream()
+                .filter(userId -> !found.containsKey(userId))
+                .toList();
+
+        if (!misses.isEmpty()) {
+            Map<Long, UserPreferencesResponse> loaded = new LinkedHashMap<>();
+            preferencesRepository.findAllByUserIdIn(misses)
+                    .stream()
+                    .map(preferencesMapper::toResponse)
+                    .forEach(response -> loaded.put(response.getUserId(), response));
+            loaded.replaceAll((userId, response) -> {
+                UserPreferencesResponse pending = writeBehind.pendingState(userId);
+                return pending != null ? pending : response;
+            });
+
+            if (cacheAvailable) {
+                try {
+                    cacheBulkOperations.multiPut(PREFERENCES_CACHE, loaded, true);
+                } catch (RedisUnavailableException ex) {
+                    log.warn("Could not cache {} batch preferences: {}", loaded.size(), ex.getMessage());
+                }
+            }
+            found.putAll(loaded);
+        }
+
+        log.debug("Batch preferences: {} requested, {} cache misses, {} found",
+                uniqueIds.size(), misses.size(), found.size());
+
+        List<UserPreferencesResponse> result = new ArrayList<>(found.size());
+        for (Long userId : uniqueIds) {
+            UserPreferencesResponse preferences = found.get(userId);
+            if (preferences != null) {
+                result.add(preferences);
+            }
+        }
+        return result;
+    }
+
     @Transactional(readOnly = true)
     public UserPreferencesResponse getPreferencesById(Long id) {
         log.debug("Fetching preferences with ID: {}", id);
@@ -112,7 +293,8 @@ public class UserPreferencesService {
      * Updates user preferences and refreshes the cache.
      * <p>
      * {@code @CachePut} ensures the cache is updated with the latest preference values
-     * after a successful update operation.
+     * after a successful update operation. The all-preferences view is updated in place.
+     * With write-behind enabled the row is written later, see {@link #updatePreferencesV2}.
      *
      * @param userId  the ID of the user whose preferences are being updated
      * @param request the updated user preferences request
@@ -124,37 +306,36 @@ public class UserPreferencesService {
     public UserPreferencesResponse updatePreferences(Long userId, UpdateUserPreferencesRequest request) {
         log.info("Updating preferences for user ID: {}", userId);
 
+        UserPreferencesResponse deferred = updateWriteBehind(userId, request);
+        if (deferred != null) {
+            return deferred;
+        }
+
         UserPreferences preferences = preferencesRepository.findByUserId(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("UserPreferences", "userId", userId));
 
         preferencesMapper.updateEntityFromRequest(request, preferences);
         UserPreferences updatedPreferences = preferencesRepository.save(preferences);
         UserPreferencesResponse response = preferencesMapper.toResponse(updatedPreferences);
+        preferencesView.put(response);
+        segmentIndex.updatePreferences(response);
 
         log.info("Preferences updated and cache refreshed for user ID: {}", userId);
         return response;
     }
 
     /**
-     * Updates user preferences and synchronizes both individual and list caches.
+     * Updates user preferences and synchronizes both the individual entry and the list view.
      * <p>
-     * This method uses {@code @Caching} to perform multiple cache operations atomically:
+     * <strong>Cache Strategy:</strong>
      * <ul>
      *   <li>{@code @CachePut} - Updates the individual user preference cache entry
      *       with the key pattern "user-preferences::{userId}"</li>
-     *   <li>{@code @CacheEvict} - Evicts the cached list of all preferences
-     *       with the key "user-preferences::all"</li>
-     * </ul>
-     * <p>
-     * <strong>Cache Strategy:</strong>
-     * <ul>
-     *   <li>The individual preference is immediately updated in cache to ensure
-     *       consistency for single-user queries</li>
-     *   <li>The "all preferences" list is evicted to prevent stale data. The next
-     *       call to {@link #getAllPreferences()} will regenerate and cache the
-     *       updated list</li>
-     *   <li>This approach avoids the complexity of manually updating the list cache
-     *       while maintaining eventual consistency</li>
+     *   <li>The all-preferences view is a Redis hash: only this user's field is
+     *       replaced, so the view never has to be rebuilt because of a single write</li>
+     *   <li>With {@code users-service.cache.write-behind.enabled} the cache entry is the source
+     *       of truth right away and the row is written by {@link UserPreferencesWriteBehind},
+     *       coalesced with later updates of the same user</li>
      * </ul>
      *
      * @param userId  the ID of the user whose preferences are being updated
@@ -163,36 +344,75 @@ public class UserPreferencesService {
      * @throws ResourceNotFoundException if preferences are not found for the user
      */
     @Transactional
-    @Caching(
-            put = {
-                    @CachePut(value = "user-preferences", key = "#userId")
-            },
-            evict = {
-                    @CacheEvict(value = "user-preferences", key = "'all'")
-            }
-    )
+    @CachePut(value = "user-preferences", key = "#userId")
     public UserPreferencesResponse updatePreferencesV2(Long userId, UpdateUserPreferencesRequest request) {
         log.info("V2 - Updating preferences for user ID: {}", userId);
 
+        UserPreferencesResponse deferred = updateWriteBehind(userId, request);
+        if (deferred != null) {
+            return deferred;
+        }
+
         UserPreferences preferences = preferencesRepository.findByUserId(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("UserPreferences", "userId", userId));
 
         preferencesMapper.updateEntityFromRequest(request, preferences);
         UserPreferences updatedPreferences = preferencesRepository.save(preferences);
         UserPreferencesResponse response = preferencesMapper.toResponse(updatedPreferences);
+        preferencesView.put(response);
+        segmentIndex.updatePreferences(response);
 
         log.info("V2 - Preferences updated and cache refreshed for user ID: {}", userId);
         return response;
     }
 
+    /**
+     * Applies the update to the current state (pending update, cache entry or row, in that
+     * order) and hands it to the write-behind queue.
+     *
+     * @return the new state, or {@code null} if write-behind is disabled or its queue is full
+     */
+    private UserPreferencesResponse updateWriteBehind(Long userId, UpdateUserPreferencesRequest request) {
+        if (!writeBehind.isEnabled()) {
+            return null;
+        }
+
+        UserPreferencesResponse current = writeBehind.pendingState(userId);
+        if (current == null) {
+            Cache cache = cacheManager.getCache(PREFERENCES_CACHE);
+            current = cache != null ? cache.get(userId, UserPreferencesResponse.class) : null;
+        }
+        if (current == null) {
+            current = preferencesRepository.findByUserId(userId)
+                    .map(preferencesMapper::toResponse)
+                    .orElseThrow(() -> new ResourceNotFoundException("UserPreferences", "userId", userId));
+        }
+
+        // Cached values are shared, update a copy
+        UserPreferencesResponse response = current.toBuilder().build();
+        preferencesMapper.updateResponseFromRequest(request, response);
+        response.setUpdatedAt(LocalDateTime.now());
+
+        if (!writeBehind.enqueue(response)) {
+            log.warn("Write-behind queue full, updating preferences of user ID {} synchronously", userId);
+            return null;
+        }
+        preferencesView.put(response);
+        segmentIndex.updatePreferences(response);
 
+        log.info("Preferences update of user ID {} queued for write-behind", userId);
+        return response;
+    }
+
+    /**
+     * Deletes user preferences, evicts the individual entry and removes the user's
+     * field from the all-preferences view.
+     *
+     * @param userId the ID of the user whose preferences are being deleted
+     * @throws ResourceNotFoundException if preferences are not found for the user
+     */
     @Transactional
-//    @CacheEvict(value = "user-preferences", key = "#userId")
-    @Caching(
-            evict = {
-                    @CacheEvict(value = "user-preferences", key = "#userId"),
-                    @CacheEvict(value = "user-preferences", key = "'all'")
-            })
+    @CacheEvict(value = "user-preferences", key = "#userId")
     public void deletePreferencesV2(Long userId) {
         log.info("V2 - Deleting preferences for user ID: {}", userId);
 
@@ -201,6 +421,9 @@ public class UserPreferencesService {
         }
 
         preferencesRepository.deleteByUserId(userId);
+        writeBehind.discard(userId);
+        preferencesView.remove(userId);
+        segmentIndex.removePreferences(userId);
         log.info("V2 - Preferences deleted and evicted from cache for user ID: {}", userId);
     }
 
@@ -222,53 +445,196 @@ public class UserPreferencesService {
         }
 
         preferencesRepository.deleteByUserId(userId);
+        writeBehind.discard(userId);
+        preferencesView.remove(userId);
+        segmentIndex.removePreferences(userId);
         log.info("Preferences deleted and evicted from cache for user ID: {}", userId);
     }
 
+    /**
+     * Retrieves one keyset page of preferences, ordered by user ID.
+     * <p>
+     * The ids of the page come from the unique {@code user_id} index and are cached per page by
+     * {@link KeysetPageCache}; the preferences themselves are read with {@link #getPreferencesByUserIds}.
+     *
+     * @param after the {@code nextCursor} of the previous page, {@code null} for the first one
+     * @param limit the maximum number of preferences in the page
+     * @return the page of preferences
+     */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    @Cacheable(value = "user-preferences", key = "'all'", unless = "#result == null || #result.isEmpty()")
-    public List<UserPreferencesResponse> getAllPreferences() {
-        log.debug("Fetching all preferences");
+    public KeysetPage<UserPreferencesResponse> getPreferencesPage(String after, int limit) {
+        log.debug("Fetching preferences page after cursor: {}", after);
 
-        return preferencesRepository.findAll()
-                .stream()
-                .map(preferencesMapper::toResponse)
-                .toList();
+        return keysetPages.page("preferences", after, limit,
+                (afterId, max) -> preferencesRepository.findUserIdsAfter(afterId, Limit.of(max)),
+                this::getPreferencesByUserIds);
+    }
+
+    /**
+     * Passes the preferences of every user to {@code consumer}, in no particular order.
+     * <p>
+     * They are streamed from the all-preferences view with HSCAN, see {@link UserPreferencesHashView};
+     * memory use does not grow with the number of users.
+     *
+     * @param consumer receives each user's preferences
+     * @return number of preferences passed on
+     * @throws CacheException if Redis fails after part of the view was already streamed
+     */
+    public long streamAllPreferences(Consumer<UserPreferencesResponse> consumer) {
+        log.debug("Streaming all preferences");
+
+        try {
+            return preferencesView.forEach(consumer);
+        } catch (RedisUnavailableException ex) {
+            throw new CacheException("all-preferences view unavailable", ex);
+        }
     }
 
+    /**
+     * Retrieves one keyset page of active users with email notifications enabled.
+     * <p>
+     * The ids come from the segment bitmaps ({@code active AND email}) and the preferences from
+     * the cache, see {@link #segmentPage}.
+     *
+     * @param after the {@code nextCursor} of the previous page, {@code null} for the first one
+     * @param limit the maximum number of preferences in the page
+     * @return the page of user preferences with email notifications enabled
+     */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    public List<UserPreferencesResponse> getUsersWithEmailNotifications() {
+    public KeysetPage<UserPreferencesResponse> getUsersWithEmailNotifications(String after, int limit) {
         log.debug("Fetching users with email notifications enabled");
 
-        return preferencesRepository.findUsersWithEmailNotificationsEnabled()
-                .stream()
-                .map(preferencesMapper::toResponse)
-                .toList();
+        return segmentPage(SegmentQuery.allOf(Segment.ACTIVE, Segment.EMAIL), after, limit,
+                preferencesRepository::findUserIdsWithEmailNotificationsEnabled,
+                preferences -> Boolean.TRUE.equals(preferences.getEmailNotificationsEnabled()));
     }
 
     /**
-     * Retrieves all users with push notifications enabled.
+     * Retrieves one keyset page of active users with push notifications enabled.
      *
-     * @return list of user preferences with push notifications enabled
+     * @param after the {@code nextCursor} of the previous page, {@code null} for the first one
+     * @param limit the maximum number of preferences in the page
+     * @return the page of user preferences with push notifications enabled
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    public List<UserPreferencesResponse> getUsersWithPushNotifications() {
+    public KeysetPage<UserPreferencesResponse> getUsersWithPushNotifications(String after, int limit) {
         log.debug("Fetching users with push notifications enabled");
 
-        return preferencesRepository.findUsersWithPushNotificationsEnabled()
-                .stream()
-                .map(preferencesMapper::toResponse)
-                .toList();
+        return segmentPage(SegmentQuery.allOf(Segment.ACTIVE, Segment.PUSH), after, limit,
+                preferencesRepository::findUserIdsWithPushNotificationsEnabled,
+                preferences -> Boolean.TRUE.equals(preferences.getPushNotificationsEnabled()));
     }
 
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    public List<UserPreferencesResponse> getUsersWithMarketingEnabled() {
+    public KeysetPage<UserPreferencesResponse> getUsersWithMarketingEnabled(String after, int limit) {
         log.debug("Fetching users with marketing emails enabled");
 
-        return preferencesRepository.findUsersWithMarketingEnabled()
-                .stream()
-                .map(preferencesMapper::toResponse)
-                .toList();
+        return segmentPage(SegmentQuery.allOf(Segment.ACTIVE, Segment.EMAIL, Segment.MARKETING), after, limit,
+                preferencesRepository::findUserIdsWithMarketingEnabled,
+                preferences -> Boolean.TRUE.equals(preferences.getEmailNotificationsEnabled())
+                        && Boolean.TRUE.equals(preferences.getMarketingEmailsEnabled()));
+    }
+
+    /**
+     * Counts the users matching a segment query with BITOP + BITCOUNT.
+     *
+     * @param query segments the users must all / any be in
+     * @return number of matching users
+     * @throws CacheException if the segment index is unavailable
+     */
+    public long countSegment(SegmentQuery query) {
+        log.debug("Counting segment {}", query);
+
+        try {
+            return segmentIndex.count(query);
+        } catch (RedisUnavailableException ex) {
+            throw new CacheException("segment index unavailable", ex);
+        }
+    }
+
+    /**
+     * Passes the id of every user matching a segment query to {@code consumer}, in ascending order.
+     *
+     * @param query    segments the users must all / any be in
+     * @param consumer receives each matching user ID
+     * @throws CacheException if the segment index is unavailable
+     */
+    public void forEachSegmentId(SegmentQuery query, LongConsumer consumer) {
+        log.debug("Streaming ids of segment {}", query);
+
+        try {
+            segmentIndex.forEachId(query, consumer);
+        } catch (RedisUnavailableException ex) {
+            throw new CacheException("segment index unavailable", ex);
+        }
+    }
+
+    /**
+     * Streams the preferences of every user matching a segment query straight from the database
+     * (server-side cursor, no entities), see {@link UserPreferencesExporter}.
+     *
+     * @param query    segments the users must all / any be in
+     * @param consumer receives each row as soon as it is read
+     * @return number of exported preferences
+     */
+    public long exportSegment(SegmentQuery query, Consumer<UserPreferencesResponse> consumer) {
+        log.debug("Exporting preferences of segment {}", query);
+
+        return preferencesExporter.export(query, consumer);
+    }
+
+    /**
+     * Number of active users accepting each channel and topic, from the segment bitmaps.
+     *
+     * @return the notification statistics
+     * @throws CacheException if Redis is unavailable
+     */
+    public NotificationStatisticsResponse getNotificationStatistics() {
+        if (!segmentIndex.isAvailable()) {
+            throw new CacheException("segment index unavailable");
+        }
+
+        try {
+            return NotificationStatisticsResponse.builder()
+                    .activeUsers(segmentIndex.count(SegmentQuery.allOf(Segment.ACTIVE)))
+                    .emailEnabled(segmentIndex.count(SegmentQuery.allOf(Segment.ACTIVE, Segment.EMAIL)))
+                    .pushEnabled(segmentIndex.count(SegmentQuery.allOf(Segment.ACTIVE, Segment.PUSH)))
+                    .smsEnabled(segmentIndex.count(SegmentQuery.allOf(Segment.ACTIVE, Segment.SMS)))
+                    .marketingEnabled(segmentIndex.count(SegmentQuery.allOf(Segment.ACTIVE, Segment.EMAIL, Segment.MARKETING)))
+                    .securityAlertsEnabled(segmentIndex.count(SegmentQuery.allOf(Segment.ACTIVE, Segment.SECURITY)))
+                    .build();
+        } catch (RedisUnavailableException ex) {
+            throw new CacheException("segment index unavailable", ex);
+        }
+    }
+
+    /**
+     * Resolves one page of a segment to user ids with the bitmaps, reading from the byte of the
+     * cursor on, and loads their preferences with {@link #getPreferencesByUserIds} (MGET, database
+     * only for cache misses). Falls back to the keyset database query while Redis is unavailable.
+     * <p>
+     * The ids are not cached: a cached page would keep listing users who just opted out. The
+     * resolved rows are checked against {@code channels} as well, so a row whose state is newer
+     * than the bitmaps (e.g. a pending write-behind update) is left out; such a page may hold
+     * fewer than {@code limit} rows.
+     */
+    private KeysetPage<UserPreferencesResponse> segmentPage(SegmentQuery query, String after, int limit,
+                                                           BiFunction<Long, Limit, List<Long>> databaseQuery,
+                                                           Predicate<UserPreferencesResponse> channels) {
+        return keysetPages.page(after, limit, (afterId, max) -> {
+            if (segmentIndex.isAvailable()) {
+                try {
+                    return segmentIndex.findIds(query, afterId, max);
+                } catch (RedisUnavailableException ex) {
+                    log.warn("Segment query {} failed, falling back to the database: {}", query, ex.getMessage());
+                }
+            }
+            return databaseQuery.apply(afterId, Limit.of(max));
+        }, userIds -> getPreferencesByUserIds(userIds).stream().filter(channels).toList());
     }
 
     /**
@@ -276,14 +642,29 @@ public class UserPreferencesService {
      * <p>
      * This is useful for cache invalidation when needed, such as during
      * administrative operations or testing.
+     * <p>
+     * The eviction runs before the method body so that, with
+     * {@code users-service.cache.warm-up.run-after-clear}, the warm-up started here
+     * refills an already empty cache. The all-preferences view, the segment index and the cached
+     * list pages are dropped as well and rebuilt on their next read.
      */
-    @CacheEvict(value = "user-preferences", allEntries = true)
+    @CacheEvict(value = {"user-preferences", KeysetPageCache.PAGES_CACHE}, allEntries = true, beforeInvocation = true)
     public void clearAllCache() {
         log.warn("Clearing entire user-preferences cache");
+        preferencesView.clear();
+        segmentIndex.clear();
+        if (warmUpAfterClear) {
+            cacheWarmer.start();
+        }
     }
 
     @Transactional(readOnly = true)
     public boolean hasPreferences(Long userId) {
         return preferencesRepository.existsByUserId(userId);
     }
+
+    @Override
+    public void destroy() {
+        databaseLoads.shutdownNow();
+    }
 }
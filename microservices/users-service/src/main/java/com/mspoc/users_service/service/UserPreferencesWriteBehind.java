@@ -0,0 +1,475 @@
+package com.mspoc.users_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind for preference updates ({@code users-service.cache.write-behind.enabled}).
+ * <p>
+ * An accepted update is appended to a Redis Stream (the replay log), becomes the cached value
+ * right away and is parked in a per-user map. Later updates of the same user replace the parked
+ * state, so a burst of toggles ends up as a single row write. A background flusher writes parked
+ * users with one batched {@code UPDATE} per round and then deletes their log entries.
+ * <p>
+ * Every instance logs to a stream of its own, {@code <prefix>write-behind:user-preferences:<instance>},
+ * registered in {@code <prefix>write-behind:user-preferences:streams} and kept alive by an owner key
+ * that the flusher refreshes. A stream whose owner key expired ({@code owner-ttl}, the instance
+ * crashed or was killed) is adopted by another instance under a {@code SET NX} claim: its entries
+ * are re-logged in the adopter's stream and parked there, last entry per user wins. Entries carry
+ * the full resulting state, so replaying them is idempotent. Durability is that of Redis (AOF),
+ * not of Postgres.
+ * <p>
+ * The {@code UPDATE} only applies over an older row ({@code updated_at <= } the state's
+ * {@code updatedAt}): a replayed state never overwrites a newer write made meanwhile, and its
+ * cache entry is evicted instead. A user stays parked, and its state keeps overlaying the reads,
+ * until the transaction that writes it has committed.
+ * <p>
+ * The map is bounded by {@code max-pending-users}; when it is full {@link #enqueue} refuses and
+ * the caller writes synchronously.
+ */
+@Component
+@Slf4j
+public class UserPreferencesWriteBehind implements DisposableBean {
+
+    private static final String UPDATE_SQL = """
+            UPDATE user_preferences
+            SET email_notifications_enabled = ?, push_notifications_enabled = ?, sms_notifications_enabled = ?,
+                marketing_emails_enabled = ?, security_alerts_enabled = ?, product_updates_enabled = ?,
+                notification_frequency = ?, quiet_hours_start = ?, quiet_hours_end = ?, timezone = ?,
+                updated_at = ?
+            WHERE user_id = ? AND updated_at <= ?
+            """;
+    private static final int REPLAY_CHUNK_SIZE = 1_000;
+    private static final String OWNED = "1";
+
+    private final UsersCacheProperties.WriteBehind settings;
+    private final StringRedisTemplate redisTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<CacheManager> cacheManager;
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final String instanceId = UUID.randomUUID().toString();
+    private final String logKeyPrefix;
+    private final String streamKey;
+    private final String streamsKey;
+    private volatile long ownerRefreshedAtMillis;
+    private volatile long adoptionCheckedAtMillis;
+
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("preferences-write-behind").daemon(true).factory());
+
+    private final Counter updates;
+    private final Counter rejected;
+    private final Counter rowsFlushed;
+    private final Counter flushFailures;
+    private final Counter superseded;
+    private final AtomicLong flushedUpdates = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final Timer flushLag;
+
+    public UserPreferencesWriteBehind(UsersCacheProperties cacheProperties,
+                                      StringRedisTemplate redisTemplate,
+                                      JdbcTemplate jdbcTemplate,
+                                      PlatformTransactionManager transactionManager,
+                                      ObjectProvider<CacheManager> cacheManager,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.settings = cacheProperties.getWriteBehind();
+        this.redisTemplate = redisTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cacheManager = cacheManager;
+        this.logKeyPrefix = cacheKeyPrefix + "write-behind:" + UserPreferencesService.PREFERENCES_CACHE;
+        this.streamKey = logKeyPrefix + ":" + instanceId;
+        this.streamsKey = logKeyPrefix + ":streams";
+
+        this.updates = Counter.builder("cache.write_behind.updates")
+                .description("Updates accepted by write-behind")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("cache.write_behind.rejected")
+                .description("Updates written synchronously because the pending map was full")
+                .register(meterRegistry);
+        this.rowsFlushed = Counter.builder("cache.write_behind.rows_flushed")
+                .description("Rows written by the flusher")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder("cache.write_behind.flush_failures")
+                .description("Flush rounds that failed and were retried")
+                .register(meterRegistry);
+        this.superseded = Counter.builder("cache.write_behind.superseded")
+                .description("Parked states not written because the row had been updated after them")
+                .register(meterRegistry);
+        this.flushLag = Timer.builder("cache.write_behind.flush_lag")
+                .description("Time from the first parked update of a user to its row being committed")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("cache.write_behind.pending", pending, Map::size)
+                .description("Users with updates not yet written to the database")
+                .register(meterRegistry);
+        Gauge.builder("cache.write_behind.coalescing_ratio", this, UserPreferencesWriteBehind::coalescingRatio)
+                .description("Updates per row written (1 = no coalescing)")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    /**
+     * Registers this instance's log, adopts the logs of instances that are gone and starts the flusher.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!settings.isEnabled()) {
+            return;
+        }
+
+        refreshOwner();
+        redisTemplate.opsForSet().add(streamsKey, instanceId);
+        adoptAbandonedLogs();
+        long intervalMillis = settings.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flushSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Preferences write-behind started (flush-interval={}, max-batch-size={}, max-pending-users={})",
+                settings.getFlushInterval(), settings.getMaxBatchSize(), settings.getMaxPendingUsers());
+    }
+
+    /**
+     * Parks the new state of a user's preferences for the flusher.
+     *
+     * @return {@code false} if the pending map is full; the caller must then write synchronously
+     */
+    public boolean enqueue(UserPreferencesResponse state) {
+        Long userId = state.getUserId();
+        if (!pending.containsKey(userId) && pending.size() >= settings.getMaxPendingUsers()) {
+            rejected.increment();
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        RecordId recordId = redisTemplate.opsForStream().add(MapRecord.create(streamKey, Map.of(
+                "userId", String.valueOf(userId),
+                "state", toJson(state))));
+        park(userId, new Pending(state, now, List.of(recordId), 1));
+        updates.increment();
+        return true;
+    }
+
+    /**
+     * The parked state of a user, if an update has not been flushed yet.
+     */
+    public UserPreferencesResponse pendingState(Long userId) {
+        Pending parked = pending.get(userId);
+        return parked != null ? parked.state() : null;
+    }
+
+    /**
+     * Drops the parked state of a user (the caller is about to write or delete the row itself).
+     */
+    public void discard(Long userId) {
+        Pending dropped = pending.remove(userId);
+        if (dropped != null) {
+            deleteLogEntries(List.of(dropped));
+        }
+    }
+
+    private double coalescingRatio() {
+        long rows = flushedRows.get();
+        return rows == 0 ? 0.0 : (double) flushedUpdates.get() / rows;
+    }
+
+    private void park(Long userId, Pending update) {
+        pending.merge(userId, update, Pending::followedBy);
+    }
+
+    private void flushSafely() {
+        try {
+            long now = System.currentTimeMillis();
+            if (now - ownerRefreshedAtMillis >= settings.getOwnerTtl().toMillis() / 3) {
+                refreshOwner();
+            }
+            if (now - adoptionCheckedAtMillis >= settings.getOwnerTtl().toMillis()) {
+                adoptAbandonedLogs();
+            }
+            while (flush() == settings.getMaxBatchSize()) {
+                // Keep going while full batches are waiting
+            }
+        } catch (Exception ex) {
+            log.error("Preferences write-behind flush failed, will retry", ex);
+        }
+    }
+
+    /**
+     * Writes up to {@code max-batch-size} parked users in one transaction. The users stay parked
+     * until it commits; a user updated meanwhile stays parked with the newer updates only.
+     *
+     * @return number of users written
+     */
+    int flush() {
+        List<Map.Entry<Long, Pending>> batch = snapshot(settings.getMaxBatchSize());
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        int[][] counts;
+        try {
+            counts = transactionTemplate.execute(status ->
+                    jdbcTemplate.batchUpdate(UPDATE_SQL, batch, batch.size(), (ps, entry) -> {
+                        UserPreferencesResponse state = entry.getValue().state();
+                        Timestamp updatedAt = Timestamp.valueOf(state.getUpdatedAt() != null ? state.getUpdatedAt() : LocalDateTime.now());
+                        ps.setBoolean(1, Boolean.TRUE.equals(state.getEmailNotificationsEnabled()));
+                        ps.setBoolean(2, Boolean.TRUE.equals(state.getPushNotificationsEnabled()));
+                        ps.setBoolean(3, Boolean.TRUE.equals(state.getSmsNotificationsEnabled()));
+                        ps.setBoolean(4, Boolean.TRUE.equals(state.getMarketingEmailsEnabled()));
+                        ps.setBoolean(5, Boolean.TRUE.equals(state.getSecurityAlertsEnabled()));
+                        ps.setBoolean(6, Boolean.TRUE.equals(state.getProductUpdatesEnabled()));
+                        ps.setString(7, state.getNotificationFrequency() != null ? state.getNotificationFrequency().name() : null);
+                        ps.setTime(8, state.getQuietHoursStart() != null ? Time.valueOf(state.getQuietHoursStart()) : null);
+                        ps.setTime(9, state.getQuietHoursEnd() != null ? Time.valueOf(state.getQuietHoursEnd()) : null);
+                        ps.setString(10, state.getTimezone());
+                        ps.setTimestamp(11, updatedAt);
+                        ps.setLong(12, entry.getKey());
+                        ps.setTimestamp(13, updatedAt);
+                    }));
+        } catch (RuntimeException ex) {
+            // Nothing was unparked, the next round retries the same users
+            flushFailures.increment();
+            throw ex;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Pending> written = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Long userId = batch.get(i).getKey();
+            Pending flushed = batch.get(i).getValue();
+            pending.computeIfPresent(userId, (id, current) -> current.without(flushed));
+            written.add(flushed);
+            flushLag.record(now - flushed.firstEnqueuedAtMillis(), TimeUnit.MILLISECONDS);
+            flushedUpdates.addAndGet(flushed.updates());
+            if (counts != null && updateCount(counts, i) == 0) {
+                // The row is newer than this state (or gone): the cache must not keep serving it
+                superseded.increment();
+                evictCached(userId);
+            }
+        }
+        flushedRows.addAndGet(written.size());
+        rowsFlushed.increment(written.size());
+        deleteLogEntries(written);
+
+        log.debug("Write-behind flushed {} users", written.size());
+        return written.size();
+    }
+
+    private List<Map.Entry<Long, Pending>> snapshot(int max) {
+        List<Map.Entry<Long, Pending>> batch = new ArrayList<>();
+        Iterator<Map.Entry<Long, Pending>> parked = pending.entrySet().iterator();
+        while (batch.size() < max && parked.hasNext()) {
+            Map.Entry<Long, Pending> entry = parked.next();
+            batch.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return batch;
+    }
+
+    private static int updateCount(int[][] counts, int index) {
+        int count = counts.length > 0 && index < counts[0].length ? counts[0][index] : Statement.SUCCESS_NO_INFO;
+        return count == Statement.SUCCESS_NO_INFO ? 1 : count;
+    }
+
+    private void evictCached(Long userId) {
+        CacheManager manager = cacheManager.getIfAvailable();
+        Cache cache = manager != null ? manager.getCache(UserPreferencesService.PREFERENCES_CACHE) : null;
+        if (cache != null) {
+            try {
+                cache.evict(userId);
+            } catch (RuntimeException ex) {
+                log.warn("Could not evict the superseded preferences of user {}: {}", userId, ex.getMessage());
+            }
+        }
+    }
+
+    private void deleteLogEntries(List<Pending> entries) {
+        RecordId[] recordIds = entries.stream()
+                .flatMap(entry -> entry.recordIds().stream())
+                .toArray(RecordId[]::new);
+        if (recordIds.length > 0) {
+            redisTemplate.opsForStream().delete(streamKey, recordIds);
+        }
+    }
+
+    private void refreshOwner() {
+        redisTemplate.opsForValue().set(ownerKey(instanceId), OWNED, settings.getOwnerTtl());
+        ownerRefreshedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Adopts the log of every registered instance whose owner key expired, plus the shared stream
+     * used before the logs were split per instance.
+     */
+    void adoptAbandonedLogs() {
+        adoptionCheckedAtMillis = System.currentTimeMillis();
+        Set<String> instances = redisTemplate.opsForSet().members(streamsKey);
+        if (instances != null) {
+            for (String owner : instances) {
+                if (!owner.equals(instanceId) && !Boolean.TRUE.equals(redisTemplate.hasKey(ownerKey(owner)))) {
+                    adopt(logKeyPrefix + ":" + owner, owner);
+                }
+            }
+        }
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(logKeyPrefix))) {
+            adopt(logKeyPrefix, null);
+        }
+    }
+
+    /**
+     * Re-logs the entries of an abandoned stream in this instance's stream, parks them and drops
+     * the abandoned stream. The claim keeps two instances from adopting the same log.
+     */
+    private void adopt(String abandonedStream, String owner) {
+        String claimKey = abandonedStream + ":claim";
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(claimKey, instanceId, settings.getOwnerTtl()))) {
+            return;
+        }
+
+        int replayed = 0;
+        Range<String> range = Range.unbounded();
+        List<MapRecord<String, Object, Object>> chunk;
+        do {
+            chunk = redisTemplate.opsForStream().range(abandonedStream, range, Limit.limit().count(REPLAY_CHUNK_SIZE));
+            if (chunk == null || chunk.isEmpty()) {
+                break;
+            }
+
+            for (MapRecord<String, Object, Object> record : chunk) {
+                String json = String.valueOf(record.getValue().get("state"));
+                UserPreferencesResponse state = fromJson(json);
+                if (state != null) {
+                    RecordId recordId = redisTemplate.opsForStream().add(MapRecord.create(streamKey, Map.of(
+                            "userId", String.valueOf(state.getUserId()),
+                            "state", json)));
+                    park(state.getUserId(), new Pending(state, record.getId().getTimestamp(), List.of(recordId), 1));
+                    replayed++;
+                }
+            }
+            range = Range.rightUnbounded(Range.Bound.exclusive(chunk.get(chunk.size() - 1).getId().getValue()));
+        } while (chunk.size() == REPLAY_CHUNK_SIZE);
+
+        redisTemplate.delete(abandonedStream);
+        if (owner != null) {
+            redisTemplate.opsForSet().remove(streamsKey, owner);
+        }
+        if (replayed > 0) {
+            log.warn("Adopted {} unflushed preference updates from {}", replayed, abandonedStream);
+        }
+    }
+
+    private String ownerKey(String owner) {
+        return logKeyPrefix + ":owner:" + owner;
+    }
+
+    private String toJson(UserPreferencesResponse state) {
+        try {
+            return objectMapper.writeValueAsString(state);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Could not serialize preferences of user " + state.getUserId(), ex);
+        }
+    }
+
+    private UserPreferencesResponse fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, UserPreferencesResponse.class);
+        } catch (JsonProcessingException ex) {
+            log.error("Skipping unreadable write-behind log entry: {}", json, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        if (!settings.isEnabled()) {
+            return;
+        }
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+            flushSafely();
+            if (pending.isEmpty()) {
+                // Nothing left to adopt: unregister instead of waiting for the owner key to expire
+                redisTemplate.delete(List.of(streamKey, ownerKey(instanceId)));
+                redisTemplate.opsForSet().remove(streamsKey, instanceId);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.warn("Could not unregister the write-behind log {}: {}", streamKey, ex.getMessage());
+        }
+    }
+
+    /**
+     * Parked state of one user: the latest state, when the oldest unflushed update arrived, the
+     * log entries it covers and how many updates were coalesced into it.
+     */
+    private record Pending(UserPreferencesResponse state, long firstEnqueuedAtMillis, List<RecordId> recordIds, int updates) {
+
+        Pending followedBy(Pending newer) {
+            List<RecordId> ids = new ArrayList<>(recordIds);
+            ids.addAll(newer.recordIds());
+            return new Pending(newer.state(), Math.min(firstEnqueuedAtMillis, newer.firstEnqueuedAtMillis()),
+                    ids, updates + newer.updates());
+        }
+
+        /**
+         * What is left parked once {@code flushed} (this one or an earlier version of it) is
+         * written: nothing, or the updates that arrived after it.
+         */
+        Pending without(Pending flushed) {
+            if (this == flushed) {
+                return null;
+            }
+            List<RecordId> newer = recordIds.stream()
+                    .filter(recordId -> !flushed.recordIds().contains(recordId))
+                    .toList();
+            // The newer updates have waited since before the flush: keep the original enqueue time
+            return newer.isEmpty() ? null
+                    : new Pending(state, firstEnqueuedAtMillis, newer, newer.size());
+        }
+    }
+}
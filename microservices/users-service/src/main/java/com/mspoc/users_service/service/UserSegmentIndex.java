@@ -0,0 +1,615 @@
+package com.mspoc.users_service.service;
+
+import com.mspoc.users_service.cache.RedisCircuitBreaker;
+import com.mspoc.users_service.cache.RedisUnavailableException;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Redis bitmaps indexed by user id, one per segment ({@code <prefix>segment:<name>}): the bit of a
+ * user is set when the user is active, or has the channel / topic enabled in its preferences.
+ * <p>
+ * Preference and user writes update the bits after their transaction commits. Segment queries
+ * combine bitmaps with {@code BITOP} ({@code all} segments AND-ed, {@code any} segments OR-ed)
+ * inside one Lua script, so a count is a single round trip answered with {@code BITCOUNT}; ids
+ * are streamed by reading the combined bitmap in chunks with {@code GETRANGE}.
+ * <p>
+ * The index is rebuilt from the database when its {@code __built} marker is missing (first
+ * query after a flush). One instance rebuilds at a time: the
+ * {@code __building} marker is a {@code SET NX PX} lock holding the builder's token, and the
+ * builder checks the {@code __built} marker again once it holds it. Other callers wait briefly for
+ * the index and otherwise fail with {@link RedisUnavailableException} (callers fall back to the
+ * database). The rebuild fills staging keys from the database and renames them over the live ones.
+ * Bit writes made meanwhile go to the live keys and to a journal; the journal is replayed onto the
+ * staging keys in the same script that renames them, so a write is never undone by the (older)
+ * database snapshot of the rebuild.
+ * <p>
+ * Every Redis call goes through the {@link RedisCircuitBreaker}. A bit write that fails (Redis
+ * unavailable) leaves the index stale until the next rebuild, e.g. after {@code DELETE /preferences/cache}.
+ */
+@Component
+@Slf4j
+public class UserSegmentIndex {
+
+    /**
+     * Segments kept as bitmaps. The name is the key suffix and the query parameter value.
+     */
+    public enum Segment {
+        ACTIVE, EMAIL, PUSH, SMS, MARKETING, SECURITY;
+
+        static final Set<Segment> PREFERENCE_SEGMENTS = EnumSet.of(EMAIL, PUSH, SMS, MARKETING, SECURITY);
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Segment fromKey(String key) {
+            try {
+                return valueOf(key.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown segment '" + key + "', expected one of "
+                        + Arrays.stream(values()).map(Segment::key).toList());
+            }
+        }
+    }
+
+    /**
+     * Users in every segment of {@code all} and, if {@code any} is not empty, in at least one of {@code any}.
+     */
+    public record SegmentQuery(Set<Segment> all, Set<Segment> any) {
+
+        public SegmentQuery {
+            all = all.isEmpty() ? EnumSet.noneOf(Segment.class) : EnumSet.copyOf(all);
+            any = any.isEmpty() ? EnumSet.noneOf(Segment.class) : EnumSet.copyOf(any);
+            if (all.isEmpty() && any.isEmpty()) {
+                throw new IllegalArgumentException("A segment query needs at least one segment");
+            }
+        }
+
+        public static SegmentQuery allOf(Segment... segments) {
+            return new SegmentQuery(EnumSet.copyOf(List.of(segments)), Set.of());
+        }
+    }
+
+    private static final String REBUILD_SQL = """
+            SELECT u.id, u.active, p.email_notifications_enabled, p.push_notifications_enabled,
+                   p.sms_notifications_enabled, p.marketing_emails_enabled, p.security_alerts_enabled
+            FROM users u
+            LEFT JOIN user_preferences p ON p.user_id = u.id
+            WHERE u.id > ?
+            ORDER BY u.id
+            LIMIT ?
+            """;
+    private static final int REBUILD_CHUNK_SIZE = 5_000;
+    private static final int REBUILD_PIPELINE_ROWS = 1_000;
+    private static final int READ_CHUNK_BYTES = 64 * 1024;
+    private static final long MAX_OFFSET = (1L << 32) - 1;
+    private static final Duration BUILDING_TTL = Duration.ofMinutes(2);
+    private static final Duration REBUILD_WAIT = Duration.ofSeconds(2);
+    private static final Duration REBUILD_POLL_INTERVAL = Duration.ofMillis(100);
+    private static final Duration RESULT_TTL = Duration.ofMinutes(1);
+
+    /**
+     * KEYS: the live bitmaps, then their staging twins, then the building marker and the journal.
+     * ARGV: the bit offset, then one 0/1 value per live bitmap.
+     * While a rebuild is running the write is also journaled (staging key, offset, value).
+     */
+    private static final byte[] SET_BITS = """
+            local n = #ARGV - 1
+            local building = redis.call('exists', KEYS[2 * n + 1]) == 1
+            for i = 1, n do
+                redis.call('setbit', KEYS[i], ARGV[1], ARGV[i + 1])
+                if building then
+                    redis.call('rpush', KEYS[2 * n + 2], KEYS[n + i], ARGV[1], ARGV[i + 1])
+                end
+            end
+            return n
+            """.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * KEYS: the building marker, the journal, the built marker, then the staging bitmaps and their
+     * live twins. ARGV[1]: the builder's token. Replays the journal onto the staging bitmaps and
+     * renames them over the live ones, unless the lock was lost.
+     */
+    private static final byte[] PUBLISH_REBUILD = """
+            if redis.call('get', KEYS[1]) ~= ARGV[1] then
+                return 0
+            end
+            local journal = redis.call('lrange', KEYS[2], 0, -1)
+            for i = 1, #journal, 3 do
+                redis.call('setbit', journal[i], journal[i + 1], journal[i + 2])
+            end
+            local n = (#KEYS - 3) / 2
+            for i = 1, n do
+                if redis.call('exists', KEYS[3 + i]) == 1 then
+                    redis.call('rename', KEYS[3 + i], KEYS[3 + n + i])
+                else
+                    redis.call('del', KEYS[3 + n + i])
+                end
+            end
+            redis.call('set', KEYS[3], '1')
+            redis.call('del', KEYS[1], KEYS[2])
+            return 1
+            """.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * KEYS[1]: the building marker, ARGV[1]: the builder's token, ARGV[2]: new expiry in ms
+     * (0 releases the lock and drops the journal, KEYS[2]).
+     */
+    private static final byte[] EXTEND_OR_RELEASE = """
+            if redis.call('get', KEYS[1]) ~= ARGV[1] then
+                return 0
+            end
+            if ARGV[2] == '0' then
+                redis.call('del', KEYS[1], KEYS[2])
+            else
+                redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return 1
+            """.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * KEYS[1]: destination, KEYS[2]: scratch key for the OR, then the {@code all} and {@code any} bitmaps.
+     * ARGV: number of {@code all} bitmaps, number of {@code any} bitmaps, 1 to return BITCOUNT and
+     * delete the destination, 0 to keep it (expiring after ARGV[4] seconds) and return its length.
+     */
+    private static final byte[] COMBINE = """
+            local allCount = tonumber(ARGV[1])
+            local anyCount = tonumber(ARGV[2])
+            local sources = {}
+            for i = 1, allCount do
+                sources[#sources + 1] = KEYS[2 + i]
+            end
+            if anyCount > 0 then
+                local anyKeys = {}
+                for i = 1, anyCount do
+                    anyKeys[i] = KEYS[2 + allCount + i]
+                end
+                redis.call('bitop', 'or', KEYS[2], unpack(anyKeys))
+                sources[#sources + 1] = KEYS[2]
+            end
+            redis.call('bitop', 'and', KEYS[1], unpack(sources))
+            redis.call('del', KEYS[2])
+            if ARGV[3] == '1' then
+                local count = redis.call('bitcount', KEYS[1])
+                redis.call('del', KEYS[1])
+                return count
+            end
+            redis.call('expire', KEYS[1], ARGV[4])
+            return redis.call('strlen', KEYS[1])
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private final RedisConnectionFactory connectionFactory;
+    private final JdbcTemplate jdbcTemplate;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final String keyPrefix;
+    private final Map<Segment, byte[]> liveKeys = new EnumMap<>(Segment.class);
+    private final Map<Segment, byte[]> stagingKeys = new EnumMap<>(Segment.class);
+    private final byte[] builtMarker;
+    private final byte[] buildingMarker;
+    private final byte[] journalKey;
+
+    public UserSegmentIndex(RedisConnectionFactory connectionFactory,
+                            JdbcTemplate jdbcTemplate,
+                            RedisCircuitBreaker circuitBreaker,
+                            @Value("${spring.cache.redis.key-prefix}") String cacheKeyPrefix) {
+        this.connectionFactory = connectionFactory;
+        this.jdbcTemplate = jdbcTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.keyPrefix = cacheKeyPrefix + "segment:";
+        for (Segment segment : Segment.values()) {
+            liveKeys.put(segment, bytes(keyPrefix + segment.key()));
+            stagingKeys.put(segment, bytes(keyPrefix + segment.key() + ":rebuild"));
+        }
+        this.builtMarker = bytes(keyPrefix + "__built");
+        this.buildingMarker = bytes(keyPrefix + "__building");
+        this.journalKey = bytes(keyPrefix + "__journal");
+    }
+
+    /**
+     * Sets the preference bits of a user, after the current transaction commits.
+     */
+    public void updatePreferences(UserPreferencesResponse preferences) {
+        Map<Segment, Boolean> bits = new EnumMap<>(Segment.class);
+        bits.put(Segment.EMAIL, Boolean.TRUE.equals(preferences.getEmailNotificationsEnabled()));
+        bits.put(Segment.PUSH, Boolean.TRUE.equals(preferences.getPushNotificationsEnabled()));
+        bits.put(Segment.SMS, Boolean.TRUE.equals(preferences.getSmsNotificationsEnabled()));
+        bits.put(Segment.MARKETING, Boolean.TRUE.equals(preferences.getMarketingEmailsEnabled()));
+        bits.put(Segment.SECURITY, Boolean.TRUE.equals(preferences.getSecurityAlertsEnabled()));
+        afterCommit(() -> setBits(preferences.getUserId(), bits));
+    }
+
+    /**
+     * Clears the preference bits of a user, after the current transaction commits.
+     */
+    public void removePreferences(Long userId) {
+        Map<Segment, Boolean> bits = new EnumMap<>(Segment.class);
+        Segment.PREFERENCE_SEGMENTS.forEach(segment -> bits.put(segment, false));
+        afterCommit(() -> setBits(userId, bits));
+    }
+
+    /**
+     * Sets the {@code active} bit of a user, after the current transaction commits.
+     */
+    public void updateUser(Long userId, boolean active) {
+        afterCommit(() -> setBits(userId, Map.of(Segment.ACTIVE, active)));
+    }
+
+    /**
+     * Clears every bit of a deleted user, after the current transaction commits.
+     */
+    public void removeUser(Long userId) {
+        Map<Segment, Boolean> bits = new EnumMap<>(Segment.class);
+        for (Segment segment : Segment.values()) {
+            bits.put(segment, false);
+        }
+        afterCommit(() -> setBits(userId, bits));
+    }
+
+    /**
+     * Number of users matching the query.
+     *
+     * @throws RedisUnavailableException if Redis is unavailable or the index is being rebuilt elsewhere
+     */
+    public long count(SegmentQuery query) {
+        ensureBuilt();
+
+        if (query.any().isEmpty() && query.all().size() == 1) {
+            Long count = redis(connection -> connection.stringCommands().bitCount(liveKeys.get(query.all().iterator().next())));
+            return count != null ? count : 0L;
+        }
+        Long count = combine(query, bytes(keyPrefix + "tmp:" + UUID.randomUUID()), true);
+        return count != null ? count : 0L;
+    }
+
+    /**
+     * Passes the id of every user matching the query to {@code consumer}, in ascending order.
+     * The combined bitmap is read in {@value #READ_CHUNK_BYTES}-byte chunks, so memory use does
+     * not grow with the size of the segment.
+     */
+    public void forEachId(SegmentQuery query, LongConsumer consumer) {
+        scan(query, 0, id -> {
+            consumer.accept(id);
+            return true;
+        });
+    }
+
+    public List<Long> findIds(SegmentQuery query) {
+        List<Long> ids = new ArrayList<>();
+        forEachId(query, ids::add);
+        return ids;
+    }
+
+    /**
+     * Up to {@code limit} ids of users matching the query, greater than {@code afterId}, in
+     * ascending order (one keyset page). Reading starts at the byte holding {@code afterId + 1}.
+     */
+    public List<Long> findIds(SegmentQuery query, long afterId, int limit) {
+        List<Long> ids = new ArrayList<>(limit);
+        if (limit > 0) {
+            scan(query, afterId + 1, id -> {
+                ids.add(id);
+                return ids.size() < limit;
+            });
+        }
+        return ids;
+    }
+
+    /**
+     * Passes the ids from {@code fromId} on to {@code consumer} until it returns {@code false}.
+     */
+    private void scan(SegmentQuery query, long fromId, LongPredicate consumer) {
+        ensureBuilt();
+
+        byte[] resultKey = bytes(keyPrefix + "tmp:" + UUID.randomUUID());
+        Long length = combine(query, resultKey, false);
+        try {
+            for (long start = fromId / 8; length != null && start < length; start += READ_CHUNK_BYTES) {
+                long from = start;
+                byte[] chunk = redis(connection -> connection.stringCommands().getRange(resultKey, from, from + READ_CHUNK_BYTES - 1));
+                if (chunk == null) {
+                    break;
+                }
+                for (int i = 0; i < chunk.length; i++) {
+                    int bits = chunk[i] & 0xFF;
+                    while (bits != 0) {
+                        // Redis numbers bits from the most significant bit of each byte
+                        int bit = Integer.numberOfLeadingZeros(bits) - 24;
+                        bits &= ~(0x80 >>> bit);
+                        long id = (start + i) * 8 + bit;
+                        if (id >= fromId && !consumer.test(id)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        } finally {
+            try {
+                redis(connection -> connection.keyCommands().del(resultKey));
+            } catch (RedisUnavailableException ex) {
+                log.debug("Segment result {} left to expire: {}", new String(resultKey, StandardCharsets.UTF_8), ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drops the index; the next query rebuilds it.
+     */
+    public void clear() {
+        try {
+            redis(connection -> connection.keyCommands().del(builtMarker));
+        } catch (RedisUnavailableException ex) {
+            log.warn("Could not drop the user segment index: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Whether queries can be answered from Redis right now (the circuit breaker is closed).
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    public boolean isBuilt() {
+        return Boolean.TRUE.equals(redis(connection -> connection.keyCommands().exists(builtMarker)));
+    }
+
+    /**
+     * Rebuilds the index if it is missing. If another instance is already rebuilding it, waits up
+     * to {@code REBUILD_WAIT} for it before giving up.
+     */
+    private void ensureBuilt() {
+        if (isBuilt()) {
+            return;
+        }
+        long deadline = System.nanoTime() + REBUILD_WAIT.toNanos();
+        while (!rebuild()) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new RedisUnavailableException("User segment index is being rebuilt");
+            }
+            try {
+                Thread.sleep(REBUILD_POLL_INTERVAL);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RedisUnavailableException("Interrupted while waiting for the segment index", ex);
+            }
+            if (isBuilt()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads every user with its preference flags in id order and sets the bits of the staging
+     * bitmaps, then replays the journal onto them and renames them over the live ones.
+     *
+     * @return {@code false} if another instance holds the rebuild lock; {@code true} once the
+     * index is built (by this call, or already before the lock was taken)
+     */
+    public boolean rebuild() {
+        String token = UUID.randomUUID().toString();
+        Boolean acquired = redis(connection -> connection.stringCommands().set(buildingMarker, bytes(token),
+                Expiration.from(BUILDING_TTL), RedisStringCommands.SetOption.ifAbsent()));
+        if (!Boolean.TRUE.equals(acquired)) {
+            return false;
+        }
+
+        boolean published = false;
+        try {
+            if (isBuilt()) {
+                // Rebuilt by whoever held the lock before us
+                return true;
+            }
+
+            log.info("Rebuilding user segment index");
+            byte[][] stale = new byte[stagingKeys.size() + 1][];
+            stagingKeys.values().toArray(stale);
+            stale[stale.length - 1] = journalKey;
+            redis(connection -> connection.keyCommands().del(stale));
+
+            long lastId = 0L;
+            int total = 0;
+            List<SegmentRow> chunk;
+            do {
+                chunk = jdbcTemplate.query(REBUILD_SQL, (rs, rowNum) -> new SegmentRow(
+                        rs.getLong("id"),
+                        rs.getBoolean("active"),
+                        rs.getBoolean("email_notifications_enabled"),
+                        rs.getBoolean("push_notifications_enabled"),
+                        rs.getBoolean("sms_notifications_enabled"),
+                        rs.getBoolean("marketing_emails_enabled"),
+                        rs.getBoolean("security_alerts_enabled")), lastId, REBUILD_CHUNK_SIZE);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+
+                for (int from = 0; from < chunk.size(); from += REBUILD_PIPELINE_ROWS) {
+                    List<SegmentRow> rows = chunk.subList(from, Math.min(from + REBUILD_PIPELINE_ROWS, chunk.size()));
+                    redis(connection -> {
+                        connection.openPipeline();
+                        for (SegmentRow row : rows) {
+                            if (row.userId() > MAX_OFFSET) {
+                                continue;
+                            }
+                            for (Segment segment : row.segments()) {
+                                connection.stringCommands().setBit(stagingKeys.get(segment), row.userId(), true);
+                            }
+                        }
+                        return connection.closePipeline();
+                    });
+                }
+                if (!extendOrRelease(token, BUILDING_TTL)) {
+                    throw new RedisUnavailableException("Lost the segment index rebuild lock");
+                }
+
+                lastId = chunk.get(chunk.size() - 1).userId();
+                total += chunk.size();
+            } while (chunk.size() == REBUILD_CHUNK_SIZE);
+
+            List<byte[]> keysAndArgs = new ArrayList<>();
+            keysAndArgs.add(buildingMarker);
+            keysAndArgs.add(journalKey);
+            keysAndArgs.add(builtMarker);
+            for (Segment segment : Segment.values()) {
+                keysAndArgs.add(stagingKeys.get(segment));
+            }
+            for (Segment segment : Segment.values()) {
+                keysAndArgs.add(liveKeys.get(segment));
+            }
+            int keyCount = keysAndArgs.size();
+            keysAndArgs.add(bytes(token));
+            Long result = redis(connection -> connection.scriptingCommands().eval(PUBLISH_REBUILD, ReturnType.INTEGER,
+                    keyCount, keysAndArgs.toArray(byte[][]::new)));
+            if (!Long.valueOf(1L).equals(result)) {
+                throw new RedisUnavailableException("Lost the segment index rebuild lock before publishing");
+            }
+            published = true;
+            log.info("User segment index rebuilt from {} users", total);
+            return true;
+        } finally {
+            if (!published) {
+                try {
+                    extendOrRelease(token, Duration.ZERO);
+                } catch (RedisUnavailableException ex) {
+                    log.warn("Could not release the segment index rebuild lock, it expires in {}: {}", BUILDING_TTL, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Extends the rebuild lock, or releases it (and drops the journal) with a zero expiry,
+     * if this token still holds it.
+     */
+    private boolean extendOrRelease(String token, Duration expiry) {
+        Long result = redis(connection -> connection.scriptingCommands().eval(EXTEND_OR_RELEASE, ReturnType.INTEGER, 2,
+                buildingMarker, journalKey, bytes(token), bytes(String.valueOf(expiry.toMillis()))));
+        return Long.valueOf(1L).equals(result);
+    }
+
+    private void setBits(Long userId, Map<Segment, Boolean> bits) {
+        if (userId == null || userId < 0 || userId > MAX_OFFSET) {
+            log.warn("User ID {} cannot be indexed as a bitmap offset", userId);
+            return;
+        }
+
+        List<Segment> segments = new ArrayList<>(bits.keySet());
+        byte[][] keysAndArgs = new byte[segments.size() * 2 + 2 + 1 + segments.size()][];
+        int i = 0;
+        for (Segment segment : segments) {
+            keysAndArgs[i++] = liveKeys.get(segment);
+        }
+        for (Segment segment : segments) {
+            keysAndArgs[i++] = stagingKeys.get(segment);
+        }
+        keysAndArgs[i++] = buildingMarker;
+        keysAndArgs[i++] = journalKey;
+        keysAndArgs[i++] = bytes(String.valueOf(userId));
+        for (Segment segment : segments) {
+            keysAndArgs[i++] = bytes(bits.get(segment) ? "1" : "0");
+        }
+
+        try {
+            redis(connection -> connection.scriptingCommands().eval(SET_BITS, ReturnType.INTEGER,
+                    segments.size() * 2 + 2, keysAndArgs));
+        } catch (RedisUnavailableException ex) {
+            log.warn("Could not update segment bits of user ID {}: {}", userId, ex.getMessage());
+        }
+    }
+
+    private Long combine(SegmentQuery query, byte[] resultKey, boolean countOnly) {
+        List<byte[]> keysAndArgs = new ArrayList<>();
+        keysAndArgs.add(resultKey);
+        keysAndArgs.add(bytes(new String(resultKey, StandardCharsets.UTF_8) + ":any"));
+        query.all().forEach(segment -> keysAndArgs.add(liveKeys.get(segment)));
+        query.any().forEach(segment -> keysAndArgs.add(liveKeys.get(segment)));
+        int keyCount = keysAndArgs.size();
+        keysAndArgs.add(bytes(String.valueOf(query.all().size())));
+        keysAndArgs.add(bytes(String.valueOf(query.any().size())));
+        keysAndArgs.add(bytes(countOnly ? "1" : "0"));
+        keysAndArgs.add(bytes(String.valueOf(RESULT_TTL.toSeconds())));
+
+        return redis(connection -> connection.scriptingCommands().eval(COMBINE, ReturnType.INTEGER, keyCount,
+                keysAndArgs.toArray(byte[][]::new)));
+    }
+
+    /**
+     * Runs one Redis call on its own connection, time-boxed by the circuit breaker.
+     *
+     * @throws RedisUnavailableException if the breaker refused the call, or it failed or timed out
+     */
+    private <T> T redis(Function<RedisConnection, T> call) {
+        return circuitBreaker.execute(() -> {
+            try (RedisConnection connection = connectionFactory.getConnection()) {
+                return call.apply(connection);
+            }
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * One user of the rebuild query. Preference flags are {@code false} for users without preferences.
+     */
+    private record SegmentRow(long userId, boolean active, boolean email, boolean push, boolean sms,
+                              boolean marketing, boolean security) {
+
+        Collection<Segment> segments() {
+            EnumSet<Segment> segments = EnumSet.noneOf(Segment.class);
+            addIf(segments, active, Segment.ACTIVE);
+            addIf(segments, email, Segment.EMAIL);
+            addIf(segments, push, Segment.PUSH);
+            addIf(segments, sms, Segment.SMS);
+            addIf(segments, marketing, Segment.MARKETING);
+            addIf(segments, security, Segment.SECURITY);
+            return segments;
+        }
+
+        private static void addIf(Set<Segment> segments, boolean flag, Segment segment) {
+            if (flag) {
+                segments.add(segment);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.mspoc.users_service.service;
 
+import com.mspoc.users_service.cache.RedisCacheBulkOperations;
+import com.mspoc.users_service.cache.RedisUnavailableException;
+import com.mspoc.users_service.datasource.ReadFromPrimary;
 import com.mspoc.users_service.dto.request.CreateUserRequest;
 import com.mspoc.users_service.dto.request.UpdateUserRequest;
+import com.mspoc.users_service.dto.response.KeysetPage;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
 import com.mspoc.users_service.dto.response.UserResponse;
 import com.mspoc.users_service.dto.response.UserWithPreferencesResponse;
 import com.mspoc.users_service.entity.User;
@@ -9,18 +14,45 @@ import com.mspoc.users_service.exception.ResourceAlreadyExistsException;
 import com.mspoc.users_service.exception.ResourceNotFoundException;
 import com.mspoc.users_service.mapper.UserMapper;
 import com.mspoc.users_service.repository.UserRepository;
+import com.mspoc.users_service.repository.UserSummary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.InputStream;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Servicio para gestión de usuarios.
  * <p>
  * Implementa la lógica de negocio para operaciones CRUD de usuarios.
- * Los usuarios no se cachean directamente, solo sus preferencias.
+ * Las lecturas de un usuario se sirven desde caché: por ID desde {@value #USER_PROFILES_CACHE}, por
+ * email a través del índice email → ID {@value #USER_EMAILS_CACHE}, y con sus preferencias desde
+ * {@value #USER_DETAILS_CACHE}. Los listados y la búsqueda por nombre resuelven sus usuarios a través
+ * de {@value #USER_PROFILES_CACHE} (un MGET, la base de datos solo para los que faltan).
+ * Estas lecturas son transacciones de solo lectura, pero con réplicas leen de la base de datos
+ * principal ({@code @Cacheable} o {@link ReadFromPrimary}): una fila leída de una réplica atrasada
+ * quedaría cacheada durante todo el TTL.
+ * <p>
+ * Las escrituras del usuario eliminan sus entradas tras el commit. Las entradas derivadas las
+ * invalida el grafo de dependencias de la caché ({@code depends-on}): el perfil depende de las
+ * preferencias ({@code hasPreferences}) y el detalle del perfil y de las preferencias, así que ningún
+ * método las elimina a mano. Las búsquedas sin resultado dejan un tombstone de corta duración en
+ * Redis (caché negativa) para no consultar la base de datos en cada reintento.
  *
  * @author Luis Balarezo
  */
@@ -29,12 +61,36 @@ public class UserService {
 
     public static final Logger log = LoggerFactory.getLogger(UserService.class);
 
+    public static final String USER_PROFILES_CACHE = "user-profiles";
+    public static final String USER_EMAILS_CACHE = "user-emails";
+    public static final String USER_DETAILS_CACHE = "user-details";
+
     private final UserRepository userRepository;
     private final UserMapper userMapper;
-
-    public UserService(UserRepository userRepository, UserMapper userMapper) {
+    private final UserSegmentIndex segmentIndex;
+    private final KeysetPageCache keysetPages;
+    private final UserNameSearchIndex nameIndex;
+    private final RedisCacheBulkOperations cacheBulkOperations;
+    private final CacheManager cacheManager;
+    private final UserBulkImporter bulkImporter;
+    private final UserPreferencesWriteBehind writeBehind;
+    private final UserPreferencesHashView preferencesView;
+
+    public UserService(UserRepository userRepository, UserMapper userMapper, UserSegmentIndex segmentIndex,
+                       KeysetPageCache keysetPages, UserNameSearchIndex nameIndex,
+                       RedisCacheBulkOperations cacheBulkOperations, CacheManager cacheManager,
+                       UserBulkImporter bulkImporter, UserPreferencesWriteBehind writeBehind,
+                       UserPreferencesHashView preferencesView) {
         this.userRepository = userRepository;
         this.userMapper = userMapper;
+        this.segmentIndex = segmentIndex;
+        this.keysetPages = keysetPages;
+        this.nameIndex = nameIndex;
+        this.cacheBulkOperations = cacheBulkOperations;
+        this.cacheManager = cacheManager;
+        this.bulkImporter = bulkImporter;
+        this.writeBehind = writeBehind;
+        this.preferencesView = preferencesView;
     }
 
     /**
@@ -55,111 +111,161 @@ public class UserService {
 
         User user = userMapper.toEntity(request);
         User savedUser = userRepository.save(user);
+        UserResponse response = userMapper.toResponse(savedUser);
+
+        // Write-through tras el commit; el put también descarta las búsquedas fallidas recordadas
+        putAfterCommit(USER_PROFILES_CACHE, savedUser.getId(), response);
+        putAfterCommit(USER_EMAILS_CACHE, savedUser.getEmail(), savedUser.getId());
+        segmentIndex.updateUser(savedUser.getId(), Boolean.TRUE.equals(savedUser.getActive()));
+        nameIndex.updateUser(savedUser.getId(), savedUser.getFirstName(), savedUser.getLastName());
 
         log.info("User created successfully with ID: {}", savedUser.getId());
-        return userMapper.toResponse(savedUser);
+        return response;
     }
 
     /**
-     * Obtiene un usuario por ID.
+     * Importa usuarios con sus preferencias desde un flujo NDJSON o CSV, por bloques de
+     * {@value UserBulkImporter#CHUNK_SIZE} filas (ver {@link UserBulkImporter}).
+     * Cada bloque se confirma en su propia transacción.
+     *
+     * @param input  Contenido a importar, leído fila a fila
+     * @param format Formato del contenido
+     * @return Resumen de la importación
+     * @throws IllegalArgumentException Si el contenido está mal formado (los bloques anteriores quedan importados)
+     */
+    public UserBulkImporter.Status importUsers(InputStream input, UserBulkImporter.Format format) {
+        log.info("Importing users from {}", format);
+
+        return bulkImporter.importUsers(input, format);
+    }
+
+    /**
+     * Obtiene un usuario por ID, desde la caché {@value #USER_PROFILES_CACHE}.
+     * Si el ID tiene un tombstone vigente, responde "no encontrado" sin consultar la base de datos.
      *
      * @param id ID del usuario
      * @return Usuario encontrado
      * @throws ResourceNotFoundException Si no existe el usuario
      */
     @Transactional(readOnly = true)
+    @Cacheable(cacheNames = USER_PROFILES_CACHE, key = "#id", sync = true)
     public UserResponse getUserById(Long id) {
         log.debug("Fetching user with ID: {}", id);
 
-        User user = userRepository.findById(id)
-                .orElseThrow(() -> new ResourceNotFoundException("User", "id", id));
-
-        return userMapper.toResponse(user);
+        return loadProfile(id);
     }
 
     /**
-     * Obtiene un usuario por ID con sus preferencias cargadas.
-     * Usa FETCH JOIN para evitar N+1.
+     * Obtiene un usuario por ID con sus preferencias, desde la caché {@value #USER_DETAILS_CACHE}.
+     * Se carga con FETCH JOIN para evitar N+1. La entrada se invalida sola cuando cambia el perfil
+     * o las preferencias del usuario ({@code depends-on}).
+     * <p>
+     * Con write-behind, las preferencias aún no escritas en la base de datos son más nuevas que la
+     * fila y se devuelven en su lugar, como en {@link UserPreferencesService#getPreferencesByUserIds}:
+     * la escritura diferida no vuelve a invalidar esta entrada.
      *
      * @param id ID del usuario
      * @return Usuario con preferencias
      * @throws ResourceNotFoundException Si no existe el usuario
      */
     @Transactional(readOnly = true)
+    @Cacheable(cacheNames = USER_DETAILS_CACHE, key = "#id", sync = true)
     public UserWithPreferencesResponse getUserWithPreferences(Long id) {
         log.debug("Fetching user with preferences, ID: {}", id);
 
         User user = userRepository.findByIdWithPreferences(id)
                 .orElseThrow(() -> new ResourceNotFoundException("User", "id", id));
 
-        UserWithPreferencesResponse userWithPreferencesResponse = userMapper.toResponseWithPreferences(user);
-        return userWithPreferencesResponse;
+        UserWithPreferencesResponse response = userMapper.toResponseWithPreferences(user);
+        UserPreferencesResponse pending = writeBehind.pendingState(id);
+        if (pending != null) {
+            response.setPreferences(pending);
+        }
+        return response;
     }
 
     /**
-     * Obtiene un usuario por email.
+     * Obtiene un usuario por email: el ID sale del índice {@value #USER_EMAILS_CACHE} y el usuario de
+     * {@value #USER_PROFILES_CACHE}, la misma entrada que sirve la búsqueda por ID.
+     * Si el email tiene un tombstone vigente, responde "no encontrado" sin consultar la base de datos.
      *
      * @param email Email del usuario
      * @return Usuario encontrado
      * @throws ResourceNotFoundException Si no existe el usuario
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
     public UserResponse getUserByEmail(String email) {
         log.debug("Fetching user with email: {}", email);
 
-        User user = userRepository.findByEmail(email)
+        Long id = cached(USER_EMAILS_CACHE, email, () -> userRepository.findIdByEmail(email)
                 .orElseThrow(() -> {
                     log.warn("User not found with email: {}", email);
                     return new ResourceNotFoundException("User", "email", email);
-                });
+                }));
 
-        return userMapper.toResponse(user);
+        return cached(USER_PROFILES_CACHE, id, () -> loadProfile(id));
     }
 
     /**
-     * Obtiene todos los usuarios.
+     * Obtiene una página de usuarios ordenada por ID (paginación keyset).
      *
-     * @return Lista de usuarios
+     * @param after Cursor devuelto como {@code nextCursor} por la página anterior ({@code null} para la primera)
+     * @param limit Número máximo de usuarios de la página
+     * @return Página de usuarios
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    public List<UserResponse> getAllUsers() {
-        log.debug("Fetching all users");
+    public KeysetPage<UserResponse> getUsersPage(String after, int limit) {
+        log.debug("Fetching users page after cursor: {}", after);
 
-        return userRepository.findAll()
-                .stream()
-                .map(userMapper::toResponse)
-                .toList();
+        return keysetPages.page("users", after, limit,
+                (afterId, max) -> userRepository.findIdsAfter(afterId, Limit.of(max)),
+                this::findUsersInOrder);
     }
 
     /**
-     * Obtiene usuarios activos.
+     * Obtiene una página de usuarios activos ordenada por ID (paginación keyset).
      *
-     * @return Lista de usuarios activos
+     * @param after Cursor devuelto como {@code nextCursor} por la página anterior ({@code null} para la primera)
+     * @param limit Número máximo de usuarios de la página
+     * @return Página de usuarios activos
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    public List<UserResponse> getActiveUsers() {
-        log.debug("Fetching active users");
+    public KeysetPage<UserResponse> getActiveUsersPage(String after, int limit) {
+        log.debug("Fetching active users page after cursor: {}", after);
 
-        return userRepository.findByActive(true)
-                .stream()
-                .map(userMapper::toResponse)
-                .toList();
+        return keysetPages.page("users-active", after, limit,
+                (afterId, max) -> userRepository.findActiveIdsAfter(afterId, Limit.of(max)),
+                this::findUsersInOrder);
     }
 
     /**
-     * Busca usuarios por nombre.
+     * Busca usuarios cuyo nombre o apellido contiene el texto, paginado por ID (paginación keyset).
+     * <p>
+     * Los IDs salen del índice de trigramas en memoria ({@link UserNameSearchIndex}); mientras se
+     * construye, o si el texto tiene menos de tres caracteres, salen de la base de datos y la página
+     * se cachea en {@value KeysetPageCache#PAGES_CACHE}.
      *
-     * @param name Nombre a buscar
-     * @return Lista de usuarios encontrados
+     * @param name  Texto a buscar
+     * @param after Cursor devuelto como {@code nextCursor} por la página anterior ({@code null} para la primera)
+     * @param limit Número máximo de usuarios de la página
+     * @return Página de usuarios encontrados
      */
+    @ReadFromPrimary
     @Transactional(readOnly = true)
-    public List<UserResponse> searchUsersByName(String name) {
+    public KeysetPage<UserResponse> searchUsersByName(String name, String after, int limit) {
         log.debug("Searching users with name: {}", name);
 
-        return userRepository.searchByName(name)
-                .stream()
-                .map(userMapper::toResponse)
-                .toList();
+        if (nameIndex.canSearch(name)) {
+            return keysetPages.page(after, limit,
+                    (afterId, max) -> nameIndex.search(name, afterId, max),
+                    this::findUsersInOrder);
+        }
+        return keysetPages.page("users-search:" + name.toLowerCase(Locale.ROOT), after, limit,
+                (afterId, max) -> userRepository.searchIdsByName(name, afterId, Limit.of(max)),
+                this::findUsersInOrder);
     }
 
     /**
@@ -177,6 +283,7 @@ public class UserService {
 
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("User", "id", id));
+        String previousEmail = user.getEmail();
 
         // Si se está cambiando el email, validar que no exista
         if (request.getEmail() != null && !request.getEmail().equals(user.getEmail())) {
@@ -187,6 +294,13 @@ public class UserService {
 
         userMapper.updateEntityFromRequest(request, user);
         User updatedUser = userRepository.save(user);
+        segmentIndex.updateUser(updatedUser.getId(), Boolean.TRUE.equals(updatedUser.getActive()));
+        nameIndex.updateUser(updatedUser.getId(), updatedUser.getFirstName(), updatedUser.getLastName());
+        evictAfterCommit(USER_PROFILES_CACHE, updatedUser.getId());
+        if (!previousEmail.equals(updatedUser.getEmail())) {
+            evictAfterCommit(USER_EMAILS_CACHE, previousEmail);
+            putAfterCommit(USER_EMAILS_CACHE, updatedUser.getEmail(), updatedUser.getId());
+        }
 
         log.info("User updated successfully with ID: {}", updatedUser.getId());
         return userMapper.toResponse(updatedUser);
@@ -194,6 +308,8 @@ public class UserService {
 
     /**
      * Elimina un usuario.
+     * Sus preferencias se borran en cascada, así que también se eliminan de la caché, de la
+     * vista de todas las preferencias y del write-behind (tras el commit).
      *
      * @param id ID del usuario
      * @throws ResourceNotFoundException Si no existe el usuario
@@ -202,11 +318,21 @@ public class UserService {
     public void deleteUser(Long id) {
         log.info("Deleting user with ID: {}", id);
 
-        if (!userRepository.existsById(id)) {
-            throw new ResourceNotFoundException("User", "id", id);
-        }
+        User user = userRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("User", "id", id));
 
-        userRepository.deleteById(id);
+        userRepository.delete(user);
+        segmentIndex.removeUser(id);
+        nameIndex.removeUser(id);
+        preferencesView.remove(id);
+        // Un solo hook: el estado write-behind pendiente se descarta antes de desalojar las
+        // preferencias, así el loader no lo vuelve a cachear
+        afterCommit(() -> {
+            writeBehind.discard(id);
+            evict(USER_PROFILES_CACHE, id);
+            evict(USER_EMAILS_CACHE, user.getEmail());
+            evict(UserPreferencesService.PREFERENCES_CACHE, id);
+        });
         log.info("User deleted successfully with ID: {}", id);
     }
 
@@ -223,6 +349,117 @@ public class UserService {
                 .orElseThrow(() -> new ResourceNotFoundException("User", "id", id));
     }
 
+    /**
+     * Lee la fila de lectura del usuario y la convierte al perfil cacheado.
+     */
+    private UserResponse loadProfile(Long id) {
+        return userRepository.findSummaryById(id)
+                .map(userMapper::toResponse)
+                .orElseThrow(() -> new ResourceNotFoundException("User", "id", id));
+    }
+
+    /**
+     * Lee una entrada de la caché o la carga con el loader, pasando por las capas de la caché
+     * (tombstones, single-flight...). Las excepciones del loader se propagan tal cual, como con
+     * {@code @Cacheable}.
+     */
+    private <T> T cached(String cacheName, Object key, Callable<T> loader) {
+        try {
+            return Objects.requireNonNull(cacheManager.getCache(cacheName)).get(key, loader);
+        } catch (Cache.ValueRetrievalException ex) {
+            Throwable cause = ex;
+            while (cause instanceof Cache.ValueRetrievalException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Escribe la entrada en la caché tras el commit de la transacción actual.
+     */
+    private void putAfterCommit(String cacheName, Object key, Object value) {
+        afterCommit(() -> {
+            Cache cache = cacheManager.getCache(cacheName);
+            if (cache != null) {
+                cache.put(key, value);
+            }
+        });
+    }
+
+    /**
+     * Elimina la entrada de la caché tras el commit de la transacción actual. Las cachés que
+     * dependen de ella ({@code depends-on}) pierden la suya también.
+     */
+    private void evictAfterCommit(String cacheName, Object key) {
+        afterCommit(() -> evict(cacheName, key));
+    }
+
+    private void evict(String cacheName, Object key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.evict(key);
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Resuelve los usuarios de una página en el orden de los IDs: un MGET sobre
+     * {@value #USER_PROFILES_CACHE} y una sola query de proyección ({@link UserSummary}) para los que
+     * no están en caché. Los que se leen de la base de datos solo se cachean si no hay ya una entrada
+     * (SET NX), para no pisar la que escribió una actualización concurrente.
+     * Con Redis caído todos se leen de la base de datos.
+     * Los usuarios borrados desde que se cacheó la página se omiten.
+     */
+    private List<UserResponse> findUsersInOrder(List<Long> ids) {
+        Map<Long, UserResponse> users = new HashMap<>();
+        boolean cacheAvailable = true;
+        try {
+            users.putAll(cacheBulkOperations.multiGet(USER_PROFILES_CACHE, ids, UserResponse.class));
+        } catch (RedisUnavailableException ex) {
+            log.warn("Could not read cached user profiles: {}", ex.getMessage());
+            cacheAvailable = false;
+        }
+
+        List<Long> misses = ids.stream()
+                .filter(id -> !users.containsKey(id))
+                .toList();
+        if (!misses.isEmpty()) {
+            Map<Long, UserResponse> loaded = userRepository.findSummariesByIdIn(misses)
+                    .stream()
+                    .map(userMapper::toResponse)
+                    .collect(Collectors.toMap(UserResponse::getId, Function.identity()));
+            if (cacheAvailable) {
+                try {
+                    cacheBulkOperations.multiPut(USER_PROFILES_CACHE, loaded, true);
+                } catch (RedisUnavailableException ex) {
+                    log.warn("Could not cache user profiles: {}", ex.getMessage());
+                }
+            }
+            users.putAll(loaded);
+        }
+
+        return ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
     /**
      * Cuenta usuarios activos.
      *
@@ -0,0 +1,2 @@
+-- Keyset pages of active users: WHERE active AND id > ? ORDER BY id LIMIT ?
+CREATE INDEX idx_users_active_id ON users (id) WHERE active = true;
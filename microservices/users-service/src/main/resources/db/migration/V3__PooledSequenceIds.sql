@@ -0,0 +1,16 @@
+-- Ids from sequences instead of IDENTITY columns, so Hibernate can batch inserts and the bulk
+-- import can reserve ids for a whole chunk. Each nextval reserves a block of 50 ids
+-- (allocationSize in the entities): Hibernate's pooled optimizer uses (value - 49 .. value].
+ALTER TABLE users ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE user_preferences ALTER COLUMN id DROP IDENTITY IF EXISTS;
+
+CREATE SEQUENCE users_seq INCREMENT BY 50 OWNED BY users.id;
+CREATE SEQUENCE user_preferences_seq INCREMENT BY 50 OWNED BY user_preferences.id;
+
+-- The first block starts above every existing id
+SELECT setval('users_seq', COALESCE((SELECT MAX(id) FROM users), 0) + 51, false);
+SELECT setval('user_preferences_seq', COALESCE((SELECT MAX(id) FROM user_preferences), 0) + 51, false);
+
+-- Plain SQL inserts keep working (each one takes the top id of a fresh block)
+ALTER TABLE users ALTER COLUMN id SET DEFAULT nextval('users_seq');
+ALTER TABLE user_preferences ALTER COLUMN id SET DEFAULT nextval('user_preferences_seq');
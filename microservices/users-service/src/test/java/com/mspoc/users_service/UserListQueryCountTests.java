@@ -0,0 +1,137 @@
+package com.mspoc.users_service;
+
+import com.mspoc.users_service.service.UserNameSearchIndex;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Guards the list endpoints against N+1 queries: with cold caches, a page of {@value #PAGE_SIZE}
+ * users must not take more than {@value #MAX_STATEMENTS} statements, as counted by the Hibernate
+ * statistics. One query reads the ids of the page, one reads the rows and their
+ * {@code hasPreferences} flag; loading {@code User} entities instead would add one
+ * {@code user_preferences} SELECT per user.
+ * <p>
+ * Runs against PostgreSQL and Redis containers and is skipped when Docker is not available.
+ */
+@SpringBootTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.cache.type=redis",
+        "spring.cache.redis.time-to-live=600000",
+        "spring.cache.redis.key-prefix=users-service-test:",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureMockMvc
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class UserListQueryCountTests {
+
+    private static final int USERS = 120;
+    private static final int PAGE_SIZE = 50;
+    private static final long MAX_STATEMENTS = 2;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Container
+    @ServiceConnection(name = "redis")
+    static GenericContainer<?> redis = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Autowired
+    private UserNameSearchIndex nameIndex;
+
+    @BeforeAll
+    void seedUsers() throws InterruptedException {
+        // Every other user is named Ana and every third one has preferences
+        jdbcTemplate.update("""
+                INSERT INTO users (email, first_name, last_name, active, created_at, updated_at)
+                SELECT 'user' || i || '@example.com', CASE WHEN i % 2 = 0 THEN 'Ana' ELSE 'Luis' END,
+                       'Garcia', i % 4 <> 0, now(), now()
+                FROM generate_series(1, ?) AS i
+                """, USERS);
+        jdbcTemplate.update("""
+                INSERT INTO user_preferences (email_notifications_enabled, push_notifications_enabled,
+                    sms_notifications_enabled, marketing_emails_enabled, security_alerts_enabled,
+                    product_updates_enabled, notification_frequency, timezone, created_at, updated_at, user_id)
+                SELECT true, true, false, false, true, true, 'INSTANT', 'UTC', now(), now(), id
+                FROM users WHERE id % 3 = 0
+                """);
+
+        nameIndex.rebuild();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (nameIndex.size() < USERS) {
+            assertThat(System.nanoTime()).as("name index rebuilt").isLessThan(deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    @BeforeEach
+    void coldCaches() {
+        try (RedisConnection connection = redisConnectionFactory.getConnection()) {
+            connection.serverCommands().flushAll();
+        }
+        statistics().clear();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/users",
+            "/users/active",
+            "/users/search?name=ana",
+            // Under three characters the ids come from the database instead of the name index
+            "/users/search?name=an"
+    })
+    void listPageStaysWithinStatementBudget(String path) throws Exception {
+        mockMvc.perform(get(path).queryParam("limit", String.valueOf(PAGE_SIZE)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()").value(PAGE_SIZE))
+                .andExpect(jsonPath("$.data[?(@.hasPreferences == true)]").isNotEmpty())
+                .andExpect(jsonPath("$.data[?(@.hasPreferences == false)]").isNotEmpty());
+
+        assertThat(statistics().getPrepareStatementCount())
+                .as("statements for GET %s", path)
+                .isLessThanOrEqualTo(MAX_STATEMENTS);
+    }
+
+    private Statistics statistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+}
@@ -0,0 +1,114 @@
+package com.mspoc.users_service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mspoc.users_service.cache.CacheValueFormat;
+import com.mspoc.users_service.cache.VersionedCacheValueSerializer;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.enums.NotificationFrequency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost and entry size of a {@link UserPreferencesResponse} with the serializer
+ * {@code RedisConfig} used so far ({@code current}) and each {@link CacheValueFormat}.
+ * <p>
+ * Bytes per entry are printed once per trial. Run with
+ * {@code mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.include=CacheValueSerializerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheValueSerializerBenchmark {
+
+    @Param({"current", "JSON", "SMILE", "CBOR"})
+    private String serializer;
+
+    private RedisSerializer<Object> redisSerializer;
+    private UserPreferencesResponse value;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        redisSerializer = "current".equals(serializer)
+                ? currentSerializer()
+                : new VersionedCacheValueSerializer(UserPreferencesResponse.class, CacheValueFormat.valueOf(serializer));
+        value = samplePreferences();
+        encoded = redisSerializer.serialize(value);
+
+        System.out.printf("%n[%s] bytes per entry: %d%n", serializer, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return redisSerializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return redisSerializer.deserialize(encoded);
+    }
+
+    /**
+     * Same serializer as {@code RedisConfig} builds for caches without a value type.
+     */
+    private static RedisSerializer<Object> currentSerializer() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return new GenericJackson2JsonRedisSerializer(mapper);
+    }
+
+    private static UserPreferencesResponse samplePreferences() {
+        return UserPreferencesResponse.builder()
+                .id(4821L)
+                .userId(130577L)
+                .emailNotificationsEnabled(true)
+                .pushNotificationsEnabled(true)
+                .smsNotificationsEnabled(false)
+                .marketingEmailsEnabled(false)
+                .securityAlertsEnabled(true)
+                .productUpdatesEnabled(true)
+                .notificationFrequency(NotificationFrequency.DAILY)
+                .quietHoursStart(LocalTime.of(22, 0))
+                .quietHoursEnd(LocalTime.of(7, 30))
+                .timezone("America/Lima")
+                .createdAt(LocalDateTime.of(2025, 3, 14, 9, 26, 53))
+                .updatedAt(LocalDateTime.of(2025, 11, 2, 18, 4, 11))
+                .isInQuietHours(false)
+                .canReceiveEmail(true)
+                .canReceivePush(true)
+                .canReceiveSms(false)
+                .build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CacheValueSerializerBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
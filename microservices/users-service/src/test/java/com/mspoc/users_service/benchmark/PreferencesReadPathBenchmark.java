@@ -0,0 +1,188 @@
+package com.mspoc.users_service.benchmark;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of {@code GET /preferences/user/{userId}} on the blocking
+ * {@code @Cacheable} path ({@code Cache.get(key, loader)}) and the non-blocking one
+ * ({@code Cache.retrieve(key, loader)} with the database load on a virtual thread).
+ * <p>
+ * 64 benchmark threads play concurrent clients. Each request is dispatched to a fixed
+ * {@code serverThreads} pool (the Tomcat workers) and waits for its answer. Both paths share
+ * the same pooled Lettuce connection factory ({@code lettucePoolSize}). A miss simulates the JPA
+ * query with a {@code dbMillis} sleep. Run {@code SampleTime} for the p99 and
+ * {@code Throughput} for requests per second.
+ * <p>
+ * Needs a Redis at {@code -Dredis.host}/{@code -Dredis.port} (default {@code localhost:6379},
+ * password {@code redis123}). Run with
+ * {@code mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.include=PreferencesReadPathBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(64)
+@Fork(1)
+public class PreferencesReadPathBenchmark {
+
+    private static final String CACHE = "user-preferences";
+
+    @Param({"8"})
+    private int lettucePoolSize;
+
+    @Param({"8"})
+    private int serverThreads;
+
+    @Param({"0", "10"})
+    private int missPercent;
+
+    @Param({"5"})
+    private int dbMillis;
+
+    @Param({"10000"})
+    private int keyCount;
+
+    private LettuceConnectionFactory connectionFactory;
+    private Cache cache;
+    private ExecutorService serverPool;
+    private ExecutorService databaseLoads;
+    private Map<String, Object> value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        GenericObjectPoolConfig<io.lettuce.core.api.StatefulConnection<?, ?>> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(lettucePoolSize);
+        poolConfig.setMaxIdle(lettucePoolSize);
+
+        RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        standalone.setPassword(RedisPassword.of(System.getProperty("redis.password", "redis123")));
+        connectionFactory = new LettuceConnectionFactory(standalone,
+                LettucePoolingClientConfiguration.builder().poolConfig(poolConfig).build());
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+
+        RedisCacheConfiguration config = RedisCacheConfiguration.defaultCacheConfig()
+                .entryTtl(Duration.ofMinutes(10))
+                .prefixCacheNameWith("users-service-benchmark:")
+                .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()))
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(new GenericJackson2JsonRedisSerializer()));
+        RedisCacheManager cacheManager = RedisCacheManager.builder(RedisCacheWriter.nonLockingRedisCacheWriter(connectionFactory))
+                .cacheDefaults(config)
+                .build();
+        cache = cacheManager.getCache(CACHE);
+
+        value = samplePreferences();
+        cache.clear();
+        for (long userId = 0; userId < keyCount; userId++) {
+            cache.put(userId, value);
+        }
+
+        serverPool = Executors.newFixedThreadPool(serverThreads);
+        databaseLoads = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        serverPool.shutdownNow();
+        databaseLoads.shutdownNow();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public Object blocking() throws Exception {
+        Object key = nextKey();
+        // The worker is held for the Redis round-trip and, on a miss, for the query
+        return serverPool.submit(() -> cache.get(key, () -> queryDatabase(key))).get();
+    }
+
+    @Benchmark
+    public Object nonBlocking() throws Exception {
+        Object key = nextKey();
+        // The worker only starts the lookup, like a controller returning a CompletableFuture
+        CompletableFuture<Object> response = serverPool.submit(() -> cache.retrieve(key,
+                () -> CompletableFuture.supplyAsync(() -> queryDatabase(key), databaseLoads))).get();
+        return response.get();
+    }
+
+    private Object nextKey() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Misses use keys that were never cached; they are evicted again so they stay misses
+        if (random.nextInt(100) < missPercent) {
+            long missKey = keyCount + random.nextInt(keyCount);
+            cache.evict(missKey);
+            return missKey;
+        }
+        return (long) random.nextInt(keyCount);
+    }
+
+    private Object queryDatabase(Object key) {
+        try {
+            Thread.sleep(dbMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return value;
+    }
+
+    private static Map<String, Object> samplePreferences() {
+        Map<String, Object> preferences = new HashMap<>();
+        preferences.put("id", 1L);
+        preferences.put("userId", 1L);
+        preferences.put("emailNotifications", true);
+        preferences.put("pushNotifications", true);
+        preferences.put("smsNotifications", false);
+        preferences.put("marketingEmails", false);
+        preferences.put("securityAlerts", true);
+        preferences.put("notificationFrequency", "DAILY");
+        preferences.put("timezone", "Europe/Madrid");
+        preferences.put("language", "es");
+        return preferences;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PreferencesReadPathBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,158 @@
+package com.mspoc.users_service.benchmark;
+
+import com.mspoc.users_service.cache.RedisCircuitBreaker;
+import com.mspoc.users_service.config.UsersCacheProperties;
+import com.mspoc.users_service.service.UserNameSearchIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one {@code GET /users/search} page of ids at {@code userCount} users: the in-memory
+ * {@link UserNameSearchIndex} against the {@code LIKE '%x%'} query it replaces, as Hibernate
+ * generates it for {@code UserRepository.searchIdsByName}.
+ * <p>
+ * The users live in their own {@code name_search_bench} schema, filled once with synthetic names
+ * (40 first names, two of 40 last names each) and reused by later runs with the same
+ * {@code userCount}. {@code ana} matches a large share of the users, {@code rodr} a few percent,
+ * and {@code xyz} nobody, which is the worst case for the scan: no page fills up early.
+ * <p>
+ * Needs a PostgreSQL at {@code -Dpostgres.url} (default
+ * {@code jdbc:postgresql://localhost:5432/users_db_redis}, user and password {@code postgres}).
+ * Run with {@code mvn -Pbenchmarks test-compile exec:exec -Dbenchmark.include=UserNameSearchBenchmark}
+ * and drop the schema afterwards with {@code DROP SCHEMA name_search_bench CASCADE}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserNameSearchBenchmark {
+
+    private static final String SCHEMA = "name_search_bench";
+
+    private static final String FIRST_NAMES = """
+            'Ana','Luis','Maria','Jose','Carmen','Juan','Lucia','Carlos','Elena','Miguel',
+            'Sofia','Javier','Paula','David','Laura','Daniel','Marta','Pablo','Andrea','Jorge',
+            'Mariana','Diego','Valeria','Adrian','Camila','Alvaro','Julia','Sergio','Irene','Raul',
+            'Natalia','Ivan','Sara','Hugo','Clara','Mario','Rosa','Oscar','Silvia','Ruben'""";
+
+    private static final String LAST_NAMES = """
+            'Garcia','Rodriguez','Gonzalez','Fernandez','Lopez','Martinez','Sanchez','Perez','Gomez','Martin',
+            'Jimenez','Ruiz','Hernandez','Diaz','Moreno','Alvarez','Munoz','Romero','Alonso','Gutierrez',
+            'Navarro','Torres','Dominguez','Vazquez','Ramos','Gil','Ramirez','Serrano','Blanco','Suarez',
+            'Molina','Morales','Ortega','Delgado','Castro','Ortiz','Rubio','Marin','Sanz','Santana'""";
+
+    private static final String FILL_SQL = """
+            INSERT INTO %s.users (id, first_name, last_name)
+            SELECT i,
+                   (ARRAY[%s])[(1 + (i * 7919) %% 40)::int],
+                   (ARRAY[%s])[(1 + (i * 104729) %% 40)::int] || ' ' || (ARRAY[%s])[(1 + (i * 1299709) %% 40)::int]
+            FROM generate_series(1::bigint, ?) AS i
+            """.formatted(SCHEMA, FIRST_NAMES, LAST_NAMES, LAST_NAMES);
+
+    private static final String LIKE_SQL = """
+            SELECT u.id FROM users u
+            WHERE u.id > ?
+              AND (LOWER(u.first_name) LIKE LOWER('%' || ? || '%') OR LOWER(u.last_name) LIKE LOWER('%' || ? || '%'))
+            ORDER BY u.id
+            FETCH FIRST ? ROWS ONLY
+            """;
+
+    @Param({"1000000"})
+    private int userCount;
+
+    @Param({"ana", "rodr", "xyz"})
+    private String query;
+
+    @Param({"100"})
+    private int limit;
+
+    private JdbcTemplate jdbcTemplate;
+    private UserNameSearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        String url = System.getProperty("postgres.url", "jdbc:postgresql://localhost:5432/users_db_redis");
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                url + (url.contains("?") ? "&" : "?") + "currentSchema=" + SCHEMA,
+                System.getProperty("postgres.user", "postgres"),
+                System.getProperty("postgres.password", "postgres"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        fillUsers();
+
+        // Never started nor published to: the benchmark runs a single instance
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        index = new UserNameSearchIndex(dataSource, new DataSourceTransactionManager(dataSource),
+                new StringRedisTemplate(), new RedisMessageListenerContainer(),
+                new RedisCircuitBreaker(new UsersCacheProperties(), meterRegistry), meterRegistry,
+                Duration.ofDays(1), "bench:");
+        index.buildOnStartup();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while (!index.canSearch(query)) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The name index was not built within 5 minutes");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        index.destroy();
+    }
+
+    @Benchmark
+    public List<Long> trigramIndex() {
+        // One extra id, as KeysetPageCache asks for
+        return index.search(query, 0L, limit + 1);
+    }
+
+    @Benchmark
+    public List<Long> likeQuery() {
+        return jdbcTemplate.queryForList(LIKE_SQL, Long.class, 0L, query, query, limit + 1);
+    }
+
+    private void fillUsers() {
+        jdbcTemplate.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + SCHEMA + ".users ("
+                + "id BIGINT PRIMARY KEY, first_name VARCHAR(100) NOT NULL, last_name VARCHAR(100) NOT NULL)");
+        Long existing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + SCHEMA + ".users", Long.class);
+        if (existing == null || existing != userCount) {
+            jdbcTemplate.execute("TRUNCATE " + SCHEMA + ".users");
+            jdbcTemplate.update(FILL_SQL, (long) userCount);
+            jdbcTemplate.execute("ANALYZE " + SCHEMA + ".users");
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UserNameSearchBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
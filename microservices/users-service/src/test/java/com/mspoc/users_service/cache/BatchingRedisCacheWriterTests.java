@@ -0,0 +1,154 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The version check of the batched mutation script against a real Redis: a batch of an older
+ * version never overwrites or deletes what a newer one wrote, and batches are versioned by
+ * commit, not by the time they reach Redis.
+ * <p>
+ * Runs against a Redis container and is skipped when Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class BatchingRedisCacheWriterTests {
+
+    private static final String CACHE = "users";
+    private static final byte[] KEY = bytes("users-service-test:users::1");
+
+    @Container
+    static GenericContainer<?> redis = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LettuceConnectionFactory connectionFactory;
+    private RedisCircuitBreaker circuitBreaker;
+    private BatchingRedisCacheWriter writer;
+
+    @BeforeEach
+    void createWriter() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redis.getHost(), redis.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.serverCommands().flushAll();
+        }
+
+        circuitBreaker = new RedisCircuitBreaker(new UsersCacheProperties(), meterRegistry);
+        writer = new BatchingRedisCacheWriter(RedisCacheWriter.nonLockingRedisCacheWriter(connectionFactory),
+                new SingleNode(connectionFactory), circuitBreaker, "users-service-test:cache-version:",
+                Duration.ofMinutes(10), new CacheTtlStatistics(meterRegistry), meterRegistry);
+    }
+
+    @AfterEach
+    void stop() {
+        circuitBreaker.destroy();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void olderVersionNeitherOverwritesNorDeletesANewerWrite() {
+        assertThat(writer.flush(200, List.of(set("new")))).isTrue();
+
+        assertThat(writer.flush(100, List.of(set("old")))).isTrue();
+        assertThat(writer.flush(150, List.of(delete()))).isTrue();
+
+        assertThat(value()).isEqualTo("new");
+        assertThat(meterRegistry.counter("cache.batch.stale_writes").count()).isEqualTo(2);
+    }
+
+    @Test
+    void newerVersionReplacesAndDeletes() {
+        writer.flush(100, List.of(set("first")));
+
+        writer.flush(200, List.of(set("second")));
+        assertThat(value()).isEqualTo("second");
+
+        writer.flush(300, List.of(delete()));
+        assertThat(value()).isNull();
+    }
+
+    @Test
+    void batchOfTheLaterCommitWinsEvenWhenItIsSentFirst() {
+        CacheMutationBatch first = CacheMutationBatch.open();
+        inTransaction(() -> writer.put(CACHE, KEY, bytes("first commit"), Duration.ofMinutes(5)));
+
+        // Another request commits later but its batch reaches Redis before the first one
+        CompletableFuture.runAsync(() -> {
+            CacheMutationBatch second = CacheMutationBatch.open();
+            inTransaction(() -> writer.put(CACHE, KEY, bytes("second commit"), Duration.ofMinutes(5)));
+            second.close();
+        }).join();
+        first.close();
+
+        assertThat(value()).isEqualTo("second commit");
+        assertThat(meterRegistry.counter("cache.batch.stale_writes").count()).isEqualTo(1);
+    }
+
+    /**
+     * Runs {@code work} with transaction synchronization active, then fires the
+     * {@code afterCommit} callbacks it registered.
+     */
+    private static void inTransaction(Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            work.run();
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private CacheMutationBatch.Mutation set(String value) {
+        return new CacheMutationBatch.Mutation(writer, CACHE, CacheMutationBatch.Operation.SET, KEY, bytes(value), 60_000);
+    }
+
+    private CacheMutationBatch.Mutation delete() {
+        return new CacheMutationBatch.Mutation(writer, CACHE, CacheMutationBatch.Operation.DEL, KEY, new byte[0], 0);
+    }
+
+    private String value() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            byte[] value = connection.stringCommands().get(KEY);
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record SingleNode(RedisConnectionFactory node) implements RedisKeyRouter {
+
+        @Override
+        public RedisConnectionFactory route(byte[] key) {
+            return node;
+        }
+
+        @Override
+        public Collection<RedisConnectionFactory> nodes() {
+            return List.of(node);
+        }
+    }
+}
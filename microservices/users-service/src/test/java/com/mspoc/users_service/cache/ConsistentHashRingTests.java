@@ -0,0 +1,108 @@
+package com.mspoc.users_service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Key placement on the {@link ConsistentHashRing}: stable for a given membership, spread over
+ * the nodes, and only the keys of the ranges a node gains or loses move when it joins or leaves.
+ */
+class ConsistentHashRingTests {
+
+    private static final int VIRTUAL_NODES = 160;
+    private static final int KEYS = 20_000;
+
+    @Test
+    void placementDependsOnTheNodeNamesOnly() {
+        Map<String, String> forward = new LinkedHashMap<>();
+        Map<String, String> backward = new LinkedHashMap<>();
+        for (String name : new String[] {"a", "b", "c"}) {
+            forward.put(name, name);
+        }
+        for (String name : new String[] {"c", "b", "a"}) {
+            backward.put(name, name);
+        }
+
+        ConsistentHashRing<String> first = ConsistentHashRing.of(forward, VIRTUAL_NODES);
+        ConsistentHashRing<String> second = ConsistentHashRing.of(backward, VIRTUAL_NODES);
+
+        IntStream.range(0, KEYS).forEach(i -> assertThat(second.nodeFor(key(i))).isEqualTo(first.nodeFor(key(i))));
+    }
+
+    @Test
+    void keysAreSpreadOverTheNodes() {
+        Map<String, Integer> perNode = placements(ring("a", "b", "c", "d")).values().stream()
+                .collect(HashMap::new, (counts, node) -> counts.merge(node, 1, Integer::sum), HashMap::putAll);
+
+        assertThat(perNode).containsOnlyKeys("a", "b", "c", "d");
+        // Ideal share is 25%; 160 points per node keep every node well within +-10 points of it
+        perNode.values().forEach(count -> assertThat(count).isBetween(KEYS * 15 / 100, KEYS * 35 / 100));
+    }
+
+    @Test
+    void addingANodeOnlyMovesKeysToIt() {
+        Map<Integer, String> before = placements(ring("a", "b", "c", "d"));
+        Map<Integer, String> after = placements(ring("a", "b", "c", "d", "e"));
+
+        long moved = before.keySet().stream().filter(i -> !before.get(i).equals(after.get(i))).count();
+        before.keySet().stream()
+                .filter(i -> !before.get(i).equals(after.get(i)))
+                .forEach(i -> assertThat(after.get(i)).isEqualTo("e"));
+        // About 1/5 of the keyspace
+        assertThat(moved).isBetween(KEYS * 10L / 100, KEYS * 30L / 100);
+    }
+
+    @Test
+    void removingANodeOnlyMovesItsKeys() {
+        Map<Integer, String> before = placements(ring("a", "b", "c", "d"));
+        Map<Integer, String> after = placements(ring("a", "b", "d"));
+
+        before.forEach((i, node) -> {
+            if (node.equals("c")) {
+                assertThat(after.get(i)).isNotEqualTo("c");
+            } else {
+                assertThat(after.get(i)).isEqualTo(node);
+            }
+        });
+    }
+
+    @Test
+    void nodesListsEveryNodeOnce() {
+        assertThat(ring("a", "b", "c").nodes()).containsExactlyInAnyOrder("a", "b", "c");
+    }
+
+    @Test
+    void emptyRingHasNoNodeForAKey() {
+        ConsistentHashRing<String> empty = ConsistentHashRing.of(Map.of(), VIRTUAL_NODES);
+
+        assertThat(empty.isEmpty()).isTrue();
+        assertThat(empty.nodes()).isEmpty();
+        assertThatThrownBy(() -> empty.nodeFor(key(1))).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static ConsistentHashRing<String> ring(String... names) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String name : names) {
+            nodes.put(name, name);
+        }
+        return ConsistentHashRing.of(nodes, VIRTUAL_NODES);
+    }
+
+    private static Map<Integer, String> placements(ConsistentHashRing<String> ring) {
+        Map<Integer, String> placements = new HashMap<>();
+        IntStream.range(0, KEYS).forEach(i -> placements.put(i, ring.nodeFor(key(i))));
+        return placements;
+    }
+
+    private static byte[] key(int i) {
+        return ("users-service:users::" + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,200 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * State transitions of the {@link RedisCircuitBreaker}, and the {@link CircuitBreakerCache}
+ * degrading to the loader and its fallback while Redis is down. "Redis" is an in-memory cache
+ * that fails with a connection error while {@link #down} is set.
+ */
+class RedisCircuitBreakerTests {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+    private final UsersCacheProperties properties = new UsersCacheProperties();
+    private final AtomicBoolean down = new AtomicBoolean();
+    private RedisCircuitBreaker breaker;
+
+    @BeforeEach
+    void createBreaker() {
+        UsersCacheProperties.CircuitBreaker settings = properties.getCircuitBreaker();
+        settings.setSlidingWindowSize(4);
+        settings.setMinimumCalls(4);
+        settings.setFailureRateThreshold(50);
+        settings.setOpenDuration(OPEN_DURATION);
+        settings.setHalfOpenProbes(2);
+        settings.setOperationTimeout(Duration.ofMillis(500));
+        breaker = new RedisCircuitBreaker(properties, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void stopBreaker() {
+        breaker.destroy();
+    }
+
+    @Test
+    void opensOnceTheFailureRateReachesTheThresholdAndThenRefusesCalls() {
+        call(true);
+        call(true);
+        call(false);
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+        assertThat(breaker.isCallPermitted()).isFalse();
+        AtomicInteger attempts = new AtomicInteger();
+        assertThatThrownBy(() -> breaker.execute(attempts::incrementAndGet))
+                .isInstanceOf(RedisUnavailableException.class);
+        assertThat(attempts).hasValue(0);
+    }
+
+    @Test
+    void halfOpenProbesCloseTheCircuitWhenTheyAllSucceed() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+
+        call(true);
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.HALF_OPEN);
+        call(true);
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+        assertThat(breaker.isCallPermitted()).isTrue();
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitAgain() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+
+        call(false);
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void slowCallsFailWithinTheOperationTimeoutAndCountAsFailures() {
+        properties.getCircuitBreaker().setOperationTimeout(Duration.ofMillis(20));
+        breaker = new RedisCircuitBreaker(properties, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 4; i++) {
+            long start = System.nanoTime();
+            assertThatThrownBy(() -> breaker.execute(() -> {
+                LockSupport.parkNanos(Duration.ofSeconds(1).toNanos());
+                return null;
+            })).isInstanceOf(RedisUnavailableException.class);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+        }
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void errorsThatAreNotRedisFailuresAreRethrownWithoutOpening() {
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> breaker.execute(() -> {
+                throw new IllegalArgumentException("cannot serialize");
+            })).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void cacheLoadsFromTheDatabaseWhileOpenAndReplaysMissedEvictionsOnRecovery() throws InterruptedException {
+        ConcurrentMapCache redis = new FlakyCache("user-preferences");
+        CircuitBreakerCache cache = new CircuitBreakerCache(redis, breaker, properties.getCircuitBreaker(),
+                new SimpleMeterRegistry());
+        cache.put(1L, "v1");
+        AtomicInteger loads = new AtomicInteger();
+
+        down.set(true);
+        open();
+        // Lookups are misses served by the loader, then by the fallback cache
+        assertThat(cache.get(2L, () -> "loaded-" + loads.incrementAndGet())).isEqualTo("loaded-1");
+        assertThat(cache.get(2L, () -> "loaded-" + loads.incrementAndGet())).isEqualTo("loaded-1");
+        // The row changed during the outage; Redis still holds v1
+        cache.evict(1L);
+        assertThat(redis.getNativeCache().get(1L)).isEqualTo("v1");
+
+        down.set(false);
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+        cache.get(3L);
+        cache.get(3L);
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.CLOSED);
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (redis.getNativeCache().containsKey(1L)) {
+            assertThat(System.nanoTime()).as("missed eviction replayed").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(false);
+        }
+        assertThat(breaker.getState()).isEqualTo(RedisCircuitBreaker.State.OPEN);
+    }
+
+    private void call(boolean succeeds) {
+        try {
+            breaker.execute(() -> {
+                if (!succeeds) {
+                    throw new RedisConnectionFailureException("connection refused");
+                }
+                return "OK";
+            });
+        } catch (RedisUnavailableException ex) {
+            assertThat(succeeds).as("only failing calls throw").isFalse();
+        }
+    }
+
+    /**
+     * In-memory "Redis" that fails every command while {@link #down} is set.
+     */
+    private final class FlakyCache extends ConcurrentMapCache {
+
+        FlakyCache(String name) {
+            super(name);
+        }
+
+        @Override
+        protected Object lookup(Object key) {
+            failIfDown();
+            return super.lookup(key);
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            failIfDown();
+            super.put(key, value);
+        }
+
+        @Override
+        public boolean evictIfPresent(Object key) {
+            failIfDown();
+            return super.evictIfPresent(key);
+        }
+
+        private void failIfDown() {
+            if (down.get()) {
+                throw new RedisConnectionFailureException("connection refused");
+            }
+        }
+    }
+}
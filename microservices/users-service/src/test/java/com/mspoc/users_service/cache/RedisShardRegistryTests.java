@@ -0,0 +1,237 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Health-check driven ejection and readmission of the {@link RedisShardRegistry}, and nodes
+ * added and removed at runtime, against real Redis nodes. A node is made unhealthy by pausing
+ * its container, so PINGs time out.
+ * <p>
+ * Runs against Redis containers and is skipped when Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class RedisShardRegistryTests {
+
+    private static final String PREFIX = "users-service-test:";
+    private static final Duration WAIT = Duration.ofSeconds(10);
+
+    @Container
+    static GenericContainer<?> primary = redisContainer();
+
+    @Container
+    static GenericContainer<?> shardA = redisContainer();
+
+    @Container
+    static GenericContainer<?> shardB = redisContainer();
+
+    @Container
+    static GenericContainer<?> shardC = redisContainer();
+
+    private final UsersCacheProperties properties = new UsersCacheProperties();
+    private LettuceConnectionFactory primaryConnectionFactory;
+    private RedisShardRegistry registry;
+
+    @BeforeEach
+    void createRegistry() {
+        for (GenericContainer<?> container : List.of(primary, shardA, shardB, shardC)) {
+            onNode(container, connection -> {
+                connection.serverCommands().flushAll();
+                return null;
+            });
+        }
+
+        UsersCacheProperties.Sharding sharding = properties.getSharding();
+        sharding.setEnabled(true);
+        sharding.setNodes(List.of(shardNode("a", shardA), shardNode("b", shardB)));
+        sharding.setHealthCheckInterval(Duration.ofMillis(100));
+        sharding.setHealthCheckTimeout(Duration.ofMillis(200));
+        sharding.setFailureThreshold(2);
+        sharding.setRecoveryThreshold(2);
+
+        primaryConnectionFactory = connectionFactory(primary);
+        registry = new RedisShardRegistry(properties, new SimpleMeterRegistry(),
+                new StringRedisTemplate(primaryConnectionFactory), new RedisMessageListenerContainer(),
+                Duration.ofMillis(500), PREFIX);
+    }
+
+    @AfterEach
+    void stop() {
+        unpause(shardB);
+        registry.destroy();
+        primaryConnectionFactory.destroy();
+    }
+
+    @Test
+    void configuredNodesJoinTheRing() {
+        assertThat(registry.status()).extracting(RedisShardRegistry.NodeStatus::state)
+                .containsOnly(RedisShardRegistry.State.LIVE);
+        assertThat(registry.nodes()).hasSize(2);
+        assertThat(IntStream.range(0, 1_000).mapToObj(i -> port(registry.route(key(i)))).distinct())
+                .containsExactlyInAnyOrder(shardA.getMappedPort(6379), shardB.getMappedPort(6379));
+    }
+
+    @Test
+    void failingNodeIsEjectedAndItsKeysMoveToTheOthers() {
+        byte[] keyOnB = keyOn(shardB);
+
+        pause(shardB);
+        await(() -> state("b") == RedisShardRegistry.State.EJECTED);
+
+        assertThat(port(registry.route(keyOnB))).isEqualTo(shardA.getMappedPort(6379));
+        assertThat(registry.nodes()).hasSize(1);
+        assertThat(registry.otherNodes(keyOnB)).isEmpty();
+        assertThat(registry.status()).filteredOn(status -> status.name().equals("b"))
+                .singleElement()
+                .satisfies(status -> assertThat(status.ejections()).isEqualTo(1));
+    }
+
+    @Test
+    void recoveredNodeIsClearedAndTakesItsKeysBack() {
+        byte[] keyOnB = keyOn(shardB);
+        onNode(shardB, connection -> connection.stringCommands().set(keyOnB, "stale".getBytes(StandardCharsets.UTF_8)));
+
+        pause(shardB);
+        await(() -> state("b") == RedisShardRegistry.State.EJECTED);
+        unpause(shardB);
+        await(() -> state("b") == RedisShardRegistry.State.LIVE);
+
+        assertThat(port(registry.route(keyOnB))).isEqualTo(shardB.getMappedPort(6379));
+        Boolean present = onNode(shardB, connection -> connection.keyCommands().exists(keyOnB));
+        assertThat(present).isFalse();
+    }
+
+    @Test
+    void addedNodeIsClearedTakesPartOfTheKeysAndIsStoredForTheOtherInstances() {
+        byte[] staleKey = key(-1);
+        onNode(shardC, connection -> connection.stringCommands().set(staleKey, "stale".getBytes(StandardCharsets.UTF_8)));
+        List<Integer> before = IntStream.range(0, 1_000).mapToObj(i -> port(registry.route(key(i)))).toList();
+
+        registry.addNode(shardNode("c", shardC));
+
+        int portC = shardC.getMappedPort(6379);
+        List<Integer> after = IntStream.range(0, 1_000).mapToObj(i -> port(registry.route(key(i)))).toList();
+        IntStream.range(0, 1_000)
+                .filter(i -> !before.get(i).equals(after.get(i)))
+                .forEach(i -> assertThat(after.get(i)).isEqualTo(portC));
+        assertThat(after).contains(portC);
+        Boolean present = onNode(shardC, connection -> connection.keyCommands().exists(staleKey));
+        assertThat(present).isFalse();
+        StringRedisTemplate primaryTemplate = new StringRedisTemplate(primaryConnectionFactory);
+        assertThat(primaryTemplate.opsForHash().hasKey(PREFIX + "cache-shards:added", "c")).isTrue();
+    }
+
+    @Test
+    void removedNodeLeavesTheRingAndIsStoredForTheOtherInstances() {
+        byte[] keyOnB = keyOn(shardB);
+
+        assertThat(registry.removeNode("b")).isTrue();
+
+        assertThat(port(registry.route(keyOnB))).isEqualTo(shardA.getMappedPort(6379));
+        assertThat(registry.status()).extracting(RedisShardRegistry.NodeStatus::name).containsExactly("a");
+        StringRedisTemplate primaryTemplate = new StringRedisTemplate(primaryConnectionFactory);
+        assertThat(primaryTemplate.opsForSet().isMember(PREFIX + "cache-shards:removed", "b")).isTrue();
+        assertThat(registry.removeNode("b")).isFalse();
+    }
+
+    private RedisShardRegistry.State state(String name) {
+        return registry.status().stream()
+                .filter(status -> status.name().equals(name))
+                .findFirst()
+                .map(RedisShardRegistry.NodeStatus::state)
+                .orElseThrow();
+    }
+
+    private byte[] keyOn(GenericContainer<?> node) {
+        int port = node.getMappedPort(6379);
+        return IntStream.range(0, 1_000)
+                .mapToObj(RedisShardRegistryTests::key)
+                .filter(key -> port(registry.route(key)) == port)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + WAIT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met within %s", WAIT).isLessThan(deadline);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private static void pause(GenericContainer<?> container) {
+        DockerClientFactory.instance().client().pauseContainerCmd(container.getContainerId()).exec();
+    }
+
+    private static void unpause(GenericContainer<?> container) {
+        boolean paused = Boolean.TRUE.equals(DockerClientFactory.instance().client()
+                .inspectContainerCmd(container.getContainerId()).exec().getState().getPaused());
+        if (paused) {
+            DockerClientFactory.instance().client().unpauseContainerCmd(container.getContainerId()).exec();
+        }
+    }
+
+    private static int port(RedisConnectionFactory connectionFactory) {
+        return ((LettuceConnectionFactory) connectionFactory).getPort();
+    }
+
+    private static byte[] key(int i) {
+        return (PREFIX + "users::" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static UsersCacheProperties.ShardNode shardNode(String name, GenericContainer<?> container) {
+        UsersCacheProperties.ShardNode node = new UsersCacheProperties.ShardNode();
+        node.setName(name);
+        node.setHost(container.getHost());
+        node.setPort(container.getMappedPort(6379));
+        return node;
+    }
+
+    private static <T> T onNode(GenericContainer<?> container, Function<RedisConnection, T> call) {
+        LettuceConnectionFactory connectionFactory = connectionFactory(container);
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            return call.apply(connection);
+        } finally {
+            connectionFactory.destroy();
+        }
+    }
+
+    private static LettuceConnectionFactory connectionFactory(GenericContainer<?> container) {
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(container.getHost(), container.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        return connectionFactory;
+    }
+
+    private static GenericContainer<?> redisContainer() {
+        return new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+    }
+}
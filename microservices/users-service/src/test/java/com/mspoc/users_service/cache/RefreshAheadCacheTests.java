@@ -0,0 +1,121 @@
+package com.mspoc.users_service.cache;
+
+import com.mspoc.users_service.config.UsersCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Background refreshes of the {@link RefreshAheadCache} over an in-memory cache. Refreshes run on
+ * the calling thread and every entry is recorded as already expired, so each hit refreshes.
+ * The loader stands in for the preferences loader: a row per user, and the states parked by
+ * write-behind that have not reached the row yet.
+ */
+class RefreshAheadCacheTests {
+
+    private static final String CACHE_NAME = "user-preferences";
+    private static final Function<Object, byte[]> REDIS_KEY =
+            key -> (CACHE_NAME + "::" + key).getBytes(StandardCharsets.UTF_8);
+
+    private final Map<Long, String> rows = new ConcurrentHashMap<>();
+    private final Map<Long, String> parked = new ConcurrentHashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final CacheTtlStatistics ttlStatistics = new CacheTtlStatistics(new SimpleMeterRegistry());
+    private final ConcurrentMapCache redis = new ConcurrentMapCache(CACHE_NAME);
+    private Runnable duringLoad = () -> { };
+    private RefreshAheadCache cache;
+
+    @BeforeEach
+    void createCache() {
+        UsersCacheProperties.RefreshAhead settings = new UsersCacheProperties.RefreshAhead();
+        settings.setEnabled(true);
+        ttlStatistics.trackExpiries(CACHE_NAME, 100);
+
+        CacheEntryLoader loader = new CacheEntryLoader() {
+            @Override
+            public String getCacheName() {
+                return CACHE_NAME;
+            }
+
+            @Override
+            public Object load(Object key) {
+                loads.incrementAndGet();
+                duringLoad.run();
+                String pending = parked.get((Long) key);
+                return pending != null ? pending : rows.get((Long) key);
+            }
+
+            @Override
+            public boolean canRefresh(Object key) {
+                return !parked.containsKey((Long) key);
+            }
+        };
+        cache = new RefreshAheadCache(redis, settings, ttlStatistics, REDIS_KEY, loader, Runnable::run,
+                new SimpleMeterRegistry());
+    }
+
+    @Test
+    void hitCloseToExpiryReloadsTheEntry() {
+        rows.put(1L, "row-v1");
+        put(1L, "row-v1");
+        rows.put(1L, "row-v2");
+
+        assertThat(cache.get(1L, String.class)).isEqualTo("row-v1");
+
+        assertThat(loads).hasValue(1);
+        assertThat(redis.get(1L, String.class)).isEqualTo("row-v2");
+    }
+
+    @Test
+    void parkedWriteBehindStateIsNotOverwrittenByTheOlderRow() {
+        rows.put(1L, "row");
+        // updatePreferencesV2 with write-behind: the new state is parked and put in the cache,
+        // the row is only written by a later flush
+        parked.put(1L, "parked");
+        put(1L, "parked");
+
+        cache.get(1L, String.class);
+        cache.get(1L, String.class);
+
+        assertThat(loads).hasValue(0);
+        assertThat(redis.get(1L, String.class)).isEqualTo("parked");
+
+        // Once flushed, the row holds the state and the key refreshes again
+        rows.put(1L, "parked");
+        parked.remove(1L);
+        cache.get(1L, String.class);
+
+        assertThat(loads).hasValue(1);
+        assertThat(redis.get(1L, String.class)).isEqualTo("parked");
+    }
+
+    @Test
+    void refreshRacingWithAPutDoesNotWriteTheRowItLoaded() {
+        rows.put(1L, "row-v1");
+        put(1L, "row-v1");
+        duringLoad = () -> put(1L, "put-while-loading");
+
+        cache.get(1L, String.class);
+
+        assertThat(loads).hasValue(1);
+        assertThat(redis.get(1L, String.class)).isEqualTo("put-while-loading");
+    }
+
+    /**
+     * A put through the layer, recorded as written to Redis with an expiry that has already passed.
+     */
+    private void put(Long key, String value) {
+        cache.put(key, value);
+        ttlStatistics.record(CACHE_NAME, REDIS_KEY.apply(key), Duration.ofNanos(1), value.length());
+    }
+}
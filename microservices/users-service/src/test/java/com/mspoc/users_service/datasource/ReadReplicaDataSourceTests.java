@@ -0,0 +1,229 @@
+package com.mspoc.users_service.datasource;
+
+import com.mspoc.users_service.config.UsersDataSourceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Routing of the {@link ReadReplicaDataSource} behind a {@link LazyConnectionDataSourceProxy}, as
+ * {@code ReadReplicaConfig} wires it. The pools are stand-ins that record which of them served
+ * each statement; their lag is set by the test instead of measured.
+ */
+class ReadReplicaDataSourceTests {
+
+    private static final Duration MAX_LAG = Duration.ofSeconds(5);
+
+    private final List<String> served = new ArrayList<>();
+    private final Map<String, Duration> lags = new ConcurrentHashMap<>();
+    private final UsersDataSourceProperties.ReadReplicas settings = new UsersDataSourceProperties.ReadReplicas();
+    private ReadReplicaDataSource readReplicas;
+    private DataSource dataSource;
+
+    @AfterEach
+    void closeReplicas() throws Exception {
+        readReplicas.destroy();
+    }
+
+    @Test
+    void readOnlyTransactionsGoToReplicasAndWritesToThePrimary() {
+        start(UsersDataSourceProperties.Selection.ROUND_ROBIN, "replica-1", "replica-2");
+
+        assertThat(execute(true)).startsWith("replica-");
+        assertThat(execute(false)).isEqualTo(ReadReplicaDataSource.PRIMARY);
+        assertThat(execute(true)).startsWith("replica-");
+    }
+
+    @Test
+    void jpaReadOnlyTransactionsGoToReplicasUnlessPinnedToThePrimary() {
+        start(UsersDataSourceProperties.Selection.ROUND_ROBIN, "replica-1");
+
+        // The transaction manager the application runs: Hibernate prepares the connection itself
+        LocalContainerEntityManagerFactoryBean entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactory.setDataSource(dataSource);
+        entityManagerFactory.setPackagesToScan(getClass().getPackageName());
+        entityManagerFactory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        entityManagerFactory.setJpaPropertyMap(Map.of(
+                "hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect",
+                "hibernate.boot.allow_jdbc_metadata_access", "false"));
+        entityManagerFactory.afterPropertiesSet();
+        try {
+            JpaTransactionManager transactionManager = new JpaTransactionManager(entityManagerFactory.getObject());
+            transactionManager.afterPropertiesSet();
+
+            assertThat(execute(transactionManager, true)).isEqualTo("replica-1");
+            assertThat(execute(transactionManager, false)).isEqualTo(ReadReplicaDataSource.PRIMARY);
+            assertThat(ReadReplicaDataSource.readFromPrimary(() -> execute(transactionManager, true)))
+                    .isEqualTo(ReadReplicaDataSource.PRIMARY);
+            assertThat(execute(transactionManager, true)).isEqualTo("replica-1");
+        } finally {
+            entityManagerFactory.destroy();
+        }
+    }
+
+    @Test
+    void readsPinnedToThePrimarySkipTheReplicas() {
+        start(UsersDataSourceProperties.Selection.ROUND_ROBIN, "replica-1");
+
+        assertThat(ReadReplicaDataSource.readFromPrimary(() -> execute(true))).isEqualTo(ReadReplicaDataSource.PRIMARY);
+        assertThat(execute(true)).isEqualTo("replica-1");
+        assertThat(readReplicas.status().primaryReads()).isEqualTo(1);
+    }
+
+    @Test
+    void roundRobinAlternatesTheReplicas() {
+        start(UsersDataSourceProperties.Selection.ROUND_ROBIN, "replica-1", "replica-2");
+
+        IntStream.range(0, 4).forEach(i -> execute(true));
+
+        assertThat(served).containsExactly("replica-1", "replica-2", "replica-1", "replica-2");
+    }
+
+    @Test
+    void leastConnectionsPicksTheReplicaWithFewestConnectionsInUse() throws SQLException {
+        start(UsersDataSourceProperties.Selection.LEAST_CONNECTIONS, "replica-1", "replica-2");
+
+        try (Connection held = readReplicas.getConnection()) {
+            held.createStatement();
+            assertThat(execute(true)).isEqualTo("replica-2");
+            assertThat(execute(true)).isEqualTo("replica-2");
+        }
+        assertThat(execute(true)).isEqualTo("replica-1");
+    }
+
+    @Test
+    void lagAboveTheThresholdMovesReadsToTheOtherReplicasThenThePrimary() {
+        start(UsersDataSourceProperties.Selection.ROUND_ROBIN, "replica-1", "replica-2");
+
+        lags.put("replica-1", MAX_LAG.plusSeconds(1));
+        readReplicas.checkLag();
+        assertThat(execute(true)).isEqualTo("replica-2");
+        assertThat(execute(true)).isEqualTo("replica-2");
+
+        lags.put("replica-2", MAX_LAG.plusSeconds(1));
+        readReplicas.checkLag();
+        assertThat(execute(true)).isEqualTo(ReadReplicaDataSource.PRIMARY);
+
+        lags.put("replica-1", Duration.ZERO);
+        readReplicas.checkLag();
+        assertThat(execute(true)).isEqualTo("replica-1");
+    }
+
+    @Test
+    void unreachableReplicaServesNoReadsUntilItsLagCheckSucceeds() {
+        start(UsersDataSourceProperties.Selection.ROUND_ROBIN, "replica-1");
+
+        lags.remove("replica-1");
+        readReplicas.checkLag();
+        assertThat(execute(true)).isEqualTo(ReadReplicaDataSource.PRIMARY);
+        assertThat(readReplicas.status().replicas().getFirst().lastError()).contains("unreachable");
+
+        lags.put("replica-1", Duration.ZERO);
+        readReplicas.checkLag();
+        assertThat(execute(true)).isEqualTo("replica-1");
+        assertThat(readReplicas.status().primaryReads()).isEqualTo(1);
+    }
+
+    private void start(UsersDataSourceProperties.Selection selection, String... replicaNames) {
+        settings.setSelection(selection);
+        settings.setMaxLag(MAX_LAG);
+        settings.setLagCheckInterval(Duration.ofHours(1));
+
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String name : replicaNames) {
+            replicas.put(name, new StandInPool(name));
+            lags.put(name, Duration.ZERO);
+        }
+        readReplicas = new ReadReplicaDataSource(new StandInPool(ReadReplicaDataSource.PRIMARY), replicas, settings,
+                (replica, timeout) -> {
+                    Duration lag = lags.get(((StandInPool) replica).name);
+                    if (lag == null) {
+                        throw new SQLException("unreachable");
+                    }
+                    return lag;
+                },
+                new SimpleMeterRegistry());
+
+        LazyConnectionDataSourceProxy routing = new LazyConnectionDataSourceProxy(new StandInPool(ReadReplicaDataSource.PRIMARY));
+        routing.setReadOnlyDataSource(readReplicas);
+        dataSource = routing;
+    }
+
+    /**
+     * Runs one statement in a transaction and returns the pool that served it.
+     */
+    private String execute(boolean readOnly) {
+        return execute(new DataSourceTransactionManager(dataSource), readOnly);
+    }
+
+    private String execute(PlatformTransactionManager transactionManager, boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status -> {
+            try {
+                DataSourceUtils.getConnection(dataSource).createStatement();
+            } catch (SQLException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return served.getLast();
+        });
+    }
+
+    /**
+     * A pool whose connections do nothing but record the pool name when a statement is created.
+     */
+    private final class StandInPool extends AbstractDataSource {
+
+        private final String name;
+
+        private StandInPool(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "createStatement", "prepareStatement" -> {
+                            served.add(name);
+                            yield null;
+                        }
+                        case "getAutoCommit" -> true;
+                        case "getTransactionIsolation" -> Connection.TRANSACTION_READ_COMMITTED;
+                        case "isReadOnly", "isClosed" -> false;
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "toString" -> "stand-in connection of " + name;
+                        default -> null;
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return getConnection();
+        }
+    }
+}
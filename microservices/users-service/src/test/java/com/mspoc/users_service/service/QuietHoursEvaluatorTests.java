@@ -0,0 +1,91 @@
+package com.mspoc.users_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Quiet hours evaluated against a fixed clock, in the user's zone rather than the server's.
+ */
+class QuietHoursEvaluatorTests {
+
+    private final SettableClock clock = new SettableClock();
+    private final QuietHoursEvaluator evaluator = new QuietHoursEvaluator(clock);
+
+    @Test
+    void evaluatesTheWindowInTheUsersZone() {
+        // 22:30 in New York (UTC-5 in January), 03:30 in UTC, 12:30 in Tokyo
+        clock.now = Instant.parse("2026-01-16T03:30:00Z");
+        LocalTime start = LocalTime.of(22, 0);
+        LocalTime end = LocalTime.of(23, 0);
+
+        assertThat(evaluator.isInQuietHours(start, end, "America/New_York")).isTrue();
+        assertThat(evaluator.isInQuietHours(start, end, "UTC")).isFalse();
+        assertThat(evaluator.isInQuietHours(start, end, "Asia/Tokyo")).isFalse();
+    }
+
+    @Test
+    void windowCrossingMidnightIncludesItsStartAndExcludesItsEnd() {
+        LocalTime start = LocalTime.of(22, 0);
+        LocalTime end = LocalTime.of(7, 0);
+
+        assertThat(inQuietHoursAt("2026-01-15T21:59:00Z", start, end)).isFalse();
+        assertThat(inQuietHoursAt("2026-01-15T22:00:00Z", start, end)).isTrue();
+        assertThat(inQuietHoursAt("2026-01-15T23:59:00Z", start, end)).isTrue();
+        assertThat(inQuietHoursAt("2026-01-16T00:00:00Z", start, end)).isTrue();
+        assertThat(inQuietHoursAt("2026-01-16T06:59:00Z", start, end)).isTrue();
+        assertThat(inQuietHoursAt("2026-01-16T07:00:00Z", start, end)).isFalse();
+    }
+
+    @Test
+    void emptyOrMissingWindowIsNeverQuiet() {
+        clock.now = Instant.parse("2026-01-15T12:00:00Z");
+
+        assertThat(evaluator.isInQuietHours(LocalTime.NOON, LocalTime.NOON, "UTC")).isFalse();
+        assertThat(evaluator.isInQuietHours(null, LocalTime.NOON, "UTC")).isFalse();
+    }
+
+    @Test
+    void cachedOffsetFollowsADaylightSavingTransition() {
+        // New York moves from UTC-5 to UTC-4 at 2026-03-08T07:00:00Z (02:00 local)
+        LocalTime start = LocalTime.of(3, 0);
+        LocalTime end = LocalTime.of(4, 0);
+
+        clock.now = Instant.parse("2026-03-08T06:30:00Z"); // 01:30 EST
+        assertThat(evaluator.isInQuietHours(start, end, "America/New_York")).isFalse();
+
+        clock.now = Instant.parse("2026-03-08T07:30:00Z"); // 03:30 EDT, 02:30 with the stale offset
+        assertThat(evaluator.isInQuietHours(start, end, "America/New_York")).isTrue();
+    }
+
+    private boolean inQuietHoursAt(String instant, LocalTime start, LocalTime end) {
+        clock.now = Instant.parse(instant);
+        return evaluator.isInQuietHours(start, end, "UTC");
+    }
+
+    private static final class SettableClock extends Clock {
+
+        private Instant now = Instant.EPOCH;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mspoc.users_service.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The pure helpers of the name index (trigrams, matching, posting list edits) and a small index
+ * built from them.
+ */
+class UserNameSearchIndexTests {
+
+    @Test
+    void trigramsAreDistinctSortedAndNeverSpanTheSeparator() {
+        long[] keys = UserNameSearchIndex.trigrams(UserNameSearchIndex.names("Anna", "Ann"));
+
+        // "ann", "nna" from the first name; "ann" again from the last name; nothing across "\0"
+        assertThat(keys).containsExactly(trigram("ann"), trigram("nna"));
+        assertThat(UserNameSearchIndex.trigrams("ab")).isEmpty();
+        assertThat(UserNameSearchIndex.trigrams("aaaa")).containsExactly(trigram("aaa"));
+    }
+
+    @Test
+    void matchesInsideOneNameOnly() {
+        String names = UserNameSearchIndex.names("Maria", "Lopez");
+
+        assertThat(UserNameSearchIndex.matches(names, "ari")).isTrue();
+        assertThat(UserNameSearchIndex.matches(names, "maria")).isTrue();
+        assertThat(UserNameSearchIndex.matches(names, "pez")).isTrue();
+        assertThat(UserNameSearchIndex.matches(names, "lop")).isTrue();
+        // "a" + "lo" only exists across the two names
+        assertThat(UserNameSearchIndex.matches(names, "alo")).isFalse();
+        assertThat(UserNameSearchIndex.matches(names, "xyz")).isFalse();
+    }
+
+    @Test
+    void gallopFindsTheFirstPositionNotBelowTheTarget() {
+        int[] ids = {2, 4, 6, 8, 10, 12, 14, 16, 18, 20};
+
+        assertThat(UserNameSearchIndex.gallop(ids, 0, 1)).isZero();
+        assertThat(UserNameSearchIndex.gallop(ids, 0, 2)).isZero();
+        assertThat(UserNameSearchIndex.gallop(ids, 0, 9)).isEqualTo(4);
+        assertThat(UserNameSearchIndex.gallop(ids, 0, 20)).isEqualTo(9);
+        assertThat(UserNameSearchIndex.gallop(ids, 0, 21)).isEqualTo(ids.length);
+        assertThat(UserNameSearchIndex.gallop(ids, 5, 3)).isEqualTo(5);
+        assertThat(UserNameSearchIndex.gallop(new int[0], 0, 7)).isZero();
+    }
+
+    @Test
+    void insertAndRemoveKeepThePostingListSorted() {
+        int[] ids = {3, 7};
+
+        assertThat(UserNameSearchIndex.insert(ids, 5)).containsExactly(3, 5, 7);
+        assertThat(UserNameSearchIndex.insert(ids, 1)).containsExactly(1, 3, 7);
+        assertThat(UserNameSearchIndex.insert(ids, 9)).containsExactly(3, 7, 9);
+        assertThat(UserNameSearchIndex.insert(ids, 7)).isSameAs(ids);
+
+        assertThat(UserNameSearchIndex.remove(ids, 3)).containsExactly(7);
+        assertThat(UserNameSearchIndex.remove(ids, 4)).isSameAs(ids);
+        assertThat(UserNameSearchIndex.remove(new int[]{7}, 7)).isNull();
+    }
+
+    @Test
+    void searchPagesThroughMatchesInIdOrder() {
+        UserNameSearchIndex.Index index = new UserNameSearchIndex.Index(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        Map<Integer, String> users = new HashMap<>();
+        users.put(4, UserNameSearchIndex.names("Martina", "Perez"));
+        users.put(1, UserNameSearchIndex.names("Tina", "Turner"));
+        users.put(9, UserNameSearchIndex.names("Agustina", "Diaz"));
+        users.put(6, UserNameSearchIndex.names("Marco", "Tinajero"));
+        users.forEach((id, names) -> index.apply(new UserNameSearchIndex.Write(id, names)));
+
+        assertThat(index.search("tin", 0, 10)).containsExactly(1L, 4L, 6L, 9L);
+        assertThat(index.search("tin", 0, 2)).containsExactly(1L, 4L);
+        assertThat(index.search("tin", 4, 2)).containsExactly(6L, 9L);
+
+        // Renamed and deleted users leave their old trigrams
+        index.apply(new UserNameSearchIndex.Write(6, UserNameSearchIndex.names("Marco", "Ruiz")));
+        index.apply(new UserNameSearchIndex.Write(9, null));
+        assertThat(index.search("tin", 0, 10)).containsExactly(1L, 4L);
+        assertThat(index.search("ruiz", 0, 10)).containsExactly(6L);
+    }
+
+    private static long trigram(String text) {
+        return ((long) text.charAt(0) << 32) | ((long) text.charAt(1) << 16) | text.charAt(2);
+    }
+}
@@ -0,0 +1,201 @@
+package com.mspoc.users_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mspoc.users_service.dto.response.UserPreferencesResponse;
+import com.mspoc.users_service.enums.NotificationFrequency;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Write-behind against real Redis streams and the real guarded {@code UPDATE}: flushes, rows
+ * updated after the parked state, adoption of the log of an instance that is gone, and the
+ * refresh-ahead loader while a state is parked. The flusher interval is long enough that the
+ * tests flush by hand.
+ * <p>
+ * Runs against PostgreSQL and Redis containers and is skipped when Docker is not available.
+ */
+@SpringBootTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "eureka.client.enabled=false",
+        "spring.cache.type=redis",
+        "spring.cache.redis.time-to-live=600000",
+        "spring.cache.redis.key-prefix=users-service-test:",
+        "users-service.cache.write-behind.enabled=true",
+        "users-service.cache.write-behind.flush-interval=1h"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class UserPreferencesWriteBehindTests {
+
+    private static final String LOG_PREFIX = "users-service-test:write-behind:user-preferences";
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Container
+    @ServiceConnection(name = "redis")
+    static GenericContainer<?> redis = new GenericContainer<>("redis:7-alpine").withExposedPorts(6379);
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Autowired
+    private UserPreferencesWriteBehind writeBehind;
+
+    @Autowired
+    private UserPreferencesCacheLoader cacheLoader;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @BeforeEach
+    void emptyQueue() {
+        while (writeBehind.flush() > 0) {
+            // Drain what an earlier test left parked
+        }
+        try (RedisConnection connection = redisConnectionFactory.getConnection()) {
+            connection.serverCommands().flushAll();
+        }
+    }
+
+    @Test
+    void flushWritesTheParkedStateAndUnparksIt() {
+        long userId = insertUser(LocalDateTime.now().minusHours(1));
+        UserPreferencesResponse state = state(userId, LocalDateTime.now());
+
+        assertThat(writeBehind.enqueue(state)).isTrue();
+        assertThat(writeBehind.pendingState(userId)).isEqualTo(state);
+        assertThat(emailEnabled(userId)).isTrue();
+
+        assertThat(writeBehind.flush()).isEqualTo(1);
+
+        assertThat(emailEnabled(userId)).isFalse();
+        assertThat(writeBehind.pendingState(userId)).isNull();
+    }
+
+    @Test
+    void stateOlderThanTheRowIsNotWrittenAndItsCacheEntryIsEvicted() {
+        // The row was written (e.g. by a synchronous update on another instance) after the state was parked
+        long userId = insertUser(LocalDateTime.now().plusMinutes(5));
+        UserPreferencesResponse state = state(userId, LocalDateTime.now());
+        Cache cache = cacheManager.getCache(UserPreferencesService.PREFERENCES_CACHE);
+
+        writeBehind.enqueue(state);
+        cache.put(userId, state);
+        writeBehind.flush();
+
+        assertThat(emailEnabled(userId)).isTrue();
+        assertThat(writeBehind.pendingState(userId)).isNull();
+        assertThat(cache.get(userId)).isNull();
+    }
+
+    @Test
+    void logOfAGoneInstanceIsAdoptedAndFlushed() throws Exception {
+        long userId = insertUser(LocalDateTime.now().minusHours(1));
+        UserPreferencesResponse state = state(userId, LocalDateTime.now());
+        String gone = UUID.randomUUID().toString();
+        String goneLog = LOG_PREFIX + ":" + gone;
+        // Registered, but its owner key is missing: the instance stopped refreshing it
+        redisTemplate.opsForStream().add(MapRecord.create(goneLog, Map.of(
+                "userId", String.valueOf(userId),
+                "state", objectMapper.writeValueAsString(state))));
+        redisTemplate.opsForSet().add(LOG_PREFIX + ":streams", gone);
+
+        writeBehind.adoptAbandonedLogs();
+
+        assertThat(writeBehind.pendingState(userId)).isEqualTo(state);
+        assertThat(redisTemplate.hasKey(goneLog)).isFalse();
+        assertThat(redisTemplate.opsForSet().isMember(LOG_PREFIX + ":streams", gone)).isFalse();
+
+        writeBehind.flush();
+
+        assertThat(emailEnabled(userId)).isFalse();
+    }
+
+    @Test
+    void loaderServesTheParkedStateAndHoldsOffRefreshes() {
+        long userId = insertUser(LocalDateTime.now().minusHours(1));
+        UserPreferencesResponse state = state(userId, LocalDateTime.now());
+
+        writeBehind.enqueue(state);
+
+        // A refresh-ahead reload would otherwise put the older row back over the parked state
+        assertThat(cacheLoader.canRefresh(userId)).isFalse();
+        assertThat(cacheLoader.load(userId)).isEqualTo(state);
+
+        writeBehind.flush();
+
+        assertThat(cacheLoader.canRefresh(userId)).isTrue();
+        assertThat(((UserPreferencesResponse) cacheLoader.load(userId)).getEmailNotificationsEnabled()).isFalse();
+    }
+
+    /**
+     * A user with email notifications enabled and preferences last written at {@code updatedAt}.
+     */
+    private long insertUser(LocalDateTime updatedAt) {
+        Long userId = jdbcTemplate.queryForObject("""
+                INSERT INTO users (email, first_name, last_name, active, created_at, updated_at)
+                VALUES (?, 'Ana', 'Garcia', true, now(), now()) RETURNING id
+                """, Long.class, UUID.randomUUID() + "@example.com");
+        jdbcTemplate.update("""
+                INSERT INTO user_preferences (email_notifications_enabled, push_notifications_enabled,
+                    sms_notifications_enabled, marketing_emails_enabled, security_alerts_enabled,
+                    product_updates_enabled, notification_frequency, timezone, created_at, updated_at, user_id)
+                VALUES (true, true, false, false, true, true, 'INSTANT', 'UTC', now(), ?, ?)
+                """, updatedAt, userId);
+        return userId;
+    }
+
+    /**
+     * The state after the user turned email notifications off.
+     */
+    private static UserPreferencesResponse state(long userId, LocalDateTime updatedAt) {
+        return UserPreferencesResponse.builder()
+                .userId(userId)
+                .emailNotificationsEnabled(false)
+                .pushNotificationsEnabled(true)
+                .smsNotificationsEnabled(false)
+                .marketingEmailsEnabled(false)
+                .securityAlertsEnabled(true)
+                .productUpdatesEnabled(true)
+                .notificationFrequency(NotificationFrequency.INSTANT)
+                .timezone("UTC")
+                .updatedAt(updatedAt.truncatedTo(ChronoUnit.MICROS))
+                .build();
+    }
+
+    private boolean emailEnabled(long userId) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT email_notifications_enabled FROM user_preferences WHERE user_id = ?", Boolean.class, userId));
+    }
+}